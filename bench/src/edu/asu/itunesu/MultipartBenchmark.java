@@ -0,0 +1,100 @@
+package edu.asu.itunesu;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Multipart body writing by ITunesUFilePOST against a transport that
+ * writes into a counting sink instead of a socket, so that only encoding
+ * and copying are measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = { "-Xmx2g" })
+public class MultipartBenchmark {
+    @Param({ "1000", "10000", "100000" })
+    public int trackCount;
+
+    private SinkTransport transport;
+    private ITunesUFilePOST filePOST;
+    private ITunesUDocument document;
+    private String xml;
+    private byte[] content;
+
+    @Setup
+    public void setUp() throws Exception {
+        this.transport = new SinkTransport();
+        this.filePOST = new ITunesUFilePOST(this.transport);
+        Site site = SiteGenerator.generateSite(this.trackCount);
+        this.document = ITunesUDocument.buildMergeSite(site.getHandle(), site, true, false);
+        this.xml = this.document.toXml(false);
+        // Roughly 1 KB of content per track.
+        this.content = new byte[this.trackCount * 1024];
+        new Random(42).nextBytes(this.content);
+    }
+
+    @Benchmark
+    public long writeDocument() throws Exception {
+        this.filePOST.invokeAction("http://localhost/upload", "file", "file.xml",
+                                          this.document, "text/xml", StringResponseHandler.INSTANCE);
+        return this.transport.written;
+    }
+
+    @Benchmark
+    public long writeXmlString() throws Exception {
+        this.filePOST.invokeAction("http://localhost/upload", "file", "file.xml",
+                                          this.xml, "text/xml", StringResponseHandler.INSTANCE);
+        return this.transport.written;
+    }
+
+    @Benchmark
+    public long writeContentStream() throws Exception {
+        this.filePOST.invokeAction("http://localhost/upload", "file", "content.bin",
+                                          new ByteArrayInputStream(this.content),
+                                          this.content.length,
+                                          "application/octet-stream",
+                                          StringResponseHandler.INSTANCE);
+        return this.transport.written;
+    }
+
+    /**
+     * Writes request bodies into a counting sink and answers with an
+     * empty response.
+     */
+    static class SinkTransport implements ITunesUTransport {
+        long written;
+
+        public <T> T post(String url,
+                          String contentType,
+                          long contentLength,
+                          RequestBody body,
+                          ResponseHandler<T> handler)
+            throws IOException {
+
+            CountingOutputStream sink = new CountingOutputStream();
+            body.writeTo(sink);
+            if (sink.getCount() != contentLength) {
+                throw new IOException("Wrote " + sink.getCount() + " bytes, expected " + contentLength);
+            }
+            this.written = sink.getCount();
+            return handler.handleResponse(new ByteArrayInputStream(new byte[0]));
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package edu.asu.itunesu;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.InputSource;
+
+/**
+ * Response parsing: the DOM path from a String, the model walk over an
+ * already parsed DOM, and the StAX path from bytes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = { "-Xmx2g" })
+public class ParseBenchmark {
+    @Param({ "1000", "10000", "100000" })
+    public int trackCount;
+
+    private String xml;
+    private byte[] bytes;
+    private Element siteElement;
+
+    @Setup
+    public void setUp() throws Exception {
+        this.xml = SiteGenerator.generateResponseXml(this.trackCount);
+        this.bytes = this.xml.getBytes("UTF-8");
+        Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+            .parse(new InputSource(new StringReader(this.xml)));
+        this.siteElement = (Element) doc.getElementsByTagName("Site").item(0);
+    }
+
+    @Benchmark
+    public ITunesUResponse responseFromXml() throws Exception {
+        return ITunesUResponse.fromXml(this.xml);
+    }
+
+    @Benchmark
+    public Site siteFromXmlElement() throws Exception {
+        return Site.fromXmlElement(this.siteElement);
+    }
+
+    @Benchmark
+    public ITunesUResponse responseFromStream() throws Exception {
+        return ITunesUResponse.fromStream(new ByteArrayInputStream(this.bytes));
+    }
+}
@@ -0,0 +1,68 @@
+package edu.asu.itunesu;
+
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Request serialization of a MergeSite document: the indented toXml(),
+ * the compact form written to a sink as sent on the wire, and the older
+ * DOM plus Transformer path for comparison.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = { "-Xmx2g" })
+public class SerializeBenchmark {
+    @Param({ "1000", "10000", "100000" })
+    public int trackCount;
+
+    private ITunesUDocument document;
+
+    @Setup
+    public void setUp() {
+        Site site = SiteGenerator.generateSite(this.trackCount);
+        this.document = ITunesUDocument.buildMergeSite(site.getHandle(), site, true, false);
+    }
+
+    @Benchmark
+    public String documentToXml() throws Exception {
+        return this.document.toXml();
+    }
+
+    @Benchmark
+    public long documentWriteCompact() throws Exception {
+        CountingOutputStream sink = new CountingOutputStream();
+        this.document.writeXml(sink, false);
+        return sink.getCount();
+    }
+
+    @Benchmark
+    public String documentDomTransform() throws Exception {
+        Transformer trans = TransformerFactory.newInstance().newTransformer();
+        trans.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+        trans.setOutputProperty(OutputKeys.INDENT, "yes");
+        StringWriter writer = new StringWriter();
+        trans.transform(new DOMSource(this.document.toXmlDocument()), new StreamResult(writer));
+        return writer.toString();
+    }
+}
@@ -0,0 +1,73 @@
+package edu.asu.itunesu;
+
+/**
+ * Generates sites of a given size for the benchmarks, shaped like
+ * ResponseParserComparison's: 50 tracks per group, 4 groups per course and
+ * 20 courses per section.
+ */
+class SiteGenerator {
+    private static final int TRACKS_PER_GROUP = 50;
+    private static final int GROUPS_PER_COURSE = 4;
+    private static final int COURSES_PER_SECTION = 20;
+
+    private SiteGenerator() {}
+
+    public static Site generateSite(int trackCount) {
+        Site site = new Site();
+        site.setName("Generated Site");
+        site.setHandle("1");
+        site.getPermissions().add(new Permission("Administrator@urn:mace:itunesu.com:sites:example.edu",
+                                                 Permission.ACCESS_EDIT));
+        int handle = 2;
+        Section section = null;
+        Course course = null;
+        Group group = null;
+        for (int i = 0; i < trackCount; i++) {
+            if (i % TRACKS_PER_GROUP == 0) {
+                if (i % (TRACKS_PER_GROUP * GROUPS_PER_COURSE) == 0) {
+                    if (i % (TRACKS_PER_GROUP * GROUPS_PER_COURSE * COURSES_PER_SECTION) == 0) {
+                        section = new Section();
+                        section.setName("Section " + handle);
+                        section.setHandle(Integer.toString(handle++));
+                        site.getSections().add(section);
+                    }
+                    course = new Course();
+                    course.setName("Course " + handle);
+                    course.setHandle(Integer.toString(handle++));
+                    course.setShortName("C" + handle);
+                    course.setIdentifier("course-" + handle);
+                    course.setInstructor("Instructor");
+                    course.setDescription("Description of course " + handle);
+                    course.getPermissions().add(new Permission("Instructor@" + handle,
+                                                               Permission.ACCESS_EDIT));
+                    section.getSectionItems().add(course);
+                }
+                group = new Group();
+                group.setName("Group " + handle);
+                group.setHandle(Integer.toString(handle++));
+                group.setGroupType(Group.GROUP_TYPE_SIMPLE);
+                course.getGroups().add(group);
+            }
+            group.getTracks().add(generateTrack(i, course.getName(), handle++));
+        }
+        return site;
+    }
+
+    public static Track generateTrack(int i, String albumName, int handle) {
+        Track track = new Track();
+        track.setName("Lecture " + i);
+        track.setHandle(Integer.toString(handle));
+        track.setKind("video");
+        track.setTrackNumber(i % TRACKS_PER_GROUP + 1);
+        track.setDurationMilliseconds(3600000L);
+        track.setAlbumName(albumName);
+        track.setArtistName("Instructor");
+        track.setComment("Recorded lecture & notes <" + i + ">");
+        track.setDownloadUrl("https://deimos.apple.com/WebObjects/Core.woa/DownloadTrack/example.edu." + handle);
+        return track;
+    }
+
+    public static String generateResponseXml(int trackCount) throws Exception {
+        return new ITunesUResponse("1.1", null, null, generateSite(trackCount)).toXml();
+    }
+}
@@ -0,0 +1,74 @@
+package edu.asu.itunesu;
+
+import java.net.URLEncoder;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Allocation on the token hot path. Compare gc.alloc.rate.norm (bytes per
+ * operation) as reported by BenchmarkMain: building the credentials and
+ * identity strings with ITunesU and URLEncoder for every token, against a
+ * CredentialSet built once and an IdentityEncoder reused by the thread.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenAllocationBenchmark {
+    private static final long TIME = 1200000000L;
+
+    private ITunesU iTunesU;
+    private String[] credentialsArray;
+    private TokenSigner signer;
+    private CredentialSet credentialSet;
+    private IdentityEncoder identityEncoder;
+
+    @Setup
+    public void setUp() throws Exception {
+        this.iTunesU = new ITunesU();
+        this.credentialsArray = new String[] {
+            "Administrator@urn:mace:itunesu.com:sites:example.edu",
+            "Instructor@urn:mace:itunesu.com:sites:example.edu"
+        };
+        this.signer = TokenSigner.forSharedSecret("STRINGOFSHAREDSECRETKEYFORTESTING");
+        this.credentialSet = new CredentialSet(this.credentialsArray);
+        this.identityEncoder = new IdentityEncoder();
+    }
+
+    @Benchmark
+    public String iTunesUStrings() throws Exception {
+        String credentials = this.iTunesU.getCredentialsString(this.credentialsArray);
+        String identity = this.iTunesU.getIdentityString("Jane Doe", "jane@example.edu", "jdoe", "42");
+        return URLEncoder.encode(credentials, "UTF-8") + URLEncoder.encode(identity, "UTF-8");
+    }
+
+    @Benchmark
+    public int identityEncoder() {
+        return this.identityEncoder.encode("Jane Doe", "jane@example.edu", "jdoe", "42").getLength();
+    }
+
+    @Benchmark
+    public String iTunesUStringsToken() {
+        String credentials = this.iTunesU.getCredentialsString(this.credentialsArray);
+        String identity = this.iTunesU.getIdentityString("Jane Doe", "jane@example.edu", "jdoe", "42");
+        return this.signer.getAuthorizationToken(credentials, identity, TIME);
+    }
+
+    @Benchmark
+    public String credentialSetToken() {
+        this.identityEncoder.encode("Jane Doe", "jane@example.edu", "jdoe", "42");
+        return this.signer.getAuthorizationToken(this.credentialSet, this.identityEncoder, TIME);
+    }
+}
@@ -0,0 +1,84 @@
+package edu.asu.itunesu;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Authorization token generation, which runs once per request: the
+ * original ITunesU code next to TokenSigner and BrowseTokenService.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenBenchmark {
+    private ITunesU iTunesU;
+    private String credentials;
+    private String identity;
+    private Date time;
+    private byte[] key;
+    private String message;
+    private TokenSigner signer;
+    private String[] credentialsArray;
+    private BrowseTokenService browseTokenService;
+
+    @Setup
+    public void setUp() throws Exception {
+        this.iTunesU = new ITunesU();
+        this.credentialsArray = new String[] {
+            "Administrator@urn:mace:itunesu.com:sites:example.edu",
+            "Instructor@urn:mace:itunesu.com:sites:example.edu"
+        };
+        this.credentials = this.iTunesU.getCredentialsString(this.credentialsArray);
+        this.identity = this.iTunesU.getIdentityString("Jane Doe", "jane@example.edu", "jdoe", "42");
+        this.time = new Date(1200000000000L);
+        this.key = "STRINGOFSHAREDSECRETKEYFORTESTINGONLYXXXXXXXXXXXXXXXXXXXXXXXXXX".getBytes("US-ASCII");
+        this.message = "credentials=" + this.credentials + "&identity=" + this.identity + "&time=1200000000";
+        this.signer = new TokenSigner(this.key);
+        this.browseTokenService = new BrowseTokenService(
+            "https://deimos.apple.com/WebObjects/Core.woa/Browse/example.edu", this.signer);
+    }
+
+    @Benchmark
+    public String getAuthorizationToken() {
+        return this.iTunesU.getAuthorizationToken(this.credentials, this.identity, this.time, this.key);
+    }
+
+    @Benchmark
+    public String hmacSHA256() {
+        return this.iTunesU.hmacSHA256(this.message, this.key);
+    }
+
+    @Benchmark
+    public String tokenSignerAuthorizationToken() {
+        return this.signer.getAuthorizationToken(this.credentials, this.identity, this.time);
+    }
+
+    @Benchmark
+    public String tokenSignerSign() {
+        return this.signer.sign(this.message);
+    }
+
+    @Benchmark
+    public String browseTokenService() {
+        return this.browseTokenService.getAuthorizationToken(this.credentialsArray,
+                                                             "Jane Doe",
+                                                             "jane@example.edu",
+                                                             "jdoe",
+                                                             "42",
+                                                             1200000000L);
+    }
+}
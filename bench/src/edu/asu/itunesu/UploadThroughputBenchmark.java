@@ -0,0 +1,172 @@
+package edu.asu.itunesu;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * File upload throughput through ITunesUFilePOST into a loopback socket
+ * whose receiver discards everything, comparing the InputStream path
+ * with the FileChannel path used for File uploads. The megabytes counter
+ * is reported per second, so it reads as MB/s.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = { "-Xmx512m" })
+public class UploadThroughputBenchmark {
+    @Param({ "16", "256" })
+    public int sizeMegabytes;
+
+    private File file;
+    private ServerSocket server;
+    private Thread receiver;
+    private LoopbackTransport transport;
+    private ITunesUFilePOST filePOST;
+
+    @Setup
+    public void setUp() throws Exception {
+        this.file = File.createTempFile("upload", ".bin");
+        this.file.deleteOnExit();
+        byte[] chunk = new byte[1024 * 1024];
+        new Random(42).nextBytes(chunk);
+        RandomAccessFile output = new RandomAccessFile(this.file, "rw");
+        try {
+            for (int i = 0; i < this.sizeMegabytes; i++) {
+                output.write(chunk);
+            }
+        } finally {
+            output.close();
+        }
+
+        this.server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        this.receiver = new Thread(new Runnable() {
+            public void run() {
+                byte[] buffer = new byte[256 * 1024];
+                try {
+                    Socket socket = server.accept();
+                    InputStream input = socket.getInputStream();
+                    while (input.read(buffer) >= 0) {
+                    }
+                    socket.close();
+                } catch (IOException e) {
+                }
+            }
+        }, "upload-receiver");
+        this.receiver.setDaemon(true);
+        this.receiver.start();
+
+        this.transport = new LoopbackTransport(new Socket(InetAddress.getLoopbackAddress(),
+                                                          this.server.getLocalPort()));
+        this.filePOST = new ITunesUFilePOST(this.transport);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        this.transport.socket.close();
+        this.server.close();
+        this.receiver.join(10000);
+        this.file.delete();
+    }
+
+    @Benchmark
+    public long inputStream(Bytes bytes) throws Exception {
+        FileInputStream input = new FileInputStream(this.file);
+        try {
+            this.filePOST.invokeAction("http://localhost/upload", "file", this.file.getName(),
+                                       input, this.file.length(),
+                                       "application/octet-stream",
+                                       StringResponseHandler.INSTANCE);
+        } finally {
+            input.close();
+        }
+        bytes.megabytes += this.sizeMegabytes;
+        return this.transport.written;
+    }
+
+    @Benchmark
+    public long fileChannel(Bytes bytes) throws Exception {
+        this.filePOST.invokeAction("http://localhost/upload", "file", this.file,
+                                   "application/octet-stream",
+                                   StringResponseHandler.INSTANCE);
+        bytes.megabytes += this.sizeMegabytes;
+        return this.transport.written;
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Bytes {
+        public double megabytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            this.megabytes = 0;
+        }
+    }
+
+    /**
+     * Writes request bodies onto one open loopback socket and answers
+     * with an empty response.
+     */
+    static class LoopbackTransport implements ITunesUTransport {
+        final Socket socket;
+        long written;
+
+        LoopbackTransport(Socket socket) {
+            this.socket = socket;
+        }
+
+        public <T> T post(String url,
+                          String contentType,
+                          long contentLength,
+                          RequestBody body,
+                          ResponseHandler<T> handler)
+            throws IOException {
+
+            final long[] count = new long[1];
+            body.writeTo(new FilterOutputStream(this.socket.getOutputStream()) {
+                public void write(byte[] b, int off, int len) throws IOException {
+                    this.out.write(b, off, len);
+                    count[0] += len;
+                }
+
+                public void write(int b) throws IOException {
+                    this.out.write(b);
+                    count[0]++;
+                }
+            });
+            if (count[0] != contentLength) {
+                throw new IOException("Wrote " + count[0] + " bytes, expected " + contentLength);
+            }
+            this.written = count[0];
+            return handler.handleResponse(new ByteArrayInputStream(new byte[0]));
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package edu.asu.itunesu;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+
+/**
+ * Per-call cost of the JAXP factories on small documents, the size of a
+ * typical lookup by handle: a factory looked up for every call, as
+ * fromXml(), toXml() and the XPath lookups used to do, against the
+ * per-thread builders, transformers and compiled expressions kept by
+ * XmlSupport.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = { "-Xmx2g" })
+public class XmlSupportBenchmark {
+    @Param({ "1", "100" })
+    public int trackCount;
+
+    private String xml;
+    private Document document;
+    private String pattern;
+
+    @Setup
+    public void setUp() throws Exception {
+        this.xml = SiteGenerator.generateResponseXml(this.trackCount);
+        this.document = XmlSupport.parse(this.xml);
+        NodeList tracks = this.document.getElementsByTagName("Track");
+        Element track = (Element) tracks.item(tracks.getLength() / 2);
+        this.pattern = "//Track[Handle="
+            + track.getElementsByTagName("Handle").item(0).getTextContent() + "]";
+    }
+
+    @Benchmark
+    public Document parseNewFactory() throws Exception {
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder()
+            .parse(new InputSource(new StringReader(this.xml)));
+    }
+
+    @Benchmark
+    public Document parseXmlSupport() throws Exception {
+        return XmlSupport.parse(this.xml);
+    }
+
+    @Benchmark
+    public String transformNewFactory() throws Exception {
+        Transformer trans = TransformerFactory.newInstance().newTransformer();
+        trans.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+        trans.setOutputProperty(OutputKeys.INDENT, "yes");
+        StringWriter writer = new StringWriter();
+        trans.transform(new DOMSource(this.document), new StreamResult(writer));
+        return writer.toString();
+    }
+
+    @Benchmark
+    public String transformXmlSupport() throws Exception {
+        StringWriter writer = new StringWriter();
+        XmlSupport.getIndentingTransformer()
+            .transform(new DOMSource(this.document), new StreamResult(writer));
+        return writer.toString();
+    }
+
+    @Benchmark
+    public NodeList xpathNewFactory() throws Exception {
+        return (NodeList) XPathFactory.newInstance().newXPath().compile(this.pattern)
+            .evaluate(this.document, XPathConstants.NODESET);
+    }
+
+    @Benchmark
+    public List<?> xpathXmlSupport() throws Exception {
+        return XmlSupport.getElementsByXPath(this.document, this.pattern);
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright (c) 2007-2008, Arizona State University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Arizona State University nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY ARIZONA STATE UNIVERSITY ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL ARIZONA STATE UNIVERSITY BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.asu.itunesu;
+
+/**
+ * Limits the number of requests in flight, and adapts the limit to how
+ * iTunes U responds. The limit grows by one for each round of requests
+ * that complete quickly while the limit is in use (additive increase),
+ * and is multiplied by {@link #getBackoffRatio} when a request fails or
+ * takes longer than {@link #getLatencyTolerance} times the fastest
+ * recent request (multiplicative decrease). At most one decrease is made
+ * per round trip, so that a burst of slow responses to requests sent
+ * together shrinks the limit once.
+ *
+ * <p>Instances are thread-safe.</p>
+ *
+ * @see ITunesUConnection#setWriteLimiter
+ */
+public class AdaptiveConcurrencyLimiter {
+    public static final int DEFAULT_INITIAL_LIMIT = 4;
+    public static final int DEFAULT_MIN_LIMIT = 1;
+    public static final int DEFAULT_MAX_LIMIT = 64;
+    public static final double DEFAULT_BACKOFF_RATIO = 0.75;
+    public static final double DEFAULT_LATENCY_TOLERANCE = 2.0;
+
+    /**
+     * Number of samples after which the fastest latency seen is replaced
+     * by the fastest of the latest samples, so that the baseline follows
+     * lasting changes in the service.
+     */
+    private static final int LATENCY_WINDOW = 500;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private volatile double backoffRatio = DEFAULT_BACKOFF_RATIO;
+    private volatile double latencyTolerance = DEFAULT_LATENCY_TOLERANCE;
+
+    private double limit;
+    private int inFlight;
+    private int peakInFlight;
+
+    private long minLatencyNanos = Long.MAX_VALUE;
+    private long windowMinLatencyNanos = Long.MAX_VALUE;
+    private int windowSamples;
+    private long lastDecreaseNanos;
+
+    private long requestCount;
+    private long dropCount;
+    private long increaseCount;
+    private long decreaseCount;
+
+    public AdaptiveConcurrencyLimiter() {
+        this(DEFAULT_INITIAL_LIMIT, DEFAULT_MIN_LIMIT, DEFAULT_MAX_LIMIT);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param initialLimit The limit to start with.
+     * @param minLimit The limit never drops below this.
+     * @param maxLimit The limit never grows above this.
+     */
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit < 1 || maxLimit < minLimit
+            || initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("Invalid limits: " + initialLimit
+                                               + " in [" + minLimit + ", " + maxLimit + "]");
+        }
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.lastDecreaseNanos = System.nanoTime();
+    }
+
+    /**
+     * Waits until a request may be sent.
+     *
+     * @return The start time, to be passed to {@link #release}.
+     */
+    public long acquire() throws InterruptedException {
+        try {
+            return this.acquire(null);
+        } catch (DeadlineExceededException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Waits until a request may be sent, or until a deadline passes.
+     *
+     * @param deadline The deadline, or null to wait indefinitely.
+     * @return The start time, to be passed to {@link #release}.
+     */
+    public long acquire(Deadline deadline)
+        throws InterruptedException, DeadlineExceededException {
+
+        synchronized (this) {
+            while (this.inFlight >= (int) this.limit) {
+                if (deadline == null) {
+                    this.wait();
+                } else {
+                    deadline.check("Waiting for the concurrency limiter");
+                    this.wait(Math.max(1, deadline.getRemainingMillis()));
+                }
+            }
+            this.inFlight++;
+            if (this.inFlight > this.peakInFlight) {
+                this.peakInFlight = this.inFlight;
+            }
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the outcome of a request sent after {@link #acquire}.
+     *
+     * @param startNanos The value returned by acquire().
+     * @param dropped True if the request failed in a way that suggests
+     *                overload, such as a timeout or an unavailable server.
+     */
+    public void release(long startNanos, boolean dropped) {
+        long now = System.nanoTime();
+        long latency = now - startNanos;
+        synchronized (this) {
+            boolean saturated = this.inFlight * 2 >= (int) this.limit;
+            this.inFlight--;
+            this.requestCount++;
+
+            if (!dropped) {
+                this.sampleLatency(latency);
+            } else {
+                this.dropCount++;
+            }
+
+            boolean slow = !dropped && latency > this.minLatencyNanos * this.latencyTolerance;
+            if (dropped || slow) {
+                // Only requests sent after the last decrease reflect it.
+                if (startNanos - this.lastDecreaseNanos > 0) {
+                    this.limit = Math.max(this.minLimit, this.limit * this.backoffRatio);
+                    this.lastDecreaseNanos = now;
+                    this.decreaseCount++;
+                }
+            } else if (saturated && this.limit < this.maxLimit) {
+                this.limit = Math.min(this.maxLimit, this.limit + 1 / this.limit);
+                this.increaseCount++;
+            }
+            this.notifyAll();
+        }
+    }
+
+    private void sampleLatency(long latency) {
+        if (latency < this.minLatencyNanos) {
+            this.minLatencyNanos = latency;
+        }
+        if (latency < this.windowMinLatencyNanos) {
+            this.windowMinLatencyNanos = latency;
+        }
+        if (++this.windowSamples >= LATENCY_WINDOW) {
+            this.minLatencyNanos = this.windowMinLatencyNanos;
+            this.windowMinLatencyNanos = Long.MAX_VALUE;
+            this.windowSamples = 0;
+        }
+    }
+
+    /**
+     * Returns the number of requests currently permitted in flight.
+     */
+    public synchronized int getLimit() {
+        return (int) this.limit;
+    }
+
+    public int getMinLimit() {
+        return this.minLimit;
+    }
+
+    public int getMaxLimit() {
+        return this.maxLimit;
+    }
+
+    public double getBackoffRatio() {
+        return this.backoffRatio;
+    }
+
+    /**
+     * Sets the factor applied to the limit on each decrease.
+     */
+    public void setBackoffRatio(double backoffRatio) {
+        if (backoffRatio <= 0 || backoffRatio >= 1) {
+            throw new IllegalArgumentException("backoffRatio must be between 0 and 1");
+        }
+        this.backoffRatio = backoffRatio;
+    }
+
+    public double getLatencyTolerance() {
+        return this.latencyTolerance;
+    }
+
+    /**
+     * Sets how many times slower than the fastest recent request a request
+     * may be before the limit is decreased.
+     */
+    public void setLatencyTolerance(double latencyTolerance) {
+        if (latencyTolerance < 1) {
+            throw new IllegalArgumentException("latencyTolerance must be at least 1");
+        }
+        this.latencyTolerance = latencyTolerance;
+    }
+
+    public synchronized int getInFlight() {
+        return this.inFlight;
+    }
+
+    public synchronized int getPeakInFlight() {
+        return this.peakInFlight;
+    }
+
+    /**
+     * Returns the fastest recent latency, in nanoseconds, or -1 before the
+     * first successful request.
+     */
+    public synchronized long getMinLatencyNanos() {
+        return this.minLatencyNanos == Long.MAX_VALUE ? -1 : this.minLatencyNanos;
+    }
+
+    public synchronized long getRequestCount() {
+        return this.requestCount;
+    }
+
+    public synchronized long getDropCount() {
+        return this.dropCount;
+    }
+
+    public synchronized long getIncreaseCount() {
+        return this.increaseCount;
+    }
+
+    public synchronized long getDecreaseCount() {
+        return this.decreaseCount;
+    }
+
+    public synchronized String toString() {
+        return (super.toString()
+                + "[limit=" + (int) this.limit
+                + ",inFlight=" + this.inFlight
+                + ",requests=" + this.requestCount
+                + ",drops=" + this.dropCount
+                + ",decreases=" + this.decreaseCount
+                + "]");
+    }
+}
@@ -0,0 +1,701 @@
+/*
+ * Copyright (c) 2007-2008, Arizona State University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Arizona State University nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY ARIZONA STATE UNIVERSITY ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL ARIZONA STATE UNIVERSITY BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.asu.itunesu;
+
+import java.io.File;
+import java.io.InputStream;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs {@link ITunesUConnection} operations without blocking the caller.
+ * Each <code>xxxAsync</code> method mirrors the blocking method of the
+ * same name and returns a {@link CompletableFuture} that completes with its
+ * result, or exceptionally with its {@link ITunesUException}.
+ *
+ * <p>At most <code>maxInFlight</code> operations run at once. Further
+ * operations wait in a queue without holding a thread; once
+ * <code>maxQueued</code> are waiting, new ones fail with
+ * {@link RejectedExecutionException}. Operations run on the given executor,
+ * or by default on a pool of <code>maxInFlight</code> daemon threads. The
+ * pool's threads are reused, so the per-thread token signers, identity
+ * encoders and XML parsers the connection keeps are built once per thread
+ * rather than once per operation. To run on virtual threads instead, pass
+ * <code>Executors.newVirtualThreadPerTaskExecutor()</code> to the
+ * constructor that takes an executor.</p>
+ *
+ * <p>Operations also share the limits of the connection's transport. With
+ * a {@link PooledHttpTransport}, a <code>maxInFlight</code> above
+ * {@link PooledHttpTransport#getMaxRequests()}, or above
+ * {@link PooledHttpTransport#getMaxUploads()} for uploads, makes
+ * operations wait there while holding a thread.</p>
+ */
+public class AsyncITunesUConnection {
+    public static final int DEFAULT_MAX_IN_FLIGHT = 16;
+
+    /**
+     * An operation to run against the underlying connection.
+     */
+    public interface Call<T> {
+        public T call(ITunesUConnection connection) throws ITunesUException;
+    }
+
+    private final ITunesUConnection connection;
+    private final Executor executor;
+    private final ExecutorService ownedExecutor;
+    private final int maxInFlight;
+    private final int maxQueued;
+
+    private final Queue<Task<?>> queue = new ArrayDeque<Task<?>>();
+    private int inFlight;
+    private int peakInFlight;
+    private long rejectedCount;
+
+    public AsyncITunesUConnection(ITunesUConnection connection) {
+        this(connection, DEFAULT_MAX_IN_FLIGHT, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Creates an async connection with its own default executor, which is
+     * released by {@link #shutdown()}.
+     */
+    public AsyncITunesUConnection(ITunesUConnection connection,
+                                  int maxInFlight,
+                                  int maxQueued) {
+        this(connection, null, maxInFlight, maxQueued);
+    }
+
+    /**
+     * @param executor Executor to run operations on, or null for the
+     *                 default. A supplied executor is not shut down by
+     *                 {@link #shutdown()}.
+     * @param maxInFlight Maximum number of operations running at once.
+     * @param maxQueued Maximum number of operations waiting to run.
+     */
+    public AsyncITunesUConnection(ITunesUConnection connection,
+                                  Executor executor,
+                                  int maxInFlight,
+                                  int maxQueued) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be positive");
+        }
+        if (maxQueued < 0) {
+            throw new IllegalArgumentException("maxQueued must not be negative");
+        }
+        this.connection = connection;
+        this.maxInFlight = maxInFlight;
+        this.maxQueued = maxQueued;
+        if (executor != null) {
+            this.executor = executor;
+            this.ownedExecutor = null;
+        } else {
+            this.ownedExecutor = createDefaultExecutor(maxInFlight);
+            this.executor = this.ownedExecutor;
+        }
+    }
+
+    public ITunesUConnection getConnection() {
+        return this.connection;
+    }
+
+    public Executor getExecutor() {
+        return this.executor;
+    }
+
+    public int getMaxInFlight() {
+        return this.maxInFlight;
+    }
+
+    public int getMaxQueued() {
+        return this.maxQueued;
+    }
+
+    public synchronized int getInFlight() {
+        return this.inFlight;
+    }
+
+    public synchronized int getPeakInFlight() {
+        return this.peakInFlight;
+    }
+
+    public synchronized int getQueued() {
+        return this.queue.size();
+    }
+
+    public synchronized long getRejectedCount() {
+        return this.rejectedCount;
+    }
+
+    /**
+     * Stops the default executor, if one was created. Operations already
+     * submitted still run.
+     */
+    public void shutdown() {
+        if (this.ownedExecutor != null) {
+            this.ownedExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Runs an arbitrary operation under the in-flight limit. The calling
+     * thread's current {@link Deadline} and {@link CallContext}, if any,
+     * apply to the operation.
+     */
+    public <T> CompletableFuture<T> submit(Call<T> call) {
+        Task<T> task = new Task<T>(call);
+        synchronized (this) {
+            if (this.inFlight >= this.maxInFlight) {
+                if (this.queue.size() >= this.maxQueued) {
+                    this.rejectedCount++;
+                    task.future.completeExceptionally(
+                        new RejectedExecutionException("Too many queued iTunes U operations ("
+                                                       + this.queue.size() + ")"));
+                } else {
+                    this.queue.add(task);
+                }
+                return task.future;
+            }
+            this.inFlight++;
+            this.peakInFlight = Math.max(this.peakInFlight, this.inFlight);
+        }
+        this.start(task);
+        return task.future;
+    }
+
+    public CompletableFuture<Site> getSiteAsync() {
+        return this.submit(new Call<Site>() {
+            public Site call(ITunesUConnection connection) throws ITunesUException {
+                return connection.getSite();
+            }
+        });
+    }
+
+    public CompletableFuture<Site> getSiteMinimalAsync() {
+        return this.submit(new Call<Site>() {
+            public Site call(ITunesUConnection connection) throws ITunesUException {
+                return connection.getSiteMinimal();
+            }
+        });
+    }
+
+    public CompletableFuture<Section> getSectionAsync(final String handle) {
+        return this.submit(new Call<Section>() {
+            public Section call(ITunesUConnection connection) throws ITunesUException {
+                return connection.getSection(handle);
+            }
+        });
+    }
+
+    public CompletableFuture<Division> getDivisionAsync(final String handle) {
+        return this.submit(new Call<Division>() {
+            public Division call(ITunesUConnection connection) throws ITunesUException {
+                return connection.getDivision(handle);
+            }
+        });
+    }
+
+    public CompletableFuture<Course> getCourseAsync(final String handle) {
+        return this.submit(new Call<Course>() {
+            public Course call(ITunesUConnection connection) throws ITunesUException {
+                return connection.getCourse(handle);
+            }
+        });
+    }
+
+    public CompletableFuture<Group> getGroupAsync(final String handle) {
+        return this.submit(new Call<Group>() {
+            public Group call(ITunesUConnection connection) throws ITunesUException {
+                return connection.getGroup(handle);
+            }
+        });
+    }
+
+    public CompletableFuture<Track> getTrackAsync(final String handle) {
+        return this.submit(new Call<Track>() {
+            public Track call(ITunesUConnection connection) throws ITunesUException {
+                return connection.getTrack(handle);
+            }
+        });
+    }
+
+    public CompletableFuture<List<Section>> getSectionsAsync(final String handle) {
+        return this.submit(new Call<List<Section>>() {
+            public List<Section> call(ITunesUConnection connection) throws ITunesUException {
+                return connection.getSections(handle);
+            }
+        });
+    }
+
+    public CompletableFuture<List<Division>> getDivisionsAsync(final String handle) {
+        return this.submit(new Call<List<Division>>() {
+            public List<Division> call(ITunesUConnection connection) throws ITunesUException {
+                return connection.getDivisions(handle);
+            }
+        });
+    }
+
+    public CompletableFuture<List<Course>> getCoursesAsync(final String handle) {
+        return this.submit(new Call<List<Course>>() {
+            public List<Course> call(ITunesUConnection connection) throws ITunesUException {
+                return connection.getCourses(handle);
+            }
+        });
+    }
+
+    public CompletableFuture<List<Group>> getGroupsAsync(final String handle) {
+        return this.submit(new Call<List<Group>>() {
+            public List<Group> call(ITunesUConnection connection) throws ITunesUException {
+                return connection.getGroups(handle);
+            }
+        });
+    }
+
+    public CompletableFuture<List<Track>> getTracksAsync(final String handle) {
+        return this.submit(new Call<List<Track>>() {
+            public List<Track> call(ITunesUConnection connection) throws ITunesUException {
+                return connection.getTracks(handle);
+            }
+        });
+    }
+
+    public CompletableFuture<ITunesUResponse> mergeSiteAsync(final String siteHandle, final Site site) {
+        return this.submit(new Call<ITunesUResponse>() {
+            public ITunesUResponse call(ITunesUConnection connection) throws ITunesUException {
+                return connection.mergeSite(siteHandle, site);
+            }
+        });
+    }
+
+    public CompletableFuture<ITunesUResponse> mergeSiteAsync(final String siteHandle,
+                                                             final Site site,
+                                                             final boolean mergeByHandle) {
+        return this.submit(new Call<ITunesUResponse>() {
+            public ITunesUResponse call(ITunesUConnection connection) throws ITunesUException {
+                return connection.mergeSite(siteHandle, site, mergeByHandle);
+            }
+        });
+    }
+
+    public CompletableFuture<ITunesUResponse> mergeSiteAsync(final String siteHandle,
+                                                             final Site site,
+                                                             final boolean mergeByHandle,
+                                                             final boolean destructive) {
+        return this.submit(new Call<ITunesUResponse>() {
+            public ITunesUResponse call(ITunesUConnection connection) throws ITunesUException {
+                return connection.mergeSite(siteHandle, site, mergeByHandle, destructive);
+            }
+        });
+    }
+
+    public CompletableFuture<ITunesUResponse> addDivisionAsync(final String parentHandle,
+                                                               final String templateHandle,
+                                                               final Division division) {
+        return this.submit(new Call<ITunesUResponse>() {
+            public ITunesUResponse call(ITunesUConnection connection) throws ITunesUException {
+                return connection.addDivision(parentHandle, templateHandle, division);
+            }
+        });
+    }
+
+    public CompletableFuture<ITunesUResponse> deleteDivisionAsync(final String divisionHandle) {
+        return this.submit(new Call<ITunesUResponse>() {
+            public ITunesUResponse call(ITunesUConnection connection) throws ITunesUException {
+                return connection.deleteDivision(divisionHandle);
+            }
+        });
+    }
+
+    public CompletableFuture<ITunesUResponse> mergeDivisionAsync(final String divisionHandle,
+                                                                 final Division division) {
+        return this.submit(new Call<ITunesUResponse>() {
+            public ITunesUResponse call(ITunesUConnection connection) throws ITunesUException {
+                return connection.mergeDivision(divisionHandle, division);
+            }
+        });
+    }
+
+    public CompletableFuture<ITunesUResponse> mergeDivisionAsync(final String divisionHandle,
+                                                                 final Division division,
+                                                                 final boolean mergeByHandle) {
+        return this.submit(new Call<ITunesUResponse>() {
+            public ITunesUResponse call(ITunesUConnection connection) throws ITunesUException {
+                return connection.mergeDivision(divisionHandle, division, mergeByHandle);
+            }
+        });
+    }
+
+    public CompletableFuture<ITunesUResponse> mergeDivisionAsync(final String divisionHandle,
+                                                                 final Division division,
+                                                                 final boolean mergeByHandle,
+                                                                 final boolean destructive) {
+        return this.submit(new Call<ITunesUResponse>() {
+            public ITunesUResponse call(ITunesUConnection connection) throws ITunesUException {
+                return connection.mergeDivision(divisionHandle, division, mergeByHandle, destructive);
+            }
+        });
+    }
+
+    public CompletableFuture<ITunesUResponse> addSectionAsync(final String parentHandle,
+                                                              final Section section) {
+        return this.submit(new Call<ITunesUResponse>() {
+            public ITunesUResponse call(ITunesUConnection connection) throws ITunesUException {
+                return connection.addSection(parentHandle, section);
+            }
+        });
+    }
+
+    public CompletableFuture<ITunesUResponse> deleteSectionAsync(final String sectionHandle) {
+        return this.submit(new Call<ITunesUResponse>() {
+            public ITunesUResponse call(ITunesUConnection connection) throws ITunesUException {
+                return connection.deleteSection(sectionHandle);
+            }
+        });
+    }
+
+    public CompletableFuture<ITunesUResponse> mergeSectionAsync(final String sectionHandle,
+                                                                final Section section) {
+        return this.submit(new Call<ITunesUResponse>() {
+            public ITunesUResponse call(ITunesUConnection connection) throws ITunesUException {
+                return connection.mergeSection(sectionHandle, section);
+            }
+        });
+    }
+
+    public CompletableFuture<ITunesUResponse> mergeSectionAsync(final String sectionHandle,
+                                                                final Section section,
+                                                                final boolean mergeByHandle) {
+        return this.submit(new Call<ITunesUResponse>() {
+            public ITunesUResponse call(ITunesUConnection connection) throws ITunesUException {
+                return connection.mergeSection(sectionHandle, section, mergeByHandle);
+            }
+        });
+    }
+
+    public CompletableFuture<ITunesUResponse> mergeSectionAsync(final String sectionHandle,
+                                                                final Section section,
+                                                                final boolean mergeByHandle,
+                                                                final boolean destructive) {
+        return this.submit(new Call<ITunesUResponse>() {
+            public ITunesUResponse call(ITunesUConnection connection) throws ITunesUException {
+                return connection.mergeSection(sectionHandle, section, mergeByHandle, destructive);
+            }
+        });
+    }
+
+    public CompletableFuture<ITunesUResponse> addCourseAsync(final String parentHandle,
+                                                             final String templateHandle,
+                                                             final Course course) {
+        return this.submit(new Call<ITunesUResponse>() {
+            public ITunesUResponse call(ITunesUConnection connection) throws ITunesUException {
+                return connection.addCourse(parentHandle, templateHandle, course);
+            }
+        });
+    }
+
+    public CompletableFuture<ITunesUResponse> deleteCourseAsync(final String courseHandle) {
+        return this.submit(new Call<ITunesUResponse>() {
+            public ITunesUResponse call(ITunesUConnection connection) throws ITunesUException {
+                return connection.deleteCourse(courseHandle);
+            }
+        });
+    }
+
+    public CompletableFuture<ITunesUResponse> mergeCourseAsync(final String courseHandle,
+                                                               final Course course) {
+        return this.submit(new Call<ITunesUResponse>() {
+            public ITunesUResponse call(ITunesUConnection connection) throws ITunesUException {
+                return connection.mergeCourse(courseHandle, course);
+            }
+        });
+    }
+
+    public CompletableFuture<ITunesUResponse> mergeCourseAsync(final String courseHandle,
+                                                               final Course course,
+                                                               final boolean mergeByHandle) {
+        return this.submit(new Call<ITunesUResponse>() {
+            public ITunesUResponse call(ITunesUConnection connection) throws ITunesUException {
+                return connection.mergeCourse(courseHandle, course, mergeByHandle);
+            }
+        });
+    }
+
+    public CompletableFuture<ITunesUResponse> mergeCourseAsync(final String courseHandle,
+                                                               final Course course,
+                                                               final boolean mergeByHandle,
+                                                               final boolean destructive) {
+        return this.submit(new Call<ITunesUResponse>() {
+            public ITunesUResponse call(ITunesUConnection connection) throws ITunesUException {
+                return connection.mergeCourse(courseHandle, course, mergeByHandle, destructive);
+            }
+        });
+    }
+
+    public CompletableFuture<ITunesUResponse> addGroupAsync(final String parentHandle, final Group group) {
+        return this.submit(new Call<ITunesUResponse>() {
+            public ITunesUResponse call(ITunesUConnection connection) throws ITunesUException {
+                return connection.addGroup(parentHandle, group);
+            }
+        });
+    }
+
+    public CompletableFuture<ITunesUResponse> deleteGroupAsync(final String groupHandle) {
+        return this.submit(new Call<ITunesUResponse>() {
+            public ITunesUResponse call(ITunesUConnection connection) throws ITunesUException {
+                return connection.deleteGroup(groupHandle);
+            }
+        });
+    }
+
+    public CompletableFuture<ITunesUResponse> mergeGroupAsync(final String groupHandle, final Group group) {
+        return this.submit(new Call<ITunesUResponse>() {
+            public ITunesUResponse call(ITunesUConnection connection) throws ITunesUException {
+                return connection.mergeGroup(groupHandle, group);
+            }
+        });
+    }
+
+    public CompletableFuture<ITunesUResponse> mergeGroupAsync(final String groupHandle,
+                                                              final Group group,
+                                                              final boolean mergeByHandle) {
+        return this.submit(new Call<ITunesUResponse>() {
+            public ITunesUResponse call(ITunesUConnection connection) throws ITunesUException {
+                return connection.mergeGroup(groupHandle, group, mergeByHandle);
+            }
+        });
+    }
+
+    public CompletableFuture<ITunesUResponse> mergeGroupAsync(final String groupHandle,
+                                                              final Group group,
+                                                              final boolean mergeByHandle,
+                                                              final boolean destructive) {
+        return this.submit(new Call<ITunesUResponse>() {
+            public ITunesUResponse call(ITunesUConnection connection) throws ITunesUException {
+                return connection.mergeGroup(groupHandle, group, mergeByHandle, destructive);
+            }
+        });
+    }
+
+    public CompletableFuture<ITunesUResponse> updateGroupAsync(final String groupHandle) {
+        return this.submit(new Call<ITunesUResponse>() {
+            public ITunesUResponse call(ITunesUConnection connection) throws ITunesUException {
+                return connection.updateGroup(groupHandle);
+            }
+        });
+    }
+
+    public CompletableFuture<ITunesUResponse> addTrackAsync(final String parentHandle, final Track track) {
+        return this.submit(new Call<ITunesUResponse>() {
+            public ITunesUResponse call(ITunesUConnection connection) throws ITunesUException {
+                return connection.addTrack(parentHandle, track);
+            }
+        });
+    }
+
+    public CompletableFuture<ITunesUResponse> deleteTrackAsync(final String trackHandle) {
+        return this.submit(new Call<ITunesUResponse>() {
+            public ITunesUResponse call(ITunesUConnection connection) throws ITunesUException {
+                return connection.deleteTrack(trackHandle);
+            }
+        });
+    }
+
+    public CompletableFuture<ITunesUResponse> mergeTrackAsync(final String trackHandle, final Track track) {
+        return this.submit(new Call<ITunesUResponse>() {
+            public ITunesUResponse call(ITunesUConnection connection) throws ITunesUException {
+                return connection.mergeTrack(trackHandle, track);
+            }
+        });
+    }
+
+    public CompletableFuture<ITunesUResponse> addPermissionAsync(final String parentHandle,
+                                                                 final Permission permission) {
+        return this.submit(new Call<ITunesUResponse>() {
+            public ITunesUResponse call(ITunesUConnection connection) throws ITunesUException {
+                return connection.addPermission(parentHandle, permission);
+            }
+        });
+    }
+
+    public CompletableFuture<ITunesUResponse> deletePermissionAsync(final String parentHandle,
+                                                                    final String credential) {
+        return this.submit(new Call<ITunesUResponse>() {
+            public ITunesUResponse call(ITunesUConnection connection) throws ITunesUException {
+                return connection.deletePermission(parentHandle, credential);
+            }
+        });
+    }
+
+    public CompletableFuture<ITunesUResponse> mergePermissionAsync(final String parentHandle,
+                                                                   final Permission permission) {
+        return this.submit(new Call<ITunesUResponse>() {
+            public ITunesUResponse call(ITunesUConnection connection) throws ITunesUException {
+                return connection.mergePermission(parentHandle, permission);
+            }
+        });
+    }
+
+    public CompletableFuture<String> showTreeAsync(final String handle) {
+        return this.submit(new Call<String>() {
+            public String call(ITunesUConnection connection) throws ITunesUException {
+                return connection.showTree(handle);
+            }
+        });
+    }
+
+    public CompletableFuture<String> showTreeAsync(final String handle, final String keyGroup) {
+        return this.submit(new Call<String>() {
+            public String call(ITunesUConnection connection) throws ITunesUException {
+                return connection.showTree(handle, keyGroup);
+            }
+        });
+    }
+
+    public CompletableFuture<String> showFeedAsync(final String handle) {
+        return this.submit(new Call<String>() {
+            public String call(ITunesUConnection connection) throws ITunesUException {
+                return connection.showFeed(handle);
+            }
+        });
+    }
+
+    public CompletableFuture<String> getDailyReportLogsAsync(final String startDate, final String endDate) {
+        return this.submit(new Call<String>() {
+            public String call(ITunesUConnection connection) throws ITunesUException {
+                return connection.getDailyReportLogs(startDate, endDate);
+            }
+        });
+    }
+
+    public CompletableFuture<String> getUploadUrlAsync(final String handle, final boolean forXml) {
+        return this.submit(new Call<String>() {
+            public String call(ITunesUConnection connection) throws ITunesUException {
+                return connection.getUploadUrl(handle, forXml);
+            }
+        });
+    }
+
+    public CompletableFuture<String> uploadContentAsync(final String handle, final File content) {
+        return this.submit(new Call<String>() {
+            public String call(ITunesUConnection connection) throws ITunesUException {
+                return connection.uploadContent(handle, content);
+            }
+        });
+    }
+
+    public CompletableFuture<String> uploadContentAsync(final String handle,
+                                                        final String fileName,
+                                                        final InputStream content,
+                                                        final long contentLength) {
+        return this.submit(new Call<String>() {
+            public String call(ITunesUConnection connection) throws ITunesUException {
+                return connection.uploadContent(handle, fileName, content, contentLength);
+            }
+        });
+    }
+
+    private void start(Task<?> task) {
+        try {
+            this.executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.future.completeExceptionally(e);
+            this.finished();
+        }
+    }
+
+    private void finished() {
+        Task<?> next;
+        synchronized (this) {
+            next = this.queue.poll();
+            if (next == null) {
+                this.inFlight--;
+            }
+        }
+        if (next != null) {
+            this.start(next);
+        }
+    }
+
+    private static ExecutorService createDefaultExecutor(int maxInFlight) {
+        final AtomicInteger threadNumber = new AtomicInteger();
+        return Executors.newFixedThreadPool(maxInFlight, new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable,
+                                               "AsyncITunesUConnection-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+    }
+
+    private class Task<T> implements Runnable {
+        private final Call<T> call;
+        private final CompletableFuture<T> future = new CompletableFuture<T>();
+        // The submitting thread's deadline also bounds the time queued.
+        private final Deadline deadline = Deadline.current();
+        private final CallContext context = CallContext.current();
+
+        public Task(Call<T> call) {
+            this.call = call;
+        }
+
+        public void run() {
+            Deadline previous = Deadline.setCurrent(this.deadline);
+            CallContext previousContext = CallContext.setCurrent(this.context);
+            try {
+                // Skip operations cancelled while they were queued.
+                if (!this.future.isDone()) {
+                    if (this.deadline != null && this.deadline.isExpired()) {
+                        throw new ITunesUException(
+                            new DeadlineExceededException("Deadline exceeded while queued"));
+                    }
+                    this.future.complete(this.call.call(AsyncITunesUConnection.this.connection));
+                }
+            } catch (Exception e) {
+                this.future.completeExceptionally(e);
+            } catch (Error e) {
+                // Fail the future so that waiters wake up, but let the
+                // executor see the error.
+                this.future.completeExceptionally(e);
+                throw e;
+            } finally {
+                CallContext.setCurrent(previousContext);
+                Deadline.setCurrent(previous);
+                AsyncITunesUConnection.this.finished();
+            }
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2007-2008, Arizona State University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Arizona State University nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY ARIZONA STATE UNIVERSITY ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL ARIZONA STATE UNIVERSITY BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.asu.itunesu;
+
+import java.io.InterruptedIOException;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caps the total rate at which upload data is sent, shared by any number
+ * of threads. Bytes are reserved from a token bucket that refills at the
+ * configured rate and holds at most <code>burstBytes</code>; a caller that
+ * overdraws the bucket sleeps until its reservation is paid for, so callers
+ * are served in the order they asked.
+ *
+ * <p>The rate may be changed at any time, for example to allow more
+ * bandwidth at night. A rate of zero or less removes the cap.</p>
+ */
+public class BandwidthLimiter {
+    public static final long DEFAULT_BURST_BYTES = 256 * 1024;
+
+    private long bytesPerSecond;
+    private long burstBytes;
+    private double available;
+    private long lastNanos;
+
+    private long acquiredBytes;
+    private long throttledNanos;
+
+    public BandwidthLimiter(long bytesPerSecond) {
+        this(bytesPerSecond, DEFAULT_BURST_BYTES);
+    }
+
+    /**
+     * @param bytesPerSecond Sustained rate, or zero for no cap.
+     * @param burstBytes Bytes that may be sent at once after an idle period.
+     */
+    public BandwidthLimiter(long bytesPerSecond, long burstBytes) {
+        if (burstBytes < 1) {
+            throw new IllegalArgumentException("burstBytes must be positive");
+        }
+        this.bytesPerSecond = bytesPerSecond;
+        this.burstBytes = burstBytes;
+        this.available = burstBytes;
+        this.lastNanos = System.nanoTime();
+    }
+
+    /**
+     * Waits until <code>bytes</code> may be sent. Gives up without waiting
+     * if the wait would outlast the calling thread's {@link Deadline}.
+     */
+    public void acquire(int bytes) throws InterruptedIOException {
+        long waitNanos;
+        synchronized (this) {
+            this.acquiredBytes += bytes;
+            if (this.bytesPerSecond <= 0) {
+                return;
+            }
+            this.refill(System.nanoTime());
+            this.available -= bytes;
+            waitNanos = (this.available >= 0
+                         ? 0
+                         : (long) (-this.available * 1e9 / this.bytesPerSecond));
+            Deadline deadline = Deadline.current();
+            if (deadline != null && waitNanos > deadline.getRemainingNanos()) {
+                this.available += bytes;
+                throw new DeadlineExceededException("Deadline exceeded waiting for upload bandwidth");
+            }
+            this.throttledNanos += waitNanos;
+        }
+        if (waitNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for upload bandwidth");
+            }
+        }
+    }
+
+    public synchronized long getBytesPerSecond() {
+        return this.bytesPerSecond;
+    }
+
+    public synchronized void setBytesPerSecond(long bytesPerSecond) {
+        long now = System.nanoTime();
+        this.refill(now);
+        this.bytesPerSecond = bytesPerSecond;
+        this.lastNanos = now;
+    }
+
+    public synchronized long getBurstBytes() {
+        return this.burstBytes;
+    }
+
+    /**
+     * Returns the total number of bytes passed through this limiter.
+     */
+    public synchronized long getAcquiredBytes() {
+        return this.acquiredBytes;
+    }
+
+    /**
+     * Returns the total time callers have been made to wait.
+     */
+    public synchronized long getThrottledMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(this.throttledNanos);
+    }
+
+    public synchronized String toString() {
+        return (super.toString()
+                + "[bytesPerSecond=" + this.bytesPerSecond
+                + ",acquired=" + this.acquiredBytes
+                + ",throttledMillis=" + this.getThrottledMillis()
+                + "]");
+    }
+
+    private void refill(long now) {
+        if (this.bytesPerSecond > 0) {
+            this.available = Math.min(this.burstBytes,
+                                      this.available
+                                      + (now - this.lastNanos) * (double) this.bytesPerSecond / 1e9);
+        } else {
+            this.available = this.burstBytes;
+        }
+        this.lastNanos = now;
+    }
+}
@@ -0,0 +1,358 @@
+/*
+ * Copyright (c) 2007-2008, Arizona State University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Arizona State University nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY ARIZONA STATE UNIVERSITY ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL ARIZONA STATE UNIVERSITY BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.asu.itunesu;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+
+import java.util.Arrays;
+import java.util.List;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Signs browse-login tokens for many users at once, following the Browse
+ * flow of {@link ITunesU#main}: credentials, identity and a time stamp are
+ * signed with the shared secret, and the token is posted to the
+ * <CODE>/Browse/</CODE> or <CODE>/API/GetBrowseURL/</CODE> action.
+ *
+ * <p>Credentials strings are validated and form-encoded once per role set,
+ * and identity strings once per user, so that issuing a token only signs
+ * and concatenates. Instances are thread-safe.</p>
+ */
+public class BrowseTokenService {
+    public static final int DEFAULT_MAX_CACHED_IDENTITIES = 100000;
+
+    private final String prefix;
+    private final String siteDomain;
+    private final TokenSigner tokenSigner;
+
+    private final ConcurrentMap<List<String>, CredentialSet> credentialsCache =
+        new ConcurrentHashMap<List<String>, CredentialSet>();
+    private final ConcurrentMap<Object, byte[]> identityCache =
+        new ConcurrentHashMap<Object, byte[]>();
+    private final ThreadLocal<IdentityEncoder> identityEncoders =
+        new ThreadLocal<IdentityEncoder>() {
+            protected IdentityEncoder initialValue() {
+                return new IdentityEncoder();
+            }
+        };
+    private volatile int maxCachedIdentities = DEFAULT_MAX_CACHED_IDENTITIES;
+
+    private volatile ITunesUTransport transport;
+
+    private final AtomicLong tokenCount = new AtomicLong();
+    private final AtomicLong identityHitCount = new AtomicLong();
+    private final AtomicLong identityMissCount = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param siteUrl      The URL to your site in iTunes U.
+     * @param sharedSecret The secret key shared with Apple.
+     */
+    public BrowseTokenService(String siteUrl, String sharedSecret) {
+        this(siteUrl, TokenSigner.forSharedSecret(sharedSecret));
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param siteUrl     The URL to your site in iTunes U.
+     * @param tokenSigner The signer for your site's shared secret.
+     */
+    public BrowseTokenService(String siteUrl, TokenSigner tokenSigner) {
+        this.prefix = siteUrl.substring(0, siteUrl.indexOf(".woa/") + 4);
+        this.siteDomain = siteUrl.substring(siteUrl.lastIndexOf('/') + 1);
+        this.tokenSigner = tokenSigner;
+        this.transport = new PooledHttpTransport();
+    }
+
+    /**
+     * Returns a signed token for a user, time-stamped now.
+     * All identity parameters may be null.
+     *
+     * @param credentials The user's credential strings.
+     * @throws IllegalArgumentException if a credential string contains a
+     *                                  semicolon, backslash or control
+     *                                  character.
+     */
+    public String getAuthorizationToken(String[] credentials,
+                                        String displayName,
+                                        String emailAddress,
+                                        String username,
+                                        String userIdentifier) {
+        return this.getAuthorizationToken(credentials,
+                                          displayName,
+                                          emailAddress,
+                                          username,
+                                          userIdentifier,
+                                          System.currentTimeMillis() / 1000);
+    }
+
+    /**
+     * Returns a signed token for a user.
+     *
+     * @param timeSeconds Token time stamp in seconds since the epoch.
+     */
+    public String getAuthorizationToken(String[] credentials,
+                                        String displayName,
+                                        String emailAddress,
+                                        String username,
+                                        String userIdentifier,
+                                        long timeSeconds) {
+        return this.getAuthorizationToken(this.getCredentialSet(credentials),
+                                          displayName,
+                                          emailAddress,
+                                          username,
+                                          userIdentifier,
+                                          timeSeconds);
+    }
+
+    /**
+     * Returns a signed token for a user. Passing a credential set instead
+     * of an array skips the lookup of the array's cached set.
+     */
+    public String getAuthorizationToken(CredentialSet credentials,
+                                        String displayName,
+                                        String emailAddress,
+                                        String username,
+                                        String userIdentifier,
+                                        long timeSeconds) {
+        byte[] encodedIdentity = this.getEncodedIdentity(
+            new IdentityKey(displayName, emailAddress, username, userIdentifier));
+        return this.sign(credentials, encodedIdentity, timeSeconds);
+    }
+
+    /**
+     * Returns a signed token for a user, time-stamped now.
+     *
+     * @param identity An identity string, as obtained from
+     *                 ITunesU.getIdentityString(), or null.
+     */
+    public String getAuthorizationToken(String[] credentials, String identity) {
+        return this.getAuthorizationToken(credentials,
+                                          identity,
+                                          System.currentTimeMillis() / 1000);
+    }
+
+    public String getAuthorizationToken(String[] credentials,
+                                        String identity,
+                                        long timeSeconds) {
+        return this.getAuthorizationToken(this.getCredentialSet(credentials),
+                                          identity,
+                                          timeSeconds);
+    }
+
+    public String getAuthorizationToken(CredentialSet credentials,
+                                        String identity,
+                                        long timeSeconds) {
+        byte[] encodedIdentity = this.getEncodedIdentity(identity == null ? "" : identity);
+        return this.sign(credentials, encodedIdentity, timeSeconds);
+    }
+
+    /**
+     * Returns the validated credential set for an array of credential
+     * strings, from the cache when the same strings were seen before.
+     *
+     * @throws IllegalArgumentException if a credential string is invalid.
+     */
+    public CredentialSet getCredentialSet(String[] credentials) {
+        if (credentials == null) {
+            credentials = new String[0];
+        }
+        CredentialSet credentialSet = this.credentialsCache.get(Arrays.asList(credentials));
+        if (credentialSet == null) {
+            credentialSet = new CredentialSet(credentials);
+            this.credentialsCache.putIfAbsent(Arrays.asList(credentialSet.getCredentials()),
+                                              credentialSet);
+        }
+        return credentialSet;
+    }
+
+    /**
+     * Returns the destination string for an object in the site.
+     *
+     * @param handle The object's handle, or null for the site itself.
+     */
+    public String getDestination(String handle) {
+        return handle == null ? this.siteDomain : this.siteDomain + "." + handle;
+    }
+
+    /**
+     * Returns the URL to post a token to for the HTML that opens a page
+     * in iTunes.
+     *
+     * @param destination A destination string, such as one from
+     *                    {@link #getDestination} or the "destination"
+     *                    parameter passed to a login web service, or null
+     *                    for the site's root page.
+     */
+    public String getBrowseActionUrl(String destination) {
+        return this.prefix + "/Browse/" + (destination == null ? this.siteDomain : destination);
+    }
+
+    /**
+     * Returns the URL to post a token to for the URL that opens a page
+     * in iTunes.
+     *
+     * @see #getBrowseActionUrl
+     */
+    public String getGetBrowseUrlActionUrl(String destination) {
+        return this.prefix + "/API/GetBrowseURL/" + (destination == null ? this.siteDomain : destination);
+    }
+
+    /**
+     * Posts a token to the Browse action.
+     *
+     * @return The HTML to return to the user's browser.
+     */
+    public String browse(String destination, String token) throws ITunesUException {
+        return this.post(this.getBrowseActionUrl(destination), token);
+    }
+
+    /**
+     * Posts a token to the GetBrowseURL action.
+     *
+     * @return The URL that opens the destination in iTunes.
+     */
+    public String getBrowseUrl(String destination, String token) throws ITunesUException {
+        return this.post(this.getGetBrowseUrlActionUrl(destination), token).trim();
+    }
+
+    public ITunesUTransport getTransport() {
+        return this.transport;
+    }
+
+    public void setTransport(ITunesUTransport transport) {
+        this.transport = transport;
+    }
+
+    public int getMaxCachedIdentities() {
+        return this.maxCachedIdentities;
+    }
+
+    /**
+     * Sets how many encoded identities to keep. The cache is emptied when
+     * it grows past this size.
+     */
+    public void setMaxCachedIdentities(int maxCachedIdentities) {
+        this.maxCachedIdentities = maxCachedIdentities;
+    }
+
+    public long getTokenCount() {
+        return this.tokenCount.get();
+    }
+
+    public long getIdentityHitCount() {
+        return this.identityHitCount.get();
+    }
+
+    public long getIdentityMissCount() {
+        return this.identityMissCount.get();
+    }
+
+    public int getCachedCredentialsCount() {
+        return this.credentialsCache.size();
+    }
+
+    public int getCachedIdentityCount() {
+        return this.identityCache.size();
+    }
+
+    private String sign(CredentialSet credentials, byte[] encodedIdentity, long timeSeconds) {
+        this.tokenCount.incrementAndGet();
+        return this.tokenSigner.getAuthorizationToken(credentials.getEncodedBytes(),
+                                                      encodedIdentity,
+                                                      encodedIdentity.length,
+                                                      timeSeconds);
+    }
+
+    private byte[] getEncodedIdentity(Object key) {
+        byte[] encoded = this.identityCache.get(key);
+        if (encoded != null) {
+            this.identityHitCount.incrementAndGet();
+            return encoded;
+        }
+        this.identityMissCount.incrementAndGet();
+        IdentityEncoder encoder = this.identityEncoders.get();
+        if (key instanceof IdentityKey) {
+            String[] values = ((IdentityKey) key).values;
+            encoder.encode(values[0], values[1], values[2], values[3]);
+        } else {
+            encoder.encode((String) key);
+        }
+        encoded = encoder.toByteArray();
+        if (this.identityCache.size() >= this.maxCachedIdentities) {
+            this.identityCache.clear();
+        }
+        this.identityCache.put(key, encoded);
+        return encoded;
+    }
+
+    private String post(String url, String token) throws ITunesUException {
+        try {
+            ByteArrayRequestBody body = new ByteArrayRequestBody(token.getBytes("UTF-8"));
+            return this.transport.post(url,
+                                       "application/x-www-form-urlencoded; charset=UTF-8",
+                                       body.getLength(),
+                                       body,
+                                       StringResponseHandler.INSTANCE);
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError("UTF-8 encoding not supported");
+        } catch (IOException e) {
+            throw new ITunesUException(e);
+        }
+    }
+
+    /**
+     * Identity cache key for one user's identity fields.
+     */
+    private static class IdentityKey {
+        private final String[] values;
+        private final int hash;
+
+        IdentityKey(String displayName, String emailAddress,
+                    String username, String userIdentifier) {
+            this.values = new String[] { displayName, emailAddress,
+                                         username, userIdentifier };
+            this.hash = Arrays.hashCode(this.values);
+        }
+
+        public boolean equals(Object o) {
+            return o instanceof IdentityKey
+                && Arrays.equals(this.values, ((IdentityKey) o).values);
+        }
+
+        public int hashCode() {
+            return this.hash;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2007-2008, Arizona State University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Arizona State University nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY ARIZONA STATE UNIVERSITY ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL ARIZONA STATE UNIVERSITY BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.asu.itunesu;
+
+import java.io.UnsupportedEncodingException;
+
+import java.util.Arrays;
+
+/**
+ * The identity and credentials of the user on whose behalf requests are
+ * made. A context made current for a thread applies to every request an
+ * {@link ITunesUConnection} sends from that thread, in place of the
+ * connection's own identity and, if the context has them, its
+ * credentials. One connection can then serve many users at once.
+ * {@link AsyncITunesUConnection} carries the submitting thread's context
+ * over to the thread that runs the operation.
+ *
+ * <pre>
+ * CallContext previous = CallContext.setCurrent(
+ *     CallContext.forIdentity(name, email, username, userId)
+ *                .withCredentials(new String[] { credential }));
+ * try {
+ *     connection.getCourse(handle);
+ * } finally {
+ *     CallContext.setCurrent(previous);
+ * }
+ * </pre>
+ *
+ * <p>Instances are immutable.</p>
+ */
+public final class CallContext {
+    private static final ThreadLocal<CallContext> CURRENT = new ThreadLocal<CallContext>();
+
+    private static final byte[] NO_IDENTITY = new byte[0];
+
+    private final byte[] encodedIdentity;
+    private final CredentialSet credentialSet;
+    private final int hash;
+
+    private CallContext(byte[] encodedIdentity, CredentialSet credentialSet) {
+        this.encodedIdentity = encodedIdentity;
+        this.credentialSet = credentialSet;
+        this.hash = 31 * Arrays.hashCode(encodedIdentity)
+            + (credentialSet == null ? 0 : credentialSet.hashCode());
+    }
+
+    /**
+     * Returns a context for a user. All parameters may be null.
+     *
+     * @param displayName The user's name.
+     * @param emailAddress The user's email address.
+     * @param username The user's username.
+     * @param userIdentifier A unique identifier for the user.
+     */
+    public static CallContext forIdentity(String displayName,
+                                          String emailAddress,
+                                          String username,
+                                          String userIdentifier) {
+        return new CallContext(new IdentityEncoder().encode(displayName,
+                                                            emailAddress,
+                                                            username,
+                                                            userIdentifier).toByteArray(),
+                               null);
+    }
+
+    /**
+     * Returns a context for an identity string.
+     */
+    public static CallContext forIdentity(String identity) {
+        return new CallContext(new IdentityEncoder().encode(identity).toByteArray(), null);
+    }
+
+    /**
+     * Returns a context with no identity.
+     */
+    public static CallContext anonymous() {
+        return new CallContext(NO_IDENTITY, null);
+    }
+
+    /**
+     * Returns a copy of this context that signs with other credentials.
+     *
+     * @param credentials The credentials, or null for the connection's.
+     */
+    public CallContext withCredentials(CredentialSet credentials) {
+        return new CallContext(this.encodedIdentity, credentials);
+    }
+
+    /**
+     * Returns a copy of this context that signs with other credentials.
+     *
+     * @param credentials The credential strings, or null for the
+     *                    connection's.
+     * @throws IllegalArgumentException if a credential string is invalid.
+     */
+    public CallContext withCredentials(String[] credentials) {
+        return this.withCredentials(credentials == null ? null : new CredentialSet(credentials));
+    }
+
+    /**
+     * Returns the current thread's context, or null if it has none.
+     */
+    public static CallContext current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Sets the current thread's context.
+     *
+     * @param context The new context, or null for none.
+     * @return The previous context, to restore when the operation ends.
+     */
+    public static CallContext setCurrent(CallContext context) {
+        CallContext previous = CURRENT.get();
+        if (context == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(context);
+        }
+        return previous;
+    }
+
+    /**
+     * Returns the credentials, or null if the connection's are used.
+     */
+    public CredentialSet getCredentialSet() {
+        return this.credentialSet;
+    }
+
+    /**
+     * Returns the identity, form-encoded for a token.
+     */
+    public String getEncodedIdentity() {
+        try {
+            return new String(this.encodedIdentity, "US-ASCII");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError("US-ASCII encoding not supported");
+        }
+    }
+
+    byte[] getEncodedIdentityBytes() {
+        return this.encodedIdentity;
+    }
+
+    public boolean equals(Object o) {
+        if (!(o instanceof CallContext)) {
+            return false;
+        }
+        CallContext other = (CallContext) o;
+        return Arrays.equals(this.encodedIdentity, other.encodedIdentity)
+            && (this.credentialSet == null
+                ? other.credentialSet == null
+                : this.credentialSet.equals(other.credentialSet));
+    }
+
+    public int hashCode() {
+        return this.hash;
+    }
+
+    public String toString() {
+        return super.toString() + "[identity=" + this.getEncodedIdentity()
+            + ",credentials=" + this.credentialSet + "]";
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2007-2008, Arizona State University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Arizona State University nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY ARIZONA STATE UNIVERSITY ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL ARIZONA STATE UNIVERSITY BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.asu.itunesu;
+
+/**
+ * Stops sending requests to iTunes U while it is failing. After
+ * {@link #getFailureThreshold} consecutive temporary failures the breaker
+ * opens, and requests fail fast with a {@link CircuitOpenException}. After
+ * {@link #getOpenMillis} one trial request is let through: if it succeeds
+ * the breaker closes, otherwise it opens again.
+ *
+ * <p>Instances are thread-safe.</p>
+ */
+public class CircuitBreaker {
+    public static final String STATE_CLOSED    = "closed";
+    public static final String STATE_OPEN      = "open";
+    public static final String STATE_HALF_OPEN = "half-open";
+
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    public static final long DEFAULT_OPEN_MILLIS = 30000;
+
+    private int failureThreshold;
+    private long openMillis;
+
+    private String state = STATE_CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean trialInFlight;
+
+    private long openCount;
+    private long rejectedCount;
+
+    public CircuitBreaker() {
+        this(DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_MILLIS);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param failureThreshold Consecutive failures that open the breaker.
+     * @param openMillis How long the breaker stays open before a trial.
+     */
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        if (failureThreshold < 1) {
+            throw new IllegalArgumentException("failureThreshold must be positive");
+        }
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * Asks to send a request. Every permitted request must be followed by
+     * a call to {@link #onSuccess}, {@link #onFailure} or {@link #release}.
+     *
+     * @return False if the request must fail fast.
+     */
+    public synchronized boolean tryAcquire() {
+        if (this.state == STATE_OPEN
+            && System.currentTimeMillis() - this.openedAt >= this.openMillis) {
+            this.state = STATE_HALF_OPEN;
+            this.trialInFlight = false;
+        }
+        if (this.state == STATE_CLOSED) {
+            return true;
+        } else if (this.state == STATE_HALF_OPEN && !this.trialInFlight) {
+            this.trialInFlight = true;
+            return true;
+        }
+        this.rejectedCount++;
+        return false;
+    }
+
+    /**
+     * Records a request that reached iTunes U and got an answer, even if
+     * the answer was an error.
+     */
+    public synchronized void onSuccess() {
+        this.consecutiveFailures = 0;
+        this.trialInFlight = false;
+        this.state = STATE_CLOSED;
+    }
+
+    /**
+     * Records a request that ended without an answer from iTunes U and
+     * without a temporary failure, such as an unknown host, a failed TLS
+     * handshake or an expired deadline. The failure count and state are
+     * left as they were; a half-open breaker lets another trial through.
+     */
+    public synchronized void release() {
+        this.trialInFlight = false;
+    }
+
+    /**
+     * Records a request that failed temporarily.
+     */
+    public synchronized void onFailure() {
+        this.consecutiveFailures++;
+        if (this.state == STATE_HALF_OPEN
+            || (this.state == STATE_CLOSED
+                && this.consecutiveFailures >= this.failureThreshold)) {
+            this.state = STATE_OPEN;
+            this.openedAt = System.currentTimeMillis();
+            this.trialInFlight = false;
+            this.openCount++;
+        }
+    }
+
+    /**
+     * Returns one of STATE_CLOSED, STATE_OPEN or STATE_HALF_OPEN.
+     */
+    public synchronized String getState() {
+        if (this.state == STATE_OPEN
+            && System.currentTimeMillis() - this.openedAt >= this.openMillis) {
+            return STATE_HALF_OPEN;
+        }
+        return this.state;
+    }
+
+    public synchronized int getFailureThreshold() {
+        return this.failureThreshold;
+    }
+
+    public synchronized long getOpenMillis() {
+        return this.openMillis;
+    }
+
+    public synchronized int getConsecutiveFailures() {
+        return this.consecutiveFailures;
+    }
+
+    /**
+     * Returns the number of times the breaker opened.
+     */
+    public synchronized long getOpenCount() {
+        return this.openCount;
+    }
+
+    /**
+     * Returns the number of requests that failed fast.
+     */
+    public synchronized long getRejectedCount() {
+        return this.rejectedCount;
+    }
+}
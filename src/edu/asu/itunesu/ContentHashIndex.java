@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2007-2008, Arizona State University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Arizona State University nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY ARIZONA STATE UNIVERSITY ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL ARIZONA STATE UNIVERSITY BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.asu.itunesu;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An index of the content hashes of the tracks in a group, used to skip
+ * uploading files that iTunes U already has.
+ *
+ * <p>The index is built from the File Size and Hash that ShowTree reports
+ * for each track, and grows as files are uploaded through
+ * {@link ITunesUConnection#uploadContent(String, File, ContentHashIndex)}.
+ * Hashes are compared as lower-case hex strings. A file whose size matches
+ * no indexed track is known to be new without reading it.</p>
+ *
+ * <p>All methods are safe for use by multiple threads.</p>
+ */
+public class ContentHashIndex {
+    /**
+     * The digest algorithm iTunes U reports file hashes with.
+     */
+    public static final String DEFAULT_ALGORITHM = "MD5";
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final String algorithm;
+    private final Map<String, String> trackHandles = new HashMap<String, String>();
+    private final Set<Long> sizes = new HashSet<Long>();
+    private boolean unsizedHashes;
+
+    private long hashedBytes;
+    private long skippedCount;
+    private long skippedBytes;
+
+    public ContentHashIndex() {
+        this(DEFAULT_ALGORITHM);
+    }
+
+    /**
+     * @param algorithm A MessageDigest algorithm name.
+     */
+    public ContentHashIndex(String algorithm) {
+        try {
+            MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("Unknown digest algorithm: " + algorithm);
+        }
+        this.algorithm = algorithm;
+    }
+
+    /**
+     * Builds the index for the tracks beneath a node, usually a group.
+     * The tree is fetched with the "maximal" key group, which includes
+     * file information.
+     *
+     * @param handle The handle of the node.
+     */
+    public static ContentHashIndex load(ITunesUConnection connection, String handle)
+        throws ITunesUException {
+
+        ContentHashIndex index = new ContentHashIndex();
+        index.addTracks(connection.getTracks(handle, ITunesUConnection.KEY_GROUP_MAXIMAL));
+        return index;
+    }
+
+    public String getAlgorithm() {
+        return this.algorithm;
+    }
+
+    /**
+     * Adds the tracks that have a file hash.
+     */
+    public synchronized void addTracks(Collection<Track> tracks) {
+        for (Track track : tracks) {
+            if (track.getFileHash() != null && track.getFileHash().length() > 0) {
+                this.add(track.getFileHash(), track.getFileSize(), track.getHandle());
+            }
+        }
+    }
+
+    /**
+     * Adds a hash.
+     *
+     * @param hash The content hash, in hex.
+     * @param size The content length, or null if unknown.
+     * @param trackHandle The handle of the track, or null if unknown.
+     */
+    public synchronized void add(String hash, Long size, String trackHandle) {
+        this.trackHandles.put(hash.toLowerCase(), trackHandle);
+        if (size != null) {
+            this.sizes.add(size);
+        } else {
+            this.unsizedHashes = true;
+        }
+    }
+
+    public synchronized boolean contains(String hash) {
+        return this.trackHandles.containsKey(hash.toLowerCase());
+    }
+
+    /**
+     * Returns the handle of the track with the given hash, if known.
+     */
+    public synchronized String getTrackHandle(String hash) {
+        return this.trackHandles.get(hash.toLowerCase());
+    }
+
+    /**
+     * Returns false if no indexed content can have the given length.
+     */
+    public synchronized boolean mayContain(long size) {
+        return this.unsizedHashes || this.sizes.contains(size);
+    }
+
+    public synchronized int size() {
+        return this.trackHandles.size();
+    }
+
+    /**
+     * Returns a new digest for this index's algorithm.
+     */
+    public MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(this.algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Reads a file and returns its hash, in lower-case hex.
+     */
+    public String digest(File file) throws IOException {
+        MessageDigest digest = this.newDigest();
+        FileInputStream input = new FileInputStream(file);
+        long length = 0;
+        try {
+            FileChannel channel = input.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            for (int n = channel.read(buffer); n >= 0; n = channel.read(buffer)) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+                length += n;
+            }
+        } finally {
+            input.close();
+        }
+        synchronized (this) {
+            this.hashedBytes += length;
+        }
+        return toHex(digest.digest());
+    }
+
+    public static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            chars[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Returns the number of bytes read to hash files before uploading.
+     */
+    public synchronized long getHashedBytes() {
+        return this.hashedBytes;
+    }
+
+    /**
+     * Returns the number of uploads skipped because of this index.
+     */
+    public synchronized long getSkippedCount() {
+        return this.skippedCount;
+    }
+
+    /**
+     * Returns the number of bytes not uploaded because of this index.
+     */
+    public synchronized long getSkippedBytes() {
+        return this.skippedBytes;
+    }
+
+    public synchronized String toString() {
+        return (super.toString()
+                + "[algorithm=" + this.algorithm
+                + ",hashes=" + this.trackHandles.size()
+                + ",skipped=" + this.skippedCount
+                + "]");
+    }
+
+    synchronized void skipped(long length) {
+        this.skippedCount++;
+        this.skippedBytes += length;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2007-2008, Arizona State University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Arizona State University nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY ARIZONA STATE UNIVERSITY ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL ARIZONA STATE UNIVERSITY BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.asu.itunesu;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Used internally to measure a request body before it is sent. Bytes are
+ * passed to the target stream, or discarded if there is none.
+ */
+class CountingOutputStream extends OutputStream {
+    private OutputStream target;
+    private long count;
+
+    public CountingOutputStream() {
+        this(null);
+    }
+
+    public CountingOutputStream(OutputStream target) {
+        this.target = target;
+    }
+
+    public long getCount() {
+        return this.count;
+    }
+
+    public void write(int b) throws IOException {
+        if (this.target != null) {
+            this.target.write(b);
+        }
+        this.count++;
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (this.target != null) {
+            this.target.write(b, off, len);
+        }
+        this.count += len;
+    }
+
+    public void flush() throws IOException {
+        if (this.target != null) {
+            this.target.flush();
+        }
+    }
+
+    public void close() throws IOException {
+        if (this.target != null) {
+            this.target.close();
+        }
+    }
+}
@@ -31,14 +31,9 @@ import java.util.ArrayList;
 import java.util.List;
 
 import java.io.IOException;
-import java.io.StringReader;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -220,6 +215,41 @@ public class Course extends ITunesUElement implements SectionItem {
         return element;
     }
 
+    public void writeXml(XmlWriter writer) throws IOException {
+        writer.startElement("Course");
+        if (this.name != null) {
+            writer.element("Name", this.name);
+        }
+        if (this.handle != null) {
+            writer.element("Handle", this.handle);
+        }
+        if (this.shortName != null) {
+            writer.element("ShortName", this.shortName);
+        }
+        if (this.identifier != null) {
+            writer.element("Identifier", this.identifier);
+        }
+        if (this.instructor != null) {
+            writer.element("Instructor", this.instructor);
+        }
+        if (this.description != null) {
+            writer.element("Description", this.description);
+        }
+        for (Group group : this.groups) {
+            group.writeXml(writer);
+        }
+        if (this.allowSubscription != null) {
+            writer.element("AllowSubscription", this.allowSubscription ? "true" : "false");
+        }
+        if (this.themeHandle != null) {
+            writer.element("ThemeHandle", this.themeHandle);
+        }
+        for (Permission permission : this.permissions) {
+            permission.writeXml(writer);
+        }
+        writer.endElement();
+    }
+
     public static Course fromXmlElement(Element element) throws ITunesUException {
         if (!"Course".equals(element.getNodeName())) {
             throw new ITunesUException("Expected Course, got "
@@ -274,25 +304,60 @@ public class Course extends ITunesUElement implements SectionItem {
                           themeHandle);
     }
 
+    public static Course fromXmlStream(XMLStreamReader reader)
+        throws ITunesUException, XMLStreamException {
+        XmlStreamSupport.requireStartElement(reader, "Course");
+        String name = null;
+        String handle = null;
+        String shortName = null;
+        String identifier = null;
+        String instructor = null;
+        String description = null;
+        List<Permission> permissions = new ArrayList<Permission>();
+        List<Group> groups = new ArrayList<Group>();
+        Boolean allowSubscription = null;
+        String themeHandle = null;
+        while (XmlStreamSupport.nextChildElement(reader)) {
+            String childName = reader.getLocalName();
+            if ("Name".equals(childName)) {
+                name = XmlStreamSupport.getTextContent(reader);
+            } else if ("Handle".equals(childName)) {
+                handle = XmlStreamSupport.getTextContent(reader);
+            } else if ("ShortName".equals(childName)) {
+                shortName = XmlStreamSupport.getTextContent(reader);
+            } else if ("Identifier".equals(childName)) {
+                identifier = XmlStreamSupport.getTextContent(reader);
+            } else if ("Instructor".equals(childName)) {
+                instructor = XmlStreamSupport.getTextContent(reader);
+            } else if ("Description".equals(childName)) {
+                description = XmlStreamSupport.getTextContent(reader);
+            } else if ("Permission".equals(childName)) {
+                permissions.add(Permission.fromXmlStream(reader));
+            } else if ("Group".equals(childName)) {
+                groups.add(Group.fromXmlStream(reader));
+            } else if ("AllowSubscription".equals(childName)) {
+                allowSubscription = "true".equals(XmlStreamSupport.getTextContent(reader));
+            } else if ("ThemeHandle".equals(childName)) {
+                themeHandle = XmlStreamSupport.getTextContent(reader);
+            } else {
+                XmlStreamSupport.skipElement(reader);
+            }
+        }
+        return new Course(name,
+                          handle,
+                          shortName,
+                          identifier,
+                          instructor,
+                          description,
+                          permissions,
+                          groups,
+                          allowSubscription,
+                          themeHandle);
+    }
+
     public static Course fromXml(String xml)
         throws ITunesUException {
-        DocumentBuilderFactory docFactory =
-            DocumentBuilderFactory.newInstance();
-        DocumentBuilder docBuilder;
-        try {
-            docBuilder = docFactory.newDocumentBuilder();
-        } catch (ParserConfigurationException e) {
-            throw new ITunesUException(e);
-        }
-        Document doc;
-        try {
-            doc = docBuilder.parse(new InputSource(new StringReader(xml)));
-        } catch (SAXException e) {
-            throw new ITunesUException(e);
-        } catch (IOException e) {
-            throw new ITunesUException(e);
-        }
-        return Course.fromXmlElement(doc.getDocumentElement());
+        return Course.fromXmlElement(XmlSupport.parse(xml).getDocumentElement());
     }
 
     public String toString() {
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2007-2008, Arizona State University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Arizona State University nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY ARIZONA STATE UNIVERSITY ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL ARIZONA STATE UNIVERSITY BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.asu.itunesu;
+
+import java.io.UnsupportedEncodingException;
+
+import java.util.Arrays;
+
+/**
+ * An immutable, validated set of credential strings. The credentials
+ * string and its form-encoded form are built once, when the set is
+ * created, so that the same set can sign any number of tokens.
+ */
+public final class CredentialSet {
+    private final String[] credentials;
+    private final String credentialsString;
+    private final String encodedCredentials;
+    private final byte[] encodedBytes;
+    private final int hash;
+
+    /**
+     * Constructor.
+     *
+     * @param credentials The credential strings, or null for none.
+     * @throws IllegalArgumentException if a credential string contains a
+     *                                  semicolon, backslash or control
+     *                                  character.
+     */
+    public CredentialSet(String[] credentials) {
+        this.credentials = credentials == null ? new String[0] : credentials.clone();
+
+        StringBuilder buffer = new StringBuilder();
+        for (int i = 0; i < this.credentials.length; i++) {
+            String credential = this.credentials[i];
+            if (credential == null) {
+                throw new IllegalArgumentException("Null credential");
+            }
+            if (!isValid(credential)) {
+                throw new IllegalArgumentException("Invalid credential: " + credential);
+            }
+            if (i > 0) buffer.append(';');
+            buffer.append(credential);
+        }
+
+        this.credentialsString = buffer.toString();
+        this.encodedCredentials = FormEncoder.encode(this.credentialsString);
+        try {
+            this.encodedBytes = this.encodedCredentials.getBytes("US-ASCII");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError("US-ASCII encoding not supported");
+        }
+        this.hash = Arrays.hashCode(this.credentials);
+    }
+
+    /**
+     * Tells whether a credential string can be used in a set.
+     */
+    public static boolean isValid(String credential) {
+        for (int i = 0, n = credential.length(); i < n; i++) {
+            char c = credential.charAt(i);
+            if (c == ';' || c == '\\' || c < ' ' || c == 127) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public String[] getCredentials() {
+        return this.credentials.clone();
+    }
+
+    /**
+     * Returns the credentials string, as ITunesU.getCredentialsString()
+     * would.
+     */
+    public String getCredentialsString() {
+        return this.credentialsString;
+    }
+
+    /**
+     * Returns the credentials string, form-encoded for a token.
+     */
+    public String getEncodedCredentials() {
+        return this.encodedCredentials;
+    }
+
+    byte[] getEncodedBytes() {
+        return this.encodedBytes;
+    }
+
+    public boolean equals(Object o) {
+        return o instanceof CredentialSet
+            && Arrays.equals(this.credentials, ((CredentialSet) o).credentials);
+    }
+
+    public int hashCode() {
+        return this.hash;
+    }
+
+    public String toString() {
+        return this.credentialsString;
+    }
+}
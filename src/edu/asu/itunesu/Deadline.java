@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2007-2008, Arizona State University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Arizona State University nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY ARIZONA STATE UNIVERSITY ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL ARIZONA STATE UNIVERSITY BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.asu.itunesu;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A point in time by which an operation must complete. A deadline made
+ * current for a thread covers every request an {@link ITunesUConnection}
+ * sends from that thread: fetching upload URLs, posting, reading the
+ * response, and waiting between retries. {@link AsyncITunesUConnection}
+ * carries the submitting thread's deadline over to the thread that runs
+ * the operation.
+ *
+ * <pre>
+ * Deadline previous = Deadline.setCurrent(Deadline.afterMillis(30000));
+ * try {
+ *     connection.getCourse(handle);
+ * } finally {
+ *     Deadline.setCurrent(previous);
+ * }
+ * </pre>
+ */
+public final class Deadline {
+    private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<Deadline>();
+
+    private final long deadlineNanos;
+
+    private Deadline(long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    /**
+     * Returns a deadline a given time from now.
+     */
+    public static Deadline after(long timeout, TimeUnit unit) {
+        return new Deadline(System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    public static Deadline afterMillis(long timeoutMillis) {
+        return after(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the current thread's deadline, or null if it has none.
+     */
+    public static Deadline current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Sets the current thread's deadline.
+     *
+     * @param deadline The new deadline, or null for none.
+     * @return The previous deadline, to restore when the operation ends.
+     */
+    public static Deadline setCurrent(Deadline deadline) {
+        Deadline previous = CURRENT.get();
+        if (deadline == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(deadline);
+        }
+        return previous;
+    }
+
+    public long getRemainingNanos() {
+        return Math.max(0, this.deadlineNanos - System.nanoTime());
+    }
+
+    /**
+     * Returns the time left, rounded up to a whole millisecond, or 0 if
+     * the deadline has passed.
+     */
+    public long getRemainingMillis() {
+        return (this.getRemainingNanos() + 999999) / 1000000;
+    }
+
+    public boolean isExpired() {
+        return this.deadlineNanos - System.nanoTime() <= 0;
+    }
+
+    /**
+     * Returns whichever of two deadlines comes first.
+     *
+     * @param other Another deadline, or null.
+     */
+    public Deadline earliest(Deadline other) {
+        if (other == null || this.deadlineNanos - other.deadlineNanos <= 0) {
+            return this;
+        }
+        return other;
+    }
+
+    /**
+     * Throws if the deadline has passed.
+     *
+     * @param operation Names the operation in the exception message.
+     */
+    public void check(String operation) throws DeadlineExceededException {
+        if (this.isExpired()) {
+            throw new DeadlineExceededException(operation + ": deadline exceeded");
+        }
+    }
+
+    public String toString() {
+        return super.toString() + "[remainingMillis=" + this.getRemainingMillis() + "]";
+    }
+}
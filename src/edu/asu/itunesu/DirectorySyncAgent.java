@@ -0,0 +1,552 @@
+/*
+ * Copyright (c) 2007-2008, Arizona State University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Arizona State University nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY ARIZONA STATE UNIVERSITY ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL ARIZONA STATE UNIVERSITY BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.asu.itunesu;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Watches directories and uploads new or changed files to the iTunes U
+ * group mapped to each directory.
+ *
+ * <p>Directories are watched recursively with a {@link WatchService}. A
+ * file is uploaded once its length and modification time have not changed
+ * for the settle time, so that files still being written are left alone.
+ * Uploads go through an {@link UploadManager}, with at most
+ * <code>maxPendingUploads</code> submitted but unfinished; further settled
+ * files wait their turn. Events for a file whose upload is still running
+ * are ignored; the file is checked again once the upload finishes.</p>
+ *
+ * <p>Uploads are recorded in an {@link UploadJournal}. When the agent
+ * starts, it walks the watched trees once, comparing each file's length and
+ * modification time with the journal, and uploads only files that are new
+ * or have changed since the journal recorded them.</p>
+ *
+ * <p>A failed upload is tried again after the retry delay, which doubles
+ * with each failure, up to <code>maxUploadAttempts</code> attempts. A file
+ * that still fails stays incomplete in the journal and is tried again when
+ * it changes or the agent is restarted.</p>
+ */
+public class DirectorySyncAgent implements Closeable {
+    public static final long DEFAULT_SETTLE_MILLIS = 10 * 1000L;
+    public static final int DEFAULT_MAX_PENDING_UPLOADS = 16;
+    public static final long DEFAULT_RETRY_DELAY_MILLIS = 30 * 1000L;
+    public static final int DEFAULT_MAX_UPLOAD_ATTEMPTS = 5;
+
+    private static final long MAX_RETRY_DELAY_MILLIS = 30 * 60 * 1000L;
+
+    /**
+     * Skips hidden files and the usual names of partial downloads and
+     * copies.
+     */
+    public static final FileFilter DEFAULT_FILE_FILTER = new FileFilter() {
+        public boolean accept(File file) {
+            String name = file.getName();
+            return !(name.startsWith(".")
+                     || name.endsWith(".tmp")
+                     || name.endsWith(".part")
+                     || name.endsWith(".crdownload"));
+        }
+    };
+
+    private final UploadManager manager;
+    private final UploadJournal journal;
+    private final Map<Path, String> groupHandles = new LinkedHashMap<Path, String>();
+    private volatile long settleMillis = DEFAULT_SETTLE_MILLIS;
+    private volatile int maxPendingUploads = DEFAULT_MAX_PENDING_UPLOADS;
+    private volatile FileFilter fileFilter = DEFAULT_FILE_FILTER;
+    private volatile long retryDelayMillis = DEFAULT_RETRY_DELAY_MILLIS;
+    private volatile int maxUploadAttempts = DEFAULT_MAX_UPLOAD_ATTEMPTS;
+
+    private WatchService watchService;
+    private Thread watcher;
+    private ScheduledExecutorService scheduler;
+    private final Map<Path, Candidate> candidates = new LinkedHashMap<Path, Candidate>();
+    private final Set<Path> uploading = new HashSet<Path>();
+    private int pendingUploads;
+
+    private long detectedCount;
+    private long submittedCount;
+    private long unchangedCount;
+    private long overflowCount;
+    private long retryCount;
+    private long failedCount;
+
+    /**
+     * @param manager Runs the uploads. The journal is installed in it.
+     * @param journal Records uploads across restarts.
+     */
+    public DirectorySyncAgent(UploadManager manager, UploadJournal journal) {
+        this.manager = manager;
+        this.journal = journal;
+        manager.setJournal(journal);
+    }
+
+    /**
+     * Maps a directory, and the directories beneath it that have no
+     * mapping of their own, to a group. Must be called before
+     * {@link #start()}.
+     */
+    public synchronized void addDirectory(File directory, String groupHandle) {
+        if (this.watchService != null) {
+            throw new IllegalStateException("Agent already started");
+        }
+        this.groupHandles.put(directory.getAbsoluteFile().toPath().normalize(), groupHandle);
+    }
+
+    public long getSettleMillis() {
+        return this.settleMillis;
+    }
+
+    /**
+     * Sets how long a file must stay unchanged before it is uploaded.
+     */
+    public void setSettleMillis(long settleMillis) {
+        this.settleMillis = settleMillis;
+    }
+
+    public int getMaxPendingUploads() {
+        return this.maxPendingUploads;
+    }
+
+    public void setMaxPendingUploads(int maxPendingUploads) {
+        this.maxPendingUploads = maxPendingUploads;
+    }
+
+    public FileFilter getFileFilter() {
+        return this.fileFilter;
+    }
+
+    /**
+     * Sets which files are uploaded. Directories are always watched.
+     */
+    public void setFileFilter(FileFilter fileFilter) {
+        this.fileFilter = fileFilter;
+    }
+
+    public long getRetryDelayMillis() {
+        return this.retryDelayMillis;
+    }
+
+    /**
+     * Sets how long to wait before trying a failed upload again. The
+     * delay doubles with each further failure of the same file.
+     */
+    public void setRetryDelayMillis(long retryDelayMillis) {
+        this.retryDelayMillis = retryDelayMillis;
+    }
+
+    public int getMaxUploadAttempts() {
+        return this.maxUploadAttempts;
+    }
+
+    /**
+     * Sets how many times a file is uploaded before the agent gives up on
+     * it until it changes or the agent is restarted.
+     */
+    public void setMaxUploadAttempts(int maxUploadAttempts) {
+        this.maxUploadAttempts = maxUploadAttempts;
+    }
+
+    /**
+     * Starts watching, and queues the files that the journal has not
+     * recorded as uploaded.
+     */
+    public synchronized void start() throws IOException {
+        if (this.watchService != null) {
+            throw new IllegalStateException("Agent already started");
+        }
+        this.watchService = FileSystems.getDefault().newWatchService();
+        ThreadFactory threadFactory = new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "DirectorySyncAgent");
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+        for (Path root : this.groupHandles.keySet()) {
+            this.scan(root);
+        }
+        this.watcher = threadFactory.newThread(new Runnable() {
+            public void run() {
+                DirectorySyncAgent.this.watch();
+            }
+        });
+        this.watcher.start();
+        long period = Math.max(this.settleMillis / 4, 250);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        this.scheduler.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                DirectorySyncAgent.this.submitSettled();
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops watching. Uploads already submitted continue in the manager.
+     */
+    public void close() throws IOException {
+        WatchService watchService;
+        synchronized (this) {
+            watchService = this.watchService;
+            if (watchService == null) {
+                return;
+            }
+            this.scheduler.shutdownNow();
+        }
+        watchService.close();
+        try {
+            this.watcher.join(10000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the number of new or changed files seen.
+     */
+    public synchronized long getDetectedCount() {
+        return this.detectedCount;
+    }
+
+    /**
+     * Returns the number of files submitted for upload.
+     */
+    public synchronized long getSubmittedCount() {
+        return this.submittedCount;
+    }
+
+    /**
+     * Returns the number of files found at startup already uploaded.
+     */
+    public synchronized long getUnchangedCount() {
+        return this.unchangedCount;
+    }
+
+    /**
+     * Returns the number of times watch events were lost and the trees
+     * were walked again.
+     */
+    public synchronized long getOverflowCount() {
+        return this.overflowCount;
+    }
+
+    /**
+     * Returns the number of failed uploads queued to be tried again.
+     */
+    public synchronized long getRetryCount() {
+        return this.retryCount;
+    }
+
+    /**
+     * Returns the number of files given up on after failing
+     * <code>maxUploadAttempts</code> times.
+     */
+    public synchronized long getFailedCount() {
+        return this.failedCount;
+    }
+
+    /**
+     * Returns the number of files waiting to settle or for a free upload
+     * slot.
+     */
+    public synchronized int getWaitingCount() {
+        return this.candidates.size();
+    }
+
+    public synchronized int getPendingUploads() {
+        return this.pendingUploads;
+    }
+
+    public synchronized String toString() {
+        return (super.toString()
+                + "[directories=" + this.groupHandles.keySet()
+                + ",detected=" + this.detectedCount
+                + ",submitted=" + this.submittedCount
+                + ",waiting=" + this.candidates.size()
+                + ",pending=" + this.pendingUploads
+                + ",retries=" + this.retryCount
+                + ",failed=" + this.failedCount
+                + "]");
+    }
+
+    /**
+     * Registers every directory beneath a path and queues its files.
+     */
+    private void scan(Path start) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+                throws IOException {
+
+                dir.register(DirectorySyncAgent.this.watchService,
+                             StandardWatchEventKinds.ENTRY_CREATE,
+                             StandardWatchEventKinds.ENTRY_MODIFY,
+                             StandardWatchEventKinds.ENTRY_DELETE);
+                return FileVisitResult.CONTINUE;
+            }
+
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile()) {
+                    DirectorySyncAgent.this.fileChanged(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                // The file may have been removed while walking.
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void watch() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = this.watchService.take();
+            } catch (ClosedWatchServiceException e) {
+                return;
+            } catch (InterruptedException e) {
+                return;
+            }
+            Path dir = (Path) key.watchable();
+            for (WatchEvent<?> event : key.pollEvents()) {
+                try {
+                    this.handle(dir, event);
+                } catch (IOException e) {
+                    // The directory may have been removed meanwhile.
+                } catch (ClosedWatchServiceException e) {
+                    return;
+                }
+            }
+            key.reset();
+        }
+    }
+
+    private synchronized void handle(Path dir, WatchEvent<?> event) throws IOException {
+        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+            this.overflowCount++;
+            for (Path root : this.groupHandles.keySet()) {
+                this.scan(root);
+            }
+            return;
+        }
+        Path path = dir.resolve((Path) event.context());
+        if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+            this.candidates.remove(path);
+        } else if (Files.isDirectory(path)) {
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                this.scan(path);
+            }
+        } else {
+            this.fileChanged(path);
+        }
+    }
+
+    private synchronized void fileChanged(Path path) {
+        String handle = this.getGroupHandle(path);
+        File file = path.toFile();
+        if (handle == null || !this.fileFilter.accept(file) || this.uploading.contains(path)) {
+            return;
+        }
+        Candidate candidate = this.candidates.get(path);
+        if (candidate == null) {
+            UploadJournal.Job job = this.journal.getJob(handle, file);
+            if (job != null && job.isUploaded()) {
+                this.unchangedCount++;
+                return;
+            }
+            this.candidates.put(path, new Candidate(handle, file));
+            this.detectedCount++;
+        } else {
+            candidate.check();
+        }
+    }
+
+    private String getGroupHandle(Path path) {
+        for (Path dir = path.getParent(); dir != null; dir = dir.getParent()) {
+            String handle = this.groupHandles.get(dir);
+            if (handle != null) {
+                return handle;
+            }
+        }
+        return null;
+    }
+
+    private synchronized void submitSettled() {
+        long now = System.nanoTime();
+        long settleNanos = TimeUnit.MILLISECONDS.toNanos(this.settleMillis);
+        Iterator<Candidate> i = this.candidates.values().iterator();
+        while (i.hasNext() && this.pendingUploads < this.maxPendingUploads) {
+            Candidate candidate = i.next();
+            if (!candidate.file.isFile()) {
+                i.remove();
+            } else if (now - candidate.retryAt < 0) {
+                continue;
+            } else if (candidate.check() && now - candidate.changedAt >= settleNanos
+                       && candidate.isReadable()) {
+                i.remove();
+                this.submit(candidate);
+            }
+        }
+    }
+
+    private void submit(final Candidate candidate) {
+        UploadJournal.Job job = this.journal.getJob(candidate.handle, candidate.file);
+        if (job != null && job.isUploaded()) {
+            return;
+        }
+        final Path path = candidate.file.toPath();
+        this.pendingUploads++;
+        this.submittedCount++;
+        this.uploading.add(path);
+        UploadManager.Upload upload = this.manager.submit(candidate.handle, candidate.file);
+        upload.getFuture().whenComplete(new BiConsumer<String, Throwable>() {
+            public void accept(String response, Throwable error) {
+                synchronized (DirectorySyncAgent.this) {
+                    DirectorySyncAgent.this.pendingUploads--;
+                    DirectorySyncAgent.this.uploading.remove(path);
+                    if (error != null) {
+                        DirectorySyncAgent.this.uploadFailed(candidate);
+                    } else {
+                        DirectorySyncAgent.this.uploadFinished(candidate);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Queues a file again if it changed while it was being uploaded, since
+     * events for it were ignored meanwhile.
+     */
+    private synchronized void uploadFinished(Candidate candidate) {
+        UploadJournal.Job job = this.journal.getJob(candidate.handle, candidate.file);
+        if (candidate.file.isFile() && (job == null || !job.isUploaded())) {
+            this.fileChanged(candidate.file.toPath());
+        }
+    }
+
+    /**
+     * Queues a failed upload to be tried again after a delay, unless the
+     * file has changed meanwhile and is already queued again.
+     */
+    private synchronized void uploadFailed(Candidate candidate) {
+        Path path = candidate.file.toPath();
+        if (this.candidates.containsKey(path)) {
+            return;
+        }
+        candidate.failures++;
+        if (candidate.failures >= this.maxUploadAttempts) {
+            this.failedCount++;
+            return;
+        }
+        long delay = this.retryDelayMillis;
+        for (int n = 1; n < candidate.failures && delay < MAX_RETRY_DELAY_MILLIS; n++) {
+            delay *= 2;
+        }
+        delay = Math.min(delay, MAX_RETRY_DELAY_MILLIS);
+        candidate.retryAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+        this.candidates.put(path, candidate);
+        this.retryCount++;
+    }
+
+    /**
+     * A file waiting to settle.
+     */
+    private class Candidate {
+        private final String handle;
+        private final File file;
+        private long length;
+        private long lastModified;
+        private long changedAt;
+        private int failures;
+        private long retryAt;
+
+        public Candidate(String handle, File file) {
+            this.handle = handle;
+            this.file = file;
+            this.length = file.length();
+            this.lastModified = file.lastModified();
+            this.changedAt = System.nanoTime();
+            this.retryAt = this.changedAt;
+        }
+
+        /**
+         * Returns true if the file has not changed since it was last
+         * checked, and restarts the settle time otherwise.
+         */
+        public boolean check() {
+            long length = this.file.length();
+            long lastModified = this.file.lastModified();
+            if (length == this.length && lastModified == this.lastModified) {
+                return true;
+            }
+            this.length = length;
+            this.lastModified = lastModified;
+            this.changedAt = System.nanoTime();
+            return false;
+        }
+
+        // Some writers hold the file open exclusively until they finish.
+        public boolean isReadable() {
+            try {
+                new FileInputStream(this.file).close();
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+    }
+}
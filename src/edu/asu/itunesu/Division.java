@@ -31,14 +31,9 @@ import java.util.ArrayList;
 import java.util.List;
 
 import java.io.IOException;
-import java.io.StringReader;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -188,6 +183,35 @@ public class Division extends ITunesUElement implements SectionItem {
         return element;
     }
 
+    public void writeXml(XmlWriter writer) throws IOException {
+        writer.startElement("Division");
+        if (this.name != null) {
+            writer.element("Name", this.name);
+        }
+        if (this.handle != null) {
+            writer.element("Handle", this.handle);
+        }
+        if (this.shortName != null) {
+            writer.element("ShortName", this.shortName);
+        }
+        if (this.identifier != null) {
+            writer.element("Identifier", this.identifier);
+        }
+        if (this.allowSubscription != null) {
+            writer.element("AllowSubscription", this.allowSubscription ? "true" : "false");
+        }
+        for (Permission permission : this.permissions) {
+            permission.writeXml(writer);
+        }
+        for (Section section : this.sections) {
+            section.writeXml(writer);
+        }
+        if (this.themeHandle != null) {
+            writer.element("ThemeHandle", this.themeHandle);
+        }
+        writer.endElement();
+    }
+
     public static Division fromXmlElement(Element element) throws ITunesUException {
         if (!"Division".equals(element.getNodeName())) {
             throw new ITunesUException("Expected Division, got "
@@ -234,25 +258,52 @@ public class Division extends ITunesUElement implements SectionItem {
                             themeHandle);
     }
 
+    public static Division fromXmlStream(XMLStreamReader reader)
+        throws ITunesUException, XMLStreamException {
+        XmlStreamSupport.requireStartElement(reader, "Division");
+        String name = null;
+        String handle = null;
+        String shortName = null;
+        String identifier = null;
+        Boolean allowSubscription = null;
+        List<Permission> permissions = new ArrayList<Permission>();
+        List<Section> sections = new ArrayList<Section>();
+        String themeHandle = null;
+        while (XmlStreamSupport.nextChildElement(reader)) {
+            String childName = reader.getLocalName();
+            if ("Name".equals(childName)) {
+                name = XmlStreamSupport.getTextContent(reader);
+            } else if ("Handle".equals(childName)) {
+                handle = XmlStreamSupport.getTextContent(reader);
+            } else if ("ShortName".equals(childName)) {
+                shortName = XmlStreamSupport.getTextContent(reader);
+            } else if ("Identifier".equals(childName)) {
+                identifier = XmlStreamSupport.getTextContent(reader);
+            } else if ("AllowSubscription".equals(childName)) {
+                allowSubscription = "true".equals(XmlStreamSupport.getTextContent(reader));
+            } else if ("Permission".equals(childName)) {
+                permissions.add(Permission.fromXmlStream(reader));
+            } else if ("Section".equals(childName)) {
+                sections.add(Section.fromXmlStream(reader));
+            } else if ("ThemeHandle".equals(childName)) {
+                themeHandle = XmlStreamSupport.getTextContent(reader);
+            } else {
+                XmlStreamSupport.skipElement(reader);
+            }
+        }
+        return new Division(name,
+                            handle,
+                            shortName,
+                            identifier,
+                            allowSubscription,
+                            permissions,
+                            sections,
+                            themeHandle);
+    }
+
     public static Division fromXml(String xml)
         throws ITunesUException {
-        DocumentBuilderFactory docFactory =
-            DocumentBuilderFactory.newInstance();
-        DocumentBuilder docBuilder;
-        try {
-            docBuilder = docFactory.newDocumentBuilder();
-        } catch (ParserConfigurationException e) {
-            throw new ITunesUException(e);
-        }
-        Document doc;
-        try {
-            doc = docBuilder.parse(new InputSource(new StringReader(xml)));
-        } catch (SAXException e) {
-            throw new ITunesUException(e);
-        } catch (IOException e) {
-            throw new ITunesUException(e);
-        }
-        return Division.fromXmlElement(doc.getDocumentElement());
+        return Division.fromXmlElement(XmlSupport.parse(xml).getDocumentElement());
     }
 
     public String toString() {
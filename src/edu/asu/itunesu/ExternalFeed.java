@@ -27,6 +27,11 @@
 
 package edu.asu.itunesu;
 
+import java.io.IOException;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -183,6 +188,35 @@ public class ExternalFeed extends ITunesUElement {
         return element;
     }
 
+    public void writeXml(XmlWriter writer) throws IOException {
+        writer.startElement("ExternalFeed");
+        if (this.url != null) {
+            writer.element("URL", this.url);
+        }
+        if (this.ownerEmail != null) {
+            writer.element("OwnerEmail", this.ownerEmail);
+        }
+        if (this.pollingInterval != null) {
+            writer.element("PollingInterval", this.pollingInterval);
+        }
+        if (this.securityType != null) {
+            writer.element("SecurityType", this.securityType);
+        }
+        if (this.signatureType != null) {
+            writer.element("SignatureType", this.signatureType);
+        }
+        if (this.basicAuthUsername != null) {
+            writer.element("BasicAuthUsername", this.basicAuthUsername);
+        }
+        if (this.basicAuthPassword != null) {
+            writer.element("BasicAuthPassword", this.basicAuthPassword);
+        }
+        if (this.status != null) {
+            writer.element("Status", this.status);
+        }
+        writer.endElement();
+    }
+
     public static ExternalFeed fromXmlElement(Element element) throws ITunesUException {
         if (!"ExternalFeed".equals(element.getNodeName())) {
             throw new ITunesUException("Expected ExternalFeed, got "
@@ -229,6 +263,49 @@ public class ExternalFeed extends ITunesUElement {
                                 status);
     }
 
+    public static ExternalFeed fromXmlStream(XMLStreamReader reader)
+        throws ITunesUException, XMLStreamException {
+        XmlStreamSupport.requireStartElement(reader, "ExternalFeed");
+        String url = null;
+        String ownerEmail = null;
+        String pollingInterval = null;
+        String securityType = null;
+        String signatureType = null;
+        String basicAuthUsername = null;
+        String basicAuthPassword = null;
+        String status = null;
+        while (XmlStreamSupport.nextChildElement(reader)) {
+            String childName = reader.getLocalName();
+            if ("URL".equals(childName)) {
+                url = XmlStreamSupport.getTextContent(reader);
+            } else if ("OwnerEmail".equals(childName)) {
+                ownerEmail = XmlStreamSupport.getTextContent(reader);
+            } else if ("PollingInterval".equals(childName)) {
+                pollingInterval = XmlStreamSupport.getTextContent(reader);
+            } else if ("SecurityType".equals(childName)) {
+                securityType = XmlStreamSupport.getTextContent(reader);
+            } else if ("SignatureType".equals(childName)) {
+                signatureType = XmlStreamSupport.getTextContent(reader);
+            } else if ("BasicAuthUsername".equals(childName)) {
+                basicAuthUsername = XmlStreamSupport.getTextContent(reader);
+            } else if ("BasicAuthPassword".equals(childName)) {
+                basicAuthPassword = XmlStreamSupport.getTextContent(reader);
+            } else if ("Status".equals(childName)) {
+                status = XmlStreamSupport.getTextContent(reader);
+            } else {
+                XmlStreamSupport.skipElement(reader);
+            }
+        }
+        return new ExternalFeed(url,
+                                ownerEmail,
+                                pollingInterval,
+                                securityType,
+                                signatureType,
+                                basicAuthUsername,
+                                basicAuthPassword,
+                                status);
+    }
+
     public String toString() {
         return (super.toString()
                 + "[url="
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2007-2008, Arizona State University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Arizona State University nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY ARIZONA STATE UNIVERSITY ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL ARIZONA STATE UNIVERSITY BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.asu.itunesu;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A request body read from a file of any size, including files over 2 GB.
+ * The file is read with positional FileChannel reads in 64 KB chunks,
+ * which takes a quarter of the write calls of the 16 KB InputStream copy
+ * and skips the stream's per-read native buffer.
+ */
+class FileRequestBody implements ITunesUTransport.RequestBody {
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private File file;
+    private long length;
+
+    public FileRequestBody(File file) {
+        this(file, file.length());
+    }
+
+    /**
+     * Creates a body for the first <code>length</code> bytes of a file,
+     * which must be at least that long when the body is written.
+     */
+    public FileRequestBody(File file, long length) {
+        this.file = file;
+        this.length = length;
+    }
+
+    /**
+     * Returns the number of bytes written, by default the file length at
+     * the time this body was created.
+     */
+    public long getLength() {
+        return this.length;
+    }
+
+    public void writeTo(OutputStream output) throws IOException {
+        FileInputStream input = new FileInputStream(this.file);
+        try {
+            FileChannel channel = input.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+            long position = 0;
+            while (position < this.length) {
+                buffer.clear();
+                if (this.length - position < buffer.capacity()) {
+                    buffer.limit((int) (this.length - position));
+                }
+                int n = channel.read(buffer, position);
+                if (n < 0) {
+                    throw new IOException(this.file + " shrank from " + this.length
+                                          + " to " + channel.size() + " bytes while uploading");
+                }
+                output.write(buffer.array(), 0, n);
+                position += n;
+            }
+        } finally {
+            input.close();
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2007-2008, Arizona State University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Arizona State University nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY ARIZONA STATE UNIVERSITY ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL ARIZONA STATE UNIVERSITY BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.asu.itunesu;
+
+/**
+ * Encodes strings as application/x-www-form-urlencoded UTF-8, producing
+ * the same output as {@link java.net.URLEncoder#encode(String, String)}
+ * without its intermediate writers, strings and charset lookups.
+ */
+final class FormEncoder {
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    /**
+     * The most bytes {@link #encode(CharSequence, int, int, byte[], int)}
+     * writes for one character.
+     */
+    public static final int MAX_BYTES_PER_CHAR = 9;
+    private static final boolean[] SAFE = new boolean[128];
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++) SAFE[c] = true;
+        for (char c = 'A'; c <= 'Z'; c++) SAFE[c] = true;
+        for (char c = '0'; c <= '9'; c++) SAFE[c] = true;
+        SAFE['.'] = true;
+        SAFE['-'] = true;
+        SAFE['*'] = true;
+        SAFE['_'] = true;
+    }
+
+    private FormEncoder() {
+    }
+
+    /**
+     * Encodes a string. Returns the string itself when nothing needs
+     * encoding.
+     */
+    public static String encode(String s) {
+        for (int i = 0, n = s.length(); i < n; i++) {
+            char c = s.charAt(i);
+            if (c >= 128 || !SAFE[c]) {
+                StringBuilder buffer = new StringBuilder(n + 16);
+                buffer.append(s, 0, i);
+                encode(s, i, n, buffer);
+                return buffer.toString();
+            }
+        }
+        return s;
+    }
+
+    /**
+     * Appends the encoded form of a string to a buffer.
+     */
+    public static void encode(CharSequence s, StringBuilder buffer) {
+        encode(s, 0, s.length(), buffer);
+    }
+
+    private static void encode(CharSequence s, int start, int end, StringBuilder buffer) {
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < 128 && SAFE[c]) {
+                buffer.append(c);
+            } else if (c == ' ') {
+                buffer.append('+');
+            } else if (c < 0x80) {
+                appendByte(c, buffer);
+            } else if (c < 0x800) {
+                appendByte(0xc0 | (c >> 6), buffer);
+                appendByte(0x80 | (c & 0x3f), buffer);
+            } else if (Character.isHighSurrogate(c)
+                       && i + 1 < end
+                       && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                appendByte(0xf0 | (codePoint >> 18), buffer);
+                appendByte(0x80 | ((codePoint >> 12) & 0x3f), buffer);
+                appendByte(0x80 | ((codePoint >> 6) & 0x3f), buffer);
+                appendByte(0x80 | (codePoint & 0x3f), buffer);
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogates become '?', as String.getBytes does.
+                appendByte('?', buffer);
+            } else {
+                appendByte(0xe0 | (c >> 12), buffer);
+                appendByte(0x80 | ((c >> 6) & 0x3f), buffer);
+                appendByte(0x80 | (c & 0x3f), buffer);
+            }
+        }
+    }
+
+    /**
+     * Writes the encoded form of part of a string as ASCII bytes. The
+     * buffer must have room for {@link #MAX_BYTES_PER_CHAR} bytes per
+     * character.
+     *
+     * @return The position after the last byte written.
+     */
+    public static int encode(CharSequence s, int start, int end, byte[] buffer, int position) {
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < 128 && SAFE[c]) {
+                buffer[position++] = (byte) c;
+            } else if (c == ' ') {
+                buffer[position++] = '+';
+            } else if (c < 0x80) {
+                position = putByte(c, buffer, position);
+            } else if (c < 0x800) {
+                position = putByte(0xc0 | (c >> 6), buffer, position);
+                position = putByte(0x80 | (c & 0x3f), buffer, position);
+            } else if (Character.isHighSurrogate(c)
+                       && i + 1 < end
+                       && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                position = putByte(0xf0 | (codePoint >> 18), buffer, position);
+                position = putByte(0x80 | ((codePoint >> 12) & 0x3f), buffer, position);
+                position = putByte(0x80 | ((codePoint >> 6) & 0x3f), buffer, position);
+                position = putByte(0x80 | (codePoint & 0x3f), buffer, position);
+            } else if (Character.isSurrogate(c)) {
+                position = putByte('?', buffer, position);
+            } else {
+                position = putByte(0xe0 | (c >> 12), buffer, position);
+                position = putByte(0x80 | ((c >> 6) & 0x3f), buffer, position);
+                position = putByte(0x80 | (c & 0x3f), buffer, position);
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Writes one encoded ASCII character as bytes.
+     *
+     * @return The position after the last byte written.
+     */
+    public static int encodeAscii(char c, byte[] buffer, int position) {
+        if (SAFE[c]) {
+            buffer[position] = (byte) c;
+            return position + 1;
+        } else if (c == ' ') {
+            buffer[position] = '+';
+            return position + 1;
+        }
+        return putByte(c, buffer, position);
+    }
+
+    private static int putByte(int b, byte[] buffer, int position) {
+        buffer[position] = '%';
+        buffer[position + 1] = (byte) HEX[(b >> 4) & 0xf];
+        buffer[position + 2] = (byte) HEX[b & 0xf];
+        return position + 3;
+    }
+
+    private static void appendByte(int b, StringBuilder buffer) {
+        buffer.append('%');
+        buffer.append(HEX[(b >> 4) & 0xf]);
+        buffer.append(HEX[b & 0xf]);
+    }
+}
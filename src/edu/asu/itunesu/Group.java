@@ -31,14 +31,9 @@ import java.util.ArrayList;
 import java.util.List;
 
 import java.io.IOException;
-import java.io.StringReader;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -174,6 +169,32 @@ public class Group extends ITunesUElement {
         return element;
     }
 
+    public void writeXml(XmlWriter writer) throws IOException {
+        writer.startElement("Group");
+        if (this.name != null) {
+            writer.element("Name", this.name);
+        }
+        if (this.handle != null) {
+            writer.element("Handle", this.handle);
+        }
+        if (this.groupType != null) {
+            writer.element("GroupType", this.groupType);
+        }
+        for (Track track : this.tracks) {
+            track.writeXml(writer);
+        }
+        for (Permission permission : this.permissions) {
+            permission.writeXml(writer);
+        }
+        if (this.allowSubscription != null) {
+            writer.element("AllowSubscription", this.allowSubscription ? "true" : "false");
+        }
+        if (this.externalFeed != null) {
+            this.externalFeed.writeXml(writer);
+        }
+        writer.endElement();
+    }
+
     public static Group fromXmlElement(Element element) throws ITunesUException {
         if (!"Group".equals(element.getNodeName())) {
             throw new ITunesUException("Expected Group, got "
@@ -210,25 +231,42 @@ public class Group extends ITunesUElement {
         return new Group(name, handle, groupType, tracks, permissions, allowSubscription, externalFeed);
     }
 
+    public static Group fromXmlStream(XMLStreamReader reader)
+        throws ITunesUException, XMLStreamException {
+        XmlStreamSupport.requireStartElement(reader, "Group");
+        String name = null;
+        String handle = null;
+        String groupType = null;
+        List<Track> tracks = new ArrayList<Track>();
+        List<Permission> permissions = new ArrayList<Permission>();
+        Boolean allowSubscription = null;
+        ExternalFeed externalFeed = null;
+        while (XmlStreamSupport.nextChildElement(reader)) {
+            String childName = reader.getLocalName();
+            if ("Name".equals(childName)) {
+                name = XmlStreamSupport.getTextContent(reader);
+            } else if ("Handle".equals(childName)) {
+                handle = XmlStreamSupport.getTextContent(reader);
+            } else if ("GroupType".equals(childName)) {
+                groupType = XmlStreamSupport.getTextContent(reader);
+            } else if ("Track".equals(childName)) {
+                tracks.add(Track.fromXmlStream(reader));
+            } else if ("Permission".equals(childName)) {
+                permissions.add(Permission.fromXmlStream(reader));
+            } else if ("AllowSubscription".equals(childName)) {
+                allowSubscription = "true".equals(XmlStreamSupport.getTextContent(reader));
+            } else if ("ExternalFeed".equals(childName)) {
+                externalFeed = ExternalFeed.fromXmlStream(reader);
+            } else {
+                XmlStreamSupport.skipElement(reader);
+            }
+        }
+        return new Group(name, handle, groupType, tracks, permissions, allowSubscription, externalFeed);
+    }
+
     public static Group fromXml(String xml)
         throws ITunesUException {
-        DocumentBuilderFactory docFactory =
-            DocumentBuilderFactory.newInstance();
-        DocumentBuilder docBuilder;
-        try {
-            docBuilder = docFactory.newDocumentBuilder();
-        } catch (ParserConfigurationException e) {
-            throw new ITunesUException(e);
-        }
-        Document doc;
-        try {
-            doc = docBuilder.parse(new InputSource(new StringReader(xml)));
-        } catch (SAXException e) {
-            throw new ITunesUException(e);
-        } catch (IOException e) {
-            throw new ITunesUException(e);
-        }
-        return Group.fromXmlElement(doc.getDocumentElement());
+        return Group.fromXmlElement(XmlSupport.parse(xml).getDocumentElement());
     }
 
     public String toString() {
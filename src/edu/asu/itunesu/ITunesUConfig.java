@@ -0,0 +1,355 @@
+/*
+ * Copyright (c) 2007-2008, Arizona State University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Arizona State University nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY ARIZONA STATE UNIVERSITY ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL ARIZONA STATE UNIVERSITY BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.asu.itunesu;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Immutable settings for an {@link ITunesUConnection}. A connection
+ * created from a configuration cannot be changed afterwards, so one
+ * instance can be shared by any number of threads; per-user identity and
+ * credentials are supplied for each call with a {@link CallContext}.
+ *
+ * <pre>
+ * ITunesUConfig config = ITunesUConfig.builder(siteUrl, sharedSecret, credentials)
+ *     .setCallTimeoutMillis(30000)
+ *     .setUploadUrlPoolSize(UploadUrlProvider.DEFAULT_POOL_SIZE)
+ *     .build();
+ * ITunesUConnection connection = new ITunesUConnection(config);
+ * </pre>
+ *
+ * <p>The retry policy, circuit breaker, write limiter and transport are
+ * shared with every connection created from the configuration.</p>
+ */
+public final class ITunesUConfig {
+    private final String siteUrl;
+    private final String debugSuffix;
+    private final String sharedSecret;
+    private final CredentialSet credentialSet;
+    private final byte[] encodedIdentity;
+    private final boolean debug;
+    private final ITunesUTransport transport;
+    private final RetryPolicy retryPolicy;
+    private final CircuitBreaker circuitBreaker;
+    private final AdaptiveConcurrencyLimiter writeLimiter;
+    private final long callTimeoutMillis;
+    private final boolean coalesceRequests;
+    private final int uploadUrlPoolSize;
+    private final long uploadUrlValidityMillis;
+    private final long siteCacheTtlMillis;
+
+    private ITunesUConfig(Builder builder) {
+        this.siteUrl = builder.siteUrl;
+        this.debugSuffix = builder.debugSuffix;
+        this.sharedSecret = builder.sharedSecret;
+        this.credentialSet = new CredentialSet(builder.credentials);
+        this.encodedIdentity = builder.encodedIdentity;
+        this.debug = builder.debug;
+        this.transport = (builder.transport != null
+                          ? builder.transport
+                          : new PooledHttpTransport());
+        this.retryPolicy = builder.retryPolicy;
+        this.circuitBreaker = builder.circuitBreaker;
+        this.writeLimiter = builder.writeLimiter;
+        this.callTimeoutMillis = builder.callTimeoutMillis;
+        this.coalesceRequests = builder.coalesceRequests;
+        this.uploadUrlPoolSize = builder.uploadUrlPoolSize;
+        this.uploadUrlValidityMillis = builder.uploadUrlValidityMillis;
+        this.siteCacheTtlMillis = builder.siteCacheTtlMillis;
+    }
+
+    /**
+     * Returns a builder with the required settings. See
+     * {@link ITunesUConnection#ITunesUConnection(String, String, String, String[])}
+     * for their meaning.
+     */
+    public static Builder builder(String siteUrl,
+                                  String sharedSecret,
+                                  String[] credentials) {
+        return new Builder(siteUrl, sharedSecret, credentials);
+    }
+
+    /**
+     * Returns a builder initialized with these settings.
+     */
+    public Builder toBuilder() {
+        Builder builder = new Builder(this.siteUrl,
+                                      this.sharedSecret,
+                                      this.credentialSet.getCredentials());
+        builder.debugSuffix = this.debugSuffix;
+        builder.encodedIdentity = this.encodedIdentity;
+        builder.debug = this.debug;
+        builder.transport = this.transport;
+        builder.retryPolicy = this.retryPolicy;
+        builder.circuitBreaker = this.circuitBreaker;
+        builder.writeLimiter = this.writeLimiter;
+        builder.callTimeoutMillis = this.callTimeoutMillis;
+        builder.coalesceRequests = this.coalesceRequests;
+        builder.uploadUrlPoolSize = this.uploadUrlPoolSize;
+        builder.uploadUrlValidityMillis = this.uploadUrlValidityMillis;
+        builder.siteCacheTtlMillis = this.siteCacheTtlMillis;
+        return builder;
+    }
+
+    public String getSiteUrl() {
+        return this.siteUrl;
+    }
+
+    public String getDebugSuffix() {
+        return this.debugSuffix;
+    }
+
+    String getSharedSecret() {
+        return this.sharedSecret;
+    }
+
+    public CredentialSet getCredentialSet() {
+        return this.credentialSet;
+    }
+
+    /**
+     * Returns the identity used by calls without a {@link CallContext},
+     * form-encoded for a token.
+     */
+    public String getEncodedIdentity() {
+        try {
+            return new String(this.encodedIdentity, "US-ASCII");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError("US-ASCII encoding not supported");
+        }
+    }
+
+    byte[] getEncodedIdentityBytes() {
+        return this.encodedIdentity;
+    }
+
+    public boolean getDebug() {
+        return this.debug;
+    }
+
+    public ITunesUTransport getTransport() {
+        return this.transport;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return this.retryPolicy;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return this.circuitBreaker;
+    }
+
+    public AdaptiveConcurrencyLimiter getWriteLimiter() {
+        return this.writeLimiter;
+    }
+
+    public long getCallTimeoutMillis() {
+        return this.callTimeoutMillis;
+    }
+
+    public boolean getCoalesceRequests() {
+        return this.coalesceRequests;
+    }
+
+    public int getUploadUrlPoolSize() {
+        return this.uploadUrlPoolSize;
+    }
+
+    public long getUploadUrlValidityMillis() {
+        return this.uploadUrlValidityMillis;
+    }
+
+    public long getSiteCacheTtlMillis() {
+        return this.siteCacheTtlMillis;
+    }
+
+    public String toString() {
+        return super.toString() + "[siteUrl=" + this.siteUrl
+            + ",debug=" + this.debug
+            + ",callTimeoutMillis=" + this.callTimeoutMillis
+            + ",coalesceRequests=" + this.coalesceRequests
+            + ",uploadUrlPoolSize=" + this.uploadUrlPoolSize
+            + ",siteCacheTtlMillis=" + this.siteCacheTtlMillis + "]";
+    }
+
+    /**
+     * Collects settings for an {@link ITunesUConfig}. Builders are not
+     * thread-safe.
+     */
+    public static class Builder {
+        private String siteUrl;
+        private String debugSuffix;
+        private String sharedSecret;
+        private String[] credentials;
+        private byte[] encodedIdentity = new byte[0];
+        private boolean debug;
+        private ITunesUTransport transport;
+        private RetryPolicy retryPolicy = new RetryPolicy();
+        private CircuitBreaker circuitBreaker;
+        private AdaptiveConcurrencyLimiter writeLimiter;
+        private long callTimeoutMillis;
+        private boolean coalesceRequests = true;
+        private int uploadUrlPoolSize;
+        private long uploadUrlValidityMillis = UploadUrlProvider.DEFAULT_VALIDITY_MILLIS;
+        private long siteCacheTtlMillis;
+
+        private Builder(String siteUrl, String sharedSecret, String[] credentials) {
+            this.siteUrl = siteUrl;
+            this.sharedSecret = sharedSecret;
+            this.credentials = credentials == null ? new String[0] : credentials.clone();
+        }
+
+        /**
+         * Sets the suffix appended to the site URL in debug mode.
+         */
+        public Builder setDebugSuffix(String debugSuffix) {
+            this.debugSuffix = debugSuffix;
+            return this;
+        }
+
+        /**
+         * Sets the identity used by calls without a {@link CallContext}.
+         * All parameters may be null.
+         */
+        public Builder setIdentity(String displayName,
+                                   String emailAddress,
+                                   String username,
+                                   String userIdentifier) {
+            this.encodedIdentity = new IdentityEncoder().encode(displayName,
+                                                                emailAddress,
+                                                                username,
+                                                                userIdentifier).toByteArray();
+            return this;
+        }
+
+        /**
+         * Sets the identity used by calls without a {@link CallContext}.
+         */
+        public Builder setIdentity(String identity) {
+            this.encodedIdentity = new IdentityEncoder().encode(identity).toByteArray();
+            return this;
+        }
+
+        public Builder setDebug(boolean debug) {
+            this.debug = debug;
+            return this;
+        }
+
+        /**
+         * Sets the transport. By default, each configuration creates a
+         * {@link PooledHttpTransport}.
+         */
+        public Builder setTransport(ITunesUTransport transport) {
+            this.transport = transport;
+            return this;
+        }
+
+        /**
+         * Sets the retry policy, or null to never retry. By default a
+         * {@link RetryPolicy} with default settings is used.
+         */
+        public Builder setRetryPolicy(RetryPolicy retryPolicy) {
+            this.retryPolicy = retryPolicy;
+            return this;
+        }
+
+        public Builder setCircuitBreaker(CircuitBreaker circuitBreaker) {
+            this.circuitBreaker = circuitBreaker;
+            return this;
+        }
+
+        public Builder setWriteLimiter(AdaptiveConcurrencyLimiter writeLimiter) {
+            this.writeLimiter = writeLimiter;
+            return this;
+        }
+
+        /**
+         * Sets the time allowed for each operation, or 0 for none.
+         */
+        public Builder setCallTimeoutMillis(long callTimeoutMillis) {
+            this.callTimeoutMillis = callTimeoutMillis;
+            return this;
+        }
+
+        public Builder setCoalesceRequests(boolean coalesceRequests) {
+            this.coalesceRequests = coalesceRequests;
+            return this;
+        }
+
+        /**
+         * Sets the number of upload URLs kept ready per destination by an
+         * {@link UploadUrlProvider}, or 0 to fetch them per request, which
+         * is the default.
+         */
+        public Builder setUploadUrlPoolSize(int uploadUrlPoolSize) {
+            this.uploadUrlPoolSize = uploadUrlPoolSize;
+            return this;
+        }
+
+        public Builder setUploadUrlValidityMillis(long uploadUrlValidityMillis) {
+            this.uploadUrlValidityMillis = uploadUrlValidityMillis;
+            return this;
+        }
+
+        /**
+         * Sets how long a {@link SiteCache} may use a loaded site, or 0 for
+         * no cache, which is the default.
+         */
+        public Builder setSiteCacheTtlMillis(long siteCacheTtlMillis) {
+            this.siteCacheTtlMillis = siteCacheTtlMillis;
+            return this;
+        }
+
+        /**
+         * Returns a configuration with the current settings.
+         *
+         * @throws IllegalArgumentException if the site URL or shared
+         *                                  secret is missing, a credential
+         *                                  is invalid, or a setting is out
+         *                                  of range.
+         */
+        public ITunesUConfig build() {
+            if (this.siteUrl == null || this.siteUrl.indexOf(".woa/") < 0) {
+                throw new IllegalArgumentException("Invalid site URL: " + this.siteUrl);
+            }
+            if (this.sharedSecret == null) {
+                throw new IllegalArgumentException("Missing shared secret");
+            }
+            if (this.callTimeoutMillis < 0) {
+                throw new IllegalArgumentException("Negative call timeout: " + this.callTimeoutMillis);
+            }
+            if (this.uploadUrlPoolSize < 0) {
+                throw new IllegalArgumentException("Negative pool size: " + this.uploadUrlPoolSize);
+            }
+            if (this.siteCacheTtlMillis < 0) {
+                throw new IllegalArgumentException("Negative TTL: " + this.siteCacheTtlMillis);
+            }
+            return new ITunesUConfig(this);
+        }
+    }
+}
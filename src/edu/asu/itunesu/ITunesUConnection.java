@@ -27,33 +27,21 @@
 
 package edu.asu.itunesu;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.StringReader;
-import java.io.UnsupportedEncodingException;
+import java.io.OutputStream;
+
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Arrays;
 import java.util.List;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.TransformerException;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpression;
-import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
-
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
-
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
 
 /**
  * The iTunesU Web Services API connection.
@@ -65,14 +53,34 @@ public class ITunesUConnection {
     public static final String KEY_GROUP_MOST    = "most";
     public static final String KEY_GROUP_MAXIMAL = "maximal";
 
+    private final ITunesUConfig config;
+
     private String siteUrl;
     private String debugSuffix;
     private String sharedSecret;
+    private TokenSigner tokenSigner;
     private String[] credentials;
+    private volatile CredentialSet credentialSet;
+
+    private volatile byte[] encodedIdentity;
+
+    private static final ResponseParser RESPONSE_PARSER = new ResponseParser();
 
-    private String identity;
+    private volatile boolean debug;
 
-    private boolean debug;
+    private volatile ITunesUTransport transport;
+
+    private volatile UploadUrlProvider uploadUrlProvider;
+    private volatile SiteCache siteCache;
+
+    private final SingleFlight<List<Object>, ShowTreeResult> showTreeFlights =
+        new SingleFlight<List<Object>, ShowTreeResult>();
+    private volatile boolean coalesceRequests = true;
+
+    private volatile RetryPolicy retryPolicy = new RetryPolicy();
+    private volatile CircuitBreaker circuitBreaker;
+    private volatile AdaptiveConcurrencyLimiter writeLimiter;
+    private volatile long callTimeoutMillis;
 
     /**
      * Constructor.
@@ -99,11 +107,62 @@ public class ITunesUConnection {
                              String debugSuffix,
                              String sharedSecret,
                              String[] credentials) {
+        this.config = null;
         this.siteUrl = siteUrl;
         this.debugSuffix = debugSuffix;
         this.sharedSecret = sharedSecret;
+        this.tokenSigner = TokenSigner.forSharedSecret(sharedSecret);
         this.credentials = credentials;
+        this.encodedIdentity = new byte[0];
         this.debug = false;
+        this.transport = new PooledHttpTransport();
+    }
+
+    /**
+     * Creates a connection from a configuration. Such a connection cannot
+     * be changed: its setters throw IllegalStateException. Calls made on
+     * behalf of other users carry their identity and credentials in a
+     * {@link CallContext}.
+     *
+     * <p>If the configuration asks for them, the connection creates its
+     * own {@link UploadUrlProvider} and {@link SiteCache}. Both serve only
+     * calls without a CallContext, since what they hold was fetched with
+     * the connection's own identity and credentials.</p>
+     */
+    public ITunesUConnection(ITunesUConfig config) {
+        this.config = config;
+        this.siteUrl = config.getSiteUrl();
+        this.debugSuffix = config.getDebugSuffix();
+        this.sharedSecret = config.getSharedSecret();
+        this.tokenSigner = TokenSigner.forSharedSecret(this.sharedSecret);
+        this.credentialSet = config.getCredentialSet();
+        this.credentials = this.credentialSet.getCredentials();
+        this.encodedIdentity = config.getEncodedIdentityBytes();
+        this.debug = config.getDebug();
+        this.transport = config.getTransport();
+        this.retryPolicy = config.getRetryPolicy();
+        this.circuitBreaker = config.getCircuitBreaker();
+        this.writeLimiter = config.getWriteLimiter();
+        this.callTimeoutMillis = config.getCallTimeoutMillis();
+        this.coalesceRequests = config.getCoalesceRequests();
+        if (config.getUploadUrlPoolSize() > 0) {
+            this.uploadUrlProvider = new UploadUrlProvider(this,
+                                                           config.getUploadUrlPoolSize(),
+                                                           config.getUploadUrlValidityMillis());
+        }
+        if (config.getSiteCacheTtlMillis() > 0) {
+            this.siteCache = new SiteCache(this, config.getSiteCacheTtlMillis());
+        }
+    }
+
+    /**
+     * Gets the configuration the connection was created from.
+     *
+     * @return The configuration, or null if the connection was created
+     *         from separate settings and may be changed.
+     */
+    public ITunesUConfig getConfig() {
+        return this.config;
     }
 
     /**
@@ -119,20 +178,22 @@ public class ITunesUConnection {
                             String emailAddress,
                             String username,
                             String userIdentifier) throws ITunesUException {
-        ITunesU iTunesU = new ITunesU();
-        this.identity = iTunesU.getIdentityString(displayName,
-                                                  emailAddress,
-                                                  username,
-                                                  userIdentifier);
+        this.checkMutable();
+        this.encodedIdentity = new IdentityEncoder().encode(displayName,
+                                                            emailAddress,
+                                                            username,
+                                                            userIdentifier).toByteArray();
     }
 
     /**
-     * Sets the identity from a string.
+     * Sets the identity from a string. To act for several users over one
+     * connection, use a {@link CallContext} instead.
      *
      * @param identity The identity as a string.
      */
     public void setIdentity(String identity) {
-        this.identity = identity;
+        this.checkMutable();
+        this.encodedIdentity = new IdentityEncoder().encode(identity).toByteArray();
     }
 
     /**
@@ -152,16 +213,190 @@ public class ITunesUConnection {
      * @param debug True to enable the debug prefix, false otherwise.
      */
     public void setDebug(boolean debug) {
+        this.checkMutable();
         this.debug = debug;
     }
 
+    /**
+     * Gets the transport used for all requests to iTunes U.
+     *
+     * @return The transport. By default, a {@link PooledHttpTransport}.
+     */
+    public ITunesUTransport getTransport() {
+        return this.transport;
+    }
+
+    /**
+     * Sets the transport used for all requests to iTunes U.
+     *
+     * @param transport The transport.
+     */
+    public void setTransport(ITunesUTransport transport) {
+        this.checkMutable();
+        this.transport = transport;
+    }
+
+    /**
+     * Gets the provider of prefetched upload URLs for XML requests and
+     * content uploads.
+     *
+     * @return The provider, or null if upload URLs are fetched per request.
+     */
+    public UploadUrlProvider getUploadUrlProvider() {
+        return this.uploadUrlProvider;
+    }
+
+    /**
+     * Sets a provider of prefetched upload URLs for XML requests and
+     * content uploads. Without a provider, every write operation and
+     * upload first waits for a GetUploadURL call.
+     *
+     * @param uploadUrlProvider The provider, or null to disable prefetching.
+     */
+    public void setUploadUrlProvider(UploadUrlProvider uploadUrlProvider) {
+        this.checkMutable();
+        this.uploadUrlProvider = uploadUrlProvider;
+    }
+
+    /**
+     * Gets the cache used to answer lookups by handle.
+     *
+     * @return The cache, or null if every lookup goes to the server.
+     */
+    public SiteCache getSiteCache() {
+        return this.siteCache;
+    }
+
+    /**
+     * Sets a cache used to answer getSection(), getTrack() and the other
+     * lookups by handle from memory. Handles not found in the cache are
+     * still looked up on the server. getSite() always goes to the server.
+     * Successful writes are passed to {@link SiteCache#apply}, which
+     * updates the cached tree if the cache is in write-through mode and
+     * discards it otherwise. Objects answered from the cache are copies,
+     * so callers may modify them as they would a fresh result.
+     *
+     * @param siteCache The cache, or null to disable caching.
+     */
+    public void setSiteCache(SiteCache siteCache) {
+        this.checkMutable();
+        this.siteCache = siteCache;
+    }
+
+    /**
+     * Gets the policy for retrying failed idempotent requests. By default
+     * a {@link RetryPolicy} with default settings is used.
+     */
+    public RetryPolicy getRetryPolicy() {
+        return this.retryPolicy;
+    }
+
+    /**
+     * Sets the policy for retrying failed idempotent requests.
+     *
+     * @param retryPolicy The policy, or null to never retry.
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.checkMutable();
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Gets the circuit breaker. There is none by default.
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return this.circuitBreaker;
+    }
+
+    /**
+     * Sets a circuit breaker that makes requests fail fast while iTunes U
+     * is failing. A breaker may be shared by connections to the same site.
+     *
+     * @param circuitBreaker The breaker, or null for none.
+     */
+    public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+        this.checkMutable();
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * Gets the default time allowed for each operation, in milliseconds.
+     */
+    public long getCallTimeoutMillis() {
+        return this.callTimeoutMillis;
+    }
+
+    /**
+     * Sets the time allowed for each operation, including upload URL
+     * requests, retries and reading the response. It applies when the
+     * calling thread has no current {@link Deadline}.
+     *
+     * @param callTimeoutMillis The timeout in milliseconds, or 0 for none.
+     */
+    public void setCallTimeoutMillis(long callTimeoutMillis) {
+        this.checkMutable();
+        this.callTimeoutMillis = callTimeoutMillis;
+    }
+
+    /**
+     * Gets the limiter for concurrent writes. There is none by default.
+     */
+    public AdaptiveConcurrencyLimiter getWriteLimiter() {
+        return this.writeLimiter;
+    }
+
+    /**
+     * Sets a limiter that every add, merge, update and delete request
+     * waits for, so that parallel writes adapt to how fast iTunes U
+     * answers. A limiter may be shared by connections to the same site.
+     *
+     * @param writeLimiter The limiter, or null for none.
+     */
+    public void setWriteLimiter(AdaptiveConcurrencyLimiter writeLimiter) {
+        this.checkMutable();
+        this.writeLimiter = writeLimiter;
+    }
+
+    /**
+     * Gets whether concurrent identical ShowTree requests share one
+     * request and one parsed result. This is true by default.
+     */
+    public boolean getCoalesceRequests() {
+        return this.coalesceRequests;
+    }
+
+    /**
+     * Sets whether concurrent identical ShowTree requests, those for the
+     * same handle and key group from the same {@link CallContext}, share
+     * one request and one parsed result.
+     */
+    public void setCoalesceRequests(boolean coalesceRequests) {
+        this.checkMutable();
+        this.coalesceRequests = coalesceRequests;
+    }
+
+    /**
+     * Returns the number of ShowTree requests sent while coalescing.
+     */
+    public long getShowTreeRequestCount() {
+        return this.showTreeFlights.getExecutedCount();
+    }
+
+    /**
+     * Returns the number of ShowTree requests saved by sharing another
+     * caller's in-flight request.
+     */
+    public long getCoalescedRequestCount() {
+        return this.showTreeFlights.getCoalescedCount();
+    }
+
     /**
      * Retrieves the entire site.
      *
      * @return A {@link Site} model object.
      */
     public Site getSite() throws ITunesUException {
-        return ITunesUResponse.fromXml(this.showTree(null)).getSite();
+        return this.invokeAction("ShowTree", this.getShowTreeUrl(null), RESPONSE_PARSER).getSite();
     }
 
     /**
@@ -172,7 +407,7 @@ public class ITunesUConnection {
      * @return A {@link Site} model object.
      */
     public Site getSiteMinimal() throws ITunesUException {
-        return ITunesUResponse.fromXml(this.showTree(null, KEY_GROUP_MINIMAL)).getSite();
+        return this.request(null, ITunesUDocument.buildShowTree("", KEY_GROUP_MINIMAL)).getSite();
     }
 
     /**
@@ -182,13 +417,22 @@ public class ITunesUConnection {
      * @return A {@link Section} model object.
      */
     public Section getSection(String handle) throws ITunesUException {
-        String xml = this.showTree(handle);
+        SiteCache siteCache = this.sharedSiteCache();
+        if (siteCache != null) {
+            Section cached = siteCache.getSection(handle);
+            if (cached != null) {
+                return (Section) ModelSupport.copyOf(cached);
+            }
+        }
+        ShowTreeResult tree = this.showTreeResult(handle, null);
         String pattern = "//Section[Handle=" + handle + "]";
-        Element element = getElementByXPath(xml, pattern);
-        if (element == null) {
-            throw new ITunesUException("not a Section handle");
+        synchronized (tree) {
+            Element element = tree.getElement(pattern);
+            if (element == null) {
+                throw new ITunesUException("not a Section handle");
+            }
+            return Section.fromXmlElement(element);
         }
-        return Section.fromXmlElement(element);
     }
 
     /**
@@ -198,13 +442,22 @@ public class ITunesUConnection {
      * @return A {@link Division} model object.
      */
     public Division getDivision(String handle) throws ITunesUException {
-        String xml = this.showTree(handle);
+        SiteCache siteCache = this.sharedSiteCache();
+        if (siteCache != null) {
+            Division cached = siteCache.getDivision(handle);
+            if (cached != null) {
+                return (Division) ModelSupport.copyOf(cached);
+            }
+        }
+        ShowTreeResult tree = this.showTreeResult(handle, null);
         String pattern = "//Division[Handle=" + handle + "]";
-        Element element = getElementByXPath(xml, pattern);
-        if (element == null) {
-            throw new ITunesUException("not a Division handle");
+        synchronized (tree) {
+            Element element = tree.getElement(pattern);
+            if (element == null) {
+                throw new ITunesUException("not a Division handle");
+            }
+            return Division.fromXmlElement(element);
         }
-        return Division.fromXmlElement(element);
     }
 
     /**
@@ -214,13 +467,22 @@ public class ITunesUConnection {
      * @return A {@link Course} model object.
      */
     public Course getCourse(String handle) throws ITunesUException {
-        String xml = this.showTree(handle);
+        SiteCache siteCache = this.sharedSiteCache();
+        if (siteCache != null) {
+            Course cached = siteCache.getCourse(handle);
+            if (cached != null) {
+                return (Course) ModelSupport.copyOf(cached);
+            }
+        }
+        ShowTreeResult tree = this.showTreeResult(handle, null);
         String pattern = "//Course[Handle=" + handle + "]";
-        Element element = getElementByXPath(xml, pattern);
-        if (element == null) {
-            throw new ITunesUException("not a Course handle");
+        synchronized (tree) {
+            Element element = tree.getElement(pattern);
+            if (element == null) {
+                throw new ITunesUException("not a Course handle");
+            }
+            return Course.fromXmlElement(element);
         }
-        return Course.fromXmlElement(element);
     }
 
     /**
@@ -230,13 +492,22 @@ public class ITunesUConnection {
      * @return A {@link Group} model object.
      */
     public Group getGroup(String handle) throws ITunesUException {
-        String xml = this.showTree(handle);
+        SiteCache siteCache = this.sharedSiteCache();
+        if (siteCache != null) {
+            Group cached = siteCache.getGroup(handle);
+            if (cached != null) {
+                return (Group) ModelSupport.copyOf(cached);
+            }
+        }
+        ShowTreeResult tree = this.showTreeResult(handle, null);
         String pattern = "//Group[Handle=" + handle + "]";
-        Element element = getElementByXPath(xml, pattern);
-        if (element == null) {
-            throw new ITunesUException("not a Group handle");
+        synchronized (tree) {
+            Element element = tree.getElement(pattern);
+            if (element == null) {
+                throw new ITunesUException("not a Group handle");
+            }
+            return Group.fromXmlElement(element);
         }
-        return Group.fromXmlElement(element);
     }
 
     /**
@@ -246,13 +517,22 @@ public class ITunesUConnection {
      * @return A {@link Track} model object.
      */
     public Track getTrack(String handle) throws ITunesUException {
-        String xml = this.showTree(handle);
+        SiteCache siteCache = this.sharedSiteCache();
+        if (siteCache != null) {
+            Track cached = siteCache.getTrack(handle);
+            if (cached != null) {
+                return (Track) ModelSupport.copyOf(cached);
+            }
+        }
+        ShowTreeResult tree = this.showTreeResult(handle, null);
         String pattern = "//Track[Handle=" + handle + "]";
-        Element element = getElementByXPath(xml, pattern);
-        if (element == null) {
-            throw new ITunesUException("not a Track handle");
+        synchronized (tree) {
+            Element element = tree.getElement(pattern);
+            if (element == null) {
+                throw new ITunesUException("not a Track handle");
+            }
+            return Track.fromXmlElement(element);
         }
-        return Track.fromXmlElement(element);
     }
 
     /**
@@ -262,12 +542,20 @@ public class ITunesUConnection {
      * @return A list of {@link Section} model objects.
      */
     public List<Section> getSections(String handle) throws ITunesUException {
-        String xml = this.showTree(handle);
+        SiteCache siteCache = this.sharedSiteCache();
+        if (siteCache != null) {
+            List<Section> cached = siteCache.getSections(handle);
+            if (cached != null) {
+                return copies(cached);
+            }
+        }
+        ShowTreeResult tree = this.showTreeResult(handle, null);
         String pattern = "//Section[Handle]";
-        List<Element> elements = getElementsByXPath(xml, pattern);
         List<Section> result = new ArrayList<Section>();
-        for (Element element : elements) {
-            result.add(Section.fromXmlElement(element));
+        synchronized (tree) {
+            for (Element element : tree.getElements(pattern)) {
+                result.add(Section.fromXmlElement(element));
+            }
         }
         return result;
     }
@@ -279,12 +567,20 @@ public class ITunesUConnection {
      * @return A list of {@link Division} model objects.
      */
     public List<Division> getDivisions(String handle) throws ITunesUException {
-        String xml = this.showTree(handle);
+        SiteCache siteCache = this.sharedSiteCache();
+        if (siteCache != null) {
+            List<Division> cached = siteCache.getDivisions(handle);
+            if (cached != null) {
+                return copies(cached);
+            }
+        }
+        ShowTreeResult tree = this.showTreeResult(handle, null);
         String pattern = "//Division[Handle]";
-        List<Element> elements = getElementsByXPath(xml, pattern);
         List<Division> result = new ArrayList<Division>();
-        for (Element element : elements) {
-            result.add(Division.fromXmlElement(element));
+        synchronized (tree) {
+            for (Element element : tree.getElements(pattern)) {
+                result.add(Division.fromXmlElement(element));
+            }
         }
         return result;
     }
@@ -296,12 +592,20 @@ public class ITunesUConnection {
      * @return A list of {@link Course} model objects.
      */
     public List<Course> getCourses(String handle) throws ITunesUException {
-        String xml = this.showTree(handle);
+        SiteCache siteCache = this.sharedSiteCache();
+        if (siteCache != null) {
+            List<Course> cached = siteCache.getCourses(handle);
+            if (cached != null) {
+                return copies(cached);
+            }
+        }
+        ShowTreeResult tree = this.showTreeResult(handle, null);
         String pattern = "//Course[Handle]";
-        List<Element> elements = getElementsByXPath(xml, pattern);
         List<Course> result = new ArrayList<Course>();
-        for (Element element : elements) {
-            result.add(Course.fromXmlElement(element));
+        synchronized (tree) {
+            for (Element element : tree.getElements(pattern)) {
+                result.add(Course.fromXmlElement(element));
+            }
         }
         return result;
     }
@@ -313,12 +617,20 @@ public class ITunesUConnection {
      * @return A list of {@link Group} model objects.
      */
     public List<Group> getGroups(String handle) throws ITunesUException {
-        String xml = this.showTree(handle);
+        SiteCache siteCache = this.sharedSiteCache();
+        if (siteCache != null) {
+            List<Group> cached = siteCache.getGroups(handle);
+            if (cached != null) {
+                return copies(cached);
+            }
+        }
+        ShowTreeResult tree = this.showTreeResult(handle, null);
         String pattern = "//Group[Handle]";
-        List<Element> elements = getElementsByXPath(xml, pattern);
         List<Group> result = new ArrayList<Group>();
-        for (Element element : elements) {
-            result.add(Group.fromXmlElement(element));
+        synchronized (tree) {
+            for (Element element : tree.getElements(pattern)) {
+                result.add(Group.fromXmlElement(element));
+            }
         }
         return result;
     }
@@ -330,12 +642,33 @@ public class ITunesUConnection {
      * @return A list of {@link Track} model objects.
      */
     public List<Track> getTracks(String handle) throws ITunesUException {
-        String xml = this.showTree(handle);
+        SiteCache siteCache = this.sharedSiteCache();
+        if (siteCache != null) {
+            List<Track> cached = siteCache.getTracks(handle);
+            if (cached != null) {
+                return copies(cached);
+            }
+        }
+        return this.getTracks(handle, null);
+    }
+
+    /**
+     * Retrieves all tracks beneath a node in the site tree, bypassing the
+     * site cache. The "maximal" key group includes file information.
+     *
+     * @param handle The handle of a node in the tree, or null for the site.
+     * @param keyGroup One of: minimal, most, maximal; or null for the
+     *                 default.
+     * @return A list of {@link Track} model objects.
+     */
+    public List<Track> getTracks(String handle, String keyGroup) throws ITunesUException {
+        ShowTreeResult tree = this.showTreeResult(handle, keyGroup);
         String pattern = "//Track[Handle]";
-        List<Element> elements = getElementsByXPath(xml, pattern);
         List<Track> result = new ArrayList<Track>();
-        for (Element element : elements) {
-            result.add(Track.fromXmlElement(element));
+        synchronized (tree) {
+            for (Element element : tree.getElements(pattern)) {
+                result.add(Track.fromXmlElement(element));
+            }
         }
         return result;
     }
@@ -800,19 +1133,7 @@ public class ITunesUConnection {
      * @return An XML string.
      */
     public String showTree(String handle) throws ITunesUException {
-        String prefix = this.getPrefix();
-        String url = prefix + "/API/ShowTree/" + this.getDestination(handle);
-
-        ITunesU iTunesU = new ITunesU();
-
-        try {
-            if (this.debug) System.err.println("Request URL:\n" + url);
-            String response = iTunesU.invokeAction(url, this.generateToken());
-            if (this.debug) System.err.println("Response Body:\n" + response);
-            return response;
-        } catch (AssertionError e) {
-            throw new ITunesUException(e);
-        }
+        return this.showTreeResult(handle, null).getXml();
     }
 
     /**
@@ -829,15 +1150,8 @@ public class ITunesUConnection {
         if (handle == null) {
             handle = "";
         }
-        ITunesUDocument doc = ITunesUDocument.buildShowTree(handle, keyGroup);
 
-        try {
-            return this.execute(null, doc.toXml());
-        } catch (ParserConfigurationException e) {
-            throw new ITunesUException(e);
-        } catch (TransformerException e) {
-            throw new ITunesUException(e);
-        }
+        return this.showTreeResult(handle, keyGroup).getXml();
     }
 
     /**
@@ -849,17 +1163,7 @@ public class ITunesUConnection {
     public String showFeed(String handle) throws ITunesUException {
         String prefix = this.getPrefix();
         String url = prefix + "/Feed/" + this.getDestination(handle);
-
-        ITunesU iTunesU = new ITunesU();
-
-        try {
-            if (this.debug) System.err.println("Request URL:\n" + url);
-            String response = iTunesU.invokeAction(url, this.generateToken());
-            if (this.debug) System.err.println("Response Body:\n" + response);
-            return response;
-        } catch (AssertionError e) {
-            throw new ITunesUException(e);
-        }
+        return this.invokeAction("ShowFeed", url);
     }
 
     /**
@@ -872,8 +1176,6 @@ public class ITunesUConnection {
     public String getDailyReportLogs(String startDate, String endDate)
         throws ITunesUException {
 
-        ITunesU iTunesU = new ITunesU();
-
         String url = (this.getPrefix()
                       + "/API/GetDailyReportLogs/"
                       + this.getDestination(null)
@@ -883,14 +1185,7 @@ public class ITunesUConnection {
             url += "&EndDate=" + endDate;
         }
 
-        try {
-            if (this.debug) System.err.println("Request URL:\n" + url);
-            String response = iTunesU.invokeAction(url, this.generateToken());
-            if (this.debug) System.err.println("Response Body:\n" + response);
-            return response;
-        } catch (AssertionError e) {
-            throw new ITunesUException(e);
-        }
+        return this.invokeAction("GetDailyReportLogs", url);
     }
 
     /**
@@ -903,8 +1198,6 @@ public class ITunesUConnection {
     public String getUploadUrl(String handle, boolean forXml)
         throws ITunesUException {
 
-        ITunesU iTunesU = new ITunesU();
-
         String url = (this.getPrefix()
                       + "/API/GetUploadURL/"
                       + this.getDestination(handle));
@@ -913,14 +1206,7 @@ public class ITunesUConnection {
             url += "?type=XMLControlFile";
         }
 
-        try {
-            if (this.debug) System.err.println("Request URL:\n" + url);
-            String response = iTunesU.invokeAction(url, this.generateToken());
-            if (this.debug) System.err.println("Response Body:\n" + response);
-            return response;
-        } catch (AssertionError e) {
-            throw new ITunesUException(e);
-        }
+        return this.invokeAction("GetUploadURL", url);
     }
 
     /**
@@ -931,21 +1217,116 @@ public class ITunesUConnection {
      */
     public String uploadContent(String handle,
                                 File content) throws ITunesUException {
-        ITunesUFilePOST iTunesUFilePOST = new ITunesUFilePOST();
-        String uploadUrl = this.getUploadUrl(handle, false);
+        FileRequestBody body = new FileRequestBody(content);
+        return this.uploadContent(handle, content.getName(), body, body.getLength());
+    }
 
-        String response;
+    /**
+     * Uploads file content to iTunesU unless a file with the same content
+     * hash is in the index. The file is hashed before uploading only if
+     * its size matches indexed content; otherwise the hash is computed
+     * while the file is sent. Uploaded files are added to the index.
+     *
+     * @param handle Handle for the destination.
+     * @param content A File object containing the content to upload.
+     * @param index Hashes of the content already at the destination.
+     * @return The iTunes U response, or null if the upload was skipped.
+     */
+    public String uploadContent(String handle,
+                                File content,
+                                ContentHashIndex index) throws ITunesUException {
+        final long length = content.length();
+        String hash = null;
+        if (index.mayContain(length)) {
+            try {
+                hash = index.digest(content);
+            } catch (IOException e) {
+                throw new ITunesUException(e);
+            }
+            if (index.contains(hash)) {
+                index.skipped(length);
+                return null;
+            }
+        }
 
-        try {
-            response = iTunesUFilePOST.invokeAction(uploadUrl,
+        final FileRequestBody file = new FileRequestBody(content, length);
+        final MessageDigest digest = (hash == null ? index.newDigest() : null);
+        ITunesUTransport.RequestBody body = new ITunesUTransport.RequestBody() {
+            public void writeTo(OutputStream output) throws IOException {
+                if (digest == null) {
+                    file.writeTo(output);
+                } else {
+                    digest.reset();
+                    file.writeTo(new DigestOutputStream(output, digest));
+                }
+            }
+        };
+        String response = this.uploadContent(handle, content.getName(), body, length);
+        index.add(hash != null ? hash : ContentHashIndex.toHex(digest.digest()), length, null);
+        return response;
+    }
+
+    /**
+     * Uploads file content to iTunesU. The body is written again if the
+     * upload is retried, and each attempt uses a new upload URL, taken from
+     * the {@link UploadUrlProvider} if one is installed.
+     *
+     * @param handle Handle for the destination.
+     * @param fileName Name of the file to upload.
+     * @param content Writes the file content.
+     * @param contentLength Length of the file, in bytes.
+     */
+    public String uploadContent(String handle,
+                                String fileName,
+                                ITunesUTransport.RequestBody content,
+                                long contentLength) throws ITunesUException {
+        return this.uploadContent(handle, fileName, content, contentLength,
+                                  this.uploadUrlProvider);
+    }
+
+    String uploadContent(String handle,
+                         String fileName,
+                         ITunesUTransport.RequestBody content,
+                         long contentLength,
+                         UploadUrlSource source) throws ITunesUException {
+        return this.uploadContent(handle, fileName, content, contentLength, source, true);
+    }
+
+    /**
+     * @param repeatable False if the content can be written only once, so
+     *                   that a failed upload must not be retried.
+     */
+    private String uploadContent(final String handle,
+                                 final String fileName,
+                                 final ITunesUTransport.RequestBody content,
+                                 final long contentLength,
+                                 final UploadUrlSource source,
+                                 final boolean repeatable) throws ITunesUException {
+        final ITunesUFilePOST iTunesUFilePOST = new ITunesUFilePOST(this.transport);
+
+        String response = this.call("UploadFile", new Attempt<String>() {
+            private String url;
+
+            public boolean isRepeatable() {
+                return repeatable;
+            }
+
+            public void prepare() throws ITunesUException {
+                this.url = (source != null
+                            ? source.getUploadUrl(handle, false)
+                            : ITunesUConnection.this.getUploadUrl(handle, false));
+            }
+
+            public String run() throws IOException {
+                return iTunesUFilePOST.invokeAction(this.url,
                                                     "file",
+                                                    fileName,
                                                     content,
-                                                    "application/octet-stream");
-        } catch (AssertionError e) {
-            throw new ITunesUException(e);
-        } catch (FileNotFoundException e) {
-            throw new ITunesUException(e);
-        }
+                                                    contentLength,
+                                                    "application/octet-stream",
+                                                    StringResponseHandler.INSTANCE);
+            }
+        });
 
         if ("!".equals(response)) {
             throw new ITunesUException("Error uploading content");
@@ -955,7 +1336,38 @@ public class ITunesUConnection {
     }
 
     /**
-     * Uploads file content to iTunesU.
+     * Uploads file content to iTunesU. The upload URL is taken from the
+     * {@link UploadUrlProvider} if one is installed. A stream cannot be
+     * read twice, so a failed upload is not retried.
+     *
+     * @param handle Handle for the destination.
+     * @param fileName Name of the file to upload.
+     * @param content Stream of the file content.
+     * @param contentLength Length of the file, in bytes.
+     */
+    public String uploadContent(String handle,
+                                String fileName,
+                                final InputStream content,
+                                long contentLength) throws ITunesUException {
+        return this.uploadContent(handle,
+                                  fileName,
+                                  new ITunesUTransport.RequestBody() {
+                                      public void writeTo(OutputStream output)
+                                          throws IOException {
+                                          byte[] buffer = new byte[16 * 1024];
+                                          for (int n; (n = content.read(buffer)) >= 0;) {
+                                              output.write(buffer, 0, n);
+                                          }
+                                      }
+                                  },
+                                  contentLength,
+                                  this.uploadUrlProvider,
+                                  false);
+    }
+
+    /**
+     * Uploads file content to iTunesU. Kept for clients compiled against
+     * the <code>int</code> signature.
      *
      * @param handle Handle for the destination.
      * @param fileName Name of the file to upload.
@@ -966,87 +1378,326 @@ public class ITunesUConnection {
                                 String fileName,
                                 InputStream content,
                                 int contentLength) throws ITunesUException {
-        ITunesUFilePOST iTunesUFilePOST = new ITunesUFilePOST();
-        String uploadUrl = this.getUploadUrl(handle, false);
+        return this.uploadContent(handle, fileName, content, (long) contentLength);
+    }
 
-        String response;
+    /**
+     * Copies elements answered by the site cache, which must not be
+     * modified by callers.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T extends ITunesUElement> List<T> copies(List<T> elements)
+        throws ITunesUException {
 
-        try {
-            response = iTunesUFilePOST.invokeAction(uploadUrl,
-                                                    "file",
-                                                    fileName,
-                                                    content,
-                                                    contentLength,
-                                                    "application/octet-stream");
-        } catch (AssertionError e) {
-            throw new ITunesUException(e);
+        List<T> result = new ArrayList<T>(elements.size());
+        for (T element : elements) {
+            result.add((T) ModelSupport.copyOf(element));
         }
+        return result;
+    }
 
-        if ("!".equals(response)) {
-            throw new ITunesUException("Error uploading content");
+    private ITunesUResponse send(String handle, ITunesUDocument doc)
+        throws ITunesUException {
+
+        ITunesUResponse response = this.limitedRequest(handle, doc);
+        if (response.getError() != null && !"".equals(response.getError())) {
+            throw new ITunesUException(response.getError());
         } else {
+            if (this.siteCache != null) {
+                this.siteCache.apply(doc, response);
+            }
             return response;
         }
     }
 
-    private ITunesUResponse send(String handle, ITunesUDocument doc)
+    private ITunesUResponse limitedRequest(String handle, ITunesUDocument doc)
         throws ITunesUException {
 
-        String result;
+        AdaptiveConcurrencyLimiter limiter = this.writeLimiter;
+        if (limiter == null) {
+            return this.request(handle, doc);
+        }
 
+        long start;
         try {
-            result = this.execute(handle, doc.toXml());
-        } catch (ParserConfigurationException e) {
+            start = limiter.acquire(Deadline.current());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             throw new ITunesUException(e);
-        } catch (TransformerException e) {
+        } catch (DeadlineExceededException e) {
             throw new ITunesUException(e);
         }
-
-        ITunesUResponse response = ITunesUResponse.fromXml(result);
-        if (response.getError() != null && !"".equals(response.getError())) {
-            throw new ITunesUException(response.getError());
-        } else {
-            return response;
+        boolean dropped = false;
+        try {
+            return this.request(handle, doc);
+        } catch (ITunesUException e) {
+            // Errors reported by iTunes U say nothing about its load.
+            dropped = e instanceof CircuitOpenException
+                || (e.getCause() instanceof IOException
+                    && ITunesUTransportException.isRetryable((IOException) e.getCause()));
+            throw e;
+        } finally {
+            limiter.release(start, dropped);
         }
     }
 
-    private String execute(String handle, String xml)
+    private ITunesUResponse request(String handle, ITunesUDocument doc)
         throws ITunesUException {
 
-        String url = this.getUploadUrl(handle, true);
+        return this.execute(handle, doc, RESPONSE_PARSER);
+    }
 
-        ITunesUFilePOST iTunesUFilePOST = new ITunesUFilePOST();
-        try {
-            if (this.debug) System.err.println("Request URL:\n" + url);
-            if (this.debug) System.err.println("Request Body:\n" + xml);
+    private String execute(String handle, ITunesUDocument doc)
+        throws ITunesUException {
+
+        return this.execute(handle, doc, StringResponseHandler.INSTANCE);
+    }
+
+    private <T> T execute(final String handle,
+                          final ITunesUDocument doc,
+                          final ITunesUTransport.ResponseHandler<T> handler)
+        throws ITunesUException {
+
+        return this.call(doc.getMethod(), new Attempt<T>() {
+            private String url;
+
+            public void prepare() throws ITunesUException {
+                // Upload URLs are fetched again for every attempt.
+                this.url = ITunesUConnection.this.getXmlUploadUrl(handle);
+            }
+
+            public T run() throws IOException, ITunesUException {
+                return ITunesUConnection.this.postDocument(this.url, doc, handler);
+            }
+        });
+    }
+
+    private String getXmlUploadUrl(String handle) throws ITunesUException {
+        return (this.uploadUrlProvider != null
+                ? this.uploadUrlProvider.getUploadUrl(handle, true)
+                : this.getUploadUrl(handle, true));
+    }
+
+    /**
+     * Returns the site cache, unless the calling thread has a
+     * {@link CallContext}: the cache holds what the connection's own
+     * credentials can see.
+     */
+    private SiteCache sharedSiteCache() {
+        return CallContext.current() == null ? this.siteCache : null;
+    }
+
+    private void checkMutable() {
+        if (this.config != null) {
+            throw new IllegalStateException("Connection was created from an ITunesUConfig");
+        }
+    }
+
+    private <T> T postDocument(String url,
+                               ITunesUDocument doc,
+                               ITunesUTransport.ResponseHandler<T> handler)
+        throws IOException {
+
+        ITunesUFilePOST iTunesUFilePOST = new ITunesUFilePOST(this.transport);
+        if (this.debug) System.err.println("Request URL:\n" + url);
+        if (this.debug) System.err.println("Request Body:\n" + doc.toXml(true));
+        if (this.debug) {
             String response = iTunesUFilePOST.invokeAction(url,
                                                            "file",
                                                            "file.xml",
-                                                           xml,
-                                                           "text/xml");
-            if (this.debug) System.err.println("Response Body:\n" + response);
-            return response;
-        } catch (AssertionError e) {
-            throw new ITunesUException(e);
+                                                           doc,
+                                                           "text/xml",
+                                                           StringResponseHandler.INSTANCE);
+            System.err.println("Response Body:\n" + response);
+            return handler.handleResponse(new ByteArrayInputStream(response.getBytes("UTF-8")));
         }
+        return iTunesUFilePOST.invokeAction(url,
+                                            "file",
+                                            "file.xml",
+                                            doc,
+                                            "text/xml",
+                                            handler);
     }
 
-    private String generateToken() throws ITunesUException {
-        ITunesU iTunesU = new ITunesU();
+    private String invokeAction(String operation, String url) throws ITunesUException {
+        return this.invokeAction(operation, url, StringResponseHandler.INSTANCE);
+    }
+
+    private <T> T invokeAction(String operation,
+                               final String url,
+                               final ITunesUTransport.ResponseHandler<T> handler)
+        throws ITunesUException {
+
+        return this.call(operation, new Attempt<T>() {
+            public T run() throws IOException, ITunesUException {
+                return ITunesUConnection.this.postToken(url, handler);
+            }
+        });
+    }
+
+    private <T> T postToken(String url,
+                            ITunesUTransport.ResponseHandler<T> handler)
+        throws IOException, ITunesUException {
+
+        if (this.debug) System.err.println("Request URL:\n" + url);
+        ByteArrayRequestBody token =
+            new ByteArrayRequestBody(this.generateToken().getBytes("UTF-8"));
+        if (this.debug) {
+            String response = this.transport.post(url,
+                                                  "application/x-www-form-urlencoded; charset=UTF-8",
+                                                  token.getLength(),
+                                                  token,
+                                                  StringResponseHandler.INSTANCE);
+            System.err.println("Response Body:\n" + response);
+            return handler.handleResponse(new ByteArrayInputStream(response.getBytes("UTF-8")));
+        }
+        return this.transport.post(url,
+                                   "application/x-www-form-urlencoded; charset=UTF-8",
+                                   token.getLength(),
+                                   token,
+                                   handler);
+    }
 
-        String credentials = iTunesU.getCredentialsString(this.credentials);
-        String identity = this.identity == null ? "" : this.identity;
-        Date now = new Date();
-        byte[] key;
+    /**
+     * Sends a request through the circuit breaker, and sends it again
+     * after temporary failures if the retry policy allows.
+     *
+     * @param operation The API method, such as "ShowTree".
+     */
+    private <T> T call(String operation, Attempt<T> attempt)
+        throws ITunesUException {
+
+        if (Deadline.current() != null || this.callTimeoutMillis <= 0) {
+            return this.callWithRetries(operation, attempt, Deadline.current());
+        }
+
+        Deadline deadline = Deadline.afterMillis(this.callTimeoutMillis);
+        Deadline previous = Deadline.setCurrent(deadline);
+        try {
+            return this.callWithRetries(operation, attempt, deadline);
+        } finally {
+            Deadline.setCurrent(previous);
+        }
+    }
+
+    private <T> T callWithRetries(String operation, Attempt<T> attempt, Deadline deadline)
+        throws ITunesUException {
+
+        RetryPolicy retryPolicy = this.retryPolicy;
+        CircuitBreaker circuitBreaker = this.circuitBreaker;
+        boolean idempotent = retryPolicy != null && retryPolicy.isIdempotent(operation);
+        if (retryPolicy != null) {
+            retryPolicy.onRequest(operation);
+        }
+
+        for (int attemptNumber = 1; ; attemptNumber++) {
+            attempt.prepare();
+            checkDeadline(operation, deadline);
+            if (circuitBreaker != null && !circuitBreaker.tryAcquire()) {
+                throw new CircuitOpenException(operation + ": circuit breaker is open");
+            }
+
+            // Only an answer from iTunes U, even an error, counts as a
+            // success for the breaker.
+            boolean answered = false;
+            boolean failed = false;
+            try {
+                T result = attempt.run();
+                answered = true;
+                return result;
+            } catch (IOException e) {
+                boolean retryable = !(e instanceof ResponseParseException)
+                    && (retryPolicy != null
+                        ? retryPolicy.isRetryable(e)
+                        : ITunesUTransportException.isRetryable(e));
+                if (circuitBreaker != null && retryable) {
+                    circuitBreaker.onFailure();
+                    failed = true;
+                }
+                answered = e instanceof ResponseParseException
+                    || (e instanceof ITunesUTransportException
+                        && ((ITunesUTransportException) e).getStatusCode() >= 0);
+                if (!retryable
+                    || !idempotent
+                    || !attempt.isRepeatable()
+                    || attemptNumber >= retryPolicy.getMaxAttempts()) {
+                    throw toITunesUException(e);
+                }
+                long delay = retryPolicy.getDelayMillis(attemptNumber, e);
+                if ((deadline != null && delay >= deadline.getRemainingMillis())
+                    || !retryPolicy.tryRetry(operation)) {
+                    throw toITunesUException(e);
+                }
+                if (this.debug) System.err.println("Retrying " + operation + " after " + e);
+                sleep(delay);
+            } finally {
+                if (circuitBreaker != null && !failed) {
+                    if (answered) {
+                        circuitBreaker.onSuccess();
+                    } else {
+                        circuitBreaker.release();
+                    }
+                }
+            }
+        }
+    }
+
+    private static void checkDeadline(String operation, Deadline deadline)
+        throws ITunesUException {
+
+        if (deadline != null) {
+            try {
+                deadline.check(operation);
+            } catch (DeadlineExceededException e) {
+                throw new ITunesUException(e);
+            }
+        }
+    }
 
+    private static void sleep(long millis) throws ITunesUException {
         try {
-            key = sharedSecret.getBytes("US-ASCII");
-        } catch (UnsupportedEncodingException e) {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             throw new ITunesUException(e);
         }
+    }
 
-        String token = iTunesU.getAuthorizationToken(credentials, identity, now, key);
-        return token;
+    private static ITunesUException toITunesUException(IOException e) {
+        if (e instanceof ResponseParseException) {
+            return (ITunesUException) e.getCause();
+        } else {
+            return new ITunesUException(e);
+        }
+    }
+
+    private String generateToken() throws ITunesUException {
+        CallContext context = CallContext.current();
+        CredentialSet credentialSet = context != null ? context.getCredentialSet() : null;
+        if (credentialSet == null) {
+            credentialSet = this.getCredentialSet();
+        }
+
+        byte[] identity = (context != null
+                           ? context.getEncodedIdentityBytes()
+                           : this.encodedIdentity);
+        return this.tokenSigner.getAuthorizationToken(credentialSet.getEncodedBytes(),
+                                                      identity,
+                                                      identity.length,
+                                                      System.currentTimeMillis() / 1000);
+    }
+
+    private CredentialSet getCredentialSet() throws ITunesUException {
+        CredentialSet credentialSet = this.credentialSet;
+        if (credentialSet == null) {
+            try {
+                credentialSet = new CredentialSet(this.credentials);
+            } catch (IllegalArgumentException e) {
+                throw new ITunesUException(e.getMessage());
+            }
+            this.credentialSet = credentialSet;
+        }
+        return credentialSet;
     }
 
     private String getDestination(String handle) {
@@ -1063,6 +1714,10 @@ public class ITunesUConnection {
         return destination;
     }
 
+    private String getShowTreeUrl(String handle) {
+        return this.getPrefix() + "/API/ShowTree/" + this.getDestination(handle);
+    }
+
     private String getPrefix() {
         return this.siteUrl.substring(0, this.siteUrl.indexOf(".woa/") + 4);
     }
@@ -1071,52 +1726,125 @@ public class ITunesUConnection {
         return this.siteUrl.substring(this.siteUrl.lastIndexOf('/') + 1);
     }
 
-    private static List<Element> getElementsByXPath(String xml, String pattern)
+    /**
+     * Sends a ShowTree request, or joins an identical one in flight.
+     *
+     * @param keyGroup The key group, or null for the URL-based request.
+     */
+    private ShowTreeResult showTreeResult(final String handle, final String keyGroup)
         throws ITunesUException {
-        DocumentBuilderFactory docFactory =
-            DocumentBuilderFactory.newInstance();
-        DocumentBuilder docBuilder;
-        try {
-            docBuilder = docFactory.newDocumentBuilder();
-        } catch (ParserConfigurationException e) {
-            throw new ITunesUException(e);
+
+        SingleFlight.Call<ShowTreeResult> call = new SingleFlight.Call<ShowTreeResult>() {
+            public ShowTreeResult call() throws ITunesUException {
+                String xml;
+                if (keyGroup == null) {
+                    xml = ITunesUConnection.this.invokeAction(
+                        "ShowTree", ITunesUConnection.this.getShowTreeUrl(handle));
+                } else {
+                    xml = ITunesUConnection.this.execute(
+                        null, ITunesUDocument.buildShowTree(handle, keyGroup));
+                }
+                return new ShowTreeResult(xml);
+            }
+        };
+
+        if (!this.coalesceRequests) {
+            return call.call();
         }
-        Document doc;
-        try {
-            doc = docBuilder.parse(new InputSource(new StringReader(xml)));
-        } catch (SAXException e) {
-            throw new ITunesUException(e);
-        } catch (IOException e) {
-            throw new ITunesUException(e);
+        // Callers with different identities must not share a result.
+        return this.showTreeFlights.execute(
+            Arrays.<Object>asList(handle, keyGroup, CallContext.current()), call);
+    }
+
+    /**
+     * The XML of a ShowTree response, parsed on first use. Callers that
+     * share a result must hold its lock while reading the parsed nodes.
+     */
+    private static class ShowTreeResult {
+        private final String xml;
+        private Document document;
+
+        public ShowTreeResult(String xml) {
+            this.xml = xml;
         }
-        XPathFactory factory = XPathFactory.newInstance();
-        XPath xpath = factory.newXPath();
-        XPathExpression expr;
-        try {
-            expr = xpath.compile(pattern);
-        } catch (XPathExpressionException e) {
-            throw new ITunesUException(e);
+
+        public String getXml() {
+            return this.xml;
         }
-        NodeList nodeList;
-        try {
-            nodeList = (NodeList) expr.evaluate(doc, XPathConstants.NODESET);
-        } catch (XPathExpressionException e) {
-            throw new ITunesUException(e);
+
+        public synchronized List<Element> getElements(String pattern)
+            throws ITunesUException {
+
+            if (this.document == null) {
+                this.document = XmlSupport.parse(this.xml);
+            }
+            return XmlSupport.getElementsByXPath(this.document, pattern);
         }
-        List<Element> result = new ArrayList<Element>();
-        for (int i = 0; i < nodeList.getLength(); i++) {
-            result.add((Element) nodeList.item(i));
+
+        public synchronized Element getElement(String pattern)
+            throws ITunesUException {
+
+            List<Element> elements = this.getElements(pattern);
+            if (elements.size() > 0) {
+                return elements.get(0);
+            } else {
+                return null;
+            }
         }
-        return result;
     }
-    
-    private static Element getElementByXPath(String xml, String pattern)
-        throws ITunesUException {
-        List<Element> elements = getElementsByXPath(xml, pattern);
-        if (elements.size() > 0) {
-            return elements.get(0);
-        } else {
-            return null;
+
+    /**
+     * Supplies upload URLs, such as an {@link UploadUrlProvider}.
+     */
+    interface UploadUrlSource {
+        public String getUploadUrl(String handle, boolean forXml) throws ITunesUException;
+    }
+
+    /**
+     * One attempt at a request.
+     */
+    private abstract static class Attempt<T> {
+        /**
+         * Prepares the attempt before the circuit breaker is consulted.
+         */
+        public void prepare() throws ITunesUException {
+        }
+
+        /**
+         * Tells whether the attempt may be run again after a failure.
+         */
+        public boolean isRepeatable() {
+            return true;
+        }
+
+        public abstract T run() throws IOException, ITunesUException;
+    }
+
+    /**
+     * Parses an {@link ITunesUResponse} while it is being received.
+     */
+    private static class ResponseParser
+        implements ITunesUTransport.ResponseHandler<ITunesUResponse> {
+
+        public ITunesUResponse handleResponse(InputStream input)
+            throws IOException {
+
+            try {
+                return ITunesUResponse.fromStream(input);
+            } catch (ITunesUException e) {
+                throw new ResponseParseException(e);
+            }
+        }
+    }
+
+    /**
+     * Carries a parse failure out of a transport as an IOException.
+     */
+    private static class ResponseParseException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public ResponseParseException(ITunesUException cause) {
+            super(cause);
         }
     }
 }
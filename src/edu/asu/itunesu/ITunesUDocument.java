@@ -27,22 +27,20 @@
 
 package edu.asu.itunesu;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.StringWriter;
+import java.io.Writer;
 
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -78,9 +76,7 @@ public class ITunesUDocument {
     }
 
     public Document toXmlDocument() throws ParserConfigurationException {
-        DocumentBuilderFactory docFactory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder docBuilder = docFactory.newDocumentBuilder();
-        Document doc = docBuilder.newDocument();
+        Document doc = XmlSupport.newDocument();
 
         Element root = doc.createElement("ITunesUDocument");
         doc.appendChild(root);
@@ -113,25 +109,61 @@ public class ITunesUDocument {
         return doc;
     }
 
-    public String toXml()
-        throws ParserConfigurationException,
-               TransformerException {
+    /**
+     * Streams the request to the writer without building a DOM.
+     */
+    public void writeXml(XmlWriter writer) throws IOException {
+        writer.startElement("ITunesUDocument");
+        writer.element("Version", VERSION);
+        writer.startElement(this.method);
+        for (String name : this.arguments.keySet()) {
+            Object value = this.arguments.get(name);
+            if (value instanceof String) {
+                writer.element(name, (String) value);
+            } else if (value instanceof List) {
+                List<?> elementList = (List<?>) value;
+                for (Object object : elementList) {
+                    ((ITunesUElement) object).writeXml(writer);
+                }
+            } else {
+                ((ITunesUElement) value).writeXml(writer);
+            }
+        }
+        writer.endElement();
+        writer.endElement();
+        writer.flush();
+    }
 
-        Document doc = this.toXmlDocument();
+    public void writeXml(Writer writer, boolean indent) throws IOException {
+        this.writeXml(new XmlWriter(writer, indent));
+    }
 
-        TransformerFactory transFactory = TransformerFactory.newInstance();
-        Transformer trans = transFactory.newTransformer();
-        trans.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
-        trans.setOutputProperty(OutputKeys.INDENT, "yes");
+    /**
+     * Writes the request as UTF-8. The stream is flushed but not closed.
+     */
+    public void writeXml(OutputStream output, boolean indent) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(output, "UTF-8"));
+        this.writeXml(writer, indent);
+    }
 
+    public String toXml(boolean indent) {
         StringWriter writer = new StringWriter();
-        StreamResult result = new StreamResult(writer);
-        DOMSource source = new DOMSource(doc);
-        trans.transform(source, result);
-
+        try {
+            this.writeXml(writer, indent);
+        } catch (IOException e) {
+            // StringWriter does not throw IOException.
+            throw new RuntimeException(e);
+        }
         return writer.toString();
     }
 
+    public String toXml()
+        throws ParserConfigurationException,
+               TransformerException {
+
+        return this.toXml(true);
+    }
+
     public static ITunesUDocument buildShowTree(String handle, String keyGroup) {
         Map<String, Object> arguments = new LinkedHashMap<String, Object>();
         arguments.put("Handle", handle);
@@ -27,17 +27,11 @@
 
 package edu.asu.itunesu;
 
+import java.io.IOException;
 import java.io.StringWriter;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -47,28 +41,27 @@ import org.w3c.dom.Element;
  */
 public abstract class ITunesUElement {
     public abstract Element toXmlElement(Document doc);
-    
+
+    /**
+     * Writes this element to the writer. The default builds the element
+     * with {@link #toXmlElement(Document)}; subclasses override it to
+     * stream without building a DOM.
+     */
+    public void writeXml(XmlWriter writer) throws IOException {
+        writer.element(this.toXmlElement(ModelSupport.newDocument()));
+    }
+
     public String toXml()
         throws ParserConfigurationException,
                TransformerException {
 
-        DocumentBuilderFactory docFactory =
-            DocumentBuilderFactory.newInstance();
-        DocumentBuilder docBuilder = docFactory.newDocumentBuilder();
-        Document doc = docBuilder.newDocument();
-    
-        doc.appendChild(this.toXmlElement(doc));
-    
-        TransformerFactory transFactory = TransformerFactory.newInstance();
-        Transformer trans = transFactory.newTransformer();
-        trans.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
-        trans.setOutputProperty(OutputKeys.INDENT, "yes");
-    
         StringWriter writer = new StringWriter();
-        StreamResult result = new StreamResult(writer);
-        DOMSource source = new DOMSource(doc);
-        trans.transform(source, result);
-    
+        try {
+            this.writeXml(new XmlWriter(writer, true));
+        } catch (IOException e) {
+            // StringWriter does not throw IOException.
+            throw new RuntimeException(e);
+        }
         return writer.toString();
     }
 }
@@ -27,144 +27,187 @@
 
 package edu.asu.itunesu;
 
-import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.Reader;
-import java.io.UnsupportedEncodingException;
-
-import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.URL;
 
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
 class ITunesUFilePOST {
+    private ITunesUTransport transport;
+
+    public ITunesUFilePOST(ITunesUTransport transport) {
+        this.transport = transport;
+    }
+
     public String invokeAction(String url,
                                String name,
                                String fileName,
                                String data,
-                               String contentType) {
-        InputStream dataStream;
-        int contentLength = 0;
+                               String contentType) throws IOException {
+        return this.invokeAction(url,
+                                 name,
+                                 fileName,
+                                 data,
+                                 contentType,
+                                 StringResponseHandler.INSTANCE);
+    }
 
-        try {
-            byte[] bytes = data.getBytes("UTF-8");
-            dataStream = new ByteArrayInputStream(bytes);
-            contentLength = bytes.length;
-        } catch (UnsupportedEncodingException e) {
-            throw new RuntimeException(e);
-        }
+    public <T> T invokeAction(String url,
+                              String name,
+                              String fileName,
+                              String data,
+                              String contentType,
+                              ITunesUTransport.ResponseHandler<T> handler)
+        throws IOException {
 
+        byte[] bytes = data.getBytes("UTF-8");
         return this.invokeAction(url,
                                  name,
                                  fileName,
-                                 dataStream,
-                                 contentLength,
-                                 contentType);
+                                 new ByteArrayInputStream(bytes),
+                                 bytes.length,
+                                 contentType,
+                                 handler);
     }
 
     public String invokeAction(String url,
                                String name,
                                File dataFile,
-                               String contentType)
-        throws FileNotFoundException {
+                               String contentType) throws IOException {
+        return this.invokeAction(url,
+                                 name,
+                                 dataFile,
+                                 contentType,
+                                 StringResponseHandler.INSTANCE);
+    }
 
-        InputStream dataStream = new FileInputStream(dataFile);
+    /**
+     * Sends a file of any size, streamed from a FileChannel.
+     */
+    public <T> T invokeAction(String url,
+                              String name,
+                              File dataFile,
+                              String contentType,
+                              ITunesUTransport.ResponseHandler<T> handler)
+        throws IOException {
+
+        FileRequestBody body = new FileRequestBody(dataFile);
         return this.invokeAction(url,
                                  name,
                                  dataFile.getName(),
-                                 dataStream,
-                                 (int) dataFile.length(),
-                                 contentType);
+                                 body,
+                                 body.getLength(),
+                                 contentType,
+                                 handler);
     }
 
     public String invokeAction(String url,
                                String name,
                                String fileName,
                                InputStream dataStream,
-                               int contentLength,
-                               String contentType) {
+                               long contentLength,
+                               String contentType) throws IOException {
+        return this.invokeAction(url,
+                                 name,
+                                 fileName,
+                                 dataStream,
+                                 contentLength,
+                                 contentType,
+                                 StringResponseHandler.INSTANCE);
+    }
 
-        // Send a request to iTunes U and record the response.
-        StringBuffer response = null;
+    public <T> T invokeAction(String url,
+                              String name,
+                              String fileName,
+                              final InputStream dataStream,
+                              long contentLength,
+                              String contentType,
+                              ITunesUTransport.ResponseHandler<T> handler)
+        throws IOException {
 
-        try {
-            // Verify that the communication will be over SSL.
-            if (!url.startsWith("https")) {
-                throw new MalformedURLException("ITunesUFilePOST.invokeAction(): URL \""
-                                                + url + "\" does not use HTTPS.");
-            }
-
-            String boundary = createBoundary();
-
-            byte[] header = ("--" + boundary + "\r\n"
-                             + "Content-Disposition: form-data; name=\"" + name
-                             + "\"; filename=\"" + fileName + "\"\r\n"
-                             + "Content-Type: " + contentType + "\r\n"
-                             + "\r\n").getBytes("UTF-8");
-            contentLength += header.length;
-
-            byte[] footer = ("\r\n--" + boundary + "--\r\n").getBytes("UTF-8");
-            contentLength += footer.length;
-
-            // Create a connection to the requested iTunes U URL.
-            HttpURLConnection connection =
-                (HttpURLConnection) new URL(url).openConnection();
-            connection.setUseCaches(false);
-            connection.setDoOutput(true);
-            connection.setRequestMethod("POST");
-            connection.setRequestProperty("Content-Type",
-                                          "multipart/form-data; boundary=\""
-                                          + boundary + "\"");
-            connection.setFixedLengthStreamingMode(contentLength);
-
-            // Send the multipart data to iTunes U.
-            connection.connect();
-            OutputStream output = connection.getOutputStream();
-            output.write(header);
-            byte[] dataBuffer = new byte[16 * 1024];
-            for (int n = 0; n >= 0;) {
-                n = dataStream.read(dataBuffer, 0, dataBuffer.length);
-                if (n > 0) output.write(dataBuffer, 0, n);
-            }
-            output.write(footer);
-            output.flush();
-            output.close();
-
-            // Read iTunes U's response.
-            response = new StringBuffer();
-            InputStream input = connection.getInputStream();
-            Reader reader = new InputStreamReader(input, "UTF-8");
-            reader = new BufferedReader(reader);
-            char[] buffer = new char[16 * 1024];
-            for (int n = 0; n >= 0;) {
-                n = reader.read(buffer, 0, buffer.length);
-                if (n > 0) response.append(buffer, 0, n);
-            }
-
-            // Clean up.
-            input.close();
-            connection.disconnect();
-
-        } catch (UnsupportedEncodingException e) {
-            // ITunes U requires UTF-8 and ASCII encoding support.
-            throw new java.lang.AssertionError("ITunesUFilePOST.invokeAction(): UTF-8 encoding not supported!");
-
-        } catch (IOException e) {
-            // Report communication problems.
-            throw new java.lang.AssertionError("ITunesUFilePOST.invokeAction(): I/O Exception " + e);
-        }
+        return this.invokeAction(url,
+                                 name,
+                                 fileName,
+                                 new ITunesUTransport.RequestBody() {
+                                     public void writeTo(OutputStream output)
+                                         throws IOException {
+                                         byte[] dataBuffer = new byte[16 * 1024];
+                                         for (int n = 0; n >= 0;) {
+                                             n = dataStream.read(dataBuffer, 0, dataBuffer.length);
+                                             if (n > 0) output.write(dataBuffer, 0, n);
+                                         }
+                                     }
+                                 },
+                                 contentLength,
+                                 contentType,
+                                 handler);
+    }
+
+    /**
+     * Sends a request document, serialized straight into the multipart
+     * body. The document is written once to measure it and once more onto
+     * the connection.
+     */
+    public <T> T invokeAction(String url,
+                              String name,
+                              String fileName,
+                              final ITunesUDocument document,
+                              String contentType,
+                              ITunesUTransport.ResponseHandler<T> handler)
+        throws IOException {
+
+        CountingOutputStream counter = new CountingOutputStream();
+        document.writeXml(counter, false);
+
+        return this.invokeAction(url,
+                                 name,
+                                 fileName,
+                                 new ITunesUTransport.RequestBody() {
+                                     public void writeTo(OutputStream output)
+                                         throws IOException {
+                                         document.writeXml(output, false);
+                                     }
+                                 },
+                                 counter.getCount(),
+                                 contentType,
+                                 handler);
+    }
 
-        // Return the response received from iTunes U.
-        return response.toString();
+    public <T> T invokeAction(String url,
+                              String name,
+                              String fileName,
+                              final ITunesUTransport.RequestBody data,
+                              long contentLength,
+                              String contentType,
+                              ITunesUTransport.ResponseHandler<T> handler)
+        throws IOException {
+
+        String boundary = createBoundary();
+
+        final byte[] header = ("--" + boundary + "\r\n"
+                               + "Content-Disposition: form-data; name=\"" + name
+                               + "\"; filename=\"" + fileName + "\"\r\n"
+                               + "Content-Type: " + contentType + "\r\n"
+                               + "\r\n").getBytes("UTF-8");
+        final byte[] footer = ("\r\n--" + boundary + "--\r\n").getBytes("UTF-8");
+
+        // Send the multipart data to iTunes U and handle its response.
+        return this.transport.post(url,
+                                   "multipart/form-data; boundary=\"" + boundary + "\"",
+                                   header.length + contentLength + footer.length,
+                                   new ITunesUTransport.RequestBody() {
+                                       public void writeTo(OutputStream output)
+                                           throws IOException {
+                                           output.write(header);
+                                           data.writeTo(output);
+                                           output.write(footer);
+                                       }
+                                   },
+                                   handler);
     }
 
     private static String createBoundary() {
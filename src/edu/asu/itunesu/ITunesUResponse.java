@@ -27,17 +27,14 @@
 
 package edu.asu.itunesu;
 
-import java.io.IOException;
-import java.io.StringReader;
+import java.io.InputStream;
 import java.io.StringWriter;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.OutputKeys;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 
@@ -45,8 +42,6 @@ import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
 
 /**
  * A response from an iTunesU Web Services API call.
@@ -127,17 +122,11 @@ public class ITunesUResponse {
     public String toXml()
         throws ParserConfigurationException,
                TransformerException {
-        DocumentBuilderFactory docFactory =
-            DocumentBuilderFactory.newInstance();
-        DocumentBuilder docBuilder = docFactory.newDocumentBuilder();
-        Document doc = docBuilder.newDocument();
+        Document doc = XmlSupport.newDocument();
 
         doc.appendChild(this.toXmlElement(doc));
 
-        TransformerFactory transFactory = TransformerFactory.newInstance();
-        Transformer trans = transFactory.newTransformer();
-        trans.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
-        trans.setOutputProperty(OutputKeys.INDENT, "yes");
+        Transformer trans = XmlSupport.getIndentingTransformer();
 
         StringWriter writer = new StringWriter();
         StreamResult result = new StreamResult(writer);
@@ -174,23 +163,51 @@ public class ITunesUResponse {
         return new ITunesUResponse(version, error, addedObjectHandle, site);
     }
 
-    public static ITunesUResponse fromXml(String xml) throws ITunesUException {
-        DocumentBuilderFactory docFactory =
-            DocumentBuilderFactory.newInstance();
-        DocumentBuilder docBuilder;
-        try {
-            docBuilder = docFactory.newDocumentBuilder();
-        } catch (ParserConfigurationException e) {
-            throw new ITunesUException(e);
+    public static ITunesUResponse fromXmlStream(XMLStreamReader reader)
+        throws ITunesUException, XMLStreamException {
+        XmlStreamSupport.requireStartElement(reader, "ITunesUResponse");
+        String version = null;
+        String error = null;
+        String addedObjectHandle = null;
+        Site site = null;
+        while (XmlStreamSupport.nextChildElement(reader)) {
+            String childName = reader.getLocalName();
+            if ("Version".equals(childName)) {
+                version = XmlStreamSupport.getTextContent(reader);
+            } else if ("error".equals(childName)) {
+                error = XmlStreamSupport.getTextContent(reader);
+            } else if ("AddedObjectHandle".equals(childName)) {
+                addedObjectHandle = XmlStreamSupport.getTextContent(reader);
+            } else {
+                site = Site.fromXmlStream(reader);
+            }
         }
-        Document doc;
+        return new ITunesUResponse(version, error, addedObjectHandle, site);
+    }
+
+    public static ITunesUResponse fromXml(String xml) throws ITunesUException {
+        return ITunesUResponse.fromXmlElement(XmlSupport.parse(xml).getDocumentElement());
+    }
+
+    /**
+     * Reads a response from a stream of XML, building the model objects
+     * directly from parser events instead of from a DOM tree. Produces
+     * the same result as {@link #fromXml(String)}.
+     *
+     * @param input A stream of XML. It is not closed by this method.
+     */
+    public static ITunesUResponse fromStream(InputStream input)
+        throws ITunesUException {
+
         try {
-            doc = docBuilder.parse(new InputSource(new StringReader(xml)));
-        } catch (SAXException e) {
-            throw new ITunesUException(e);
-        } catch (IOException e) {
+            XMLStreamReader reader = XmlStreamSupport.createReader(input);
+            try {
+                return ITunesUResponse.fromXmlStream(reader);
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
             throw new ITunesUException(e);
         }
-        return ITunesUResponse.fromXmlElement(doc.getDocumentElement());
     }
 }
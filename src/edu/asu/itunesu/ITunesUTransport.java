@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2007-2008, Arizona State University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Arizona State University nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY ARIZONA STATE UNIVERSITY ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL ARIZONA STATE UNIVERSITY BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.asu.itunesu;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Performs the network I/O for an {@link ITunesUConnection}.
+ * Implementations must be safe for use by multiple threads.
+ *
+ * @see PooledHttpTransport
+ */
+public interface ITunesUTransport {
+    /**
+     * Writes the body of a request.
+     */
+    public interface RequestBody {
+        public void writeTo(OutputStream output) throws IOException;
+    }
+
+    /**
+     * Reads the body of a response.
+     */
+    public interface ResponseHandler<T> {
+        public T handleResponse(InputStream input) throws IOException;
+    }
+
+    /**
+     * Sends a POST request to iTunes U.
+     *
+     * @param url The URL to post to. Must use HTTPS.
+     * @param contentType The value of the Content-Type header.
+     * @param contentLength The exact length of the request body, in bytes.
+     * @param body Writes the request body.
+     * @param handler Reads the response body. The transport closes
+     *                the stream after the handler returns.
+     * @return The value returned by the handler.
+     */
+    public <T> T post(String url,
+                      String contentType,
+                      long contentLength,
+                      RequestBody body,
+                      ResponseHandler<T> handler) throws IOException;
+}
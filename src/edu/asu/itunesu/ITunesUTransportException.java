@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2007-2008, Arizona State University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Arizona State University nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY ARIZONA STATE UNIVERSITY ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL ARIZONA STATE UNIVERSITY BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.asu.itunesu;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+
+import javax.net.ssl.SSLHandshakeException;
+
+/**
+ * A failed exchange with iTunes U, raised by an {@link ITunesUTransport}
+ * when the server answers with an HTTP error status. Tells whether the
+ * same request may succeed if it is sent again.
+ */
+public class ITunesUTransportException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final int statusCode;
+    private final boolean retryable;
+    private final long retryAfterMillis;
+
+    /**
+     * Constructor.
+     *
+     * @param message The detail message.
+     * @param statusCode The HTTP status code, or -1 if there was no response.
+     * @param retryable Whether sending the request again may succeed.
+     * @param retryAfterMillis How long the server asked clients to wait
+     *                         before retrying, or 0.
+     * @param cause The underlying exception, or null.
+     */
+    public ITunesUTransportException(String message,
+                                     int statusCode,
+                                     boolean retryable,
+                                     long retryAfterMillis,
+                                     Throwable cause) {
+        super(message, cause);
+        this.statusCode = statusCode;
+        this.retryable = retryable;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public int getStatusCode() {
+        return this.statusCode;
+    }
+
+    public boolean isRetryable() {
+        return this.retryable;
+    }
+
+    public long getRetryAfterMillis() {
+        return this.retryAfterMillis;
+    }
+
+    /**
+     * Tells whether an HTTP status reports a temporary condition: a
+     * timeout, throttling, or an unavailable or failing server.
+     */
+    public static boolean isRetryableStatus(int statusCode) {
+        switch (statusCode) {
+        case 408:
+        case 429:
+        case 500:
+        case 502:
+        case 503:
+        case 504:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Tells whether a request that failed with an exception may succeed
+     * if it is sent again. Connection resets, refused connections and
+     * timeouts are retryable; bad URLs, unknown hosts, failed TLS
+     * handshakes and interruptions are not.
+     */
+    public static boolean isRetryable(IOException e) {
+        if (e instanceof ITunesUTransportException) {
+            return ((ITunesUTransportException) e).isRetryable();
+        } else if (e instanceof SocketTimeoutException) {
+            return true;
+        } else if (e instanceof InterruptedIOException
+                   || e instanceof MalformedURLException
+                   || e instanceof UnknownHostException
+                   || e instanceof SSLHandshakeException) {
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2007-2008, Arizona State University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Arizona State University nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY ARIZONA STATE UNIVERSITY ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL ARIZONA STATE UNIVERSITY BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.asu.itunesu;
+
+import java.util.Arrays;
+
+/**
+ * Builds form-encoded identity strings into a reusable byte buffer. The
+ * output is the URL-encoded form of ITunesU.getIdentityString(), ready to
+ * be signed, so that a thread that keeps one encoder issues tokens without
+ * building intermediate strings.
+ *
+ * <p>Instances are not thread-safe. Keep one per thread.</p>
+ */
+public class IdentityEncoder {
+    private static final char[] OPENING = { '"', '<', '(', '[' };
+    private static final char[] CLOSING = { '"', '>', ')', ']' };
+
+    private byte[] buffer;
+    private int length;
+
+    public IdentityEncoder() {
+        this.buffer = new byte[256];
+    }
+
+    /**
+     * Encodes an identity from user information. All parameters may be
+     * null.
+     *
+     * @param displayName The user's name.
+     * @param emailAddress The user's email address.
+     * @param username The user's username.
+     * @param userIdentifier A unique identifier for the user.
+     * @return This encoder.
+     */
+    public IdentityEncoder encode(String displayName,
+                                  String emailAddress,
+                                  String username,
+                                  String userIdentifier) {
+        this.length = 0;
+        this.append(0, displayName);
+        this.append(1, emailAddress);
+        this.append(2, username);
+        this.append(3, userIdentifier);
+        return this;
+    }
+
+    /**
+     * Encodes an identity string, such as one from
+     * ITunesU.getIdentityString(), or null for none.
+     *
+     * @return This encoder.
+     */
+    public IdentityEncoder encode(String identity) {
+        this.length = 0;
+        if (identity != null) {
+            int n = identity.length();
+            this.ensureCapacity(n * FormEncoder.MAX_BYTES_PER_CHAR);
+            this.length = FormEncoder.encode(identity, 0, n, this.buffer, 0);
+        }
+        return this;
+    }
+
+    /**
+     * Returns the buffer holding the encoded identity in its first
+     * {@link #getLength} bytes. The buffer is reused by the next call to
+     * encode().
+     */
+    public byte[] getBuffer() {
+        return this.buffer;
+    }
+
+    public int getLength() {
+        return this.length;
+    }
+
+    /**
+     * Returns a copy of the encoded identity.
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(this.buffer, this.length);
+    }
+
+    /**
+     * Returns the encoded identity as a string.
+     */
+    public String toString() {
+        char[] chars = new char[this.length];
+        for (int i = 0; i < this.length; i++) {
+            chars[i] = (char) this.buffer[i];
+        }
+        return new String(chars);
+    }
+
+    private void append(int element, String value) {
+        if (value == null) {
+            return;
+        }
+        int n = value.length();
+        // Each character may be escaped and then encoded.
+        this.ensureCapacity(this.length + 10 + n * (3 + FormEncoder.MAX_BYTES_PER_CHAR));
+
+        byte[] buffer = this.buffer;
+        int position = this.length;
+        char closing = CLOSING[element];
+        if (position > 0) {
+            buffer[position++] = '+';
+        }
+        position = FormEncoder.encodeAscii(OPENING[element], buffer, position);
+        int start = 0;
+        for (int i = 0; i < n; i++) {
+            char c = value.charAt(i);
+            if (c == closing || c == '\\') {
+                position = FormEncoder.encode(value, start, i, buffer, position);
+                position = FormEncoder.encodeAscii('\\', buffer, position);
+                start = i;
+            }
+        }
+        position = FormEncoder.encode(value, start, n, buffer, position);
+        position = FormEncoder.encodeAscii(closing, buffer, position);
+        this.length = position;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (this.buffer.length < capacity) {
+            this.buffer = Arrays.copyOf(this.buffer, Math.max(capacity, this.buffer.length * 2));
+        }
+    }
+}
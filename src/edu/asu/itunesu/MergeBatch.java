@@ -0,0 +1,500 @@
+/*
+ * Copyright (c) 2007-2008, Arizona State University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Arizona State University nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY ARIZONA STATE UNIVERSITY ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL ARIZONA STATE UNIVERSITY BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.asu.itunesu;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Collects many adds and merges beneath one group, course or site and
+ * sends them as a few MergeGroup, MergeCourse or MergeSite requests with
+ * mergeByHandle semantics, instead of one request per object.
+ *
+ * <p>Each call to {@link #add} or {@link #merge} returns an {@link Item}
+ * that reports the outcome for that object once {@link #send} returns.
+ * Each call to {@link #send} sends only the items added since the
+ * previous one. Items are sent in chunks of at most {@link #getMaxItems()}; a failed
+ * chunk fails only its own items. Merge responses do not report the
+ * handles of added objects, so after sending, the root is read back once,
+ * bypassing any {@link SiteCache}, and each added object is matched to a new child of its parent by name.
+ * When several objects with the same name are added to the same parent,
+ * they are matched in order to the last children with that name.</p>
+ *
+ * <p>The parent of an item must be the root, an object merged into the
+ * batch, or a direct child of the root. Objects added to the batch are
+ * copied, so callers may reuse them.</p>
+ */
+public class MergeBatch {
+    public static final int DEFAULT_MAX_ITEMS = 500;
+
+    private static final String[] LEVELS = { "Site", "Section", "Course", "Group", "Track" };
+
+    /**
+     * The outcome for one object in the batch.
+     */
+    public static class Item {
+        private String parentHandle;
+        private ITunesUElement element;
+        private boolean add;
+        private String handle;
+        private ITunesUResponse response;
+        private ITunesUException error;
+
+        Item(String parentHandle, ITunesUElement element, boolean add) {
+            this.parentHandle = parentHandle;
+            this.element = element;
+            this.add = add;
+            this.handle = add ? null : ModelSupport.getHandle(element);
+        }
+
+        public String getParentHandle() {
+            return this.parentHandle;
+        }
+
+        /**
+         * The batch's copy of the object.
+         */
+        public ITunesUElement getElement() {
+            return this.element;
+        }
+
+        public boolean isAdd() {
+            return this.add;
+        }
+
+        /**
+         * The handle of the object, or null if it was added and its handle
+         * could not be determined.
+         */
+        public String getHandle() {
+            return this.handle;
+        }
+
+        /**
+         * The response to the request that carried this object, or null if
+         * it has not been sent.
+         */
+        public ITunesUResponse getResponse() {
+            return this.response;
+        }
+
+        /**
+         * The error for this object, or null if it succeeded or has not
+         * been sent.
+         */
+        public ITunesUException getError() {
+            return this.error;
+        }
+
+        public boolean isSuccessful() {
+            return this.response != null && this.error == null;
+        }
+
+        public String toString() {
+            return (this.add ? "add " : "merge ") + ModelSupport.getName(this.element)
+                + " [parent=" + this.parentHandle
+                + ", handle=" + this.handle
+                + (this.error != null ? ", error=" + this.error.getMessage() : "")
+                + "]";
+        }
+    }
+
+    private String rootType;
+    private String rootHandle;
+    private int maxItems;
+    private boolean resolveHandles;
+    private int requestCount;
+    private int sentCount;
+    private List<Item> items;
+    private Map<String, String> parentHandles;
+
+    /**
+     * Creates a batch of tracks beneath a group.
+     */
+    public static MergeBatch forGroup(String groupHandle) {
+        return new MergeBatch("Group", groupHandle);
+    }
+
+    /**
+     * Creates a batch of groups and tracks beneath a course.
+     */
+    public static MergeBatch forCourse(String courseHandle) {
+        return new MergeBatch("Course", courseHandle);
+    }
+
+    /**
+     * Creates a batch of sections, courses, divisions, groups and tracks
+     * beneath a site.
+     *
+     * @param siteHandle Handle of the site, or null for the current site.
+     */
+    public static MergeBatch forSite(String siteHandle) {
+        return new MergeBatch("Site", siteHandle);
+    }
+
+    private MergeBatch(String rootType, String rootHandle) {
+        this.rootType = rootType;
+        this.rootHandle = rootHandle;
+        this.maxItems = DEFAULT_MAX_ITEMS;
+        this.resolveHandles = true;
+        this.items = new ArrayList<Item>();
+        this.parentHandles = new HashMap<String, String>();
+    }
+
+    public String getRootHandle() {
+        return this.rootHandle;
+    }
+
+    public int getMaxItems() {
+        return this.maxItems;
+    }
+
+    /**
+     * Sets the maximum number of items sent in one request.
+     */
+    public void setMaxItems(int maxItems) {
+        if (maxItems < 1) {
+            throw new IllegalArgumentException("maxItems must be positive");
+        }
+        this.maxItems = maxItems;
+    }
+
+    public boolean getResolveHandles() {
+        return this.resolveHandles;
+    }
+
+    /**
+     * Sets whether the root is read back after sending to find the handles
+     * of added objects.
+     */
+    public void setResolveHandles(boolean resolveHandles) {
+        this.resolveHandles = resolveHandles;
+    }
+
+    /**
+     * Returns the number of merge requests sent so far, including those
+     * that failed.
+     */
+    public int getRequestCount() {
+        return this.requestCount;
+    }
+
+    public List<Item> getItems() {
+        return Collections.unmodifiableList(this.items);
+    }
+
+    public int size() {
+        return this.items.size();
+    }
+
+    /**
+     * Adds a new object beneath a parent.
+     *
+     * @param parentHandle Handle of the parent, or null for the root.
+     * @param element The object to add, without a handle.
+     */
+    public Item add(String parentHandle, ITunesUElement element) throws ITunesUException {
+        String handle = ModelSupport.getHandle(element);
+        if (handle != null && !"".equals(handle)) {
+            throw new IllegalArgumentException("Added objects must not have a handle");
+        }
+        return this.addItem(parentHandle, element, true);
+    }
+
+    /**
+     * Merges an existing object, identified by its handle, beneath a parent.
+     *
+     * @param parentHandle Handle of the parent, or null for the root.
+     * @param element The object to merge, with its handle set.
+     */
+    public Item merge(String parentHandle, ITunesUElement element) throws ITunesUException {
+        String handle = ModelSupport.getHandle(element);
+        if (handle == null || "".equals(handle)) {
+            throw new IllegalArgumentException("Merged objects must have a handle");
+        }
+        Item item = this.addItem(parentHandle, element, false);
+        this.parentHandles.put(handle, parentHandle);
+        return item;
+    }
+
+    /**
+     * Builds the requests the next {@link #send} would send.
+     */
+    public List<ITunesUDocument> toDocuments() throws ITunesUException {
+        List<ITunesUDocument> documents = new ArrayList<ITunesUDocument>();
+        for (int start = this.sentCount; start < this.items.size(); start += this.maxItems) {
+            ITunesUElement root = this.buildRoot(this.chunk(start));
+            if (root instanceof Group) {
+                documents.add(ITunesUDocument.buildMergeGroup(this.rootHandle, (Group) root, true, false));
+            } else if (root instanceof Course) {
+                documents.add(ITunesUDocument.buildMergeCourse(this.rootHandle, (Course) root, true, false));
+            } else {
+                documents.add(ITunesUDocument.buildMergeSite(this.rootHandle, (Site) root, true, false));
+            }
+        }
+        return documents;
+    }
+
+    /**
+     * Sends the items not yet sent and records the outcome on each.
+     *
+     * @return All items, in the order they were added to the batch.
+     */
+    public List<Item> send(ITunesUConnection connection) {
+        boolean anyAdded = false;
+        int start = this.sentCount;
+        this.sentCount = this.items.size();
+        for (; start < this.sentCount; start += this.maxItems) {
+            List<Item> chunk = this.chunk(start);
+            ITunesUResponse response = null;
+            ITunesUException error = null;
+            try {
+                ITunesUElement root = this.buildRoot(chunk);
+                this.requestCount++;
+                if (root instanceof Group) {
+                    response = connection.mergeGroup(this.rootHandle, (Group) root, true, false);
+                } else if (root instanceof Course) {
+                    response = connection.mergeCourse(this.rootHandle, (Course) root, true, false);
+                } else {
+                    response = connection.mergeSite(this.rootHandle, (Site) root, true, false);
+                }
+            } catch (ITunesUException e) {
+                error = e;
+            }
+            for (Item item : chunk) {
+                item.response = response;
+                item.error = error;
+                anyAdded |= error == null && item.add;
+            }
+        }
+        if (this.resolveHandles && anyAdded) {
+            this.resolveHandles(connection);
+        }
+        return this.items;
+    }
+
+    private Item addItem(String parentHandle, ITunesUElement element, boolean add)
+        throws ITunesUException {
+
+        int level = level(element);
+        if (level <= level(this.rootType)) {
+            throw new IllegalArgumentException(element.getClass().getSimpleName()
+                                               + " cannot be merged into a " + this.rootType);
+        }
+        if (this.rootHandle != null && this.rootHandle.equals(parentHandle)) {
+            parentHandle = null;
+        }
+        Item item = new Item(parentHandle, ModelSupport.copyOf(element), add);
+        this.items.add(item);
+        return item;
+    }
+
+    private List<Item> chunk(int start) {
+        return this.items.subList(start, Math.min(start + this.maxItems, this.items.size()));
+    }
+
+    /**
+     * Builds the root object for a chunk, with shells carrying only a
+     * handle for the parents that are not part of the chunk.
+     */
+    private ITunesUElement buildRoot(List<Item> chunk) throws ITunesUException {
+        ITunesUElement root = newElement(this.rootType);
+        Map<String, ITunesUElement> shells = new HashMap<String, ITunesUElement>();
+
+        // Merged objects first, outermost first, so that they become the
+        // containers for anything beneath them.
+        List<Item> ordered = new ArrayList<Item>(chunk);
+        Collections.sort(ordered, new Comparator<Item>() {
+            public int compare(Item a, Item b) {
+                if (a.add != b.add) {
+                    return a.add ? 1 : -1;
+                }
+                return level(a.element) - level(b.element);
+            }
+        });
+        for (Item item : ordered) {
+            ITunesUElement element = ModelSupport.copyOf(item.element);
+            ITunesUElement parent = this.getShell(root, shells, item.parentHandle,
+                                                  LEVELS[level(element) - 1]);
+            if (!ModelSupport.addChild(parent, element)) {
+                throw new ITunesUException(element.getClass().getSimpleName()
+                                           + " cannot be added to a "
+                                           + parent.getClass().getSimpleName());
+            }
+            if (!item.add) {
+                shells.put(item.handle, element);
+            }
+        }
+        return root;
+    }
+
+    private ITunesUElement getShell(ITunesUElement root,
+                                    Map<String, ITunesUElement> shells,
+                                    String handle,
+                                    String type)
+        throws ITunesUException {
+
+        if (handle == null) {
+            return root;
+        }
+        ITunesUElement shell = shells.get(handle);
+        if (shell != null) {
+            return shell;
+        }
+        String parentHandle;
+        if (this.parentHandles.containsKey(handle)) {
+            parentHandle = this.parentHandles.get(handle);
+        } else if (level(type) == level(this.rootType) + 1) {
+            parentHandle = null;
+        } else {
+            throw new ITunesUException("Parent " + handle + " is not a child of the "
+                                       + this.rootType + " and was not merged into the batch");
+        }
+        shell = newElement(type);
+        ModelSupport.setHandle(shell, handle);
+        ITunesUElement parent = this.getShell(root, shells, parentHandle, LEVELS[level(type) - 1]);
+        ModelSupport.addChild(parent, shell);
+        shells.put(handle, shell);
+        return shell;
+    }
+
+    /**
+     * Reads the root back and matches added objects to new children. The
+     * tree is read with ShowTree rather than the cached getters, since a
+     * site cache that is not write-through has not seen the merge.
+     */
+    private void resolveHandles(ITunesUConnection connection) {
+        Map<String, Object> index = new HashMap<String, Object>();
+        Object root;
+        try {
+            Site site = ITunesUResponse.fromXml(connection.showTree(this.rootHandle)).getSite();
+            index(site, index);
+            root = "Site".equals(this.rootType) ? site : index.get(this.rootHandle);
+        } catch (ITunesUException e) {
+            return;
+        }
+        if (root == null) {
+            return;
+        }
+
+        Set<String> claimed = new HashSet<String>();
+        Map<String, List<Item>> added = new LinkedHashMap<String, List<Item>>();
+        for (Item item : this.items) {
+            if (!item.isSuccessful()) {
+                continue;
+            }
+            if (item.add && item.handle == null) {
+                String key = item.parentHandle + "\u0000"
+                    + item.element.getClass().getName() + "\u0000"
+                    + ModelSupport.getName(item.element);
+                List<Item> group = added.get(key);
+                if (group == null) {
+                    group = new ArrayList<Item>();
+                    added.put(key, group);
+                }
+                group.add(item);
+            } else {
+                claimed.add(item.handle);
+            }
+        }
+
+        for (List<Item> group : added.values()) {
+            Item first = group.get(0);
+            Object parent = first.parentHandle == null ? root : index.get(first.parentHandle);
+            List<String> candidates = new ArrayList<String>();
+            if (parent != null) {
+                String name = ModelSupport.getName(first.element);
+                for (Object child : ModelSupport.getChildren(parent)) {
+                    String handle = ModelSupport.getHandle(child);
+                    String childName = ModelSupport.getName(child);
+                    if (child.getClass() == first.element.getClass()
+                        && handle != null && !claimed.contains(handle)
+                        && (name == null ? childName == null : name.equals(childName))) {
+                        candidates.add(handle);
+                    }
+                }
+            }
+            int offset = candidates.size() - group.size();
+            for (int i = 0; i < group.size(); i++) {
+                Item item = group.get(i);
+                if (offset + i >= 0) {
+                    item.handle = candidates.get(offset + i);
+                    ModelSupport.setHandle(item.element, item.handle);
+                    claimed.add(item.handle);
+                } else {
+                    item.error = new ITunesUException("Added "
+                                                      + item.element.getClass().getSimpleName()
+                                                      + " not found after merge");
+                }
+            }
+        }
+    }
+
+    private static void index(Object element, Map<String, Object> index) {
+        String handle = ModelSupport.getHandle(element);
+        if (handle != null && !"".equals(handle)) {
+            index.put(handle, element);
+        }
+        for (Object child : ModelSupport.getChildren(element)) {
+            index(child, index);
+        }
+    }
+
+    private static int level(Object element) {
+        return element instanceof Division ? level("Course") : level(element.getClass().getSimpleName());
+    }
+
+    private static int level(String type) {
+        for (int i = 0; i < LEVELS.length; i++) {
+            if (LEVELS[i].equals(type)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported element: " + type);
+    }
+
+    private static ITunesUElement newElement(String type) {
+        if ("Site".equals(type)) {
+            return new Site();
+        } else if ("Section".equals(type)) {
+            return new Section();
+        } else if ("Course".equals(type)) {
+            return new Course();
+        } else if ("Group".equals(type)) {
+            return new Group();
+        }
+        throw new IllegalArgumentException("Unsupported element: " + type);
+    }
+}
@@ -0,0 +1,322 @@
+/*
+ * Copyright (c) 2007-2008, Arizona State University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Arizona State University nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY ARIZONA STATE UNIVERSITY ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL ARIZONA STATE UNIVERSITY BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.asu.itunesu;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.w3c.dom.Document;
+
+/**
+ * Used internally to walk and copy trees of model objects, which share
+ * no common accessors for handles and children.
+ */
+class ModelSupport {
+    private ModelSupport() {}
+
+    /**
+     * Returns the name of an element, or null if it has none.
+     */
+    static String getName(Object element) {
+        if (element instanceof Site) {
+            return ((Site) element).getName();
+        } else if (element instanceof Section) {
+            return ((Section) element).getName();
+        } else if (element instanceof SectionItem) {
+            return ((SectionItem) element).getName();
+        } else if (element instanceof Group) {
+            return ((Group) element).getName();
+        } else if (element instanceof Track) {
+            return ((Track) element).getName();
+        } else if (element instanceof Templates) {
+            return ((Templates) element).getName();
+        }
+        return null;
+    }
+
+    /**
+     * Sets the handle of a section, section item, group or track.
+     */
+    static void setHandle(Object element, String handle) {
+        if (element instanceof Section) {
+            ((Section) element).setHandle(handle);
+        } else if (element instanceof SectionItem) {
+            ((SectionItem) element).setHandle(handle);
+        } else if (element instanceof Group) {
+            ((Group) element).setHandle(handle);
+        } else if (element instanceof Track) {
+            ((Track) element).setHandle(handle);
+        }
+    }
+
+    /**
+     * Returns the live permission list of an element, or null if the
+     * element has no permissions.
+     */
+    static List<Permission> getPermissions(Object element) {
+        if (element instanceof Site) {
+            return ((Site) element).getPermissions();
+        } else if (element instanceof Section) {
+            return ((Section) element).getPermissions();
+        } else if (element instanceof SectionItem) {
+            return ((SectionItem) element).getPermissions();
+        } else if (element instanceof Group) {
+            return ((Group) element).getPermissions();
+        } else if (element instanceof Templates) {
+            return ((Templates) element).getPermissions();
+        }
+        return null;
+    }
+
+    /**
+     * Appends a child to a parent's child list.
+     *
+     * @return false if the parent cannot hold a child of that type.
+     */
+    static boolean addChild(Object parent, ITunesUElement child) {
+        if (parent instanceof Group && child instanceof Track) {
+            ((Group) parent).getTracks().add((Track) child);
+        } else if (parent instanceof Course && child instanceof Group) {
+            ((Course) parent).getGroups().add((Group) child);
+        } else if (parent instanceof Section && child instanceof SectionItem) {
+            ((Section) parent).getSectionItems().add((SectionItem) child);
+        } else if (parent instanceof Site && child instanceof Section) {
+            ((Site) parent).getSections().add((Section) child);
+        } else if (parent instanceof Division && child instanceof Section) {
+            ((Division) parent).getSections().add((Section) child);
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Removes a child, compared by identity, from a parent's child list.
+     * Site templates are never removed.
+     *
+     * @return false if the child was not found.
+     */
+    static boolean removeChild(Object parent, Object child) {
+        List<?> children = (parent instanceof Site
+                            ? ((Site) parent).getSections()
+                            : getChildren(parent));
+        for (Iterator<?> i = children.iterator(); i.hasNext();) {
+            if (i.next() == child) {
+                i.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Copies an element by writing and re-reading it, so that callers'
+     * objects are never shared.
+     */
+    static ITunesUElement copyOf(ITunesUElement element) throws ITunesUException {
+        StringWriter buffer = new StringWriter();
+        try {
+            element.writeXml(new XmlWriter(buffer));
+            XMLStreamReader reader = XmlStreamSupport.createReader(
+                new ByteArrayInputStream(buffer.toString().getBytes("UTF-8")));
+            if (element instanceof Track) {
+                return Track.fromXmlStream(reader);
+            } else if (element instanceof Group) {
+                return Group.fromXmlStream(reader);
+            } else if (element instanceof Course) {
+                return Course.fromXmlStream(reader);
+            } else if (element instanceof Division) {
+                return Division.fromXmlStream(reader);
+            } else if (element instanceof Section) {
+                return Section.fromXmlStream(reader);
+            } else if (element instanceof Site) {
+                return Site.fromXmlStream(reader);
+            }
+            throw new ITunesUException("Cannot copy " + element.getClass().getName());
+        } catch (IOException e) {
+            throw new ITunesUException(e);
+        } catch (XMLStreamException e) {
+            throw new ITunesUException(e);
+        }
+    }
+
+    /**
+     * Copies an element without its child sections, items, groups or
+     * tracks.
+     */
+    static ITunesUElement shallowCopyOf(ITunesUElement element) throws ITunesUException {
+        ITunesUElement copy = copyOf(element);
+        if (copy instanceof Site) {
+            ((Site) copy).setSections(new ArrayList<Section>());
+            ((Site) copy).setTemplates(null);
+        } else if (copy instanceof Section) {
+            ((Section) copy).setSectionItems(new ArrayList<SectionItem>());
+        } else if (copy instanceof Division) {
+            ((Division) copy).setSections(new ArrayList<Section>());
+        } else if (copy instanceof Course) {
+            ((Course) copy).setGroups(new ArrayList<Group>());
+        } else if (copy instanceof Group) {
+            ((Group) copy).setTracks(new ArrayList<Track>());
+        }
+        return copy;
+    }
+
+    /**
+     * Writes a section item, through its DOM element if it is not one of
+     * the model classes.
+     */
+    static void writeXml(SectionItem sectionItem, XmlWriter writer) throws IOException {
+        if (sectionItem instanceof ITunesUElement) {
+            ((ITunesUElement) sectionItem).writeXml(writer);
+        } else {
+            writer.element(sectionItem.toXmlElement(newDocument()));
+        }
+    }
+
+    /**
+     * Returns a new DOM document for building elements to write.
+     */
+    static Document newDocument() throws IOException {
+        try {
+            return XmlSupport.newDocument();
+        } catch (ParserConfigurationException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Lists the simple fields of an element that a client sets, in a fixed
+     * order per type. Unset fields are null. Handles, permissions and
+     * fields the server fills in, such as a track's kind, duration and
+     * download URL or a group's type, are left out.
+     */
+    static String[] getFields(Object element) {
+        if (element instanceof Site) {
+            Site site = (Site) element;
+            return new String[] { site.getName(),
+                                  toString(site.getAllowSubscription()),
+                                  site.getThemeHandle() };
+        } else if (element instanceof Section) {
+            Section section = (Section) element;
+            return new String[] { section.getName() };
+        } else if (element instanceof Division) {
+            Division division = (Division) element;
+            return new String[] { division.getName(),
+                                  division.getShortName(),
+                                  division.getIdentifier(),
+                                  toString(division.getAllowSubscription()),
+                                  division.getThemeHandle() };
+        } else if (element instanceof Course) {
+            Course course = (Course) element;
+            return new String[] { course.getName(),
+                                  course.getShortName(),
+                                  course.getIdentifier(),
+                                  course.getInstructor(),
+                                  course.getDescription(),
+                                  toString(course.getAllowSubscription()),
+                                  course.getThemeHandle() };
+        } else if (element instanceof Group) {
+            Group group = (Group) element;
+            return new String[] { group.getName(),
+                                  toString(group.getAllowSubscription()),
+                                  group.getExternalFeed() == null ? null : group.getExternalFeed().getUrl() };
+        } else if (element instanceof Track) {
+            Track track = (Track) element;
+            return new String[] { track.getName(),
+                                  toString(track.getTrackNumber()),
+                                  toString(track.getDiscNumber()),
+                                  track.getAlbumName(),
+                                  track.getArtistName(),
+                                  track.getGenreName(),
+                                  track.getComment() };
+        }
+        return new String[0];
+    }
+
+    private static String toString(Object value) {
+        return value == null ? null : value.toString();
+    }
+
+    /**
+     * Returns the handle of an element, or null if it has none.
+     */
+    static String getHandle(Object element) {
+        if (element instanceof Site) {
+            return ((Site) element).getHandle();
+        } else if (element instanceof Section) {
+            return ((Section) element).getHandle();
+        } else if (element instanceof SectionItem) {
+            return ((SectionItem) element).getHandle();
+        } else if (element instanceof Group) {
+            return ((Group) element).getHandle();
+        } else if (element instanceof Track) {
+            return ((Track) element).getHandle();
+        } else if (element instanceof Templates) {
+            return ((Templates) element).getHandle();
+        }
+        return null;
+    }
+
+    /**
+     * Lists the children of an element. For a site this includes its
+     * templates, in a new list; otherwise the element's own list is
+     * returned.
+     */
+    static List<?> getChildren(Object element) {
+        if (element instanceof Site) {
+            Site site = (Site) element;
+            if (site.getTemplates() == null) {
+                return site.getSections();
+            }
+            List<Object> children = new ArrayList<Object>(site.getSections());
+            children.add(site.getTemplates());
+            return children;
+        } else if (element instanceof Section) {
+            return ((Section) element).getSectionItems();
+        } else if (element instanceof Division) {
+            return ((Division) element).getSections();
+        } else if (element instanceof Course) {
+            return ((Course) element).getGroups();
+        } else if (element instanceof Group) {
+            return ((Group) element).getTracks();
+        } else if (element instanceof Templates) {
+            return ((Templates) element).getSectionItems();
+        }
+        return Collections.emptyList();
+    }
+}
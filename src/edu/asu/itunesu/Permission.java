@@ -27,6 +27,11 @@
 
 package edu.asu.itunesu;
 
+import java.io.IOException;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -84,6 +89,17 @@ public class Permission extends ITunesUElement {
         return element;
     }
 
+    public void writeXml(XmlWriter writer) throws IOException {
+        writer.startElement("Permission");
+        if (this.credential != null) {
+            writer.element("Credential", this.credential);
+        }
+        if (this.access != null) {
+            writer.element("Access", this.access);
+        }
+        writer.endElement();
+    }
+
     public static Permission fromXmlElement(Element element) throws ITunesUException {
         if (!"Permission".equals(element.getNodeName())) {
             throw new ITunesUException("Expected Permission, got "
@@ -105,6 +121,24 @@ public class Permission extends ITunesUElement {
         return new Permission(credential, access);
     }
 
+    public static Permission fromXmlStream(XMLStreamReader reader)
+        throws ITunesUException, XMLStreamException {
+        XmlStreamSupport.requireStartElement(reader, "Permission");
+        String credential = null;
+        String access = null;
+        while (XmlStreamSupport.nextChildElement(reader)) {
+            String childName = reader.getLocalName();
+            if ("Credential".equals(childName)) {
+                credential = XmlStreamSupport.getTextContent(reader);
+            } else if ("Access".equals(childName)) {
+                access = XmlStreamSupport.getTextContent(reader);
+            } else {
+                XmlStreamSupport.skipElement(reader);
+            }
+        }
+        return new Permission(credential, access);
+    }
+
     public String toString() {
         return (super.toString()
                 + "[credential="
@@ -0,0 +1,529 @@
+/*
+ * Copyright (c) 2007-2008, Arizona State University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Arizona State University nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY ARIZONA STATE UNIVERSITY ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL ARIZONA STATE UNIVERSITY BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.asu.itunesu;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.Socket;
+import java.net.URL;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.HandshakeCompletedEvent;
+import javax.net.ssl.HandshakeCompletedListener;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * The default {@link ITunesUTransport}, which reuses persistent
+ * (keep-alive) HTTPS connections to iTunes U.
+ *
+ * <p>Idle connections are held by the JDK's keep-alive cache, which keeps
+ * up to <code>http.maxConnections</code> connections per host. This
+ * transport never disconnects a connection after a successful request, so
+ * that it can be returned to the cache and reused.</p>
+ *
+ * <p>The number of requests in flight is limited separately for small API
+ * requests and for uploads, whose bodies are at least
+ * {@link #DEFAULT_LARGE_BODY_BYTES} long. An upload holds its permit for as
+ * long as it takes to send, so long uploads only wait for each other and
+ * never delay ShowTree or GetUploadURL calls. Every user of a transport
+ * shares its limits: parallelism above them in {@link UploadManager},
+ * {@link UploadPipeline}, {@link AsyncITunesUConnection} or a parallel
+ * {@link SyncPlan} turns into waiting here. Requests beyond the size of the
+ * keep-alive cache still run, but their connections are closed afterwards
+ * instead of being reused.</p>
+ *
+ * <p>Connect and read timeouts apply to every request. When the calling
+ * thread has a current {@link Deadline}, the timeouts are shortened to
+ * the time left, and a watchdog disconnects the request if it is still
+ * running when the deadline passes.</p>
+ *
+ * <p>Counters for the number of requests, new connections and TLS
+ * handshakes, and the time spent establishing them, are kept to help
+ * measure the effect of connection reuse.</p>
+ */
+public class PooledHttpTransport implements ITunesUTransport {
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 30000;
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 300000;
+    public static final int DEFAULT_MAX_REQUESTS = 32;
+    public static final int DEFAULT_MAX_UPLOADS = 8;
+
+    /**
+     * Requests with a body at least this long count as uploads.
+     */
+    public static final long DEFAULT_LARGE_BODY_BYTES = 1024 * 1024;
+
+    private static final ScheduledThreadPoolExecutor WATCHDOG = createWatchdogExecutor();
+
+    private int maxRequests;
+    private int maxUploads;
+    private volatile int connectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+    private volatile int readTimeoutMillis = DEFAULT_READ_TIMEOUT_MILLIS;
+    private Semaphore requestPermits;
+    private Semaphore uploadPermits;
+    private CountingSocketFactory socketFactory;
+
+    private AtomicLong requestCount = new AtomicLong();
+    private AtomicLong connectionCount = new AtomicLong();
+    private AtomicLong connectNanos = new AtomicLong();
+    private AtomicLong handshakeCount = new AtomicLong();
+    private AtomicLong handshakeNanos = new AtomicLong();
+
+    public PooledHttpTransport() {
+        this(DEFAULT_MAX_REQUESTS, DEFAULT_MAX_UPLOADS);
+    }
+
+    /**
+     * Creates a transport with a given limit on API requests and the
+     * default limit on uploads.
+     *
+     * @param maxRequests The maximum number of API requests in flight.
+     */
+    public PooledHttpTransport(int maxRequests) {
+        this(maxRequests, DEFAULT_MAX_UPLOADS);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param maxRequests The maximum number of API requests in flight.
+     * @param maxUploads The maximum number of uploads in flight.
+     */
+    public PooledHttpTransport(int maxRequests, int maxUploads) {
+        if (maxRequests < 1) {
+            throw new IllegalArgumentException("maxRequests must be positive");
+        }
+        if (maxUploads < 1) {
+            throw new IllegalArgumentException("maxUploads must be positive");
+        }
+        this.maxRequests = maxRequests;
+        this.maxUploads = maxUploads;
+        this.requestPermits = new Semaphore(maxRequests, true);
+        this.uploadPermits = new Semaphore(maxUploads, true);
+        this.socketFactory =
+            new CountingSocketFactory(HttpsURLConnection.getDefaultSSLSocketFactory());
+    }
+
+    public <T> T post(String url,
+                      String contentType,
+                      long contentLength,
+                      RequestBody body,
+                      ResponseHandler<T> handler) throws IOException {
+
+        // Verify that the communication will be over SSL.
+        if (!url.startsWith("https")) {
+            throw new MalformedURLException("PooledHttpTransport.post(): URL \""
+                                            + url + "\" does not use HTTPS.");
+        }
+
+        Deadline deadline = Deadline.current();
+        if (deadline != null) {
+            deadline.check("POST " + url);
+        }
+
+        Semaphore permits = (contentLength >= DEFAULT_LARGE_BODY_BYTES
+                             ? this.uploadPermits
+                             : this.requestPermits);
+        try {
+            if (deadline == null) {
+                permits.acquire();
+            } else if (!permits.tryAcquire(deadline.getRemainingNanos(), TimeUnit.NANOSECONDS)) {
+                throw new DeadlineExceededException("POST " + url + ": deadline exceeded"
+                                                    + " waiting for a connection");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for a connection");
+        }
+
+        this.socketFactory.resetSocketsCreated();
+        Watchdog watchdog = null;
+        try {
+            HttpURLConnection connection =
+                (HttpURLConnection) new URL(url).openConnection();
+            if (connection instanceof HttpsURLConnection) {
+                ((HttpsURLConnection) connection).setSSLSocketFactory(this.socketFactory);
+            }
+            connection.setUseCaches(false);
+            connection.setDoOutput(true);
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("Content-Type", contentType);
+            connection.setFixedLengthStreamingMode(contentLength);
+            connection.setConnectTimeout(getTimeout(this.connectTimeoutMillis, deadline));
+            connection.setReadTimeout(getTimeout(this.readTimeoutMillis, deadline));
+            if (deadline != null) {
+                watchdog = new Watchdog(connection, deadline);
+            }
+
+            // A reused connection is taken from the cache without any
+            // network activity, so only new connections are timed.
+            long start = System.nanoTime();
+            connection.connect();
+            long elapsed = System.nanoTime() - start;
+            if (this.socketFactory.getSocketsCreated() > 0) {
+                this.connectNanos.addAndGet(elapsed);
+            }
+
+            try {
+                OutputStream output = connection.getOutputStream();
+                body.writeTo(output);
+                output.close();
+            } catch (IOException e) {
+                connection.disconnect();
+                throw e;
+            }
+
+            InputStream input;
+            try {
+                input = connection.getInputStream();
+            } catch (IOException e) {
+                int status = -1;
+                try {
+                    status = connection.getResponseCode();
+                } catch (IOException ignored) {
+                    // No response; report the original failure.
+                }
+                // Consume the error body so the connection can be reused.
+                drain(connection.getErrorStream());
+                if (status >= 400) {
+                    throw new ITunesUTransportException(
+                        "HTTP " + status + " from " + url,
+                        status,
+                        ITunesUTransportException.isRetryableStatus(status),
+                        getRetryAfterMillis(connection),
+                        e);
+                }
+                throw e;
+            }
+
+            try {
+                T result = handler.handleResponse(input);
+                drain(input);
+                return result;
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            if (deadline != null && (deadline.isExpired()
+                                     || (watchdog != null && watchdog.hasFired()))) {
+                DeadlineExceededException exceeded =
+                    new DeadlineExceededException("POST " + url + ": deadline exceeded");
+                exceeded.initCause(e);
+                throw exceeded;
+            }
+            throw e;
+        } finally {
+            if (watchdog != null) {
+                watchdog.cancel();
+            }
+            this.requestCount.incrementAndGet();
+            this.connectionCount.addAndGet(this.socketFactory.getSocketsCreated());
+            permits.release();
+        }
+    }
+
+    /**
+     * Returns the connect timeout in milliseconds, or 0 for none.
+     */
+    public int getConnectTimeoutMillis() {
+        return this.connectTimeoutMillis;
+    }
+
+    /**
+     * Sets how long to wait for a connection to be established.
+     *
+     * @param connectTimeoutMillis The timeout in milliseconds, or 0 for none.
+     */
+    public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    /**
+     * Returns the read timeout in milliseconds, or 0 for none.
+     */
+    public int getReadTimeoutMillis() {
+        return this.readTimeoutMillis;
+    }
+
+    /**
+     * Sets how long a read may block before the request fails. This
+     * includes the wait for the response after the request is sent.
+     *
+     * @param readTimeoutMillis The timeout in milliseconds, or 0 for none.
+     */
+    public void setReadTimeoutMillis(int readTimeoutMillis) {
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    /**
+     * Returns the maximum number of API requests in flight.
+     */
+    public int getMaxRequests() {
+        return this.maxRequests;
+    }
+
+    /**
+     * Returns the maximum number of uploads in flight.
+     */
+    public int getMaxUploads() {
+        return this.maxUploads;
+    }
+
+    /**
+     * Returns the number of requests sent.
+     */
+    public long getRequestCount() {
+        return this.requestCount.get();
+    }
+
+    /**
+     * Returns the number of new connections opened.
+     */
+    public long getConnectionCount() {
+        return this.connectionCount.get();
+    }
+
+    /**
+     * Returns the total time, in nanoseconds, spent opening new
+     * connections, including TCP connect and TLS handshake.
+     */
+    public long getConnectTimeNanos() {
+        return this.connectNanos.get();
+    }
+
+    /**
+     * Returns the number of completed TLS handshakes.
+     */
+    public long getHandshakeCount() {
+        return this.handshakeCount.get();
+    }
+
+    /**
+     * Returns the total time, in nanoseconds, spent in TLS handshakes.
+     * Handshake completion is reported asynchronously by the JSSE, so this
+     * value may trail {@link #getHandshakeCount()} briefly.
+     */
+    public long getHandshakeTimeNanos() {
+        return this.handshakeNanos.get();
+    }
+
+    /**
+     * Returns the fraction of requests that were sent over a reused
+     * connection, or zero if no requests have been sent.
+     */
+    public double getReuseRatio() {
+        long requests = this.requestCount.get();
+        if (requests == 0) {
+            return 0.0;
+        }
+        long reused = requests - this.connectionCount.get();
+        return reused < 0 ? 0.0 : (double) reused / requests;
+    }
+
+    public String toString() {
+        return (super.toString()
+                + "[requests=" + this.getRequestCount()
+                + ",connections=" + this.getConnectionCount()
+                + ",connectTimeMillis=" + this.getConnectTimeNanos() / 1000000
+                + ",handshakes=" + this.getHandshakeCount()
+                + ",handshakeTimeMillis=" + this.getHandshakeTimeNanos() / 1000000
+                + ",reuseRatio=" + this.getReuseRatio()
+                + "]");
+    }
+
+    /**
+     * Reads a Retry-After header given in seconds.
+     */
+    private static long getRetryAfterMillis(HttpURLConnection connection) {
+        String retryAfter = connection.getHeaderField("Retry-After");
+        if (retryAfter != null) {
+            try {
+                return Math.max(0, Long.parseLong(retryAfter.trim()) * 1000);
+            } catch (NumberFormatException e) {
+                // An HTTP date; ignore it.
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns a socket timeout no longer than the time left before a
+     * deadline.
+     */
+    private static int getTimeout(int timeoutMillis, Deadline deadline) {
+        if (deadline == null) {
+            return timeoutMillis;
+        }
+        long remaining = Math.max(1, deadline.getRemainingMillis());
+        if (timeoutMillis > 0) {
+            remaining = Math.min(remaining, timeoutMillis);
+        }
+        return (int) Math.min(remaining, Integer.MAX_VALUE);
+    }
+
+    private static ScheduledThreadPoolExecutor createWatchdogExecutor() {
+        ScheduledThreadPoolExecutor executor =
+            new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "PooledHttpTransport-watchdog");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+
+    private static void drain(InputStream input) throws IOException {
+        if (input == null) {
+            return;
+        }
+        try {
+            byte[] buffer = new byte[4096];
+            while (input.read(buffer) >= 0) {
+                // Discard.
+            }
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Disconnects a connection when its deadline passes, which makes a
+     * thread blocked reading or writing it fail at once.
+     */
+    private static class Watchdog implements Runnable {
+        private final HttpURLConnection connection;
+        private final ScheduledFuture<?> future;
+        private volatile boolean fired;
+
+        public Watchdog(HttpURLConnection connection, Deadline deadline) {
+            this.connection = connection;
+            this.future = WATCHDOG.schedule(this, deadline.getRemainingNanos(), TimeUnit.NANOSECONDS);
+        }
+
+        public void run() {
+            this.fired = true;
+            this.connection.disconnect();
+        }
+
+        public boolean hasFired() {
+            return this.fired;
+        }
+
+        public void cancel() {
+            this.future.cancel(false);
+        }
+    }
+
+    /**
+     * Counts the sockets opened by the current thread and times TLS
+     * handshakes. Unconnected sockets are deliberately not supported, so
+     * that HttpsURLConnection connects a plain socket and then layers TLS
+     * over it, letting the handshake be timed on its own.
+     */
+    private class CountingSocketFactory extends SSLSocketFactory {
+        private SSLSocketFactory delegate;
+        private ThreadLocal<int[]> socketsCreated = new ThreadLocal<int[]>() {
+            protected int[] initialValue() {
+                return new int[1];
+            }
+        };
+
+        public CountingSocketFactory(SSLSocketFactory delegate) {
+            this.delegate = delegate;
+        }
+
+        public void resetSocketsCreated() {
+            this.socketsCreated.get()[0] = 0;
+        }
+
+        public int getSocketsCreated() {
+            return this.socketsCreated.get()[0];
+        }
+
+        public String[] getDefaultCipherSuites() {
+            return this.delegate.getDefaultCipherSuites();
+        }
+
+        public String[] getSupportedCipherSuites() {
+            return this.delegate.getSupportedCipherSuites();
+        }
+
+        public Socket createSocket(Socket s, String host, int port, boolean autoClose)
+            throws IOException {
+            return this.opened(this.delegate.createSocket(s, host, port, autoClose));
+        }
+
+        public Socket createSocket(String host, int port) throws IOException {
+            return this.opened(this.delegate.createSocket(host, port));
+        }
+
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort)
+            throws IOException {
+            return this.opened(this.delegate.createSocket(host, port, localHost, localPort));
+        }
+
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return this.opened(this.delegate.createSocket(host, port));
+        }
+
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort)
+            throws IOException {
+            return this.opened(this.delegate.createSocket(address, port, localAddress, localPort));
+        }
+
+        private Socket opened(Socket socket) {
+            this.socketsCreated.get()[0]++;
+            if (socket instanceof SSLSocket) {
+                final long start = System.nanoTime();
+                ((SSLSocket) socket).addHandshakeCompletedListener(new HandshakeCompletedListener() {
+                    public void handshakeCompleted(HandshakeCompletedEvent event) {
+                        handshakeNanos.addAndGet(System.nanoTime() - start);
+                        handshakeCount.incrementAndGet();
+                        event.getSocket().removeHandshakeCompletedListener(this);
+                    }
+                });
+            }
+            return socket;
+        }
+    }
+}
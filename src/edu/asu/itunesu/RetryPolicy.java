@@ -0,0 +1,273 @@
+/*
+ * Copyright (c) 2007-2008, Arizona State University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Arizona State University nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY ARIZONA STATE UNIVERSITY ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL ARIZONA STATE UNIVERSITY BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.asu.itunesu;
+
+import java.io.IOException;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides when {@link ITunesUConnection} sends a failed request again.
+ * Only idempotent operations are retried, and only after failures that
+ * {@link ITunesUTransportException#isRetryable(IOException)} reports as
+ * temporary. Retries wait for an exponentially growing, fully jittered
+ * delay, and never less than a Retry-After the server asked for.
+ *
+ * <p>Each operation has a retry budget, so that a degraded service is
+ * not flooded with retries: every request adds {@link #getRetryRatio}
+ * of a token to the operation's budget, up to {@link #getMaxRetryTokens},
+ * and every retry spends one. A budget starts with
+ * {@link #getMinRetryTokens} tokens.</p>
+ *
+ * <p>Instances are thread-safe.</p>
+ */
+public class RetryPolicy {
+    public static final int DEFAULT_MAX_ATTEMPTS = 4;
+    public static final long DEFAULT_BASE_DELAY_MILLIS = 250;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 10000;
+    public static final double DEFAULT_RETRY_RATIO = 0.2;
+    public static final int DEFAULT_MIN_RETRY_TOKENS = 10;
+    public static final int DEFAULT_MAX_RETRY_TOKENS = 100;
+
+    /**
+     * Operations retried by default: ShowTree, ShowFeed, GetUploadURL and
+     * GetDailyReportLogs only read.
+     */
+    public static final String[] DEFAULT_IDEMPOTENT_OPERATIONS = {
+        "ShowTree", "ShowFeed", "GetUploadURL", "GetDailyReportLogs"
+    };
+
+    private volatile int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+    private volatile long baseDelayMillis = DEFAULT_BASE_DELAY_MILLIS;
+    private volatile long maxDelayMillis = DEFAULT_MAX_DELAY_MILLIS;
+    private volatile double retryRatio = DEFAULT_RETRY_RATIO;
+    private volatile int minRetryTokens = DEFAULT_MIN_RETRY_TOKENS;
+    private volatile int maxRetryTokens = DEFAULT_MAX_RETRY_TOKENS;
+
+    private final Set<String> idempotentOperations =
+        Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final ConcurrentHashMap<String, Budget> budgets =
+        new ConcurrentHashMap<String, Budget>();
+
+    public RetryPolicy() {
+        for (String operation : DEFAULT_IDEMPOTENT_OPERATIONS) {
+            this.idempotentOperations.add(operation);
+        }
+    }
+
+    /**
+     * Tells whether an operation may be sent more than once.
+     *
+     * @param operation An API method, such as "ShowTree".
+     */
+    public boolean isIdempotent(String operation) {
+        return this.idempotentOperations.contains(operation);
+    }
+
+    public void setIdempotent(String operation, boolean idempotent) {
+        if (idempotent) {
+            this.idempotentOperations.add(operation);
+        } else {
+            this.idempotentOperations.remove(operation);
+        }
+    }
+
+    /**
+     * Tells whether a failure is temporary.
+     */
+    public boolean isRetryable(IOException e) {
+        return ITunesUTransportException.isRetryable(e);
+    }
+
+    /**
+     * Returns how long to wait before sending a request again.
+     *
+     * @param attempt The number of the attempt that failed, starting at 1.
+     * @param e The failure.
+     */
+    public long getDelayMillis(int attempt, IOException e) {
+        long ceiling = this.baseDelayMillis << Math.min(attempt - 1, 30);
+        if (ceiling <= 0 || ceiling > this.maxDelayMillis) {
+            ceiling = this.maxDelayMillis;
+        }
+        long delay = (long) (ThreadLocalRandom.current().nextDouble() * ceiling);
+        if (e instanceof ITunesUTransportException) {
+            long retryAfter = ((ITunesUTransportException) e).getRetryAfterMillis();
+            delay = Math.max(delay, Math.min(retryAfter, this.maxDelayMillis));
+        }
+        return delay;
+    }
+
+    /**
+     * Records a request for an operation, adding to its retry budget.
+     */
+    public void onRequest(String operation) {
+        this.getBudget(operation).deposit();
+    }
+
+    /**
+     * Spends one token of an operation's retry budget.
+     *
+     * @return False if the budget is exhausted and the request must not
+     *         be retried.
+     */
+    public boolean tryRetry(String operation) {
+        return this.getBudget(operation).withdraw();
+    }
+
+    public int getMaxAttempts() {
+        return this.maxAttempts;
+    }
+
+    /**
+     * Sets the most times a request is sent, including the first.
+     */
+    public void setMaxAttempts(int maxAttempts) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be positive");
+        }
+        this.maxAttempts = maxAttempts;
+    }
+
+    public long getBaseDelayMillis() {
+        return this.baseDelayMillis;
+    }
+
+    public void setBaseDelayMillis(long baseDelayMillis) {
+        this.baseDelayMillis = baseDelayMillis;
+    }
+
+    public long getMaxDelayMillis() {
+        return this.maxDelayMillis;
+    }
+
+    public void setMaxDelayMillis(long maxDelayMillis) {
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    public double getRetryRatio() {
+        return this.retryRatio;
+    }
+
+    public void setRetryRatio(double retryRatio) {
+        this.retryRatio = retryRatio;
+    }
+
+    public int getMinRetryTokens() {
+        return this.minRetryTokens;
+    }
+
+    public void setMinRetryTokens(int minRetryTokens) {
+        this.minRetryTokens = minRetryTokens;
+    }
+
+    public int getMaxRetryTokens() {
+        return this.maxRetryTokens;
+    }
+
+    public void setMaxRetryTokens(int maxRetryTokens) {
+        this.maxRetryTokens = maxRetryTokens;
+    }
+
+    /**
+     * Returns the number of retries made for each operation.
+     */
+    public Map<String, Long> getRetryCounts() {
+        Map<String, Long> counts = new HashMap<String, Long>();
+        for (Map.Entry<String, Budget> entry : this.budgets.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().getRetryCount());
+        }
+        return counts;
+    }
+
+    /**
+     * Returns the number of retries refused for each operation because
+     * its budget was exhausted.
+     */
+    public Map<String, Long> getExhaustedCounts() {
+        Map<String, Long> counts = new HashMap<String, Long>();
+        for (Map.Entry<String, Budget> entry : this.budgets.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().getExhaustedCount());
+        }
+        return counts;
+    }
+
+    private Budget getBudget(String operation) {
+        Budget budget = this.budgets.get(operation);
+        if (budget == null) {
+            Budget newBudget = new Budget(this.minRetryTokens);
+            budget = this.budgets.putIfAbsent(operation, newBudget);
+            if (budget == null) {
+                budget = newBudget;
+            }
+        }
+        return budget;
+    }
+
+    /**
+     * The retry budget of one operation.
+     */
+    private class Budget {
+        private double tokens;
+        private long retryCount;
+        private long exhaustedCount;
+
+        Budget(double tokens) {
+            this.tokens = tokens;
+        }
+
+        synchronized void deposit() {
+            this.tokens = Math.min(this.tokens + RetryPolicy.this.retryRatio,
+                                   RetryPolicy.this.maxRetryTokens);
+        }
+
+        synchronized boolean withdraw() {
+            if (this.tokens < 1) {
+                this.exhaustedCount++;
+                return false;
+            }
+            this.tokens -= 1;
+            this.retryCount++;
+            return true;
+        }
+
+        synchronized long getRetryCount() {
+            return this.retryCount;
+        }
+
+        synchronized long getExhaustedCount() {
+            return this.exhaustedCount;
+        }
+    }
+}
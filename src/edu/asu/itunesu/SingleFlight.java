@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2007-2008, Arizona State University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Arizona State University nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY ARIZONA STATE UNIVERSITY ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL ARIZONA STATE UNIVERSITY BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.asu.itunesu;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces concurrent calls with equal keys. The first caller for a key
+ * runs the call; callers that arrive while it is in flight wait for it
+ * and receive the same result or exception, or give up when their own
+ * current {@link Deadline} passes. Nothing is kept once the call
+ * completes.
+ */
+class SingleFlight<K, V> {
+    /**
+     * The work for one key.
+     */
+    public interface Call<V> {
+        public V call() throws ITunesUException;
+    }
+
+    private final ConcurrentMap<K, Flight<V>> flights =
+        new ConcurrentHashMap<K, Flight<V>>();
+
+    private final AtomicLong executedCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+
+    public V execute(K key, Call<V> call) throws ITunesUException {
+        Flight<V> flight = new Flight<V>();
+        Flight<V> inFlight = this.flights.putIfAbsent(key, flight);
+        if (inFlight != null) {
+            this.coalescedCount.incrementAndGet();
+            return inFlight.await();
+        }
+
+        this.executedCount.incrementAndGet();
+        try {
+            V value = call.call();
+            flight.complete(value, null);
+            return value;
+        } catch (ITunesUException e) {
+            flight.complete(null, e);
+            throw e;
+        } catch (RuntimeException e) {
+            flight.complete(null, e);
+            throw e;
+        } catch (Error e) {
+            flight.complete(null, e);
+            throw e;
+        } finally {
+            this.flights.remove(key, flight);
+        }
+    }
+
+    /**
+     * Returns the number of calls that were run.
+     */
+    public long getExecutedCount() {
+        return this.executedCount.get();
+    }
+
+    /**
+     * Returns the number of calls that shared another call's result
+     * instead of running.
+     */
+    public long getCoalescedCount() {
+        return this.coalescedCount.get();
+    }
+
+    public int getInFlightCount() {
+        return this.flights.size();
+    }
+
+    private static class Flight<V> {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private V value;
+        private Throwable error;
+
+        void complete(V value, Throwable error) {
+            this.value = value;
+            this.error = error;
+            this.done.countDown();
+        }
+
+        V await() throws ITunesUException {
+            Deadline deadline = Deadline.current();
+            try {
+                if (deadline == null) {
+                    this.done.await();
+                } else if (!this.done.await(deadline.getRemainingNanos(), TimeUnit.NANOSECONDS)) {
+                    throw new ITunesUException(
+                        new DeadlineExceededException("Waiting for a shared request: deadline exceeded"));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ITunesUException(e);
+            }
+            if (this.error instanceof ITunesUException) {
+                throw (ITunesUException) this.error;
+            } else if (this.error instanceof RuntimeException) {
+                throw (RuntimeException) this.error;
+            } else if (this.error instanceof Error) {
+                throw (Error) this.error;
+            }
+            return this.value;
+        }
+    }
+}
@@ -28,22 +28,17 @@
 package edu.asu.itunesu;
 
 import java.io.IOException;
-import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.List;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
-
 /**
  * An entire iTunesU site, composed of many {@link Section} objects.
  */
@@ -169,6 +164,32 @@ public class Site extends ITunesUElement {
         return element;
     }
 
+    public void writeXml(XmlWriter writer) throws IOException {
+        writer.startElement("Site");
+        if (this.name != null) {
+            writer.element("Name", this.name);
+        }
+        if (this.handle != null) {
+            writer.element("Handle", this.handle);
+        }
+        if (this.allowSubscription != null) {
+            writer.element("AllowSubscription", this.allowSubscription ? "true" : "false");
+        }
+        for (Permission permission : this.permissions) {
+            permission.writeXml(writer);
+        }
+        for (Section section : this.sections) {
+            section.writeXml(writer);
+        }
+        if (this.templates != null) {
+            this.templates.writeXml(writer);
+        }
+        if (this.themeHandle != null) {
+            writer.element("ThemeHandle", this.themeHandle);
+        }
+        writer.endElement();
+    }
+
     public static Site fromXmlElement(Element element) throws ITunesUException {
         if (!"Site".equals(element.getNodeName())) {
             throw new ITunesUException("Expected Site, got "
@@ -211,25 +232,48 @@ public class Site extends ITunesUElement {
                         themeHandle);
     }
 
+    public static Site fromXmlStream(XMLStreamReader reader)
+        throws ITunesUException, XMLStreamException {
+        XmlStreamSupport.requireStartElement(reader, "Site");
+        String name = null;
+        String handle = null;
+        Boolean allowSubscription = null;
+        List<Permission> permissions = new ArrayList<Permission>();
+        List<Section> sections = new ArrayList<Section>();
+        Templates templates = null;
+        String themeHandle = null;
+        while (XmlStreamSupport.nextChildElement(reader)) {
+            String childName = reader.getLocalName();
+            if ("Name".equals(childName)) {
+                name = XmlStreamSupport.getTextContent(reader);
+            } else if ("Handle".equals(childName)) {
+                handle = XmlStreamSupport.getTextContent(reader);
+            } else if ("AllowSubscription".equals(childName)) {
+                allowSubscription = "true".equals(XmlStreamSupport.getTextContent(reader));
+            } else if ("Permission".equals(childName)) {
+                permissions.add(Permission.fromXmlStream(reader));
+            } else if ("Section".equals(childName)) {
+                sections.add(Section.fromXmlStream(reader));
+            } else if ("Templates".equals(childName)) {
+                templates = Templates.fromXmlStream(reader);
+            } else if ("ThemeHandle".equals(childName)) {
+                themeHandle = XmlStreamSupport.getTextContent(reader);
+            } else {
+                XmlStreamSupport.skipElement(reader);
+            }
+        }
+        return new Site(name,
+                        handle,
+                        allowSubscription,
+                        permissions,
+                        sections,
+                        templates,
+                        themeHandle);
+    }
+
     public static Site fromXml(String xml)
         throws ITunesUException {
-        DocumentBuilderFactory docFactory =
-            DocumentBuilderFactory.newInstance();
-        DocumentBuilder docBuilder;
-        try {
-            docBuilder = docFactory.newDocumentBuilder();
-        } catch (ParserConfigurationException e) {
-            throw new ITunesUException(e);
-        }
-        Document doc;
-        try {
-            doc = docBuilder.parse(new InputSource(new StringReader(xml)));
-        } catch (SAXException e) {
-            throw new ITunesUException(e);
-        } catch (IOException e) {
-            throw new ITunesUException(e);
-        }
-        return Site.fromXmlElement(doc.getDocumentElement());
+        return Site.fromXmlElement(XmlSupport.parse(xml).getDocumentElement());
     }
 
     public String toString() {
@@ -0,0 +1,817 @@
+/*
+ * Copyright (c) 2007-2008, Arizona State University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Arizona State University nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY ARIZONA STATE UNIVERSITY ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL ARIZONA STATE UNIVERSITY BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.asu.itunesu;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds a parsed copy of the whole site, indexed by handle, so that
+ * lookups by handle do not need a ShowTree round trip.
+ *
+ * <p>The site is loaded on first use and reloaded once it is older than
+ * the time-to-live, or after {@link #invalidate()}. The site is loaded
+ * without holding the cache's lock, and concurrent lookups wait for one
+ * shared load, so a slow load never blocks writes or lookups on a tree
+ * that is still valid. Lookups for handles that are not in the cached tree
+ * return null, and {@link ITunesUConnection} then falls back to the
+ * server.</p>
+ *
+ * <p>Returned objects are shared with the cache and should be treated as
+ * read-only. The cache never changes them either: a write replaces the
+ * objects it touches, and each of their ancestors up to the site, with
+ * copies, so a tree or list obtained earlier stays as it was.</p>
+ *
+ * <p>By default, every successful write sent through the connection
+ * discards the cached tree, so that later lookups see the write. In
+ * write-through mode, writes are applied to the cached tree instead:
+ * added objects are inserted under their parent with the handle reported
+ * by the server, deleted objects are removed and merged fields are
+ * copied. Writes whose effect cannot be reproduced locally, such as adds
+ * from a template or merges carrying child elements, still discard the
+ * tree. {@link #verify()}, run on demand or periodically, reloads the site
+ * and reports how far the cached tree had drifted from the server.</p>
+ *
+ * <p>Install a cache with
+ * {@link ITunesUConnection#setSiteCache(SiteCache)}.</p>
+ */
+public class SiteCache {
+    public static final long DEFAULT_TTL_MILLIS = 5 * 60 * 1000L;
+
+    private ITunesUConnection connection;
+    private long ttlMillis;
+
+    private boolean writeThrough;
+    private ScheduledExecutorService verifier;
+
+    private Site site;
+    private Map<String, Object> index;
+    private Map<String, Object> parents;
+    private long loadedAt;
+    private long modificationCount;
+    private CompletableFuture<Boolean> loading;
+    private long loadingModificationCount;
+
+    private long hitCount;
+    private long missCount;
+    private long loadCount;
+    private long loadTimeNanos;
+    private long writeCount;
+    private long writeInvalidationCount;
+    private long verifyCount;
+    private long verifyFailureCount;
+    private long discrepancyCount;
+
+    public SiteCache(ITunesUConnection connection) {
+        this(connection, DEFAULT_TTL_MILLIS);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param connection The connection used to load the site.
+     * @param ttlMillis How long a loaded site may be used.
+     */
+    public SiteCache(ITunesUConnection connection, long ttlMillis) {
+        this.connection = connection;
+        this.ttlMillis = ttlMillis;
+    }
+
+    public long getTtlMillis() {
+        return this.ttlMillis;
+    }
+
+    public synchronized boolean isWriteThrough() {
+        return this.writeThrough;
+    }
+
+    /**
+     * Enables applying successful writes to the cached tree.
+     */
+    public synchronized void setWriteThrough(boolean writeThrough) {
+        this.writeThrough = writeThrough;
+    }
+
+    /**
+     * Returns the cached site, loading it if necessary.
+     */
+    public Site getSite() throws ITunesUException {
+        boolean loaded = false;
+        while (true) {
+            synchronized (this) {
+                if (this.isReadable(loaded)) {
+                    return this.site;
+                }
+            }
+            loaded = this.load();
+        }
+    }
+
+    public Section getSection(String handle) throws ITunesUException {
+        return this.lookup(handle, Section.class);
+    }
+
+    public Division getDivision(String handle) throws ITunesUException {
+        return this.lookup(handle, Division.class);
+    }
+
+    public Course getCourse(String handle) throws ITunesUException {
+        return this.lookup(handle, Course.class);
+    }
+
+    public Group getGroup(String handle) throws ITunesUException {
+        return this.lookup(handle, Group.class);
+    }
+
+    public Track getTrack(String handle) throws ITunesUException {
+        return this.lookup(handle, Track.class);
+    }
+
+    /**
+     * Lists the sections beneath a node, including the node itself.
+     *
+     * @param handle The handle of a node in the tree, or null for the site.
+     * @return The sections, or null if the handle is not cached.
+     */
+    public List<Section> getSections(String handle) throws ITunesUException {
+        return this.collect(handle, Section.class);
+    }
+
+    public List<Division> getDivisions(String handle) throws ITunesUException {
+        return this.collect(handle, Division.class);
+    }
+
+    public List<Course> getCourses(String handle) throws ITunesUException {
+        return this.collect(handle, Course.class);
+    }
+
+    public List<Group> getGroups(String handle) throws ITunesUException {
+        return this.collect(handle, Group.class);
+    }
+
+    public List<Track> getTracks(String handle) throws ITunesUException {
+        return this.collect(handle, Track.class);
+    }
+
+    /**
+     * Discards the cached site. The next lookup reloads it.
+     */
+    public synchronized void invalidate() {
+        this.site = null;
+        this.index = null;
+        this.parents = null;
+        this.modificationCount++;
+    }
+
+    /**
+     * Applies a successful write to the cached tree, or discards the tree
+     * if the cache is not in write-through mode. Called by
+     * {@link ITunesUConnection} after each successful write.
+     *
+     * @param doc The request that was sent.
+     * @param response The server's response to it.
+     */
+    public synchronized void apply(ITunesUDocument doc, ITunesUResponse response) {
+        // Counted even when nothing is cached, so that a load already in
+        // flight, which may predate the write, is not installed.
+        this.modificationCount++;
+        if (this.site == null || "ShowTree".equals(doc.getMethod())) {
+            return;
+        }
+        if (!this.writeThrough) {
+            this.invalidate();
+            return;
+        }
+        boolean applied;
+        try {
+            applied = this.applyWrite(doc.getMethod(), doc.getArguments(), response);
+        } catch (ITunesUException e) {
+            applied = false;
+        }
+        if (applied) {
+            this.writeCount++;
+        } else {
+            this.writeInvalidationCount++;
+            this.invalidate();
+        }
+    }
+
+    /**
+     * Reloads the site from the server and replaces the cached tree.
+     *
+     * @return The number of handles that were added, removed or renamed
+     *         on the server relative to the cache, or -1 if writes were
+     *         applied during the reload and the cache was left as it was.
+     */
+    public int verify() throws ITunesUException {
+        long modificationCount;
+        synchronized (this) {
+            modificationCount = this.modificationCount;
+        }
+        long start = System.nanoTime();
+        Site site = this.connection.getSite();
+        Map<String, Object> index = new HashMap<String, Object>();
+        Map<String, Object> parents = new HashMap<String, Object>();
+        addToIndex(site, null, index, parents);
+        synchronized (this) {
+            this.verifyCount++;
+            if (this.modificationCount != modificationCount) {
+                return -1;
+            }
+            int discrepancies = this.index == null ? 0 : countDiscrepancies(this.index, index);
+            this.discrepancyCount += discrepancies;
+            this.install(site, index, parents, start);
+            return discrepancies;
+        }
+    }
+
+    /**
+     * Runs {@link #verify()} in the background at a fixed interval.
+     */
+    public synchronized void startVerification(long periodMillis) {
+        if (this.verifier != null) {
+            this.verifier.shutdownNow();
+        }
+        this.verifier = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "SiteCache");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.verifier.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    SiteCache.this.verify();
+                } catch (Exception e) {
+                    synchronized (SiteCache.this) {
+                        SiteCache.this.verifyFailureCount++;
+                    }
+                }
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops background verification.
+     */
+    public synchronized void shutdown() {
+        if (this.verifier != null) {
+            this.verifier.shutdownNow();
+            this.verifier = null;
+        }
+    }
+
+    public synchronized boolean isLoaded() {
+        return this.site != null
+            && System.currentTimeMillis() - this.loadedAt < this.ttlMillis;
+    }
+
+    public synchronized long getHitCount() {
+        return this.hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return this.missCount;
+    }
+
+    public synchronized long getLoadCount() {
+        return this.loadCount;
+    }
+
+    public synchronized long getLoadTimeNanos() {
+        return this.loadTimeNanos;
+    }
+
+    public synchronized long getWriteCount() {
+        return this.writeCount;
+    }
+
+    public synchronized long getWriteInvalidationCount() {
+        return this.writeInvalidationCount;
+    }
+
+    public synchronized long getVerifyCount() {
+        return this.verifyCount;
+    }
+
+    public synchronized long getVerifyFailureCount() {
+        return this.verifyFailureCount;
+    }
+
+    /**
+     * Total discrepancies found by {@link #verify()} so far.
+     */
+    public synchronized long getDiscrepancyCount() {
+        return this.discrepancyCount;
+    }
+
+    public synchronized double getHitRatio() {
+        long total = this.hitCount + this.missCount;
+        return total == 0 ? 0.0 : (double) this.hitCount / total;
+    }
+
+    public synchronized String toString() {
+        return "SiteCache[elements=" + (this.index == null ? 0 : this.index.size())
+            + ", hits=" + this.hitCount
+            + ", misses=" + this.missCount
+            + ", loads=" + this.loadCount
+            + ", loadTimeMillis=" + this.loadTimeNanos / 1000000
+            + ", writes=" + this.writeCount
+            + ", writeInvalidations=" + this.writeInvalidationCount
+            + ", verifications=" + this.verifyCount
+            + ", discrepancies=" + this.discrepancyCount + "]";
+    }
+
+    private <T> T lookup(String handle, Class<T> type) throws ITunesUException {
+        boolean loaded = false;
+        while (true) {
+            synchronized (this) {
+                if (this.isReadable(loaded)) {
+                    Object element = this.index.get(handle);
+                    if (type.isInstance(element)) {
+                        this.hitCount++;
+                        return type.cast(element);
+                    }
+                    this.missCount++;
+                    return null;
+                }
+            }
+            loaded = this.load();
+        }
+    }
+
+    private <T> List<T> collect(String handle, Class<T> type) throws ITunesUException {
+        boolean loaded = false;
+        while (true) {
+            synchronized (this) {
+                if (this.isReadable(loaded)) {
+                    Object root = handle == null ? this.site : this.index.get(handle);
+                    if (root == null) {
+                        this.missCount++;
+                        return null;
+                    }
+                    this.hitCount++;
+                    List<T> result = new ArrayList<T>();
+                    collect(root, type, result);
+                    return result;
+                }
+            }
+            loaded = this.load();
+        }
+    }
+
+    /**
+     * Whether the cached tree may be read: it is within its time-to-live,
+     * or was installed by the load the caller has just waited for. Called
+     * with the lock held.
+     */
+    private boolean isReadable(boolean loaded) {
+        return this.site != null && (loaded || this.isLoaded());
+    }
+
+    /**
+     * Loads the site without holding the lock, or waits for a load already
+     * in flight. A load is installed only if no write or invalidation
+     * happened while it ran; callers then check the cache again.
+     *
+     * @return true if the load was installed.
+     */
+    private boolean load() throws ITunesUException {
+        CompletableFuture<Boolean> loading;
+        long modificationCount;
+        boolean owner = false;
+        synchronized (this) {
+            loading = this.loading;
+            // A load that started before the latest write cannot be
+            // installed, so there is no point in waiting for it.
+            if (loading == null || this.loadingModificationCount != this.modificationCount) {
+                loading = new CompletableFuture<Boolean>();
+                this.loading = loading;
+                this.loadingModificationCount = this.modificationCount;
+                owner = true;
+            }
+            modificationCount = this.modificationCount;
+        }
+        if (owner) {
+            try {
+                long start = System.nanoTime();
+                Site site = this.connection.getSite();
+                Map<String, Object> index = new HashMap<String, Object>();
+                Map<String, Object> parents = new HashMap<String, Object>();
+                addToIndex(site, null, index, parents);
+                boolean installed;
+                synchronized (this) {
+                    installed = this.modificationCount == modificationCount;
+                    if (installed) {
+                        this.install(site, index, parents, start);
+                    }
+                    this.endLoad(loading);
+                }
+                loading.complete(installed);
+            } catch (ITunesUException e) {
+                this.failLoad(loading, e);
+                throw e;
+            } catch (RuntimeException e) {
+                this.failLoad(loading, e);
+                throw e;
+            } catch (Error e) {
+                this.failLoad(loading, e);
+                throw e;
+            }
+        }
+        try {
+            return loading.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ITunesUException) {
+                throw (ITunesUException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    private synchronized void endLoad(CompletableFuture<Boolean> loading) {
+        if (this.loading == loading) {
+            this.loading = null;
+        }
+    }
+
+    private void failLoad(CompletableFuture<Boolean> loading, Throwable error) {
+        this.endLoad(loading);
+        loading.completeExceptionally(error);
+    }
+
+    private void install(Site site,
+                         Map<String, Object> index,
+                         Map<String, Object> parents,
+                         long start) {
+        this.site = site;
+        this.index = index;
+        this.parents = parents;
+        this.loadedAt = System.currentTimeMillis();
+        this.loadCount++;
+        this.loadTimeNanos += System.nanoTime() - start;
+    }
+
+    private boolean applyWrite(String method,
+                               Map<String, Object> arguments,
+                               ITunesUResponse response)
+        throws ITunesUException {
+
+        if ("ShowTree".equals(method) || "UpdateGroup".equals(method)) {
+            return true;
+        } else if (method.startsWith("Add") && !"AddPermission".equals(method)) {
+            if (arguments.containsKey("TemplateHandle")) {
+                return false;
+            }
+            Object parent = this.index.get(arguments.get("ParentHandle"));
+            String handle = response.getAddedObjectHandle();
+            Object element = arguments.get(method.substring("Add".length()));
+            if (parent == null || handle == null || "".equals(handle)
+                || !ModelSupport.getChildren(element).isEmpty()) {
+                return false;
+            }
+            ITunesUElement copy = ModelSupport.copyOf((ITunesUElement) element);
+            ModelSupport.setHandle(copy, handle);
+            Object parentCopy = copyNode(parent);
+            if (!ModelSupport.addChild(parentCopy, copy) || !this.replace(parent, parentCopy)) {
+                return false;
+            }
+            addToIndex(copy, parentCopy, this.index, this.parents);
+            return true;
+        } else if (method.startsWith("Delete") && !"DeletePermission".equals(method)) {
+            String handle = (String) arguments.get(method.substring("Delete".length()) + "Handle");
+            Object element = this.index.get(handle);
+            if (element == null) {
+                return true;
+            }
+            Object parent = this.parents.get(handle);
+            if (parent == null) {
+                return false;
+            }
+            Object parentCopy = copyNode(parent);
+            if (!ModelSupport.removeChild(parentCopy, element) || !this.replace(parent, parentCopy)) {
+                return false;
+            }
+            this.removeFromIndex(element);
+            return true;
+        } else if ("AddPermission".equals(method) || "MergePermission".equals(method)) {
+            Object target = this.index.get(arguments.get("ParentHandle"));
+            Object copy = copyNode(target);
+            List<Permission> permissions = ModelSupport.getPermissions(copy);
+            if (permissions == null) {
+                return false;
+            }
+            Permission permission = (Permission) arguments.get("Permission");
+            removePermission(permissions, permission.getCredential());
+            permissions.add(new Permission(permission.getCredential(), permission.getAccess()));
+            return this.replace(target, copy);
+        } else if ("DeletePermission".equals(method)) {
+            Object target = this.index.get(arguments.get("ParentHandle"));
+            Object copy = copyNode(target);
+            List<Permission> permissions = ModelSupport.getPermissions(copy);
+            if (permissions == null) {
+                return false;
+            }
+            removePermission(permissions, (String) arguments.get("Credential"));
+            return this.replace(target, copy);
+        } else if (method.startsWith("Merge")) {
+            String type = method.substring("Merge".length());
+            Object target = "Site".equals(type) && !arguments.containsKey("SiteHandle")
+                ? this.site
+                : this.index.get(arguments.get(type + "Handle"));
+            Object source = arguments.get(type);
+            if (target == null || target.getClass() != source.getClass()
+                || "true".equals(arguments.get("Destructive"))
+                || !ModelSupport.getChildren(source).isEmpty()) {
+                return false;
+            }
+            Object copy = copyNode(target);
+            mergeFields(copy, source);
+            List<Permission> permissions = ModelSupport.getPermissions(copy);
+            if (permissions != null) {
+                for (Permission permission : ModelSupport.getPermissions(source)) {
+                    removePermission(permissions, permission.getCredential());
+                    permissions.add(new Permission(permission.getCredential(), permission.getAccess()));
+                }
+            }
+            return this.replace(target, copy);
+        }
+        return false;
+    }
+
+    /**
+     * Puts a copy in place of a cached element. Each ancestor is copied
+     * in turn, up to a new site, so that no object reachable from the
+     * previous site is modified.
+     *
+     * @return false if the element's place in the tree is not known.
+     */
+    private boolean replace(Object element, Object copy) {
+        if (element == this.site) {
+            this.site = (Site) copy;
+        } else {
+            Object parent = this.parents.get(ModelSupport.getHandle(element));
+            if (parent == null) {
+                return false;
+            }
+            Object parentCopy = copyNode(parent);
+            List<?> children = parent instanceof Site
+                ? ((Site) parentCopy).getSections()
+                : ModelSupport.getChildren(parentCopy);
+            if (!replaceChild(children, element, copy) || !this.replace(parent, parentCopy)) {
+                return false;
+            }
+        }
+        String handle = ModelSupport.getHandle(copy);
+        if (handle != null && !"".equals(handle)) {
+            this.index.put(handle, copy);
+        }
+        for (Object child : ModelSupport.getChildren(copy)) {
+            handle = ModelSupport.getHandle(child);
+            if (handle != null && !"".equals(handle)) {
+                this.parents.put(handle, copy);
+            }
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static boolean replaceChild(List<?> children, Object child, Object copy) {
+        for (int i = 0; i < children.size(); i++) {
+            if (children.get(i) == child) {
+                ((List<Object>) children).set(i, copy);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void removeFromIndex(Object element) {
+        String handle = ModelSupport.getHandle(element);
+        if (handle != null) {
+            this.index.remove(handle);
+            this.parents.remove(handle);
+        }
+        for (Object child : ModelSupport.getChildren(element)) {
+            this.removeFromIndex(child);
+        }
+    }
+
+    private static void addToIndex(Object element,
+                                   Object parent,
+                                   Map<String, Object> index,
+                                   Map<String, Object> parents) {
+        String handle = ModelSupport.getHandle(element);
+        if (handle != null && !"".equals(handle)) {
+            index.put(handle, element);
+            if (parent != null) {
+                parents.put(handle, parent);
+            }
+        }
+        for (Object child : ModelSupport.getChildren(element)) {
+            addToIndex(child, element, index, parents);
+        }
+    }
+
+    private static int countDiscrepancies(Map<String, Object> cached,
+                                          Map<String, Object> fresh) {
+        int discrepancies = 0;
+        for (Map.Entry<String, Object> entry : cached.entrySet()) {
+            Object other = fresh.get(entry.getKey());
+            if (other == null || other.getClass() != entry.getValue().getClass()) {
+                discrepancies++;
+            } else {
+                String name = ModelSupport.getName(entry.getValue());
+                if (name == null ? ModelSupport.getName(other) != null : !name.equals(ModelSupport.getName(other))) {
+                    discrepancies++;
+                }
+            }
+        }
+        for (String handle : fresh.keySet()) {
+            if (!cached.containsKey(handle)) {
+                discrepancies++;
+            }
+        }
+        return discrepancies;
+    }
+
+    private static <T> void collect(Object element, Class<T> type, List<T> result) {
+        if (type.isInstance(element)) {
+            result.add(type.cast(element));
+        }
+        for (Object child : ModelSupport.getChildren(element)) {
+            collect(child, type, result);
+        }
+    }
+
+    private static void removePermission(List<Permission> permissions, String credential) {
+        for (Iterator<Permission> i = permissions.iterator(); i.hasNext();) {
+            String other = i.next().getCredential();
+            if (credential == null ? other == null : credential.equals(other)) {
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * Copies one node of the tree. The copy has its own permission and
+     * child lists, but shares the children themselves.
+     */
+    private static Object copyNode(Object element) {
+        Object copy;
+        if (element instanceof Site) {
+            Site from = (Site) element;
+            Site to = new Site();
+            to.setHandle(from.getHandle());
+            to.setPermissions(copyList(from.getPermissions()));
+            to.setSections(copyList(from.getSections()));
+            to.setTemplates(from.getTemplates());
+            copy = to;
+        } else if (element instanceof Section) {
+            Section from = (Section) element;
+            Section to = new Section();
+            to.setHandle(from.getHandle());
+            to.setPermissions(copyList(from.getPermissions()));
+            to.setSectionItems(copyList(from.getSectionItems()));
+            copy = to;
+        } else if (element instanceof Division) {
+            Division from = (Division) element;
+            Division to = new Division();
+            to.setHandle(from.getHandle());
+            to.setPermissions(copyList(from.getPermissions()));
+            to.setSections(copyList(from.getSections()));
+            copy = to;
+        } else if (element instanceof Course) {
+            Course from = (Course) element;
+            Course to = new Course();
+            to.setHandle(from.getHandle());
+            to.setPermissions(copyList(from.getPermissions()));
+            to.setGroups(copyList(from.getGroups()));
+            copy = to;
+        } else if (element instanceof Group) {
+            Group from = (Group) element;
+            Group to = new Group();
+            to.setHandle(from.getHandle());
+            to.setPermissions(copyList(from.getPermissions()));
+            to.setTracks(copyList(from.getTracks()));
+            copy = to;
+        } else if (element instanceof Track) {
+            Track to = new Track();
+            to.setHandle(((Track) element).getHandle());
+            copy = to;
+        } else if (element instanceof Templates) {
+            Templates from = (Templates) element;
+            Templates to = new Templates();
+            to.setName(from.getName());
+            to.setHandle(from.getHandle());
+            to.setPermissions(copyList(from.getPermissions()));
+            to.setSectionItems(copyList(from.getSectionItems()));
+            return to;
+        } else {
+            return null;
+        }
+        mergeFields(copy, element);
+        return copy;
+    }
+
+    private static <T> List<T> copyList(List<T> list) {
+        return list == null ? new ArrayList<T>() : new ArrayList<T>(list);
+    }
+
+    /**
+     * Copies the non-null simple fields of a merged element.
+     */
+    private static void mergeFields(Object target, Object source) {
+        if (source instanceof Site) {
+            Site from = (Site) source;
+            Site to = (Site) target;
+            if (from.getName() != null) to.setName(from.getName());
+            if (from.getAllowSubscription() != null) to.setAllowSubscription(from.getAllowSubscription());
+            if (from.getThemeHandle() != null) to.setThemeHandle(from.getThemeHandle());
+        } else if (source instanceof Section) {
+            Section from = (Section) source;
+            Section to = (Section) target;
+            if (from.getName() != null) to.setName(from.getName());
+        } else if (source instanceof Division) {
+            Division from = (Division) source;
+            Division to = (Division) target;
+            if (from.getName() != null) to.setName(from.getName());
+            if (from.getShortName() != null) to.setShortName(from.getShortName());
+            if (from.getIdentifier() != null) to.setIdentifier(from.getIdentifier());
+            if (from.getAllowSubscription() != null) to.setAllowSubscription(from.getAllowSubscription());
+            if (from.getThemeHandle() != null) to.setThemeHandle(from.getThemeHandle());
+        } else if (source instanceof Course) {
+            Course from = (Course) source;
+            Course to = (Course) target;
+            if (from.getName() != null) to.setName(from.getName());
+            if (from.getShortName() != null) to.setShortName(from.getShortName());
+            if (from.getIdentifier() != null) to.setIdentifier(from.getIdentifier());
+            if (from.getInstructor() != null) to.setInstructor(from.getInstructor());
+            if (from.getDescription() != null) to.setDescription(from.getDescription());
+            if (from.getAllowSubscription() != null) to.setAllowSubscription(from.getAllowSubscription());
+            if (from.getThemeHandle() != null) to.setThemeHandle(from.getThemeHandle());
+        } else if (source instanceof Group) {
+            Group from = (Group) source;
+            Group to = (Group) target;
+            if (from.getName() != null) to.setName(from.getName());
+            if (from.getGroupType() != null) to.setGroupType(from.getGroupType());
+            if (from.getAllowSubscription() != null) to.setAllowSubscription(from.getAllowSubscription());
+            if (from.getExternalFeed() != null) to.setExternalFeed(from.getExternalFeed());
+        } else if (source instanceof Track) {
+            Track from = (Track) source;
+            Track to = (Track) target;
+            if (from.getName() != null) to.setName(from.getName());
+            if (from.getKind() != null) to.setKind(from.getKind());
+            if (from.getTrackNumber() != null) to.setTrackNumber(from.getTrackNumber());
+            if (from.getDiscNumber() != null) to.setDiscNumber(from.getDiscNumber());
+            if (from.getDurationMilliseconds() != null) to.setDurationMilliseconds(from.getDurationMilliseconds());
+            if (from.getAlbumName() != null) to.setAlbumName(from.getAlbumName());
+            if (from.getArtistName() != null) to.setArtistName(from.getArtistName());
+            if (from.getGenreName() != null) to.setGenreName(from.getGenreName());
+            if (from.getComment() != null) to.setComment(from.getComment());
+            if (from.getDownloadUrl() != null) to.setDownloadUrl(from.getDownloadUrl());
+            if (from.getFileSize() != null) to.setFileSize(from.getFileSize());
+            if (from.getFileHash() != null) to.setFileHash(from.getFileHash());
+        }
+    }
+}
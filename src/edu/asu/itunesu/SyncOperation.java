@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2007-2008, Arizona State University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Arizona State University nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY ARIZONA STATE UNIVERSITY ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL ARIZONA STATE UNIVERSITY BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.asu.itunesu;
+
+/**
+ * One add, merge or delete produced by {@link SyncPlanner}.
+ *
+ * <p>Adds carry the whole desired subtree. Merges carry a copy of the
+ * desired element without its children and are sent non-destructively.
+ * Deletes carry the current element being removed. Permission deletes
+ * carry the current permission being removed from the element with the
+ * operation's handle.</p>
+ */
+public class SyncOperation {
+    public static final String TYPE_ADD    = "add";
+    public static final String TYPE_MERGE  = "merge";
+    public static final String TYPE_DELETE = "delete";
+    public static final String TYPE_DELETE_PERMISSION = "deletePermission";
+
+    private String type;
+    private String parentHandle;
+    private String handle;
+    private ITunesUElement element;
+    private ITunesUResponse response;
+    private ITunesUException error;
+
+    public SyncOperation(String type,
+                         String parentHandle,
+                         String handle,
+                         ITunesUElement element) {
+        this.type = type;
+        this.parentHandle = parentHandle;
+        this.handle = handle;
+        this.element = element;
+    }
+
+    public String getType() {
+        return this.type;
+    }
+
+    /**
+     * Handle of the parent an element is added to.
+     */
+    public String getParentHandle() {
+        return this.parentHandle;
+    }
+
+    /**
+     * Handle of the element merged or deleted.
+     */
+    public String getHandle() {
+        return this.handle;
+    }
+
+    public ITunesUElement getElement() {
+        return this.element;
+    }
+
+    /**
+     * The response once the operation has been applied successfully.
+     */
+    public ITunesUResponse getResponse() {
+        return this.response;
+    }
+
+    /**
+     * The error if applying the operation failed.
+     */
+    public ITunesUException getError() {
+        return this.error;
+    }
+
+    public boolean isSuccessful() {
+        return this.response != null && this.error == null;
+    }
+
+    /**
+     * Sends this operation through the connection.
+     */
+    public ITunesUResponse execute(ITunesUConnection connection) throws ITunesUException {
+        try {
+            this.response = this.send(connection);
+            this.error = null;
+            return this.response;
+        } catch (ITunesUException e) {
+            this.error = e;
+            throw e;
+        }
+    }
+
+    private ITunesUResponse send(ITunesUConnection connection) throws ITunesUException {
+        ITunesUElement element = this.element;
+        if (TYPE_ADD.equals(this.type)) {
+            if (element instanceof Section) {
+                return connection.addSection(this.parentHandle, (Section) element);
+            } else if (element instanceof Division) {
+                return connection.addDivision(this.parentHandle, null, (Division) element);
+            } else if (element instanceof Course) {
+                return connection.addCourse(this.parentHandle, null, (Course) element);
+            } else if (element instanceof Group) {
+                return connection.addGroup(this.parentHandle, (Group) element);
+            } else if (element instanceof Track) {
+                return connection.addTrack(this.parentHandle, (Track) element);
+            }
+        } else if (TYPE_MERGE.equals(this.type)) {
+            if (element instanceof Site) {
+                return connection.mergeSite(this.handle, (Site) element);
+            } else if (element instanceof Section) {
+                return connection.mergeSection(this.handle, (Section) element);
+            } else if (element instanceof Division) {
+                return connection.mergeDivision(this.handle, (Division) element);
+            } else if (element instanceof Course) {
+                return connection.mergeCourse(this.handle, (Course) element);
+            } else if (element instanceof Group) {
+                return connection.mergeGroup(this.handle, (Group) element);
+            } else if (element instanceof Track) {
+                return connection.mergeTrack(this.handle, (Track) element);
+            }
+        } else if (TYPE_DELETE.equals(this.type)) {
+            if (element instanceof Section) {
+                return connection.deleteSection(this.handle);
+            } else if (element instanceof Division) {
+                return connection.deleteDivision(this.handle);
+            } else if (element instanceof Course) {
+                return connection.deleteCourse(this.handle);
+            } else if (element instanceof Group) {
+                return connection.deleteGroup(this.handle);
+            } else if (element instanceof Track) {
+                return connection.deleteTrack(this.handle);
+            }
+        } else if (TYPE_DELETE_PERMISSION.equals(this.type)) {
+            return connection.deletePermission(this.handle,
+                                               ((Permission) element).getCredential());
+        }
+        throw new ITunesUException("Cannot " + this.type + " "
+                                   + element.getClass().getSimpleName());
+    }
+
+    public String toString() {
+        return this.type + " " + this.element.getClass().getSimpleName()
+            + " \"" + (this.element instanceof Permission
+                       ? ((Permission) this.element).getCredential()
+                       : ModelSupport.getName(this.element)) + "\""
+            + (TYPE_ADD.equals(this.type)
+               ? " to " + this.parentHandle
+               : " " + this.handle);
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2007-2008, Arizona State University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Arizona State University nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY ARIZONA STATE UNIVERSITY ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL ARIZONA STATE UNIVERSITY BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.asu.itunesu;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The operations that bring a current tree in line with a desired one,
+ * as computed by {@link SyncPlanner}.
+ *
+ * <p>Operations in a plan never depend on each other: additions carry
+ * their whole subtree, merges are shallow and permission deletes only
+ * remove credentials that no merge carries, so they may be applied in any
+ * order.</p>
+ */
+public class SyncPlan {
+    private List<SyncOperation> operations;
+    private int unchangedCount;
+
+    SyncPlan(List<SyncOperation> operations, int unchangedCount) {
+        this.operations = operations;
+        this.unchangedCount = unchangedCount;
+    }
+
+    public List<SyncOperation> getOperations() {
+        return Collections.unmodifiableList(this.operations);
+    }
+
+    public boolean isEmpty() {
+        return this.operations.isEmpty();
+    }
+
+    /**
+     * Number of matched subtrees skipped because their content hashes
+     * were equal.
+     */
+    public int getUnchangedCount() {
+        return this.unchangedCount;
+    }
+
+    public int getCount(String type) {
+        int count = 0;
+        for (SyncOperation operation : this.operations) {
+            if (operation.getType().equals(type)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Applies the plan one operation at a time.
+     *
+     * @return The operations that failed.
+     */
+    public List<SyncOperation> apply(ITunesUConnection connection) {
+        List<SyncOperation> failed = new ArrayList<SyncOperation>();
+        for (SyncOperation operation : this.operations) {
+            try {
+                operation.execute(connection);
+            } catch (ITunesUException e) {
+                failed.add(operation);
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * Applies the plan with at most <code>parallelism</code> operations in
+     * flight, waiting for all of them to finish.
+     *
+     * @return The operations that failed.
+     */
+    public List<SyncOperation> apply(ITunesUConnection connection, int parallelism) {
+        AsyncITunesUConnection async =
+            new AsyncITunesUConnection(connection, parallelism, Integer.MAX_VALUE);
+        try {
+            return this.apply(async);
+        } finally {
+            async.shutdown();
+        }
+    }
+
+    /**
+     * Applies the plan through an async connection, whose in-flight limit
+     * bounds the parallelism, waiting for all operations to finish.
+     *
+     * @return The operations that failed.
+     */
+    public List<SyncOperation> apply(AsyncITunesUConnection async) {
+        List<CompletableFuture<ITunesUResponse>> futures =
+            new ArrayList<CompletableFuture<ITunesUResponse>>();
+        for (final SyncOperation operation : this.operations) {
+            futures.add(async.submit(new AsyncITunesUConnection.Call<ITunesUResponse>() {
+                public ITunesUResponse call(ITunesUConnection connection)
+                    throws ITunesUException {
+                    return operation.execute(connection);
+                }
+            }));
+        }
+        List<SyncOperation> failed = new ArrayList<SyncOperation>();
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                futures.get(i).join();
+            } catch (RuntimeException e) {
+                failed.add(this.operations.get(i));
+            }
+        }
+        return failed;
+    }
+
+    public String toString() {
+        return "SyncPlan[adds=" + this.getCount(SyncOperation.TYPE_ADD)
+            + ", merges=" + this.getCount(SyncOperation.TYPE_MERGE)
+            + ", deletes=" + this.getCount(SyncOperation.TYPE_DELETE)
+            + ", permissionDeletes=" + this.getCount(SyncOperation.TYPE_DELETE_PERMISSION)
+            + ", unchanged=" + this.unchangedCount + "]";
+    }
+}
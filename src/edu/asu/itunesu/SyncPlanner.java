@@ -0,0 +1,345 @@
+/*
+ * Copyright (c) 2007-2008, Arizona State University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Arizona State University nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY ARIZONA STATE UNIVERSITY ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL ARIZONA STATE UNIVERSITY BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.asu.itunesu;
+
+import java.io.UnsupportedEncodingException;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes the operations needed to turn a current site or course, as
+ * read from the server, into a desired one.
+ *
+ * <p>Children are matched by handle, then identifier, then short name,
+ * then name. Matched elements whose desired fields differ from the
+ * current ones produce a shallow merge. Fields left null in the desired
+ * tree are not compared, and neither are handles or fields the server
+ * fills in, such as a track's kind or download URL. Unmatched desired
+ * children are added with their subtree, and unmatched current children
+ * are deleted unless {@link #setDeleteUnmatched(boolean)} is turned off.
+ * Permissions are compared by credential when the desired element lists
+ * any: missing or different ones are merged and, unless deletes are
+ * turned off, extra current ones are deleted.</p>
+ *
+ * <p>Each matched subtree is first compared by content hash, computed
+ * over the compared fields and permissions and the children's hashes, with
+ * the current subtree projected onto what the desired one sets. Subtrees
+ * whose hashes are equal are skipped without being walked, so planning
+ * an unchanged tree against its current state costs one hash of each.</p>
+ *
+ * <p>Templates are not planned.</p>
+ */
+public class SyncPlanner {
+    private boolean deleteUnmatched;
+
+    public SyncPlanner() {
+        this.deleteUnmatched = true;
+    }
+
+    public boolean getDeleteUnmatched() {
+        return this.deleteUnmatched;
+    }
+
+    /**
+     * Sets whether current elements missing from the desired tree are
+     * deleted.
+     */
+    public void setDeleteUnmatched(boolean deleteUnmatched) {
+        this.deleteUnmatched = deleteUnmatched;
+    }
+
+    public SyncPlan plan(Site desired, Site current) throws ITunesUException {
+        return this.planTree(desired, current);
+    }
+
+    public SyncPlan plan(Course desired, Course current) throws ITunesUException {
+        return this.planTree(desired, current);
+    }
+
+    private SyncPlan planTree(ITunesUElement desired, ITunesUElement current)
+        throws ITunesUException {
+
+        Planning planning = new Planning(this.deleteUnmatched);
+        this.diff(desired, current, planning);
+        return new SyncPlan(planning.operations, planning.unchangedCount);
+    }
+
+    private void diff(ITunesUElement desired, ITunesUElement current, Planning planning)
+        throws ITunesUException {
+
+        if (MessageDigest.isEqual(planning.hash(desired, desired),
+                                  planning.hash(current, desired))) {
+            planning.unchangedCount++;
+            return;
+        }
+        String handle = ModelSupport.getHandle(current);
+        if (needsMerge(desired, current)) {
+            planning.operations.add(new SyncOperation(SyncOperation.TYPE_MERGE,
+                                                      null,
+                                                      handle,
+                                                      ModelSupport.shallowCopyOf(desired)));
+        }
+        if (this.deleteUnmatched) {
+            for (Permission permission : getPermissions(current)) {
+                if (!isPermitted(desired, permission.getCredential(), true)) {
+                    planning.operations.add(new SyncOperation(SyncOperation.TYPE_DELETE_PERMISSION,
+                                                              null,
+                                                              handle,
+                                                              permission));
+                }
+            }
+        }
+
+        List<ITunesUElement> currentChildren = getChildren(current);
+        Map<String, ITunesUElement> currentByKey = new HashMap<String, ITunesUElement>();
+        for (ITunesUElement child : currentChildren) {
+            for (String key : getKeys(child)) {
+                if (!currentByKey.containsKey(key)) {
+                    currentByKey.put(key, child);
+                }
+            }
+        }
+
+        Map<ITunesUElement, Boolean> matched = new IdentityHashMap<ITunesUElement, Boolean>();
+        for (ITunesUElement child : getChildren(desired)) {
+            ITunesUElement match = null;
+            for (String key : getKeys(child)) {
+                ITunesUElement candidate = currentByKey.get(key);
+                if (candidate != null && !matched.containsKey(candidate)) {
+                    match = candidate;
+                    break;
+                }
+            }
+            if (match != null) {
+                matched.put(match, Boolean.TRUE);
+                this.diff(child, match, planning);
+            } else {
+                ITunesUElement copy = ModelSupport.copyOf(child);
+                ModelSupport.setHandle(copy, null);
+                planning.operations.add(new SyncOperation(SyncOperation.TYPE_ADD,
+                                                          handle,
+                                                          null,
+                                                          copy));
+            }
+        }
+
+        if (this.deleteUnmatched) {
+            for (ITunesUElement child : currentChildren) {
+                if (!matched.containsKey(child)) {
+                    planning.operations.add(new SyncOperation(SyncOperation.TYPE_DELETE,
+                                                              handle,
+                                                              ModelSupport.getHandle(child),
+                                                              child));
+                }
+            }
+        }
+    }
+
+    private static boolean needsMerge(Object desired, Object current) {
+        String[] desiredFields = ModelSupport.getFields(desired);
+        String[] currentFields = ModelSupport.getFields(current);
+        for (int i = 0; i < desiredFields.length; i++) {
+            if (desiredFields[i] != null && !desiredFields[i].equals(currentFields[i])) {
+                return true;
+            }
+        }
+        List<Permission> currentPermissions = getPermissions(current);
+        for (Permission permission : getPermissions(desired)) {
+            if (!containsPermission(currentPermissions, permission)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<Permission> getPermissions(Object element) {
+        List<Permission> permissions = ModelSupport.getPermissions(element);
+        return permissions == null ? Collections.<Permission>emptyList() : permissions;
+    }
+
+    /**
+     * Whether a desired element leaves a credential in place: it lists
+     * the credential, or lists no permissions at all.
+     */
+    private static boolean isPermitted(Object desired, String credential, boolean ifUnset) {
+        List<Permission> permissions = getPermissions(desired);
+        if (permissions.isEmpty()) {
+            return ifUnset;
+        }
+        for (Permission permission : permissions) {
+            if (equal(credential, permission.getCredential())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean containsPermission(List<Permission> permissions, Permission permission) {
+        for (Permission other : permissions) {
+            if (equal(other.getCredential(), permission.getCredential())
+                && equal(other.getAccess(), permission.getAccess())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * Children that can be planned, leaving out site templates.
+     */
+    private static List<ITunesUElement> getChildren(Object element) {
+        List<ITunesUElement> children = new ArrayList<ITunesUElement>();
+        for (Object child : ModelSupport.getChildren(element)) {
+            if (!(child instanceof Templates)) {
+                children.add((ITunesUElement) child);
+            }
+        }
+        return children;
+    }
+
+    /**
+     * Match keys in order of preference, qualified by element type.
+     */
+    private static List<String> getKeys(ITunesUElement element) {
+        String type = element.getClass().getSimpleName();
+        List<String> keys = new ArrayList<String>(4);
+        addKey(keys, type + ":handle:", ModelSupport.getHandle(element));
+        if (element instanceof SectionItem) {
+            addKey(keys, type + ":identifier:", ((SectionItem) element).getIdentifier());
+            addKey(keys, type + ":shortName:", ((SectionItem) element).getShortName());
+        }
+        addKey(keys, type + ":name:", ModelSupport.getName(element));
+        return keys;
+    }
+
+    private static void addKey(List<String> keys, String prefix, String value) {
+        if (value != null && !"".equals(value)) {
+            keys.add(prefix + value);
+        }
+    }
+
+    /**
+     * State for one planning run.
+     */
+    private static class Planning {
+        private List<SyncOperation> operations = new ArrayList<SyncOperation>();
+        private int unchangedCount;
+        private boolean deleteUnmatched;
+        private Map<Object, Map<Object, byte[]>> hashes =
+            new IdentityHashMap<Object, Map<Object, byte[]>>();
+        private MessageDigest digest;
+
+        public Planning(boolean deleteUnmatched) {
+            this.deleteUnmatched = deleteUnmatched;
+            try {
+                this.digest = MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        /**
+         * Hashes a subtree as seen through a desired subtree, which picks
+         * the fields and permissions compared at each level and pairs the
+         * children by position. A desired subtree is hashed through
+         * itself. Each hash is computed once.
+         */
+        public byte[] hash(Object element, Object desired) {
+            if (element.getClass() != desired.getClass()) {
+                desired = element;
+            }
+            Map<Object, byte[]> byDesired = this.hashes.get(desired);
+            if (byDesired == null) {
+                byDesired = new IdentityHashMap<Object, byte[]>();
+                this.hashes.put(desired, byDesired);
+            }
+            byte[] hash = byDesired.get(element);
+            if (hash != null) {
+                return hash;
+            }
+            List<ITunesUElement> children = getChildren(element);
+            List<ITunesUElement> desiredChildren = getChildren(desired);
+            byte[][] childHashes = new byte[Math.min(children.size(), desiredChildren.size())][];
+            for (int i = 0; i < childHashes.length; i++) {
+                childHashes[i] = this.hash(children.get(i), desiredChildren.get(i));
+            }
+            this.update(element.getClass().getSimpleName());
+            String[] fields = ModelSupport.getFields(element);
+            String[] desiredFields = ModelSupport.getFields(desired);
+            for (int i = 0; i < fields.length; i++) {
+                if (desiredFields[i] != null) {
+                    this.update(fields[i]);
+                }
+            }
+            List<String> permissions = new ArrayList<String>();
+            for (Permission permission : getPermissions(element)) {
+                if (isPermitted(desired, permission.getCredential(), false)
+                    || (this.deleteUnmatched && !getPermissions(desired).isEmpty())) {
+                    permissions.add(permission.getCredential() + "=" + permission.getAccess());
+                }
+            }
+            Collections.sort(permissions);
+            for (String permission : permissions) {
+                this.update(permission);
+            }
+            this.update(Integer.toString(children.size()));
+            for (byte[] childHash : childHashes) {
+                this.digest.update(childHash);
+            }
+            hash = this.digest.digest();
+            byDesired.put(element, hash);
+            return hash;
+        }
+
+        private void update(String value) {
+            if (value == null) {
+                this.digest.update((byte) 0);
+            } else {
+                this.digest.update((byte) 1);
+                try {
+                    this.digest.update(value.getBytes("UTF-8"));
+                } catch (UnsupportedEncodingException e) {
+                    throw new RuntimeException(e);
+                }
+                this.digest.update((byte) 0);
+            }
+        }
+    }
+}
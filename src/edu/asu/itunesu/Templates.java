@@ -31,14 +31,9 @@ import java.util.ArrayList;
 import java.util.List;
 
 import java.io.IOException;
-import java.io.StringReader;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -122,6 +117,23 @@ public class Templates extends ITunesUElement {
         return element;
     }
 
+    public void writeXml(XmlWriter writer) throws IOException {
+        writer.startElement("Templates");
+        if (this.name != null) {
+            writer.element("Name", this.name);
+        }
+        if (this.handle != null) {
+            writer.element("Handle", this.handle);
+        }
+        for (Permission permission : this.permissions) {
+            permission.writeXml(writer);
+        }
+        for (SectionItem sectionItem : this.sectionItems) {
+            ModelSupport.writeXml(sectionItem, writer);
+        }
+        writer.endElement();
+    }
+
     public static Templates fromXmlElement(Element element) throws ITunesUException {
         if (!"Templates".equals(element.getNodeName())) {
             throw new ITunesUException("Expected Templates, got "
@@ -151,25 +163,35 @@ public class Templates extends ITunesUElement {
         return new Templates(name, handle, permissions, sectionItems);
     }
 
+    public static Templates fromXmlStream(XMLStreamReader reader)
+        throws ITunesUException, XMLStreamException {
+        XmlStreamSupport.requireStartElement(reader, "Templates");
+        String name = null;
+        String handle = null;
+        List<Permission> permissions = new ArrayList<Permission>();
+        List<SectionItem> sectionItems = new ArrayList<SectionItem>();
+        while (XmlStreamSupport.nextChildElement(reader)) {
+            String childName = reader.getLocalName();
+            if ("Name".equals(childName)) {
+                name = XmlStreamSupport.getTextContent(reader);
+            } else if ("Handle".equals(childName)) {
+                handle = XmlStreamSupport.getTextContent(reader);
+            } else if ("Permission".equals(childName)) {
+                permissions.add(Permission.fromXmlStream(reader));
+            } else if ("Division".equals(childName)) {
+                sectionItems.add(Division.fromXmlStream(reader));
+            } else if ("Course".equals(childName)) {
+                sectionItems.add(Course.fromXmlStream(reader));
+            } else {
+                XmlStreamSupport.skipElement(reader);
+            }
+        }
+        return new Templates(name, handle, permissions, sectionItems);
+    }
+
     public static Templates fromXml(String xml)
         throws ITunesUException {
-        DocumentBuilderFactory docFactory =
-            DocumentBuilderFactory.newInstance();
-        DocumentBuilder docBuilder;
-        try {
-            docBuilder = docFactory.newDocumentBuilder();
-        } catch (ParserConfigurationException e) {
-            throw new ITunesUException(e);
-        }
-        Document doc;
-        try {
-            doc = docBuilder.parse(new InputSource(new StringReader(xml)));
-        } catch (SAXException e) {
-            throw new ITunesUException(e);
-        } catch (IOException e) {
-            throw new ITunesUException(e);
-        }
-        return Templates.fromXmlElement(doc.getDocumentElement());
+        return Templates.fromXmlElement(XmlSupport.parse(xml).getDocumentElement());
     }
 
     public String toString() {
@@ -0,0 +1,317 @@
+/*
+ * Copyright (c) 2007-2008, Arizona State University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Arizona State University nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY ARIZONA STATE UNIVERSITY ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL ARIZONA STATE UNIVERSITY BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.asu.itunesu;
+
+import java.io.UnsupportedEncodingException;
+
+import java.nio.charset.Charset;
+
+import java.security.GeneralSecurityException;
+
+import java.util.Date;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Signs authorization tokens with one shared secret. Produces the same
+ * tokens and signatures as {@link ITunesU#getAuthorizationToken} and
+ * {@link ITunesU#hmacSHA256}, but keys an HmacSHA256 {@link Mac} once and
+ * gives each thread its own copy, so that signing does not repeat the
+ * algorithm lookup and key padding on every call.
+ *
+ * <p>Instances are thread-safe.</p>
+ */
+public class TokenSigner {
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final int HASH_LENGTH = 32;
+    private static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+    private static final byte[] CREDENTIALS_PARAMETER = ascii("credentials=");
+    private static final byte[] IDENTITY_PARAMETER = ascii("&identity=");
+    private static final byte[] TIME_PARAMETER = ascii("&time=");
+    private static final byte[] SIGNATURE_PARAMETER = ascii("&signature=");
+
+    private final SecretKeySpec keySpec;
+    private final Mac prototype;
+    private final ThreadLocal<State> states;
+
+    /**
+     * Constructor.
+     *
+     * @param key The bytes of the shared secret.
+     */
+    public TokenSigner(byte[] key) {
+        // SecretKeySpec rejects empty keys. HMAC pads keys with zeros, so a
+        // single zero byte signs exactly like an empty key.
+        this.keySpec = new SecretKeySpec(key.length == 0 ? new byte[1] : key, ALGORITHM);
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(this.keySpec);
+            this.prototype = mac;
+        } catch (GeneralSecurityException e) {
+            throw new AssertionError("HmacSHA256 not available: " + e);
+        }
+        this.states = new ThreadLocal<State>() {
+            protected State initialValue() {
+                return new State(TokenSigner.this.newMac());
+            }
+        };
+    }
+
+    /**
+     * Creates a signer for a shared secret string, encoded as US-ASCII as
+     * {@link ITunesUConnection} has always done.
+     */
+    public static TokenSigner forSharedSecret(String sharedSecret) {
+        try {
+            return new TokenSigner(sharedSecret.getBytes("US-ASCII"));
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError("US-ASCII encoding not supported");
+        }
+    }
+
+    /**
+     * Signs a message.
+     *
+     * @return The HMAC-SHA256 signature as lowercase hexadecimals.
+     */
+    public String sign(String message) {
+        try {
+            return this.sign(message.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError("UTF-8 encoding not supported");
+        }
+    }
+
+    public String sign(byte[] message) {
+        byte[] hash = this.states.get().mac.doFinal(message);
+        char[] hexadecimals = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            hexadecimals[i * 2] = HEX[(hash[i] >> 4) & 0xf];
+            hexadecimals[i * 2 + 1] = HEX[hash[i] & 0xf];
+        }
+        return new String(hexadecimals);
+    }
+
+    /**
+     * Builds a signed authorization token.
+     *
+     * @param credentials The credentials string, as obtained from
+     *                    ITunesU.getCredentialsString().
+     * @param identity The identity string, as obtained from
+     *                 ITunesU.getIdentityString().
+     * @param time Token time stamp.
+     */
+    public String getAuthorizationToken(String credentials, String identity, Date time) {
+        return this.getAuthorizationToken(credentials, identity, time.getTime() / 1000);
+    }
+
+    /**
+     * Builds a signed authorization token.
+     *
+     * @param timeSeconds Token time stamp in seconds since the epoch.
+     */
+    public String getAuthorizationToken(String credentials, String identity, long timeSeconds) {
+        StringBuilder buffer = new StringBuilder(256);
+        buffer.append("credentials=");
+        FormEncoder.encode(credentials, buffer);
+        buffer.append("&identity=");
+        FormEncoder.encode(identity, buffer);
+        buffer.append("&time=");
+        buffer.append(timeSeconds);
+        this.appendSignature(buffer);
+        return buffer.toString();
+    }
+
+    /**
+     * Builds a signed authorization token from credentials and identity
+     * strings that are already form-encoded, as by URLEncoder with UTF-8.
+     * Callers that sign many tokens for the same credentials or identity
+     * can encode them once and skip that work on every call.
+     */
+    public String getEncodedAuthorizationToken(String encodedCredentials,
+                                               String encodedIdentity,
+                                               long timeSeconds) {
+        StringBuilder buffer = new StringBuilder(12 + encodedCredentials.length()
+                                                 + 10 + encodedIdentity.length()
+                                                 + 26 + 11 + HASH_LENGTH * 2);
+        buffer.append("credentials=");
+        buffer.append(encodedCredentials);
+        buffer.append("&identity=");
+        buffer.append(encodedIdentity);
+        buffer.append("&time=");
+        buffer.append(timeSeconds);
+        this.appendSignature(buffer);
+        return buffer.toString();
+    }
+
+    /**
+     * Builds a signed authorization token from a credential set and an
+     * encoded identity. The token is assembled and signed in a per-thread
+     * buffer; the returned string is the only allocation.
+     */
+    public String getAuthorizationToken(CredentialSet credentials,
+                                        IdentityEncoder identity,
+                                        long timeSeconds) {
+        return this.getAuthorizationToken(credentials.getEncodedBytes(),
+                                          identity.getBuffer(),
+                                          identity.getLength(),
+                                          timeSeconds);
+    }
+
+    String getAuthorizationToken(byte[] encodedCredentials,
+                                 byte[] encodedIdentity,
+                                 int identityLength,
+                                 long timeSeconds) {
+        State state = this.states.get();
+        byte[] message = state.message(CREDENTIALS_PARAMETER.length + encodedCredentials.length
+                                       + IDENTITY_PARAMETER.length + identityLength
+                                       + TIME_PARAMETER.length + 20
+                                       + SIGNATURE_PARAMETER.length + HASH_LENGTH * 2);
+        int position = put(CREDENTIALS_PARAMETER, CREDENTIALS_PARAMETER.length, message, 0);
+        position = put(encodedCredentials, encodedCredentials.length, message, position);
+        position = put(IDENTITY_PARAMETER, IDENTITY_PARAMETER.length, message, position);
+        position = put(encodedIdentity, identityLength, message, position);
+        position = put(TIME_PARAMETER, TIME_PARAMETER.length, message, position);
+        position = putDecimal(timeSeconds, message, position);
+
+        Mac mac = state.mac;
+        mac.update(message, 0, position);
+        try {
+            mac.doFinal(state.hash, 0);
+        } catch (GeneralSecurityException e) {
+            throw new AssertionError("HmacSHA256 failed: " + e);
+        }
+
+        position = put(SIGNATURE_PARAMETER, SIGNATURE_PARAMETER.length, message, position);
+        for (int i = 0; i < HASH_LENGTH; i++) {
+            message[position++] = (byte) HEX[(state.hash[i] >> 4) & 0xf];
+            message[position++] = (byte) HEX[state.hash[i] & 0xf];
+        }
+        return new String(message, 0, position, LATIN1);
+    }
+
+    /**
+     * Signs the buffer's contents and appends the signature parameter.
+     */
+    private void appendSignature(StringBuilder buffer) {
+        State state = this.states.get();
+        int length = buffer.length();
+        byte[] message = state.message(length);
+        for (int i = 0; i < length; i++) {
+            char c = buffer.charAt(i);
+            if (c >= 0x80) {
+                // Not form-encoded; sign the UTF-8 bytes instead.
+                String signature = this.sign(buffer.toString());
+                buffer.append("&signature=");
+                buffer.append(signature);
+                return;
+            }
+            message[i] = (byte) c;
+        }
+        Mac mac = state.mac;
+        mac.update(message, 0, length);
+        try {
+            mac.doFinal(state.hash, 0);
+        } catch (GeneralSecurityException e) {
+            throw new AssertionError("HmacSHA256 failed: " + e);
+        }
+        buffer.append("&signature=");
+        for (int i = 0; i < HASH_LENGTH; i++) {
+            buffer.append(HEX[(state.hash[i] >> 4) & 0xf]);
+            buffer.append(HEX[state.hash[i] & 0xf]);
+        }
+    }
+
+    private static int put(byte[] source, int length, byte[] target, int position) {
+        System.arraycopy(source, 0, target, position, length);
+        return position + length;
+    }
+
+    private static int putDecimal(long value, byte[] target, int position) {
+        if (value < 0) {
+            byte[] digits = ascii(Long.toString(value));
+            return put(digits, digits.length, target, position);
+        }
+        int end = position + 1;
+        for (long v = value / 10; v > 0; v /= 10) {
+            end++;
+        }
+        for (int i = end - 1; i >= position; i--) {
+            target[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        return end;
+    }
+
+    private static byte[] ascii(String s) {
+        try {
+            return s.getBytes("US-ASCII");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError("US-ASCII encoding not supported");
+        }
+    }
+
+    private Mac newMac() {
+        synchronized (this.prototype) {
+            try {
+                return (Mac) this.prototype.clone();
+            } catch (CloneNotSupportedException e) {
+                // Not every provider supports cloning; key a new instance.
+            }
+            try {
+                Mac mac = Mac.getInstance(ALGORITHM, this.prototype.getProvider());
+                mac.init(this.keySpec);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new AssertionError("HmacSHA256 not available: " + e);
+            }
+        }
+    }
+
+    /**
+     * A thread's Mac and scratch buffers.
+     */
+    private static class State {
+        final Mac mac;
+        final byte[] hash = new byte[HASH_LENGTH];
+        byte[] message = new byte[512];
+
+        State(Mac mac) {
+            this.mac = mac;
+        }
+
+        byte[] message(int length) {
+            if (this.message.length < length) {
+                this.message = new byte[Math.max(length, this.message.length * 2)];
+            }
+            return this.message;
+        }
+    }
+}
@@ -27,6 +27,11 @@
 
 package edu.asu.itunesu;
 
+import java.io.IOException;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -47,6 +52,8 @@ public class Track extends ITunesUElement {
     private String genreName;
     private String comment;
     private String downloadUrl;
+    private Long fileSize;
+    private String fileHash;
 
     public Track() {}
 
@@ -118,6 +125,22 @@ public class Track extends ITunesUElement {
         return this.downloadUrl;
     }
 
+    /**
+     * Returns the size of the track's file, as reported by iTunes U.
+     * Not sent in requests.
+     */
+    public Long getFileSize() {
+        return this.fileSize;
+    }
+
+    /**
+     * Returns the hash of the track's file, as reported by iTunes U.
+     * Not sent in requests.
+     */
+    public String getFileHash() {
+        return this.fileHash;
+    }
+
     public void setName(String name) {
         this.name = name;
     }
@@ -162,6 +185,14 @@ public class Track extends ITunesUElement {
         this.downloadUrl = downloadUrl;
     }
 
+    public void setFileSize(Long fileSize) {
+        this.fileSize = fileSize;
+    }
+
+    public void setFileHash(String fileHash) {
+        this.fileHash = fileHash;
+    }
+
     public Element toXmlElement(Document doc) {
         Element element = doc.createElement("Track");
         if (this.name != null) {
@@ -229,6 +260,49 @@ public class Track extends ITunesUElement {
         return element;
     }
 
+    public void writeXml(XmlWriter writer) throws IOException {
+        writer.startElement("Track");
+        if (this.name != null) {
+            writer.element("Name", this.name);
+            // Workaround for Apple bug - see:
+            // http://discussions.apple.com/thread.jspa?threadID=1228047&tstart=0
+            if ("true".equals(System.getProperty("edu.asu.itunesu.sendTrackNameAsTitle", "true"))) {
+                writer.element("Title", this.name);
+            }
+        }
+        if (this.handle != null) {
+            writer.element("Handle", this.handle);
+        }
+        if (this.kind != null) {
+            writer.element("Kind", this.kind);
+        }
+        if (this.trackNumber != null) {
+            writer.element("TrackNumber", Integer.toString(this.trackNumber));
+        }
+        if (this.discNumber != null) {
+            writer.element("DiscNumber", Integer.toString(this.discNumber));
+        }
+        if (this.durationMilliseconds != null) {
+            writer.element("DurationMilliseconds", Long.toString(this.durationMilliseconds));
+        }
+        if (this.albumName != null) {
+            writer.element("AlbumName", this.albumName);
+        }
+        if (this.artistName != null) {
+            writer.element("ArtistName", this.artistName);
+        }
+        if (this.genreName != null) {
+            writer.element("GenreName", this.genreName);
+        }
+        if (this.comment != null) {
+            writer.element("Comment", this.comment);
+        }
+        if (this.downloadUrl != null) {
+            writer.element("DownloadURL", this.downloadUrl);
+        }
+        writer.endElement();
+    }
+
     public static Track fromXmlElement(Element element) throws ITunesUException {
         if (!"Track".equals(element.getNodeName())) {
             throw new ITunesUException("Expected Track, got "
@@ -245,6 +319,8 @@ public class Track extends ITunesUElement {
         String genreName = null;
         String comment = null;
         String downloadUrl = null;
+        Long fileSize = null;
+        String fileHash = null;
         NodeList childNodes = element.getChildNodes();
         for (int i = 0; i < childNodes.getLength(); i++) {
             Node childNode = childNodes.item(i);
@@ -271,20 +347,113 @@ public class Track extends ITunesUElement {
                     comment = childNode.getTextContent();
                 } else if ("DownloadURL".equals(childNode.getNodeName())) {
                     downloadUrl = childNode.getTextContent();
+                } else if ("File".equals(childNode.getNodeName())) {
+                    NodeList fileNodes = childNode.getChildNodes();
+                    for (int j = 0; j < fileNodes.getLength(); j++) {
+                        Node fileNode = fileNodes.item(j);
+                        if ("Size".equals(fileNode.getNodeName())) {
+                            fileSize = parseSize(fileNode.getTextContent());
+                        } else if ("Hash".equals(fileNode.getNodeName())) {
+                            fileHash = fileNode.getTextContent().trim();
+                        }
+                    }
+                }
+            }
+        }
+        Track track = new Track(name,
+                                handle,
+                                kind,
+                                trackNumber,
+                                discNumber,
+                                durationMilliseconds,
+                                albumName,
+                                artistName,
+                                genreName,
+                                comment,
+                                downloadUrl);
+        track.setFileSize(fileSize);
+        track.setFileHash(fileHash);
+        return track;
+    }
+
+    public static Track fromXmlStream(XMLStreamReader reader)
+        throws ITunesUException, XMLStreamException {
+        XmlStreamSupport.requireStartElement(reader, "Track");
+        String name = null;
+        String handle = null;
+        String kind = null;
+        Integer trackNumber = null;
+        Integer discNumber = null;
+        Long durationMilliseconds = null;
+        String albumName = null;
+        String artistName = null;
+        String genreName = null;
+        String comment = null;
+        String downloadUrl = null;
+        Long fileSize = null;
+        String fileHash = null;
+        while (XmlStreamSupport.nextChildElement(reader)) {
+            String childName = reader.getLocalName();
+            if ("Name".equals(childName)) {
+                name = XmlStreamSupport.getTextContent(reader);
+            } else if ("Handle".equals(childName)) {
+                handle = XmlStreamSupport.getTextContent(reader);
+            } else if ("Kind".equals(childName)) {
+                kind = XmlStreamSupport.getTextContent(reader);
+            } else if ("TrackNumber".equals(childName)) {
+                trackNumber = Integer.parseInt(XmlStreamSupport.getTextContent(reader));
+            } else if ("DiscNumber".equals(childName)) {
+                discNumber = Integer.parseInt(XmlStreamSupport.getTextContent(reader));
+            } else if ("DurationMilliseconds".equals(childName)) {
+                durationMilliseconds = Long.parseLong(XmlStreamSupport.getTextContent(reader));
+            } else if ("AlbumName".equals(childName)) {
+                albumName = XmlStreamSupport.getTextContent(reader);
+            } else if ("ArtistName".equals(childName)) {
+                artistName = XmlStreamSupport.getTextContent(reader);
+            } else if ("GenreName".equals(childName)) {
+                genreName = XmlStreamSupport.getTextContent(reader);
+            } else if ("Comment".equals(childName)) {
+                comment = XmlStreamSupport.getTextContent(reader);
+            } else if ("DownloadURL".equals(childName)) {
+                downloadUrl = XmlStreamSupport.getTextContent(reader);
+            } else if ("File".equals(childName)) {
+                while (XmlStreamSupport.nextChildElement(reader)) {
+                    String fileChildName = reader.getLocalName();
+                    if ("Size".equals(fileChildName)) {
+                        fileSize = parseSize(XmlStreamSupport.getTextContent(reader));
+                    } else if ("Hash".equals(fileChildName)) {
+                        fileHash = XmlStreamSupport.getTextContent(reader).trim();
+                    } else {
+                        XmlStreamSupport.skipElement(reader);
+                    }
                 }
+            } else {
+                XmlStreamSupport.skipElement(reader);
             }
         }
-        return new Track(name,
-                         handle,
-                         kind,
-                         trackNumber,
-                         discNumber,
-                         durationMilliseconds,
-                         albumName,
-                         artistName,
-                         genreName,
-                         comment,
-                         downloadUrl);
+        Track track = new Track(name,
+                                handle,
+                                kind,
+                                trackNumber,
+                                discNumber,
+                                durationMilliseconds,
+                                albumName,
+                                artistName,
+                                genreName,
+                                comment,
+                                downloadUrl);
+        track.setFileSize(fileSize);
+        track.setFileHash(fileHash);
+        return track;
+    }
+
+    // Size is declared as a string; ignore values that are not byte counts.
+    private static Long parseSize(String value) {
+        try {
+            return Long.valueOf(value.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
     }
 
     public String toString() {
@@ -0,0 +1,597 @@
+/*
+ * Copyright (c) 2007-2008, Arizona State University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Arizona State University nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY ARIZONA STATE UNIVERSITY ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL ARIZONA STATE UNIVERSITY BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.asu.itunesu;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * An append-only file recording the progress of content uploads, so that
+ * a restarted uploader resumes where it stopped instead of sending every
+ * file again.
+ *
+ * <p>Each upload is a {@link Job} that moves through the states
+ * {@link #STATE_PENDING}, {@link #STATE_URL_ACQUIRED},
+ * {@link #STATE_UPLOADED} and {@link #STATE_MERGED}. Every change of state
+ * appends one line to the journal, and by default the line is forced to
+ * disk before the upload moves on. Opening a journal replays it; a line
+ * left incomplete by a crash is discarded. {@link #add(String, File)}
+ * returns the existing job for a file that has not changed since it was
+ * added, so a restarted batch skips files already uploaded.</p>
+ *
+ * <p>A crash after iTunes U has received a file but before
+ * {@link #STATE_UPLOADED} is recorded leaves the job incomplete, and the
+ * file is uploaded again on resume.</p>
+ *
+ * <p>All methods are safe for use by multiple threads. A job is uploaded
+ * by one thread at a time: a thread that calls {@link #upload} for a job
+ * already being uploaded waits for that upload and shares its result.</p>
+ */
+public class UploadJournal implements Closeable {
+    public static final String STATE_PENDING = "pending";
+    public static final String STATE_URL_ACQUIRED = "url-acquired";
+    public static final String STATE_UPLOADED = "uploaded";
+    public static final String STATE_MERGED = "merged";
+
+    private static final String HEADER = "# UploadJournal 1";
+    private static final int FIELD_COUNT = 8;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File file;
+    private FileChannel channel;
+    private boolean sync = true;
+
+    private final Map<Long, Job> jobs = new LinkedHashMap<Long, Job>();
+    private final Map<String, Job> jobsByKey = new HashMap<String, Job>();
+    private final Map<Long, CompletableFuture<String>> uploads =
+        new HashMap<Long, CompletableFuture<String>>();
+    private long nextId = 1;
+    private long recordCount;
+
+    /**
+     * Opens a journal, creating it if it does not exist and replaying it
+     * otherwise.
+     */
+    public UploadJournal(File file) throws IOException {
+        this.file = file;
+        if (file.exists()) {
+            this.replay();
+        }
+        this.channel = open(file);
+        if (this.channel.size() == 0) {
+            this.write(HEADER + "\n");
+        }
+    }
+
+    public File getFile() {
+        return this.file;
+    }
+
+    /**
+     * Returns true if every record is forced to disk before it is
+     * acknowledged.
+     */
+    public synchronized boolean isSync() {
+        return this.sync;
+    }
+
+    /**
+     * Sets whether every record is forced to disk. Without it, records
+     * survive a crash of the process but not of the machine.
+     */
+    public synchronized void setSync(boolean sync) {
+        this.sync = sync;
+    }
+
+    /**
+     * Adds an upload job, or returns the existing one if the same file,
+     * with the same length and modification time, was already added for
+     * the same destination.
+     *
+     * @param handle Handle for the destination.
+     * @param file The file to upload.
+     */
+    public synchronized Job add(String handle, File file) throws IOException {
+        File absolute = file.getAbsoluteFile();
+        String key = key(handle, absolute.getPath(), absolute.length(), absolute.lastModified());
+        Job job = this.jobsByKey.get(key);
+        if (job == null) {
+            job = new Job(this.nextId++, handle, absolute, absolute.length(), absolute.lastModified());
+            this.jobs.put(job.id, job);
+            this.jobsByKey.put(key, job);
+            this.record(job, STATE_PENDING, null);
+        }
+        return job;
+    }
+
+    public synchronized Job getJob(long id) {
+        return this.jobs.get(id);
+    }
+
+    /**
+     * Returns the job for a file, if it was added with its current length
+     * and modification time.
+     */
+    public synchronized Job getJob(String handle, File file) {
+        File absolute = file.getAbsoluteFile();
+        return this.jobsByKey.get(key(handle, absolute.getPath(), absolute.length(), absolute.lastModified()));
+    }
+
+    /**
+     * Returns all jobs, in the order they were added.
+     */
+    public synchronized List<Job> getJobs() {
+        return new ArrayList<Job>(this.jobs.values());
+    }
+
+    /**
+     * Returns the jobs whose content has not yet been uploaded.
+     */
+    public synchronized List<Job> getIncompleteJobs() {
+        List<Job> result = new ArrayList<Job>();
+        for (Job job : this.jobs.values()) {
+            if (!job.isUploaded()) {
+                result.add(job);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of records in the journal, including replayed
+     * ones.
+     */
+    public synchronized long getRecordCount() {
+        return this.recordCount;
+    }
+
+    /**
+     * Uploads a job's file unless it has already been uploaded, recording
+     * each step. If the job is being uploaded by another thread, waits for
+     * that upload instead.
+     *
+     * @return The iTunes U response to the upload.
+     */
+    public String upload(ITunesUConnection connection, Job job) throws ITunesUException {
+        return this.upload(connection,
+                           job,
+                           new FileRequestBody(job.file, job.length),
+                           connection.getUploadUrlProvider());
+    }
+
+    String upload(ITunesUConnection connection,
+                  Job job,
+                  ITunesUTransport.RequestBody content,
+                  ITunesUConnection.UploadUrlSource source)
+        throws ITunesUException {
+
+        CompletableFuture<String> upload;
+        synchronized (this) {
+            if (job.isUploaded()) {
+                return job.response;
+            }
+            upload = this.uploads.get(job.id);
+            if (upload == null) {
+                this.uploads.put(job.id, new CompletableFuture<String>());
+            }
+        }
+        if (upload != null) {
+            try {
+                return upload.join();
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof ITunesUException) {
+                    throw (ITunesUException) cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw e;
+            }
+        }
+        try {
+            String response = this.uploadOnce(connection, job, content, source);
+            this.endUpload(job).complete(response);
+            return response;
+        } catch (ITunesUException e) {
+            this.endUpload(job).completeExceptionally(e);
+            throw e;
+        } catch (RuntimeException e) {
+            this.endUpload(job).completeExceptionally(e);
+            throw e;
+        } catch (Error e) {
+            this.endUpload(job).completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private synchronized CompletableFuture<String> endUpload(Job job) {
+        return this.uploads.remove(job.id);
+    }
+
+    private String uploadOnce(final ITunesUConnection connection,
+                              final Job job,
+                              ITunesUTransport.RequestBody content,
+                              final ITunesUConnection.UploadUrlSource source)
+        throws ITunesUException {
+
+        ITunesUConnection.UploadUrlSource recordingSource = new ITunesUConnection.UploadUrlSource() {
+            public String getUploadUrl(String handle, boolean forXml)
+                throws ITunesUException {
+
+                String url = (source != null
+                              ? source.getUploadUrl(handle, forXml)
+                              : connection.getUploadUrl(handle, forXml));
+                UploadJournal.this.transition(job, STATE_URL_ACQUIRED, url);
+                return url;
+            }
+        };
+        String response = connection.uploadContent(job.handle,
+                                                   job.file.getName(),
+                                                   content,
+                                                   job.length,
+                                                   recordingSource);
+        this.transition(job, STATE_UPLOADED, response);
+        return response;
+    }
+
+    /**
+     * Records that the track created from a job's upload has been merged
+     * into the site.
+     *
+     * @param trackHandle Handle of the track, if known.
+     */
+    public void markMerged(Job job, String trackHandle) throws ITunesUException {
+        this.transition(job, STATE_MERGED, trackHandle);
+    }
+
+    /**
+     * Rewrites the journal with only the latest state of each job. The new
+     * journal replaces the old one atomically.
+     */
+    public synchronized void compact() throws IOException {
+        File temp = new File(this.file.getPath() + ".tmp");
+        FileChannel output = open(temp);
+        long records = 0;
+        try {
+            output.truncate(0);
+            StringBuilder buffer = new StringBuilder(HEADER).append('\n');
+            for (Job job : this.jobs.values()) {
+                if (STATE_MERGED.equals(job.state)) {
+                    // Keep the upload response as well as the track.
+                    format(buffer, job, STATE_UPLOADED, job.response);
+                    records++;
+                }
+                format(buffer, job, job.state, job.detail());
+                records++;
+            }
+            write(output, buffer.toString());
+            output.force(true);
+        } finally {
+            output.close();
+        }
+        this.channel.close();
+        if (!temp.renameTo(this.file)) {
+            this.channel = open(this.file);
+            throw new IOException("Cannot replace " + this.file + " with " + temp);
+        }
+        this.channel = open(this.file);
+        this.recordCount = records;
+    }
+
+    public synchronized void close() throws IOException {
+        this.channel.close();
+    }
+
+    public synchronized String toString() {
+        return (super.toString()
+                + "[file=" + this.file
+                + ",jobs=" + this.jobs.size()
+                + ",records=" + this.recordCount
+                + "]");
+    }
+
+    private synchronized void transition(Job job, String state, String detail)
+        throws ITunesUException {
+
+        try {
+            this.record(job, state, detail);
+        } catch (IOException e) {
+            throw new ITunesUException(e);
+        }
+    }
+
+    private void record(Job job, String state, String detail) throws IOException {
+        StringBuilder buffer = new StringBuilder();
+        format(buffer, job, state, detail);
+        this.write(buffer.toString());
+        apply(job, state, detail);
+        this.recordCount++;
+    }
+
+    private void write(String line) throws IOException {
+        write(this.channel, line);
+        if (this.sync) {
+            this.channel.force(false);
+        }
+    }
+
+    private void replay() throws IOException {
+        BufferedReader reader =
+            new BufferedReader(new InputStreamReader(new FileInputStream(this.file), UTF_8));
+        long validLength = 0;
+        try {
+            long offset = 0;
+            int lineNumber = 0;
+            StringBuilder line = new StringBuilder();
+            for (int c = reader.read(); c >= 0; c = reader.read()) {
+                if (c != '\n') {
+                    line.append((char) c);
+                    continue;
+                }
+                lineNumber++;
+                offset += line.toString().getBytes(UTF_8).length + 1;
+                if (line.length() > 0 && line.charAt(0) != '#') {
+                    this.replay(line.toString(), lineNumber);
+                }
+                validLength = offset;
+                line.setLength(0);
+            }
+        } finally {
+            reader.close();
+        }
+
+        // Discard a record torn by a crash while it was being written.
+        RandomAccessFile output = new RandomAccessFile(this.file, "rw");
+        try {
+            if (output.length() > validLength) {
+                output.setLength(validLength);
+            }
+        } finally {
+            output.close();
+        }
+    }
+
+    private void replay(String line, int lineNumber) throws IOException {
+        String[] fields = line.split("\t", -1);
+        if (fields.length != FIELD_COUNT) {
+            throw new IOException("Corrupt record at " + this.file + ":" + lineNumber);
+        }
+        Job job;
+        try {
+            long id = Long.parseLong(fields[0]);
+            job = this.jobs.get(id);
+            if (job == null) {
+                job = new Job(id,
+                              unescape(fields[3]),
+                              new File(unescape(fields[4])),
+                              Long.parseLong(fields[5]),
+                              Long.parseLong(fields[6]));
+                this.jobs.put(id, job);
+                this.jobsByKey.put(key(job), job);
+                this.nextId = Math.max(this.nextId, id + 1);
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("Corrupt record at " + this.file + ":" + lineNumber);
+        }
+        apply(job, fields[1], unescape(fields[7]));
+        this.recordCount++;
+    }
+
+    private static void apply(Job job, String state, String detail) {
+        job.state = state;
+        if (STATE_URL_ACQUIRED.equals(state)) {
+            job.uploadUrl = detail;
+        } else if (STATE_UPLOADED.equals(state)) {
+            job.response = detail;
+        } else if (STATE_MERGED.equals(state)) {
+            job.trackHandle = detail;
+        }
+    }
+
+    private static void format(StringBuilder buffer, Job job, String state, String detail) {
+        buffer.append(job.id).append('\t');
+        buffer.append(state).append('\t');
+        buffer.append(System.currentTimeMillis()).append('\t');
+        escape(buffer, job.handle).append('\t');
+        escape(buffer, job.file.getPath()).append('\t');
+        buffer.append(job.length).append('\t');
+        buffer.append(job.lastModified).append('\t');
+        escape(buffer, detail).append('\n');
+    }
+
+    private static StringBuilder escape(StringBuilder buffer, String value) {
+        if (value == null) {
+            return buffer;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+            case '\\': buffer.append("\\\\"); break;
+            case '\t': buffer.append("\\t"); break;
+            case '\n': buffer.append("\\n"); break;
+            case '\r': buffer.append("\\r"); break;
+            default: buffer.append(c);
+            }
+        }
+        return buffer;
+    }
+
+    private static String unescape(String value) {
+        if (value.length() == 0) {
+            return null;
+        }
+        if (value.indexOf('\\') < 0) {
+            return value;
+        }
+        StringBuilder buffer = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                c = value.charAt(++i);
+                c = (c == 't' ? '\t' : c == 'n' ? '\n' : c == 'r' ? '\r' : c);
+            }
+            buffer.append(c);
+        }
+        return buffer.toString();
+    }
+
+    private static String key(Job job) {
+        return key(job.handle, job.file.getPath(), job.length, job.lastModified);
+    }
+
+    private static String key(String handle, String path, long length, long lastModified) {
+        return handle + "\t" + path + "\t" + length + "\t" + lastModified;
+    }
+
+    private static FileChannel open(File file) throws IOException {
+        FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+        channel.position(channel.size());
+        return channel;
+    }
+
+    private static void write(FileChannel channel, String line) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(line.getBytes(UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * One file to upload, and how far its upload has got.
+     */
+    public static class Job {
+        private final long id;
+        private final String handle;
+        private final File file;
+        private final long length;
+        private final long lastModified;
+
+        private volatile String state;
+        private volatile String uploadUrl;
+        private volatile String response;
+        private volatile String trackHandle;
+
+        Job(long id, String handle, File file, long length, long lastModified) {
+            this.id = id;
+            this.handle = handle;
+            this.file = file;
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+
+        public long getId() {
+            return this.id;
+        }
+
+        public String getHandle() {
+            return this.handle;
+        }
+
+        public File getFile() {
+            return this.file;
+        }
+
+        public long getLength() {
+            return this.length;
+        }
+
+        public long getLastModified() {
+            return this.lastModified;
+        }
+
+        /**
+         * Returns one of the <code>STATE_</code> constants.
+         */
+        public String getState() {
+            return this.state;
+        }
+
+        /**
+         * Returns true once the content has been uploaded.
+         */
+        public boolean isUploaded() {
+            return STATE_UPLOADED.equals(this.state) || STATE_MERGED.equals(this.state);
+        }
+
+        /**
+         * Returns the last upload URL acquired for this job.
+         */
+        public String getUploadUrl() {
+            return this.uploadUrl;
+        }
+
+        /**
+         * Returns the iTunes U response to the upload, once uploaded.
+         */
+        public String getResponse() {
+            return this.response;
+        }
+
+        /**
+         * Returns the handle of the merged track, if recorded.
+         */
+        public String getTrackHandle() {
+            return this.trackHandle;
+        }
+
+        public String toString() {
+            return (super.toString()
+                    + "[id=" + this.id
+                    + ",handle=" + this.handle
+                    + ",file=" + this.file
+                    + ",state=" + this.state
+                    + "]");
+        }
+
+        String detail() {
+            return (STATE_URL_ACQUIRED.equals(this.state) ? this.uploadUrl
+                    : STATE_UPLOADED.equals(this.state) ? this.response
+                    : STATE_MERGED.equals(this.state) ? this.trackHandle
+                    : null);
+        }
+    }
+}
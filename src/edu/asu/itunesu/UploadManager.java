@@ -0,0 +1,502 @@
+/*
+ * Copyright (c) 2007-2008, Arizona State University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Arizona State University nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY ARIZONA STATE UNIVERSITY ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL ARIZONA STATE UNIVERSITY BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.asu.itunesu;
+
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * Uploads many files to iTunes U in parallel.
+ *
+ * <p>Files are queued with {@link #submit(String, File)} and uploaded by
+ * at most <code>parallelism</code> threads. Upload URLs are prefetched
+ * through the connection's {@link UploadUrlProvider}, or through one owned
+ * by the manager if the connection has none, so that an upload does not
+ * first wait for a GetUploadURL round trip. Progress is reported to
+ * {@link Listener}s per file, and in aggregate through the getters. An
+ * optional {@link BandwidthLimiter} caps the combined upload rate.</p>
+ *
+ * <p>Every upload also holds an upload permit of the connection's
+ * transport while it is sent. With a {@link PooledHttpTransport}, a
+ * parallelism above {@link PooledHttpTransport#getMaxUploads()} only makes
+ * uploads wait there. The API calls an upload needs, such as GetUploadURL,
+ * are limited separately and are not held up by uploads in progress.</p>
+ */
+public class UploadManager {
+    public static final int DEFAULT_PARALLELISM = 4;
+
+    public static final String STATUS_QUEUED = "queued";
+    public static final String STATUS_RUNNING = "running";
+    public static final String STATUS_COMPLETED = "completed";
+    public static final String STATUS_FAILED = "failed";
+
+    /**
+     * Receives upload progress. Called on the uploading threads.
+     */
+    public interface Listener {
+        /**
+         * Called each time a chunk of an upload has been sent.
+         */
+        public void uploadProgress(Upload upload);
+
+        /**
+         * Called once when an upload has completed or failed.
+         */
+        public void uploadFinished(Upload upload);
+    }
+
+    private final ITunesUConnection connection;
+    private final AsyncITunesUConnection async;
+    private final UploadUrlProvider urlProvider;
+    private final boolean ownsUrlProvider;
+    private volatile BandwidthLimiter bandwidthLimiter;
+    private volatile UploadJournal journal;
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+    private final List<Upload> uploads = new CopyOnWriteArrayList<Upload>();
+
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final AtomicLong sentBytes = new AtomicLong();
+    private final AtomicInteger completedCount = new AtomicInteger();
+    private final AtomicInteger failedCount = new AtomicInteger();
+    private volatile long firstStartNanos;
+    private volatile long lastFinishNanos;
+
+    public UploadManager(ITunesUConnection connection) {
+        this(connection, DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * @param connection The connection to upload through.
+     * @param parallelism Maximum number of uploads running at once.
+     */
+    public UploadManager(ITunesUConnection connection, int parallelism) {
+        this.connection = connection;
+        this.async = new AsyncITunesUConnection(connection, parallelism, Integer.MAX_VALUE);
+        if (connection.getUploadUrlProvider() != null) {
+            this.urlProvider = connection.getUploadUrlProvider();
+            this.ownsUrlProvider = false;
+        } else {
+            this.urlProvider = new UploadUrlProvider(connection,
+                                                     parallelism,
+                                                     UploadUrlProvider.DEFAULT_VALIDITY_MILLIS);
+            this.ownsUrlProvider = true;
+        }
+    }
+
+    public ITunesUConnection getConnection() {
+        return this.connection;
+    }
+
+    public int getParallelism() {
+        return this.async.getMaxInFlight();
+    }
+
+    public UploadUrlProvider getUploadUrlProvider() {
+        return this.urlProvider;
+    }
+
+    public BandwidthLimiter getBandwidthLimiter() {
+        return this.bandwidthLimiter;
+    }
+
+    /**
+     * Caps the combined rate of all uploads, including ones already
+     * running.
+     *
+     * @param bandwidthLimiter The limiter, or null for no cap.
+     */
+    public void setBandwidthLimiter(BandwidthLimiter bandwidthLimiter) {
+        this.bandwidthLimiter = bandwidthLimiter;
+    }
+
+    public UploadJournal getJournal() {
+        return this.journal;
+    }
+
+    /**
+     * Records uploads in a journal, so that files already uploaded by an
+     * earlier run are skipped. Skipped uploads complete with the response
+     * recorded for them.
+     *
+     * @param journal The journal, or null to upload without one.
+     */
+    public void setJournal(UploadJournal journal) {
+        this.journal = journal;
+    }
+
+    public void addListener(Listener listener) {
+        this.listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        this.listeners.remove(listener);
+    }
+
+    /**
+     * Queues a file for upload.
+     *
+     * @param handle Handle for the destination.
+     * @param file The file to upload.
+     * @return The upload, which tracks its own progress and result.
+     */
+    public Upload submit(String handle, File file) {
+        final Upload upload = new Upload(handle, file);
+        this.totalBytes.addAndGet(upload.length);
+        this.urlProvider.prefetch(handle, false);
+
+        upload.future = this.async.submit(new AsyncITunesUConnection.Call<String>() {
+            public String call(ITunesUConnection connection) throws ITunesUException {
+                upload.started();
+                UploadJournal journal = UploadManager.this.journal;
+                if (journal == null) {
+                    return connection.uploadContent(upload.handle,
+                                                    upload.file.getName(),
+                                                    new ProgressBody(upload),
+                                                    upload.length,
+                                                    UploadManager.this.urlProvider);
+                }
+                UploadJournal.Job job;
+                try {
+                    job = journal.add(upload.handle, upload.file);
+                } catch (IOException e) {
+                    throw new ITunesUException(e);
+                }
+                return journal.upload(connection,
+                                      job,
+                                      new ProgressBody(upload),
+                                      UploadManager.this.urlProvider);
+            }
+        });
+        this.uploads.add(upload);
+        upload.future.whenComplete(new BiConsumer<String, Throwable>() {
+            public void accept(String response, Throwable error) {
+                upload.finished(response, error);
+            }
+        });
+        return upload;
+    }
+
+    /**
+     * Queues several files for upload to the same destination.
+     */
+    public List<Upload> submit(String handle, Collection<File> files) {
+        List<Upload> result = new ArrayList<Upload>(files.size());
+        for (File file : files) {
+            result.add(this.submit(handle, file));
+        }
+        return result;
+    }
+
+    /**
+     * Queues the journal's incomplete jobs, such as those left by a
+     * process that stopped in the middle of a batch.
+     */
+    public List<Upload> resume() {
+        List<Upload> result = new ArrayList<Upload>();
+        if (this.journal != null) {
+            for (UploadJournal.Job job : this.journal.getIncompleteJobs()) {
+                result.add(this.submit(job.getHandle(), job.getFile()));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Waits until every upload submitted so far has completed or failed.
+     *
+     * @return True if all finished before the timeout.
+     */
+    public boolean awaitCompletion(long timeout, TimeUnit unit)
+        throws InterruptedException {
+
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Upload upload : this.uploads) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0 && !upload.isDone()) {
+                return false;
+            }
+            try {
+                upload.future.get(Math.max(remaining, 0), TimeUnit.NANOSECONDS);
+            } catch (ExecutionException e) {
+                // Reported through the upload itself.
+            } catch (TimeoutException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stops accepting work once the queued uploads have run, and releases
+     * the manager's upload URL provider, if it owns one.
+     */
+    public void shutdown() {
+        this.async.shutdown();
+        if (this.ownsUrlProvider) {
+            this.urlProvider.shutdown();
+        }
+    }
+
+    /**
+     * Returns all uploads submitted so far, in submission order.
+     */
+    public List<Upload> getUploads() {
+        return new ArrayList<Upload>(this.uploads);
+    }
+
+    public long getTotalBytes() {
+        return this.totalBytes.get();
+    }
+
+    public long getSentBytes() {
+        return this.sentBytes.get();
+    }
+
+    public int getCompletedCount() {
+        return this.completedCount.get();
+    }
+
+    public int getFailedCount() {
+        return this.failedCount.get();
+    }
+
+    public int getPendingCount() {
+        return this.uploads.size() - this.completedCount.get() - this.failedCount.get();
+    }
+
+    /**
+     * Returns the aggregate upload rate since the first upload started,
+     * up to now or to the last upload finishing if none is pending.
+     */
+    public double getBytesPerSecond() {
+        long start = this.firstStartNanos;
+        if (start == 0) {
+            return 0;
+        }
+        long end = this.getPendingCount() > 0 ? System.nanoTime() : this.lastFinishNanos;
+        return rate(this.sentBytes.get(), start, end);
+    }
+
+    public String toString() {
+        return (super.toString()
+                + "[uploads=" + this.uploads.size()
+                + ",completed=" + this.getCompletedCount()
+                + ",failed=" + this.getFailedCount()
+                + ",sentBytes=" + this.getSentBytes()
+                + ",totalBytes=" + this.getTotalBytes()
+                + "]");
+    }
+
+    private static double rate(long bytes, long startNanos, long endNanos) {
+        long elapsed = endNanos - startNanos;
+        return elapsed > 0 ? bytes * 1e9 / elapsed : 0;
+    }
+
+    /**
+     * One file being uploaded.
+     */
+    public class Upload {
+        private final String handle;
+        private final File file;
+        private final long length;
+        private CompletableFuture<String> future;
+
+        private volatile String status = STATUS_QUEUED;
+        private volatile long sentBytes;
+        private volatile long startNanos;
+        private volatile long finishNanos;
+        private volatile String response;
+        private volatile Throwable error;
+
+        Upload(String handle, File file) {
+            this.handle = handle;
+            this.file = file;
+            this.length = file.length();
+        }
+
+        public String getHandle() {
+            return this.handle;
+        }
+
+        public File getFile() {
+            return this.file;
+        }
+
+        public long getLength() {
+            return this.length;
+        }
+
+        /**
+         * Returns one of the <code>STATUS_</code> constants.
+         */
+        public String getStatus() {
+            return this.status;
+        }
+
+        public boolean isDone() {
+            return this.future.isDone();
+        }
+
+        public long getSentBytes() {
+            return this.sentBytes;
+        }
+
+        /**
+         * Returns the fraction of the file sent, from 0 to 1.
+         */
+        public double getProgress() {
+            return this.length > 0 ? (double) this.sentBytes / this.length : (this.isDone() ? 1 : 0);
+        }
+
+        /**
+         * Returns the upload rate of this file so far.
+         */
+        public double getBytesPerSecond() {
+            long start = this.startNanos;
+            if (start == 0) {
+                return 0;
+            }
+            long end = this.finishNanos != 0 ? this.finishNanos : System.nanoTime();
+            return rate(this.sentBytes, start, end);
+        }
+
+        /**
+         * Returns the iTunes U response, once completed.
+         */
+        public String getResponse() {
+            return this.response;
+        }
+
+        /**
+         * Returns the reason the upload failed, usually an
+         * {@link ITunesUException}.
+         */
+        public Throwable getError() {
+            return this.error;
+        }
+
+        /**
+         * Returns a future completing with the iTunes U response.
+         */
+        public CompletableFuture<String> getFuture() {
+            return this.future;
+        }
+
+        public String toString() {
+            return (super.toString()
+                    + "[handle=" + this.handle
+                    + ",file=" + this.file
+                    + ",status=" + this.status
+                    + ",sentBytes=" + this.sentBytes
+                    + ",length=" + this.length
+                    + "]");
+        }
+
+        void started() {
+            long now = System.nanoTime();
+            this.startNanos = now;
+            this.status = STATUS_RUNNING;
+            synchronized (UploadManager.this) {
+                if (UploadManager.this.firstStartNanos == 0) {
+                    UploadManager.this.firstStartNanos = now;
+                }
+            }
+        }
+
+        void sent(long bytes) {
+            this.sentBytes += bytes;
+            UploadManager.this.sentBytes.addAndGet(bytes);
+            for (Listener listener : UploadManager.this.listeners) {
+                listener.uploadProgress(this);
+            }
+        }
+
+        void restarted() {
+            // A retried upload sends the whole file again.
+            UploadManager.this.sentBytes.addAndGet(-this.sentBytes);
+            this.sentBytes = 0;
+        }
+
+        void finished(String response, Throwable error) {
+            this.finishNanos = System.nanoTime();
+            UploadManager.this.lastFinishNanos = this.finishNanos;
+            if (error != null) {
+                this.error = error;
+                this.status = STATUS_FAILED;
+                UploadManager.this.failedCount.incrementAndGet();
+            } else {
+                this.response = response;
+                this.status = STATUS_COMPLETED;
+                UploadManager.this.completedCount.incrementAndGet();
+            }
+            for (Listener listener : UploadManager.this.listeners) {
+                listener.uploadFinished(this);
+            }
+        }
+    }
+
+    /**
+     * Writes a file, reporting progress and applying the bandwidth cap.
+     */
+    private class ProgressBody implements ITunesUTransport.RequestBody {
+        private final Upload upload;
+
+        public ProgressBody(Upload upload) {
+            this.upload = upload;
+        }
+
+        public void writeTo(OutputStream output) throws IOException {
+            this.upload.restarted();
+            new FileRequestBody(this.upload.file, this.upload.length).writeTo(new FilterOutputStream(output) {
+                public void write(byte[] b, int off, int len) throws IOException {
+                    BandwidthLimiter limiter = UploadManager.this.bandwidthLimiter;
+                    if (limiter != null) {
+                        limiter.acquire(len);
+                    }
+                    this.out.write(b, off, len);
+                    ProgressBody.this.upload.sent(len);
+                }
+            });
+        }
+    }
+}
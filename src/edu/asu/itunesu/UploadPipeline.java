@@ -0,0 +1,474 @@
+/*
+ * Copyright (c) 2007-2008, Arizona State University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Arizona State University nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY ARIZONA STATE UNIVERSITY ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL ARIZONA STATE UNIVERSITY BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.asu.itunesu;
+
+import java.io.File;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Uploads files and then merges track metadata into the resulting tracks,
+ * overlapping the stages across files.
+ *
+ * <p>Each file passes through three stages: fetching an upload URL,
+ * uploading, and merging its metadata. Upload URLs are prefetched by an
+ * {@link UploadUrlProvider}, so the URL for the next file is fetched while
+ * the current one uploads. Uploaded files are handed to a merge thread,
+ * which merges the metadata of earlier files while later ones upload.
+ * Merges queued while a merge request is in flight are combined, per
+ * group, into a single MergeGroup request through a {@link MergeBatch}.
+ * Merge requests fetch their own XML upload URL unless the connection
+ * has an {@link UploadUrlProvider} installed.</p>
+ *
+ * <p>The handle of a new track is taken from the upload response when it
+ * is a handle. Otherwise the group is read back and the track is found by
+ * the file's name, with or without its extension.</p>
+ */
+public class UploadPipeline {
+    public static final String STATUS_QUEUED = "queued";
+    public static final String STATUS_UPLOADING = "uploading";
+    public static final String STATUS_MERGING = "merging";
+    public static final String STATUS_COMPLETED = "completed";
+    public static final String STATUS_FAILED = "failed";
+
+    public static final int DEFAULT_UPLOAD_THREADS = 1;
+
+    private final ITunesUConnection connection;
+    private final UploadUrlProvider urlProvider;
+    private final boolean ownsUrlProvider;
+    private final ExecutorService uploader;
+    private final Thread merger;
+    private final BlockingQueue<Entry> merges = new LinkedBlockingQueue<Entry>();
+    private final List<Entry> entries = new ArrayList<Entry>();
+    private volatile int maxMergeItems = MergeBatch.DEFAULT_MAX_ITEMS;
+    private volatile boolean closed;
+
+    private long mergeRequestCount;
+    private long mergedCount;
+
+    public UploadPipeline(ITunesUConnection connection) {
+        this(connection, DEFAULT_UPLOAD_THREADS);
+    }
+
+    /**
+     * @param connection The connection to upload and merge through.
+     * @param uploadThreads Number of files uploaded at once.
+     */
+    public UploadPipeline(ITunesUConnection connection, int uploadThreads) {
+        if (uploadThreads < 1) {
+            throw new IllegalArgumentException("uploadThreads must be positive");
+        }
+        this.connection = connection;
+        if (connection.getUploadUrlProvider() != null) {
+            this.urlProvider = connection.getUploadUrlProvider();
+            this.ownsUrlProvider = false;
+        } else {
+            this.urlProvider = new UploadUrlProvider(connection,
+                                                     uploadThreads,
+                                                     UploadUrlProvider.DEFAULT_VALIDITY_MILLIS);
+            this.ownsUrlProvider = true;
+        }
+        ThreadFactory threadFactory = new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "UploadPipeline");
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+        this.uploader = Executors.newFixedThreadPool(uploadThreads, threadFactory);
+        this.merger = threadFactory.newThread(new Runnable() {
+            public void run() {
+                UploadPipeline.this.mergeLoop();
+            }
+        });
+        this.merger.start();
+    }
+
+    public int getMaxMergeItems() {
+        return this.maxMergeItems;
+    }
+
+    /**
+     * Sets the maximum number of tracks merged in one request.
+     */
+    public void setMaxMergeItems(int maxMergeItems) {
+        if (maxMergeItems < 1) {
+            throw new IllegalArgumentException("maxMergeItems must be positive");
+        }
+        this.maxMergeItems = maxMergeItems;
+    }
+
+    /**
+     * Queues a file to be uploaded into a group and its track updated.
+     *
+     * @param groupHandle Handle of the group.
+     * @param file The file to upload.
+     * @param metadata Track fields to merge once the track exists, or null
+     *                 to only upload. Its handle is ignored.
+     */
+    public Entry submit(String groupHandle, File file, Track metadata) {
+        if (this.closed) {
+            throw new IllegalStateException("Pipeline closed");
+        }
+        final Entry entry = new Entry(groupHandle, file, metadata);
+        synchronized (this) {
+            this.entries.add(entry);
+        }
+        this.urlProvider.prefetch(groupHandle, false);
+        this.uploader.execute(new Runnable() {
+            public void run() {
+                UploadPipeline.this.upload(entry);
+            }
+        });
+        return entry;
+    }
+
+    /**
+     * Waits until every file submitted so far has completed or failed.
+     *
+     * @return True if all finished before the timeout.
+     */
+    public boolean awaitCompletion(long timeout, TimeUnit unit)
+        throws InterruptedException {
+
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Entry entry : this.getEntries()) {
+            try {
+                entry.future.get(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+            } catch (ExecutionException e) {
+                // Reported through the entry itself.
+            } catch (TimeoutException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stops accepting files. Files already submitted are still uploaded
+     * and merged.
+     */
+    public void close() {
+        this.closed = true;
+        this.uploader.shutdown();
+        if (this.ownsUrlProvider) {
+            this.urlProvider.shutdown();
+        }
+    }
+
+    public synchronized List<Entry> getEntries() {
+        return new ArrayList<Entry>(this.entries);
+    }
+
+    /**
+     * Returns the number of merge requests sent.
+     */
+    public synchronized long getMergeRequestCount() {
+        return this.mergeRequestCount;
+    }
+
+    /**
+     * Returns the number of tracks merged successfully.
+     */
+    public synchronized long getMergedCount() {
+        return this.mergedCount;
+    }
+
+    public synchronized String toString() {
+        return (super.toString()
+                + "[entries=" + this.entries.size()
+                + ",mergeRequests=" + this.mergeRequestCount
+                + ",merged=" + this.mergedCount
+                + "]");
+    }
+
+    private void upload(Entry entry) {
+        entry.status = STATUS_UPLOADING;
+        try {
+            FileRequestBody body = new FileRequestBody(entry.file);
+            String response = this.connection.uploadContent(entry.groupHandle,
+                                                            entry.file.getName(),
+                                                            body,
+                                                            body.getLength(),
+                                                            this.urlProvider);
+            entry.response = response;
+            if (isHandle(response)) {
+                entry.trackHandle = response.trim();
+            }
+        } catch (Throwable t) {
+            entry.fail(t);
+            return;
+        }
+        if (entry.metadata == null && entry.trackHandle != null) {
+            entry.complete();
+        } else {
+            entry.status = STATUS_MERGING;
+            this.merges.add(entry);
+        }
+    }
+
+    private void mergeLoop() {
+        while (true) {
+            List<Entry> batch = new ArrayList<Entry>();
+            try {
+                Entry first = this.merges.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    if (this.closed && this.uploader.isTerminated() && this.merges.isEmpty()) {
+                        return;
+                    }
+                    continue;
+                }
+                batch.add(first);
+            } catch (InterruptedException e) {
+                return;
+            }
+            // Everything that finished uploading during the last merge
+            // goes into this one.
+            this.merges.drainTo(batch, this.maxMergeItems - 1);
+            this.merge(batch);
+        }
+    }
+
+    private void merge(List<Entry> batch) {
+        Map<String, List<Entry>> byGroup = new LinkedHashMap<String, List<Entry>>();
+        for (Entry entry : batch) {
+            List<Entry> group = byGroup.get(entry.groupHandle);
+            if (group == null) {
+                group = new ArrayList<Entry>();
+                byGroup.put(entry.groupHandle, group);
+            }
+            group.add(entry);
+        }
+        for (Map.Entry<String, List<Entry>> group : byGroup.entrySet()) {
+            try {
+                this.mergeGroup(group.getKey(), group.getValue());
+            } catch (Throwable t) {
+                for (Entry entry : group.getValue()) {
+                    entry.fail(t);
+                }
+            }
+        }
+    }
+
+    private void mergeGroup(String groupHandle, List<Entry> entries) throws ITunesUException {
+        this.resolveTrackHandles(groupHandle, entries);
+
+        MergeBatch batch = MergeBatch.forGroup(groupHandle);
+        batch.setMaxItems(this.maxMergeItems);
+        batch.setResolveHandles(false);
+        List<MergeBatch.Item> items = new ArrayList<MergeBatch.Item>();
+        List<Entry> merged = new ArrayList<Entry>();
+        for (Entry entry : entries) {
+            if (entry.trackHandle == null) {
+                entry.fail(new ITunesUException("Cannot find the track uploaded from "
+                                                 + entry.file.getName()));
+            } else if (entry.metadata == null) {
+                entry.complete();
+            } else {
+                Track track = (Track) ModelSupport.copyOf(entry.metadata);
+                track.setHandle(entry.trackHandle);
+                items.add(batch.merge(groupHandle, track));
+                merged.add(entry);
+            }
+        }
+        if (items.isEmpty()) {
+            return;
+        }
+        batch.send(this.connection);
+        synchronized (this) {
+            this.mergeRequestCount += batch.getRequestCount();
+        }
+        for (int i = 0; i < items.size(); i++) {
+            MergeBatch.Item item = items.get(i);
+            Entry entry = merged.get(i);
+            if (item.isSuccessful()) {
+                synchronized (this) {
+                    this.mergedCount++;
+                }
+                entry.complete();
+            } else {
+                entry.fail(item.getError());
+            }
+        }
+    }
+
+    /**
+     * Finds the tracks of uploads whose response did not carry a handle.
+     */
+    private void resolveTrackHandles(String groupHandle, List<Entry> entries)
+        throws ITunesUException {
+
+        boolean unresolved = false;
+        for (Entry entry : entries) {
+            unresolved |= entry.trackHandle == null;
+        }
+        if (!unresolved) {
+            return;
+        }
+        Set<String> claimed = new HashSet<String>();
+        synchronized (this) {
+            for (Entry entry : this.entries) {
+                if (entry.trackHandle != null) {
+                    claimed.add(entry.trackHandle);
+                }
+            }
+        }
+        List<Track> tracks = this.connection.getTracks(groupHandle, null);
+        for (Entry entry : entries) {
+            if (entry.trackHandle != null) {
+                continue;
+            }
+            String name = entry.file.getName();
+            int dot = name.lastIndexOf('.');
+            String baseName = dot > 0 ? name.substring(0, dot) : name;
+            // Prefer the newest track, which is listed last.
+            for (int i = tracks.size() - 1; i >= 0; i--) {
+                Track track = tracks.get(i);
+                if (!claimed.contains(track.getHandle())
+                    && (name.equals(track.getName()) || baseName.equals(track.getName()))) {
+                    entry.trackHandle = track.getHandle();
+                    claimed.add(track.getHandle());
+                    break;
+                }
+            }
+        }
+    }
+
+    private static boolean isHandle(String response) {
+        String value = response.trim();
+        if (value.length() == 0) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (!Character.isDigit(value.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * One file moving through the pipeline.
+     */
+    public static class Entry {
+        private final String groupHandle;
+        private final File file;
+        private final Track metadata;
+        private final CompletableFuture<String> future = new CompletableFuture<String>();
+
+        private volatile String status = STATUS_QUEUED;
+        private volatile String response;
+        private volatile String trackHandle;
+        private volatile Throwable error;
+
+        Entry(String groupHandle, File file, Track metadata) {
+            this.groupHandle = groupHandle;
+            this.file = file;
+            this.metadata = metadata;
+        }
+
+        public String getGroupHandle() {
+            return this.groupHandle;
+        }
+
+        public File getFile() {
+            return this.file;
+        }
+
+        public Track getMetadata() {
+            return this.metadata;
+        }
+
+        /**
+         * Returns one of the <code>STATUS_</code> constants.
+         */
+        public String getStatus() {
+            return this.status;
+        }
+
+        /**
+         * Returns the response to the upload, once uploaded.
+         */
+        public String getResponse() {
+            return this.response;
+        }
+
+        /**
+         * Returns the handle of the new track, once known.
+         */
+        public String getTrackHandle() {
+            return this.trackHandle;
+        }
+
+        public Throwable getError() {
+            return this.error;
+        }
+
+        /**
+         * Returns a future completing with the track handle once the
+         * metadata has been merged.
+         */
+        public CompletableFuture<String> getFuture() {
+            return this.future;
+        }
+
+        public String toString() {
+            return (super.toString()
+                    + "[group=" + this.groupHandle
+                    + ",file=" + this.file
+                    + ",status=" + this.status
+                    + ",track=" + this.trackHandle
+                    + "]");
+        }
+
+        void complete() {
+            this.status = STATUS_COMPLETED;
+            this.future.complete(this.trackHandle);
+        }
+
+        void fail(Throwable error) {
+            this.error = error;
+            this.status = STATUS_FAILED;
+            this.future.completeExceptionally(error);
+        }
+    }
+}
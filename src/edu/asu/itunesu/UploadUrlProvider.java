@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2007-2008, Arizona State University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Arizona State University nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY ARIZONA STATE UNIVERSITY ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL ARIZONA STATE UNIVERSITY BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.asu.itunesu;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps a small pool of prefetched upload URLs so that write operations
+ * do not have to wait for a GetUploadURL round trip.
+ *
+ * <p>Upload URLs carry a signed token that iTunes U accepts only for a
+ * short time, and each URL is used for a single upload. URLs are therefore
+ * handed out once, and discarded if they have been pooled longer than the
+ * validity window. Whenever a URL is taken from a pool, a background thread
+ * refills that pool.</p>
+ *
+ * <p>Install a provider with
+ * {@link ITunesUConnection#setUploadUrlProvider(UploadUrlProvider)}.</p>
+ */
+public class UploadUrlProvider implements ITunesUConnection.UploadUrlSource {
+    public static final int DEFAULT_POOL_SIZE = 2;
+
+    /**
+     * Authorization tokens are valid for about 90 seconds; leave a margin
+     * for the upload itself to start.
+     */
+    public static final long DEFAULT_VALIDITY_MILLIS = 60 * 1000L;
+
+    private ITunesUConnection connection;
+    private int poolSize;
+    private long validityMillis;
+    private ConcurrentMap<String, Pool> pools;
+    private ExecutorService refiller;
+
+    private AtomicLong hitCount = new AtomicLong();
+    private AtomicLong missCount = new AtomicLong();
+    private AtomicLong expiredCount = new AtomicLong();
+
+    public UploadUrlProvider(ITunesUConnection connection) {
+        this(connection, DEFAULT_POOL_SIZE, DEFAULT_VALIDITY_MILLIS);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param connection The connection used to fetch upload URLs.
+     * @param poolSize Number of URLs to keep ready per destination.
+     * @param validityMillis How long a fetched URL may be handed out.
+     */
+    public UploadUrlProvider(ITunesUConnection connection,
+                             int poolSize,
+                             long validityMillis) {
+        this.connection = connection;
+        this.poolSize = poolSize;
+        this.validityMillis = validityMillis;
+        this.pools = new ConcurrentHashMap<String, Pool>();
+        this.refiller = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "UploadUrlProvider");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Returns an upload URL, from the pool if a fresh one is available,
+     * or fetched on the calling thread otherwise. Pooled URLs are signed
+     * for the connection's own identity, so a thread with a current
+     * {@link CallContext} always fetches its own.
+     *
+     * @param handle Handle for the destination.
+     * @param forXml True for uploading XML, false for uploading content.
+     * @return The URL as a string.
+     */
+    public String getUploadUrl(String handle, boolean forXml)
+        throws ITunesUException {
+
+        if (CallContext.current() != null) {
+            return this.connection.getUploadUrl(handle, forXml);
+        }
+        Pool pool = this.getPool(handle, forXml);
+        long now = System.currentTimeMillis();
+        Entry entry;
+        try {
+            while ((entry = pool.urls.poll()) != null) {
+                pool.size.decrementAndGet();
+                if (now - entry.fetchedAt < this.validityMillis) {
+                    this.hitCount.incrementAndGet();
+                    return entry.url;
+                }
+                this.expiredCount.incrementAndGet();
+            }
+        } finally {
+            this.refill(pool);
+        }
+        this.missCount.incrementAndGet();
+        return this.connection.getUploadUrl(handle, forXml);
+    }
+
+    /**
+     * Starts filling the pool for a destination ahead of its first use.
+     *
+     * @param handle Handle for the destination.
+     * @param forXml True for uploading XML, false for uploading content.
+     */
+    public void prefetch(String handle, boolean forXml) {
+        this.refill(this.getPool(handle, forXml));
+    }
+
+    /**
+     * Stops the background refill thread. Pooled URLs are discarded.
+     */
+    public void shutdown() {
+        this.refiller.shutdownNow();
+        this.pools.clear();
+    }
+
+    public int getPoolSize() {
+        return this.poolSize;
+    }
+
+    public long getValidityMillis() {
+        return this.validityMillis;
+    }
+
+    /**
+     * Returns the number of URLs served from a pool.
+     */
+    public long getHitCount() {
+        return this.hitCount.get();
+    }
+
+    /**
+     * Returns the number of URLs fetched on the calling thread.
+     */
+    public long getMissCount() {
+        return this.missCount.get();
+    }
+
+    /**
+     * Returns the number of pooled URLs discarded as too old.
+     */
+    public long getExpiredCount() {
+        return this.expiredCount.get();
+    }
+
+    private Pool getPool(String handle, boolean forXml) {
+        String key = (forXml ? "xml:" : "content:") + (handle == null ? "" : handle);
+        Pool pool = this.pools.get(key);
+        if (pool == null) {
+            Pool newPool = new Pool(handle, forXml);
+            pool = this.pools.putIfAbsent(key, newPool);
+            if (pool == null) {
+                pool = newPool;
+            }
+        }
+        return pool;
+    }
+
+    private void refill(final Pool pool) {
+        if (this.poolSize <= 0 || !pool.refilling.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            this.refiller.execute(new Runnable() {
+                public void run() {
+                    try {
+                        while (pool.size.get() < poolSize) {
+                            String url = connection.getUploadUrl(pool.handle, pool.forXml);
+                            pool.urls.offer(new Entry(url, System.currentTimeMillis()));
+                            pool.size.incrementAndGet();
+                        }
+                    } catch (ITunesUException e) {
+                        // Callers fall back to fetching their own URL.
+                    } finally {
+                        pool.refilling.set(false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pool.refilling.set(false);
+        }
+    }
+
+    private static class Pool {
+        private String handle;
+        private boolean forXml;
+        private ConcurrentLinkedQueue<Entry> urls = new ConcurrentLinkedQueue<Entry>();
+        private AtomicInteger size = new AtomicInteger();
+        private AtomicBoolean refilling = new AtomicBoolean();
+
+        public Pool(String handle, boolean forXml) {
+            this.handle = handle;
+            this.forXml = forXml;
+        }
+    }
+
+    private static class Entry {
+        private String url;
+        private long fetchedAt;
+
+        public Entry(String url, long fetchedAt) {
+            this.url = url;
+            this.fetchedAt = fetchedAt;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2007-2008, Arizona State University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Arizona State University nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY ARIZONA STATE UNIVERSITY ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL ARIZONA STATE UNIVERSITY BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.asu.itunesu;
+
+import java.io.InputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Used internally to read model objects from a StAX stream.
+ */
+class XmlStreamSupport {
+    private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+
+    private XmlStreamSupport() {}
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        return factory;
+    }
+
+    /**
+     * Creates a reader positioned at the start of the root element.
+     */
+    public static XMLStreamReader createReader(InputStream input)
+        throws XMLStreamException {
+
+        XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(input);
+        while (reader.getEventType() != XMLStreamReader.START_ELEMENT) {
+            reader.next();
+        }
+        return reader;
+    }
+
+    /**
+     * Checks that the reader is positioned at the start of an element.
+     */
+    public static void requireStartElement(XMLStreamReader reader, String name)
+        throws ITunesUException {
+
+        if (reader.getEventType() != XMLStreamReader.START_ELEMENT
+            || !name.equals(reader.getLocalName())) {
+            throw new ITunesUException("Expected " + name + ", got "
+                                       + (reader.hasName() ? reader.getLocalName() : "event " + reader.getEventType()));
+        }
+    }
+
+    /**
+     * Advances to the start of the next child element.
+     *
+     * @return False if the end of the current element was reached instead.
+     */
+    public static boolean nextChildElement(XMLStreamReader reader)
+        throws XMLStreamException {
+
+        while (true) {
+            int event = reader.next();
+            if (event == XMLStreamReader.START_ELEMENT) {
+                return true;
+            } else if (event == XMLStreamReader.END_ELEMENT) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Skips the current element and its content, leaving the reader at
+     * its end tag.
+     */
+    public static void skipElement(XMLStreamReader reader)
+        throws XMLStreamException {
+
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamReader.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamReader.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    /**
+     * Reads the text of the current element, which may contain child
+     * elements, leaving the reader at its end tag.
+     */
+    public static String getTextContent(XMLStreamReader reader)
+        throws XMLStreamException {
+
+        StringBuilder text = null;
+        String first = null;
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamReader.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamReader.END_ELEMENT) {
+                depth--;
+            } else if (event == XMLStreamReader.CHARACTERS
+                       || event == XMLStreamReader.CDATA
+                       || event == XMLStreamReader.SPACE) {
+                if (first == null) {
+                    first = reader.getText();
+                } else {
+                    if (text == null) {
+                        text = new StringBuilder(first);
+                    }
+                    text.append(reader.getTextCharacters(),
+                                reader.getTextStart(),
+                                reader.getTextLength());
+                }
+            }
+        }
+        if (text != null) {
+            return text.toString();
+        }
+        return first == null ? "" : first;
+    }
+}
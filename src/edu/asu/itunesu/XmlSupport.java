@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2007-2008, Arizona State University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Arizona State University nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY ARIZONA STATE UNIVERSITY ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL ARIZONA STATE UNIVERSITY BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.asu.itunesu;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * Used internally to parse, serialize and query DOM trees. Looking up the
+ * JAXP factories is expensive, so each is looked up once, and since the
+ * builders, transformers and XPath expressions they create are not
+ * thread-safe, each thread keeps its own and reuses them.
+ */
+class XmlSupport {
+    /**
+     * Compiled expressions kept per thread. Lookups by handle compile a
+     * new pattern for every handle, so the cache is bounded.
+     */
+    static final int MAX_CACHED_EXPRESSIONS = 64;
+
+    private static final DocumentBuilderFactory DOCUMENT_BUILDER_FACTORY =
+        DocumentBuilderFactory.newInstance();
+    private static final TransformerFactory TRANSFORMER_FACTORY =
+        TransformerFactory.newInstance();
+    private static final XPathFactory XPATH_FACTORY = XPathFactory.newInstance();
+
+    private static final ThreadLocal<DocumentBuilder> DOCUMENT_BUILDER =
+        new ThreadLocal<DocumentBuilder>();
+    private static final ThreadLocal<Transformer> TRANSFORMER =
+        new ThreadLocal<Transformer>();
+    private static final ThreadLocal<XPathCache> XPATH_CACHE =
+        new ThreadLocal<XPathCache>() {
+            protected XPathCache initialValue() {
+                XPath xpath;
+                // The factories are not thread-safe either.
+                synchronized (XPATH_FACTORY) {
+                    xpath = XPATH_FACTORY.newXPath();
+                }
+                return new XPathCache(xpath);
+            }
+        };
+
+    private XmlSupport() {}
+
+    /**
+     * Returns the current thread's document builder, reset for reuse.
+     */
+    public static DocumentBuilder getDocumentBuilder()
+        throws ParserConfigurationException {
+
+        DocumentBuilder builder = DOCUMENT_BUILDER.get();
+        if (builder == null) {
+            synchronized (DOCUMENT_BUILDER_FACTORY) {
+                builder = DOCUMENT_BUILDER_FACTORY.newDocumentBuilder();
+            }
+            DOCUMENT_BUILDER.set(builder);
+        } else {
+            builder.reset();
+        }
+        return builder;
+    }
+
+    public static Document newDocument() throws ParserConfigurationException {
+        return getDocumentBuilder().newDocument();
+    }
+
+    public static Document parse(String xml) throws ITunesUException {
+        DocumentBuilder builder;
+        try {
+            builder = getDocumentBuilder();
+        } catch (ParserConfigurationException e) {
+            throw new ITunesUException(e);
+        }
+        try {
+            return builder.parse(new InputSource(new StringReader(xml)));
+        } catch (SAXException e) {
+            throw new ITunesUException(e);
+        } catch (IOException e) {
+            throw new ITunesUException(e);
+        }
+    }
+
+    /**
+     * Returns the current thread's transformer, reset for reuse and set
+     * to indent its output and omit the XML declaration.
+     */
+    public static Transformer getIndentingTransformer()
+        throws TransformerConfigurationException {
+
+        Transformer transformer = TRANSFORMER.get();
+        if (transformer == null) {
+            synchronized (TRANSFORMER_FACTORY) {
+                transformer = TRANSFORMER_FACTORY.newTransformer();
+            }
+            TRANSFORMER.set(transformer);
+        } else {
+            transformer.reset();
+        }
+        transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+        transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+        return transformer;
+    }
+
+    /**
+     * Returns the elements an XPath expression selects, compiling the
+     * expression only on its first use by the current thread.
+     */
+    public static List<Element> getElementsByXPath(Node node, String pattern)
+        throws ITunesUException {
+
+        NodeList nodeList;
+        try {
+            nodeList = (NodeList) XPATH_CACHE.get().compile(pattern)
+                .evaluate(node, XPathConstants.NODESET);
+        } catch (XPathExpressionException e) {
+            throw new ITunesUException(e);
+        }
+        List<Element> result = new ArrayList<Element>(nodeList.getLength());
+        for (int i = 0; i < nodeList.getLength(); i++) {
+            result.add((Element) nodeList.item(i));
+        }
+        return result;
+    }
+
+    private static class XPathCache extends LinkedHashMap<String, XPathExpression> {
+        private static final long serialVersionUID = 1L;
+
+        private final XPath xpath;
+
+        public XPathCache(XPath xpath) {
+            super(16, 0.75f, true);
+            this.xpath = xpath;
+        }
+
+        public XPathExpression compile(String pattern) throws XPathExpressionException {
+            XPathExpression expression = this.get(pattern);
+            if (expression == null) {
+                expression = this.xpath.compile(pattern);
+                this.put(pattern, expression);
+            }
+            return expression;
+        }
+
+        protected boolean removeEldestEntry(Map.Entry<String, XPathExpression> eldest) {
+            return this.size() > MAX_CACHED_EXPRESSIONS;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2007-2008, Arizona State University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Arizona State University nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY ARIZONA STATE UNIVERSITY ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL ARIZONA STATE UNIVERSITY BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.asu.itunesu;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Streams XML elements to a {@link Writer} without building a DOM.
+ *
+ * <p>In compact mode no whitespace is written between elements. Indented
+ * mode produces the same layout as the indenting Transformer used by
+ * earlier versions of {@link ITunesUDocument#toXml()}.</p>
+ */
+public class XmlWriter {
+    private static final String INDENT = "    ";
+
+    private Writer writer;
+    private boolean indent;
+    private String[] names = new String[16];
+    private boolean[] children = new boolean[16];
+    private int depth;
+    private boolean startTagOpen;
+
+    public XmlWriter(Writer writer) {
+        this(writer, false);
+    }
+
+    public XmlWriter(Writer writer, boolean indent) {
+        this.writer = writer;
+        this.indent = indent;
+    }
+
+    public boolean isIndent() {
+        return this.indent;
+    }
+
+    /**
+     * Writes the start tag of a new element.
+     */
+    public void startElement(String name) throws IOException {
+        if (this.depth > 0) {
+            this.closeStartTag();
+            if (!this.children[this.depth - 1]) {
+                this.children[this.depth - 1] = true;
+                if (this.indent) {
+                    this.writer.write('\n');
+                }
+            }
+        }
+        this.writeIndent();
+        this.writer.write('<');
+        this.writer.write(name);
+        if (this.depth == this.names.length) {
+            String[] names = new String[this.depth * 2];
+            boolean[] children = new boolean[this.depth * 2];
+            System.arraycopy(this.names, 0, names, 0, this.depth);
+            System.arraycopy(this.children, 0, children, 0, this.depth);
+            this.names = names;
+            this.children = children;
+        }
+        this.names[this.depth] = name;
+        this.children[this.depth] = false;
+        this.depth++;
+        this.startTagOpen = true;
+    }
+
+    /**
+     * Writes escaped text content for the current element.
+     */
+    public void text(String text) throws IOException {
+        if (this.depth == 0) {
+            throw new IllegalStateException("No open element");
+        }
+        if (text.length() == 0) {
+            return;
+        }
+        this.closeStartTag();
+        int length = text.length();
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            String replacement;
+            switch (c) {
+            case '&': replacement = "&amp;"; break;
+            case '<': replacement = "&lt;"; break;
+            case '>': replacement = "&gt;"; break;
+            case '\t':
+            case '\n': continue;
+            default:
+                if (c >= 0x20) {
+                    continue;
+                }
+                replacement = "&#" + (int) c + ";";
+            }
+            this.writer.write(text, start, i - start);
+            this.writer.write(replacement);
+            start = i + 1;
+        }
+        this.writer.write(text, start, length - start);
+    }
+
+    /**
+     * Writes the end tag of the current element.
+     */
+    public void endElement() throws IOException {
+        if (this.depth == 0) {
+            throw new IllegalStateException("No open element");
+        }
+        this.depth--;
+        if (this.startTagOpen) {
+            this.writer.write("/>");
+            this.startTagOpen = false;
+        } else {
+            if (this.children[this.depth]) {
+                this.writeIndent();
+            }
+            this.writer.write("</");
+            this.writer.write(this.names[this.depth]);
+            this.writer.write('>');
+        }
+        this.names[this.depth] = null;
+        if (this.indent) {
+            this.writer.write('\n');
+        }
+    }
+
+    /**
+     * Writes an element containing only text.
+     */
+    public void element(String name, String text) throws IOException {
+        this.startElement(name);
+        this.text(text);
+        this.endElement();
+    }
+
+    /**
+     * Writes a DOM element with its child elements and text. Attributes
+     * are not written; iTunes U documents do not use them.
+     */
+    public void element(Element element) throws IOException {
+        this.startElement(element.getNodeName());
+        for (Node node = element.getFirstChild();
+             node != null;
+             node = node.getNextSibling()) {
+            switch (node.getNodeType()) {
+            case Node.ELEMENT_NODE:
+                this.element((Element) node);
+                break;
+            case Node.TEXT_NODE:
+            case Node.CDATA_SECTION_NODE:
+                this.text(node.getNodeValue());
+                break;
+            default:
+                break;
+            }
+        }
+        this.endElement();
+    }
+
+    public void flush() throws IOException {
+        this.writer.flush();
+    }
+
+    private void closeStartTag() throws IOException {
+        if (this.startTagOpen) {
+            this.writer.write('>');
+            this.startTagOpen = false;
+        }
+    }
+
+    private void writeIndent() throws IOException {
+        if (this.indent) {
+            for (int i = 0; i < this.depth; i++) {
+                this.writer.write(INDENT);
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package test.edu.asu.itunesu;
+
+import java.net.URLEncoder;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import edu.asu.itunesu.BrowseTokenService;
+import edu.asu.itunesu.TokenSigner;
+
+/**
+ * Expected tokens were produced by ITunesU.getAuthorizationToken.
+ */
+public class BrowseTokenServiceTest extends TestCase {
+    private static final String SITE_URL =
+        "https://deimos.apple.com/WebObjects/Core.woa/Browse/example.edu";
+    private static final String SHARED_SECRET = "STRINGOFSHAREDSECRETKEY";
+    private static final String[] CREDENTIALS = {
+        "Administrator@urn:mace:itunesu.com:sites:example.edu",
+        "Instructor@urn:mace:itunesu.com:sites:example.edu"
+    };
+
+    public void testTokenMatchesITunesU() throws Exception {
+        BrowseTokenService service = new BrowseTokenService(SITE_URL, SHARED_SECRET);
+        String expected = "credentials=Administrator%40urn%3Amace%3Aitunesu.com%3Asites%3Aexample.edu"
+            + "%3BInstructor%40urn%3Amace%3Aitunesu.com%3Asites%3Aexample.edu"
+            + "&identity=%22Jane+%5C%22JD%5C%22+Doe%22+%3Cjane%40example.edu%3E+%28jdoe%29+%5B42%5D"
+            + "&time=1200000000"
+            + "&signature=6d6738a381f8224edc2569637accdf8ce219ba3a839b1fb3b9a129c50898ae63";
+        for (int i = 0; i < 2; i++) {
+            assertEquals(expected, service.getAuthorizationToken(CREDENTIALS, "Jane \"JD\" Doe",
+                                                                 "jane@example.edu", "jdoe", "42",
+                                                                 1200000000L));
+        }
+        assertEquals(1, service.getIdentityHitCount());
+        assertEquals(1, service.getIdentityMissCount());
+        assertEquals(2, service.getTokenCount());
+    }
+
+    public void testNonAsciiIdentityMatchesITunesU() throws Exception {
+        String expected = "credentials=Administrator%40urn%3Amace%3Aitunesu.com%3Asites%3Aexample.edu"
+            + "%3BInstructor%40urn%3Amace%3Aitunesu.com%3Asites%3Aexample.edu"
+            + "&identity=%22Jos%C3%A9+%C3%85ngstr%C3%B6m+%F0%9F%8E%B5%22+%28jose%29"
+            + "&time=1200000000"
+            + "&signature=b2acf1cdcf3ba07614ecdc4da115ac705cd2bf930c6ac0fce44b50c3eb837eae";
+        BrowseTokenService service = new BrowseTokenService(SITE_URL, SHARED_SECRET);
+        assertEquals(expected, service.getAuthorizationToken(CREDENTIALS, "Jos\u00e9 \u00c5ngstr\u00f6m \ud83c\udfb5",
+                                                             null, "jose", null, 1200000000L));
+        assertEquals(expected, service.getAuthorizationToken(CREDENTIALS,
+                                                             "\"Jos\u00e9 \u00c5ngstr\u00f6m \ud83c\udfb5\" (jose)",
+                                                             1200000000L));
+    }
+
+    public void testEncodingMatchesURLEncoder() throws Exception {
+        TokenSigner signer = TokenSigner.forSharedSecret(SHARED_SECRET);
+        Random random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            char[] chars = new char[random.nextInt(20)];
+            for (int j = 0; j < chars.length; j++) {
+                chars[j] = (char) (random.nextBoolean() ? random.nextInt(128) : random.nextInt(0x10000));
+            }
+            String s = new String(chars);
+            assertEquals(signer.getEncodedAuthorizationToken(URLEncoder.encode(s, "UTF-8"), "", 0),
+                         signer.getAuthorizationToken(s, "", 0));
+        }
+    }
+
+    public void testInvalidCredentials() throws Exception {
+        BrowseTokenService service = new BrowseTokenService(SITE_URL, SHARED_SECRET);
+        try {
+            service.getAuthorizationToken(new String[] { "Bad;Credential" }, null);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    public void testUrls() throws Exception {
+        BrowseTokenService service = new BrowseTokenService(SITE_URL, SHARED_SECRET);
+        assertEquals("https://deimos.apple.com/WebObjects/Core.woa/Browse/example.edu",
+                     service.getBrowseActionUrl(null));
+        assertEquals("https://deimos.apple.com/WebObjects/Core.woa/API/GetBrowseURL/example.edu.1234",
+                     service.getGetBrowseUrlActionUrl(service.getDestination("1234")));
+    }
+}
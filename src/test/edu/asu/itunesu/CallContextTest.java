@@ -0,0 +1,97 @@
+package test.edu.asu.itunesu;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import edu.asu.itunesu.AsyncITunesUConnection;
+import edu.asu.itunesu.CallContext;
+import edu.asu.itunesu.ITunesUConfig;
+import edu.asu.itunesu.ITunesUConnection;
+import edu.asu.itunesu.ITunesUTransport;
+
+public class CallContextTest extends TestCase {
+    private static final String SITE_URL =
+        "https://itunesu.example/WebObjects/Core.woa/Browse/example.edu";
+
+    private static final String SHOW_TREE_XML =
+        "<ITunesUResponse><Version>1.1</Version>"
+        + "<Site><Handle>1</Handle><Name>Site</Name></Site></ITunesUResponse>";
+
+    public void testConfiguredConnectionIsImmutable() throws Exception {
+        ITunesUConfig config = ITunesUConfig.builder(SITE_URL, "secret", new String[] { "Admin" })
+            .setTransport(new TokenTransport())
+            .setCallTimeoutMillis(5000)
+            .build();
+        ITunesUConnection connection = new ITunesUConnection(config);
+        assertSame(config, connection.getConfig());
+        assertEquals(5000, connection.getCallTimeoutMillis());
+        try {
+            connection.setIdentity("someone");
+            fail("setIdentity() changed a configured connection");
+        } catch (IllegalStateException e) {
+        }
+        try {
+            connection.setDebug(true);
+            fail("setDebug() changed a configured connection");
+        } catch (IllegalStateException e) {
+        }
+        try {
+            ITunesUConfig.builder(SITE_URL, "secret", new String[] { "a;b" }).build();
+            fail("Invalid credential accepted");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    public void testContextSignsEachCall() throws Exception {
+        TokenTransport transport = new TokenTransport();
+        ITunesUConnection connection = new ITunesUConnection(
+            ITunesUConfig.builder(SITE_URL, "secret", new String[] { "Admin" })
+                .setTransport(transport)
+                .setIdentity("Service")
+                .build());
+
+        connection.showTree("1");
+        CallContext previous = CallContext.setCurrent(
+            CallContext.forIdentity("Alice").withCredentials(new String[] { "Learner" }));
+        try {
+            connection.showTree("1");
+        } finally {
+            CallContext.setCurrent(previous);
+        }
+        assertNull(CallContext.current());
+
+        AsyncITunesUConnection async = new AsyncITunesUConnection(connection);
+        previous = CallContext.setCurrent(CallContext.forIdentity("Bob"));
+        try {
+            async.showTreeAsync("1").get();
+        } finally {
+            CallContext.setCurrent(previous);
+            async.shutdown();
+        }
+
+        assertEquals(3, transport.tokens.size());
+        assertTrue(transport.tokens.get(0).startsWith("credentials=Admin&identity=Service&"));
+        assertTrue(transport.tokens.get(1).startsWith("credentials=Learner&identity=Alice&"));
+        assertTrue(transport.tokens.get(2).startsWith("credentials=Admin&identity=Bob&"));
+    }
+
+    private static class TokenTransport implements ITunesUTransport {
+        final List<String> tokens = new ArrayList<String>();
+
+        public synchronized <T> T post(String url,
+                                       String contentType,
+                                       long contentLength,
+                                       RequestBody body,
+                                       ResponseHandler<T> handler) throws IOException {
+            ByteArrayOutputStream token = new ByteArrayOutputStream();
+            body.writeTo(token);
+            this.tokens.add(token.toString("UTF-8"));
+            return handler.handleResponse(new ByteArrayInputStream(SHOW_TREE_XML.getBytes("UTF-8")));
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package test.edu.asu.itunesu;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamReader;
+
+import org.w3c.dom.Element;
+import org.xml.sax.InputSource;
+
+import junit.framework.TestCase;
+
+import edu.asu.itunesu.ContentHashIndex;
+import edu.asu.itunesu.ITunesUConnection;
+import edu.asu.itunesu.ITunesUTransport;
+import edu.asu.itunesu.Track;
+
+public class ContentHashIndexTest extends TestCase {
+    // MD5 of "abc".
+    private static final String ABC_HASH = "900150983cd24fb0d6963f7d28e17f72";
+
+    private static final String TRACK_XML =
+        "<Track><Name>Lecture 1</Name><Handle>456</Handle>"
+        + "<File><Name>lecture1.mp4</Name><Size>3</Size>"
+        + "<Hash>900150983CD24FB0D6963F7D28E17F72</Hash></File>"
+        + "<DownloadURL>https://example.edu/456</DownloadURL></Track>";
+
+    private static final String SHOW_TREE_XML =
+        "<ITunesUResponse><Version>1.1</Version><Site><Handle>1</Handle>"
+        + "<Section><Handle>2</Handle><Course><Handle>3</Handle>"
+        + "<Group><Handle>123</Handle>" + TRACK_XML + "</Group>"
+        + "</Course></Section></Site></ITunesUResponse>";
+
+    public void testTrackFileElements() throws Exception {
+        Element element = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+            .parse(new InputSource(new StringReader(TRACK_XML)))
+            .getDocumentElement();
+        Track track = Track.fromXmlElement(element);
+        assertEquals(Long.valueOf(3), track.getFileSize());
+        assertEquals("900150983CD24FB0D6963F7D28E17F72", track.getFileHash());
+        assertEquals("https://example.edu/456", track.getDownloadUrl());
+
+        XMLStreamReader reader = XMLInputFactory.newInstance()
+            .createXMLStreamReader(new StringReader(TRACK_XML));
+        reader.nextTag();
+        track = Track.fromXmlStream(reader);
+        assertEquals(Long.valueOf(3), track.getFileSize());
+        assertEquals("900150983CD24FB0D6963F7D28E17F72", track.getFileHash());
+        assertEquals("https://example.edu/456", track.getDownloadUrl());
+    }
+
+    public void testUploadSkipsIndexedContent() throws Exception {
+        File existing = contentFile("abc");
+        File sameSize = contentFile("xyz");
+        File other = contentFile("longer content");
+        try {
+            FakeTransport transport = new FakeTransport();
+            ITunesUConnection connection =
+                new ITunesUConnection("https://itunesu.example/WebObjects/Core.woa/Browse/example.edu",
+                                      null, "secret", new String[] { "Administrator@urn:mace:example.edu" });
+            connection.setTransport(transport);
+
+            ContentHashIndex index = ContentHashIndex.load(connection, "123");
+            assertEquals(1, index.size());
+            assertTrue(index.contains(ABC_HASH));
+            assertEquals("456", index.getTrackHandle(ABC_HASH));
+            assertTrue(index.mayContain(3));
+            assertFalse(index.mayContain(14));
+
+            assertNull(connection.uploadContent("123", existing, index));
+            assertEquals(0, transport.uploads);
+            assertEquals(1, index.getSkippedCount());
+            assertEquals(3, index.getSkippedBytes());
+
+            // Same size, different content: hashed first, then uploaded.
+            assertEquals("ok", connection.uploadContent("123", sameSize, index));
+            assertEquals(1, transport.uploads);
+            assertEquals(6, index.getHashedBytes());
+
+            // New size: hashed while uploading, then indexed.
+            assertEquals("ok", connection.uploadContent("123", other, index));
+            assertEquals(2, transport.uploads);
+            assertEquals(6, index.getHashedBytes());
+            assertEquals(3, index.size());
+            assertTrue(index.contains(index.digest(other)));
+            assertNull(connection.uploadContent("123", other, index));
+            assertEquals(2, transport.uploads);
+        } finally {
+            existing.delete();
+            sameSize.delete();
+            other.delete();
+        }
+    }
+
+    private static File contentFile(String content) throws IOException {
+        File file = File.createTempFile("content", ".bin");
+        RandomAccessFile output = new RandomAccessFile(file, "rw");
+        output.write(content.getBytes("UTF-8"));
+        output.close();
+        return file;
+    }
+
+    /**
+     * Answers GetUploadURL, ShowTree and uploads.
+     */
+    private static class FakeTransport implements ITunesUTransport {
+        int uploads;
+
+        public synchronized <T> T post(String url,
+                                       String contentType,
+                                       long contentLength,
+                                       RequestBody body,
+                                       ResponseHandler<T> handler)
+            throws IOException {
+
+            String response;
+            if (url.indexOf("/API/GetUploadURL/") >= 0) {
+                response = (url.indexOf("XMLControlFile") >= 0
+                            ? "https://upload.example/xml"
+                            : "https://upload.example/content");
+            } else if (url.endsWith("/xml")) {
+                response = SHOW_TREE_XML;
+            } else {
+                body.writeTo(new ByteArrayOutputStream());
+                this.uploads++;
+                response = "ok";
+            }
+            return handler.handleResponse(new ByteArrayInputStream(response.getBytes("UTF-8")));
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package test.edu.asu.itunesu;
+
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+
+import edu.asu.itunesu.Course;
+import edu.asu.itunesu.Group;
+import edu.asu.itunesu.ITunesUResponse;
+import edu.asu.itunesu.Permission;
+import edu.asu.itunesu.Section;
+import edu.asu.itunesu.Site;
+import edu.asu.itunesu.Track;
+
+/**
+ * Compares the DOM and StAX response parsers on a generated site.
+ * Usage: ResponseParserComparison [tracks] [iterations]
+ */
+public class ResponseParserComparison {
+    private static final int TRACKS_PER_GROUP = 50;
+    private static final int GROUPS_PER_COURSE = 4;
+    private static final int COURSES_PER_SECTION = 20;
+
+    public static void main(String[] args) throws Exception {
+        int tracks = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        String xml = new ITunesUResponse("1.1", null, null, generateSite(tracks)).toXml();
+        byte[] bytes = xml.getBytes("UTF-8");
+        System.out.println("Generated site with " + tracks + " tracks ("
+                           + bytes.length / 1024 + " KB of XML)");
+
+        for (int i = 0; i < 2; i++) {
+            parseDom(bytes);
+            parseStream(bytes);
+        }
+
+        long domNanos = 0, domBytes = 0, streamNanos = 0, streamBytes = 0;
+        for (int i = 0; i < iterations; i++) {
+            long allocated = allocatedBytes();
+            long start = System.nanoTime();
+            parseDom(bytes);
+            domNanos += System.nanoTime() - start;
+            domBytes += allocatedBytes() - allocated;
+
+            allocated = allocatedBytes();
+            start = System.nanoTime();
+            parseStream(bytes);
+            streamNanos += System.nanoTime() - start;
+            streamBytes += allocatedBytes() - allocated;
+        }
+
+        report("DOM  (fromXml)   ", domNanos / iterations, domBytes / iterations);
+        report("StAX (fromStream)", streamNanos / iterations, streamBytes / iterations);
+    }
+
+    public static Site generateSite(int trackCount) {
+        Site site = new Site();
+        site.setName("Generated Site");
+        site.setHandle("1");
+        site.getPermissions().add(new Permission("Administrator@urn:mace:itunesu.com:sites:example.edu",
+                                                 Permission.ACCESS_EDIT));
+        int handle = 2;
+        Section section = null;
+        Course course = null;
+        Group group = null;
+        for (int i = 0; i < trackCount; i++) {
+            if (i % TRACKS_PER_GROUP == 0) {
+                if (i % (TRACKS_PER_GROUP * GROUPS_PER_COURSE) == 0) {
+                    if (i % (TRACKS_PER_GROUP * GROUPS_PER_COURSE * COURSES_PER_SECTION) == 0) {
+                        section = new Section();
+                        section.setName("Section " + handle);
+                        section.setHandle(Integer.toString(handle++));
+                        site.getSections().add(section);
+                    }
+                    course = new Course();
+                    course.setName("Course " + handle);
+                    course.setHandle(Integer.toString(handle++));
+                    course.setShortName("C" + handle);
+                    course.setIdentifier("course-" + handle);
+                    course.setInstructor("Instructor");
+                    course.setDescription("Description of course " + handle);
+                    course.getPermissions().add(new Permission("Instructor@" + handle,
+                                                               Permission.ACCESS_EDIT));
+                    section.getSectionItems().add(course);
+                }
+                group = new Group();
+                group.setName("Group " + handle);
+                group.setHandle(Integer.toString(handle++));
+                group.setGroupType(Group.GROUP_TYPE_SIMPLE);
+                course.getGroups().add(group);
+            }
+            Track track = new Track();
+            track.setName("Lecture " + i);
+            track.setHandle(Integer.toString(handle++));
+            track.setKind("video");
+            track.setTrackNumber(i % TRACKS_PER_GROUP + 1);
+            track.setDurationMilliseconds(3600000L);
+            track.setAlbumName(course.getName());
+            track.setArtistName("Instructor");
+            track.setComment("Recorded lecture & notes <" + i + ">");
+            track.setDownloadUrl("https://deimos.apple.com/WebObjects/Core.woa/DownloadTrack/example.edu." + handle);
+            group.getTracks().add(track);
+        }
+        return site;
+    }
+
+    private static void parseDom(byte[] bytes) throws Exception {
+        // The DOM path starts from a String, as ITunesUConnection did.
+        ITunesUResponse.fromXml(new String(bytes, "UTF-8"));
+    }
+
+    private static void parseStream(byte[] bytes) throws Exception {
+        ITunesUResponse.fromStream(new ByteArrayInputStream(bytes));
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean)
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    private static void report(String name, long nanos, long bytes) {
+        System.out.println(name + ": " + nanos / 1000000 + " ms/parse, "
+                           + bytes / (1024 * 1024) + " MB allocated/parse");
+    }
+}
@@ -0,0 +1,109 @@
+package test.edu.asu.itunesu;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+
+import junit.framework.TestCase;
+
+import edu.asu.itunesu.CircuitBreaker;
+import edu.asu.itunesu.ITunesUTransportException;
+import edu.asu.itunesu.RetryPolicy;
+
+public class RetryPolicyTest extends TestCase {
+    public void testRetryableFailures() throws Exception {
+        RetryPolicy policy = new RetryPolicy();
+        assertTrue(policy.isRetryable(status(503)));
+        assertTrue(policy.isRetryable(status(429)));
+        assertFalse(policy.isRetryable(status(404)));
+        assertTrue(policy.isRetryable(new SocketException("Connection reset")));
+        assertTrue(policy.isRetryable(new SocketTimeoutException()));
+        assertFalse(policy.isRetryable(new InterruptedIOException()));
+
+        assertTrue(policy.isIdempotent("ShowTree"));
+        assertTrue(policy.isIdempotent("GetUploadURL"));
+        assertFalse(policy.isIdempotent("MergeCourse"));
+    }
+
+    public void testDelay() throws Exception {
+        RetryPolicy policy = new RetryPolicy();
+        policy.setBaseDelayMillis(100);
+        policy.setMaxDelayMillis(1000);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(policy.getDelayMillis(1, status(503)) < 100);
+            assertTrue(policy.getDelayMillis(20, status(503)) < 1000);
+        }
+        IOException throttled = new ITunesUTransportException("HTTP 429", 429, true, 500, null);
+        assertTrue(policy.getDelayMillis(1, throttled) >= 500);
+    }
+
+    public void testBudget() throws Exception {
+        RetryPolicy policy = new RetryPolicy();
+        policy.setMinRetryTokens(2);
+        policy.setRetryRatio(0.5);
+        assertTrue(policy.tryRetry("ShowTree"));
+        assertTrue(policy.tryRetry("ShowTree"));
+        assertFalse(policy.tryRetry("ShowTree"));
+        policy.onRequest("ShowTree");
+        policy.onRequest("ShowTree");
+        assertTrue(policy.tryRetry("ShowTree"));
+        assertTrue(policy.tryRetry("ShowFeed"));
+        assertEquals(Long.valueOf(3), policy.getRetryCounts().get("ShowTree"));
+        assertEquals(Long.valueOf(1), policy.getExhaustedCounts().get("ShowTree"));
+    }
+
+    public void testCircuitBreaker() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(2, 50);
+        assertTrue(breaker.tryAcquire());
+        breaker.onFailure();
+        assertTrue(breaker.tryAcquire());
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.STATE_OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+
+        Thread.sleep(60);
+        assertTrue(breaker.tryAcquire());
+        assertFalse(breaker.tryAcquire());
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.STATE_OPEN, breaker.getState());
+
+        Thread.sleep(60);
+        assertTrue(breaker.tryAcquire());
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.STATE_CLOSED, breaker.getState());
+        assertEquals(2, breaker.getOpenCount());
+        assertEquals(2, breaker.getRejectedCount());
+    }
+
+    public void testCircuitBreakerRelease() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(2, 50);
+        assertTrue(breaker.tryAcquire());
+        breaker.onFailure();
+        assertTrue(breaker.tryAcquire());
+        breaker.release();
+        assertEquals(1, breaker.getConsecutiveFailures());
+        assertTrue(breaker.tryAcquire());
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.STATE_OPEN, breaker.getState());
+
+        // A trial that never reached iTunes U frees the slot but does not
+        // close the breaker.
+        Thread.sleep(60);
+        assertTrue(breaker.tryAcquire());
+        breaker.release();
+        assertEquals(CircuitBreaker.STATE_HALF_OPEN, breaker.getState());
+        assertTrue(breaker.tryAcquire());
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.STATE_CLOSED, breaker.getState());
+    }
+
+    private static IOException status(int statusCode) {
+        return new ITunesUTransportException("HTTP " + statusCode,
+                                             statusCode,
+                                             ITunesUTransportException.isRetryableStatus(statusCode),
+                                             0,
+                                             null);
+    }
+}
@@ -0,0 +1,167 @@
+package test.edu.asu.itunesu;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import edu.asu.itunesu.Course;
+import edu.asu.itunesu.ITunesUConnection;
+import edu.asu.itunesu.ITunesUDocument;
+import edu.asu.itunesu.ITunesUException;
+import edu.asu.itunesu.ITunesUResponse;
+import edu.asu.itunesu.Site;
+import edu.asu.itunesu.SiteCache;
+
+public class SiteCacheTest extends TestCase {
+    private static final String SITE_URL =
+        "https://itunesu.example/WebObjects/Core.woa/Browse/example.edu";
+
+    private static final String SITE_XML =
+        "<Site><Name>Example</Name><Handle>1</Handle>"
+        + "<Section><Name>Courses</Name><Handle>2</Handle>"
+        + "<Course><Name>Biology</Name><Handle>3</Handle>"
+        + "<Group><Name>Lectures</Name><Handle>4</Handle>"
+        + "<Track><Name>Week 1</Name><Handle>5</Handle></Track>"
+        + "</Group></Course></Section></Site>";
+
+    public void testTtlExpiry() throws Exception {
+        FakeConnection connection = new FakeConnection();
+        SiteCache cache = new SiteCache(connection, 200);
+        assertEquals("Biology", cache.getCourse("3").getName());
+        assertEquals("Week 1", cache.getTrack("5").getName());
+        assertEquals(1, connection.loads.get());
+        assertTrue(cache.isLoaded());
+
+        Thread.sleep(300);
+        assertFalse(cache.isLoaded());
+        assertNotNull(cache.getCourse("3"));
+        assertEquals(2, connection.loads.get());
+        assertEquals(2, cache.getLoadCount());
+    }
+
+    public void testInvalidate() throws Exception {
+        FakeConnection connection = new FakeConnection();
+        SiteCache cache = new SiteCache(connection);
+        assertNotNull(cache.getGroup("4"));
+        assertNull(cache.getGroup("99"));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        cache.invalidate();
+        assertFalse(cache.isLoaded());
+        assertEquals(1, cache.getTracks("3").size());
+        assertEquals(2, connection.loads.get());
+    }
+
+    public void testWriteDiscardsTree() throws Exception {
+        FakeConnection connection = new FakeConnection();
+        SiteCache cache = new SiteCache(connection);
+        assertNotNull(cache.getTrack("5"));
+        cache.apply(ITunesUDocument.buildDeleteTrack("5"), new ITunesUResponse());
+        assertFalse(cache.isLoaded());
+        assertNotNull(cache.getTrack("5"));
+        assertEquals(2, connection.loads.get());
+    }
+
+    public void testConnectionReturnsCopies() throws Exception {
+        FakeConnection connection = new FakeConnection();
+        connection.setSiteCache(new SiteCache(connection));
+        connection.getCourse("3").setName("Changed");
+        connection.getTracks("3").get(0).setName("Changed");
+        assertEquals("Biology", connection.getCourse("3").getName());
+        assertEquals("Week 1", connection.getTrack("5").getName());
+        assertEquals(1, connection.loads.get());
+    }
+
+    public void testLookupsShareLoadInProgress() throws Exception {
+        FakeConnection connection = new FakeConnection();
+        connection.block();
+        SiteCache cache = new SiteCache(connection);
+
+        LookupThread first = new LookupThread(cache);
+        first.start();
+        assertTrue(connection.started.await(10, TimeUnit.SECONDS));
+        LookupThread second = new LookupThread(cache);
+        second.start();
+        while (second.getState() != Thread.State.WAITING) {
+            Thread.sleep(10);
+        }
+
+        // The lock is free while the site loads.
+        assertFalse(cache.isLoaded());
+        assertEquals(0, cache.getHitCount());
+
+        connection.release.countDown();
+        first.join(10000);
+        second.join(10000);
+        assertEquals("Biology", first.course.getName());
+        assertEquals("Biology", second.course.getName());
+        assertEquals(1, connection.loads.get());
+    }
+
+    public void testWriteDuringLoadIsNotMasked() throws Exception {
+        FakeConnection connection = new FakeConnection();
+        connection.block();
+        SiteCache cache = new SiteCache(connection);
+
+        LookupThread lookup = new LookupThread(cache);
+        lookup.start();
+        assertTrue(connection.started.await(10, TimeUnit.SECONDS));
+        cache.apply(ITunesUDocument.buildDeleteTrack("5"), new ITunesUResponse());
+
+        connection.release.countDown();
+        lookup.join(10000);
+        assertNotNull(lookup.course);
+        // The load that predates the write is discarded and the site is
+        // loaded again.
+        assertEquals(2, connection.loads.get());
+        assertEquals(1, cache.getLoadCount());
+    }
+
+    private static class LookupThread extends Thread {
+        private final SiteCache cache;
+        volatile Course course;
+
+        LookupThread(SiteCache cache) {
+            this.cache = cache;
+        }
+
+        public void run() {
+            try {
+                this.course = this.cache.getCourse("3");
+            } catch (ITunesUException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private static class FakeConnection extends ITunesUConnection {
+        final AtomicInteger loads = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        private volatile boolean blocking;
+
+        FakeConnection() {
+            super(SITE_URL, null, "secret", new String[] { "Admin" });
+        }
+
+        void block() {
+            this.blocking = true;
+        }
+
+        public Site getSite() throws ITunesUException {
+            this.loads.incrementAndGet();
+            if (this.blocking) {
+                this.started.countDown();
+                try {
+                    this.release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new ITunesUException(e);
+                }
+            }
+            return Site.fromXml(SITE_XML);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package test.edu.asu.itunesu;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import edu.asu.itunesu.ITunesUConnection;
+import edu.asu.itunesu.ITunesUTransport;
+import edu.asu.itunesu.Site;
+import edu.asu.itunesu.SiteCache;
+import edu.asu.itunesu.SyncOperation;
+import edu.asu.itunesu.SyncPlan;
+import edu.asu.itunesu.SyncPlanner;
+
+public class SyncPlannerTest extends TestCase {
+    private static final String SITE_URL =
+        "https://itunesu.example/WebObjects/Core.woa/Browse/example.edu";
+
+    // The server's tree, with handles and the fields the server fills in.
+    private static final String SHOW_TREE_XML =
+        "<ITunesUResponse><Version>1.1</Version>"
+        + "<Site><Name>Example</Name><Handle>1</Handle>"
+        + "<Section><Name>Courses</Name><Handle>2</Handle>"
+        + "<Course><Name>Biology</Name><Handle>3</Handle><Identifier>BIO101</Identifier>"
+        + "<Permission><Credential>Instructor</Credential><Access>Edit</Access></Permission>"
+        + "<Permission><Credential>Student</Credential><Access>Download</Access></Permission>"
+        + "<Group><Name>Lectures</Name><Handle>4</Handle><GroupType>Simple</GroupType>"
+        + track("Week 1", "5", null)
+        + track("Week 2", "6", null)
+        + "</Group></Course>"
+        + "<Course><Name>Chemistry</Name><Handle>7</Handle><Identifier>CHM101</Identifier>"
+        + "<Group><Name>Lectures</Name><Handle>8</Handle><GroupType>Simple</GroupType>"
+        + track("Week 1", "9", null)
+        + "</Group></Course>"
+        + "</Section></Site></ITunesUResponse>";
+
+    public void testIdenticalTreeUnchanged() throws Exception {
+        SiteCache server = server();
+        Site desired = Site.fromXml(
+            "<Site><Name>Example</Name>"
+            + "<Section><Name>Courses</Name>"
+            + biology("<Permission><Credential>Instructor</Credential><Access>Edit</Access></Permission>"
+                      + "<Permission><Credential>Student</Credential><Access>Download</Access></Permission>",
+                      track("Week 1", null, null) + track("Week 2", null, null))
+            + chemistry()
+            + "</Section></Site>");
+
+        SyncPlan plan = new SyncPlanner().plan(desired, server.getSite());
+        assertTrue(plan.toString(), plan.isEmpty());
+        assertEquals(1, plan.getUnchangedCount());
+    }
+
+    public void testSecondPlanAfterApplyIsEmpty() throws Exception {
+        SiteCache server = server();
+        Site desired = Site.fromXml(
+            "<Site><Name>Example</Name>"
+            + "<Section><Name>Courses</Name>"
+            + biology("<Permission><Credential>Instructor</Credential><Access>Edit</Access></Permission>",
+                      track("Week 1", null, "Revised") + track("Week 3", null, null))
+            + chemistry()
+            + "</Section></Site>");
+
+        SyncPlan plan = new SyncPlanner().plan(desired, server.getSite());
+        assertEquals(1, plan.getCount(SyncOperation.TYPE_ADD));
+        assertEquals(1, plan.getCount(SyncOperation.TYPE_MERGE));
+        assertEquals(1, plan.getCount(SyncOperation.TYPE_DELETE));
+        assertEquals(1, plan.getCount(SyncOperation.TYPE_DELETE_PERMISSION));
+        assertEquals(1, plan.getUnchangedCount());
+
+        ITunesUConnection connection = connection();
+        connection.setSiteCache(server);
+        assertTrue(plan.apply(connection).isEmpty());
+        assertEquals(0, server.getWriteInvalidationCount());
+
+        SyncPlan second = new SyncPlanner().plan(desired, server.getSite());
+        assertTrue(second.toString(), second.isEmpty());
+        assertEquals(1, second.getUnchangedCount());
+    }
+
+    private static String track(String name, String handle, String comment) {
+        return "<Track><Name>" + name + "</Name>"
+            + (handle == null
+               ? ""
+               : "<Handle>" + handle + "</Handle><Kind>file</Kind>"
+                 + "<DurationMilliseconds>60000</DurationMilliseconds>"
+                 + "<DownloadURL>https://itunesu.example/" + handle + ".mp4</DownloadURL>")
+            + (comment == null ? "" : "<Comment>" + comment + "</Comment>")
+            + "</Track>";
+    }
+
+    private static String biology(String permissions, String tracks) {
+        return "<Course><Name>Biology</Name><Identifier>BIO101</Identifier>" + permissions
+            + "<Group><Name>Lectures</Name>" + tracks + "</Group></Course>";
+    }
+
+    private static String chemistry() {
+        return "<Course><Name>Chemistry</Name><Identifier>CHM101</Identifier>"
+            + "<Group><Name>Lectures</Name>" + track("Week 1", null, null) + "</Group></Course>";
+    }
+
+    /**
+     * A write-through cache over a fake server, standing in for the
+     * server's state as writes are applied.
+     */
+    private static SiteCache server() throws Exception {
+        SiteCache cache = new SiteCache(connection());
+        cache.setWriteThrough(true);
+        cache.getSite();
+        return cache;
+    }
+
+    private static ITunesUConnection connection() {
+        ITunesUConnection connection =
+            new ITunesUConnection(SITE_URL, null, "secret", new String[] { "Admin" });
+        connection.setTransport(new FakeTransport());
+        connection.setRetryPolicy(null);
+        return connection;
+    }
+
+    private static class FakeTransport implements ITunesUTransport {
+        private int handleCount = 100;
+
+        public synchronized <T> T post(String url,
+                                       String contentType,
+                                       long contentLength,
+                                       RequestBody body,
+                                       ResponseHandler<T> handler) throws IOException {
+            String response;
+            if (url.contains("/API/ShowTree/")) {
+                response = SHOW_TREE_XML;
+            } else {
+                response = "<ITunesUResponse><Version>1.1</Version>"
+                    + "<AddedObjectHandle>" + (++this.handleCount) + "</AddedObjectHandle>"
+                    + "</ITunesUResponse>";
+            }
+            return handler.handleResponse(new ByteArrayInputStream(response.getBytes("UTF-8")));
+        }
+    }
+}
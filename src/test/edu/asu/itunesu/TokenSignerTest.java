@@ -0,0 +1,108 @@
+package test.edu.asu.itunesu;
+
+import java.net.URLEncoder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import edu.asu.itunesu.CredentialSet;
+import edu.asu.itunesu.IdentityEncoder;
+import edu.asu.itunesu.TokenSigner;
+
+/**
+ * Expected values were produced by ITunesU.hmacSHA256 and
+ * ITunesU.getAuthorizationToken.
+ */
+public class TokenSignerTest extends TestCase {
+    private static final String CREDENTIALS =
+        "Administrator@urn:mace:itunesu.com:sites:example.edu;"
+        + "Instructor@urn:mace:itunesu.com:sites:example.edu";
+    private static final String IDENTITY =
+        "\"Jane \\\"JD\\\" Doe\" <jane@example.edu> (jdoe) [42]";
+
+    public void testRfc4231Vector() throws Exception {
+        byte[] key = new byte[20];
+        Arrays.fill(key, (byte) 0x0b);
+        assertEquals("b0344c61d8db38535ca8afceaf0bf12b881dc200c9833da726e9376c2e32cff7",
+                     new TokenSigner(key).sign("Hi There"));
+    }
+
+    public void testSignMatchesITunesU() throws Exception {
+        assertEquals("b613679a0814d9ec772f95d778c35fc5ff1697c493715653c6c712144292c5ad",
+                     TokenSigner.forSharedSecret("").sign(""));
+        assertEquals("cd1eb75567ca4689c149c3ba3039f2ced47d62ddf1fadce843f1841fb4863ff8",
+                     TokenSigner.forSharedSecret("STRINGOFSHAREDSECRETKEY").sign(""));
+        assertEquals("b53da57d5d36745ae343b5a29cf548383b3ee2b90b4beea8a093b2827ea14046",
+                     TokenSigner.forSharedSecret("0123456789012345678901234567890123456789012345678901234567890123").sign(""));
+        assertEquals("d35ade4115f98234bcba07a4fd629bccb461c9181d7f1628697bda6f67568893",
+                     TokenSigner.forSharedSecret("THIS-IS-A-KEY-LONGER-THAN-SIXTY-FOUR-BYTES-WHICH-IS-HASHED-FIRST-BY-RFC-2104").sign(""));
+    }
+
+    public void testAuthorizationTokenMatchesITunesU() throws Exception {
+        String expected = "credentials=Administrator%40urn%3Amace%3Aitunesu.com%3Asites%3Aexample.edu"
+            + "%3BInstructor%40urn%3Amace%3Aitunesu.com%3Asites%3Aexample.edu"
+            + "&identity=%22Jane+%5C%22JD%5C%22+Doe%22+%3Cjane%40example.edu%3E+%28jdoe%29+%5B42%5D"
+            + "&time=1200000000"
+            + "&signature=6d6738a381f8224edc2569637accdf8ce219ba3a839b1fb3b9a129c50898ae63";
+        TokenSigner signer = TokenSigner.forSharedSecret("STRINGOFSHAREDSECRETKEY");
+        assertEquals(expected, signer.getAuthorizationToken(CREDENTIALS, IDENTITY, new Date(1200000000000L)));
+        assertEquals(expected, signer.getAuthorizationToken(CREDENTIALS, IDENTITY, 1200000000L));
+    }
+
+    public void testCredentialSetAndIdentityEncoder() throws Exception {
+        TokenSigner signer = TokenSigner.forSharedSecret("STRINGOFSHAREDSECRETKEY");
+        CredentialSet credentials = new CredentialSet(new String[] {
+                "Administrator@urn:mace:itunesu.com:sites:example.edu",
+                "Instructor@urn:mace:itunesu.com:sites:example.edu"
+            });
+        assertEquals(CREDENTIALS, credentials.getCredentialsString());
+
+        IdentityEncoder identity = new IdentityEncoder();
+        identity.encode("Jane \"JD\" Doe", "jane@example.edu", "jdoe", "42");
+        assertEquals(URLEncoder.encode(IDENTITY, "UTF-8"), identity.toString());
+
+        String expected = signer.getAuthorizationToken(CREDENTIALS, IDENTITY, 1200000000L);
+        assertEquals(expected, signer.getAuthorizationToken(credentials, identity, 1200000000L));
+        assertEquals(expected, signer.getAuthorizationToken(credentials, identity.encode(IDENTITY), 1200000000L));
+
+        identity.encode(null, "a\\b>c", null, "[x]");
+        assertEquals(URLEncoder.encode("<a\\\\b\\>c> [[x\\]]", "UTF-8"), identity.toString());
+        assertEquals(0, identity.encode(null, null, null, null).getLength());
+
+        try {
+            new CredentialSet(new String[] { "Bad\\Credential" });
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    public void testConcurrentSigning() throws Exception {
+        final TokenSigner signer = TokenSigner.forSharedSecret("STRINGOFSHAREDSECRETKEY");
+        final String expected = signer.getAuthorizationToken(CREDENTIALS, IDENTITY, 1200000000L);
+        final List<String> failures = new ArrayList<String>();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < 1000; j++) {
+                        String token = signer.getAuthorizationToken(CREDENTIALS, IDENTITY, 1200000000L);
+                        if (!expected.equals(token)) {
+                            synchronized (failures) {
+                                failures.add(token);
+                            }
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(failures.toString(), failures.isEmpty());
+    }
+}
@@ -0,0 +1,235 @@
+package test.edu.asu.itunesu;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import edu.asu.itunesu.ITunesUConnection;
+import edu.asu.itunesu.ITunesUException;
+import edu.asu.itunesu.ITunesUTransport;
+import edu.asu.itunesu.UploadJournal;
+
+public class UploadJournalTest extends TestCase {
+    private List<File> files = new ArrayList<File>();
+
+    public void tearDown() {
+        for (File file : this.files) {
+            file.delete();
+        }
+    }
+
+    public void testResume() throws Exception {
+        File journalFile = this.tempFile();
+        File first = this.contentFile("first");
+        File second = this.contentFile("second\tfile");
+
+        FakeTransport transport = new FakeTransport();
+        ITunesUConnection connection = connection(transport);
+
+        UploadJournal journal = new UploadJournal(journalFile);
+        UploadJournal.Job firstJob = journal.add("123", first);
+        UploadJournal.Job secondJob = journal.add("123", second);
+        assertSame(firstJob, journal.add("123", first));
+        assertEquals("ok", journal.upload(connection, firstJob));
+        journal.markMerged(firstJob, "456");
+        journal.close();
+        assertEquals(1, transport.uploads);
+
+        journal = new UploadJournal(journalFile);
+        assertEquals(2, journal.getJobs().size());
+        assertEquals(UploadJournal.STATE_MERGED, journal.getJob(firstJob.getId()).getState());
+        assertEquals("456", journal.getJob(firstJob.getId()).getTrackHandle());
+        assertEquals(1, journal.getIncompleteJobs().size());
+        assertEquals(secondJob.getId(), journal.getIncompleteJobs().get(0).getId());
+
+        // Files already uploaded are not sent again.
+        UploadJournal.Job again = journal.add("123", first);
+        assertEquals(firstJob.getId(), again.getId());
+        assertEquals("ok", journal.upload(connection, again));
+        assertEquals(1, transport.uploads);
+
+        UploadJournal.Job resumed = journal.getIncompleteJobs().get(0);
+        assertEquals(second.getAbsoluteFile(), resumed.getFile());
+        journal.upload(connection, resumed);
+        assertEquals(UploadJournal.STATE_UPLOADED, resumed.getState());
+        assertEquals("https://upload.example/2", resumed.getUploadUrl());
+        assertEquals(2, transport.uploads);
+        journal.close();
+    }
+
+    public void testFailedUploadStaysIncomplete() throws Exception {
+        File journalFile = this.tempFile();
+        FakeTransport transport = new FakeTransport();
+        transport.failUploads = true;
+
+        UploadJournal journal = new UploadJournal(journalFile);
+        UploadJournal.Job job = journal.add("123", this.contentFile("content"));
+        try {
+            journal.upload(connection(transport), job);
+            fail();
+        } catch (ITunesUException e) {
+        }
+        assertEquals(UploadJournal.STATE_URL_ACQUIRED, job.getState());
+        journal.close();
+
+        journal = new UploadJournal(journalFile);
+        assertEquals(1, journal.getIncompleteJobs().size());
+        assertEquals("https://upload.example/1", journal.getJob(job.getId()).getUploadUrl());
+        journal.close();
+    }
+
+    public void testConcurrentUploadsOfOneJobShareIt() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        transport.uploadStarted = new CountDownLatch(1);
+        transport.releaseUpload = new CountDownLatch(1);
+        final ITunesUConnection connection = connection(transport);
+        final UploadJournal journal = new UploadJournal(this.tempFile());
+        final UploadJournal.Job job = journal.add("123", this.contentFile("content"));
+
+        final String[] results = new String[2];
+        Thread[] threads = new Thread[results.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        results[index] = journal.upload(connection, job);
+                    } catch (ITunesUException e) {
+                        results[index] = e.toString();
+                    }
+                }
+            };
+        }
+        threads[0].start();
+        assertTrue(transport.uploadStarted.await(10, TimeUnit.SECONDS));
+        threads[1].start();
+        while (threads[1].getState() == Thread.State.NEW
+               || threads[1].getState() == Thread.State.RUNNABLE) {
+            Thread.sleep(10);
+        }
+        transport.releaseUpload.countDown();
+        for (Thread thread : threads) {
+            thread.join(10000);
+        }
+        assertEquals("ok", results[0]);
+        assertEquals("ok", results[1]);
+        assertEquals(1, transport.uploads);
+        assertEquals(1, transport.urls);
+        journal.close();
+    }
+
+    public void testTornRecordDiscarded() throws Exception {
+        File journalFile = this.tempFile();
+        UploadJournal journal = new UploadJournal(journalFile);
+        journal.add("123", this.contentFile("content"));
+        journal.close();
+
+        OutputStream output = new FileOutputStream(journalFile, true);
+        output.write("2\tpend".getBytes("UTF-8"));
+        output.close();
+
+        journal = new UploadJournal(journalFile);
+        assertEquals(1, journal.getJobs().size());
+        UploadJournal.Job job = journal.add("123", this.contentFile("other"));
+        assertEquals(2, job.getId());
+        journal.close();
+
+        journal = new UploadJournal(journalFile);
+        assertEquals(2, journal.getJobs().size());
+        journal.close();
+    }
+
+    public void testCompact() throws Exception {
+        File journalFile = this.tempFile();
+        FakeTransport transport = new FakeTransport();
+        UploadJournal journal = new UploadJournal(journalFile);
+        UploadJournal.Job merged = journal.add("123", this.contentFile("merged"));
+        journal.upload(connection(transport), merged);
+        journal.markMerged(merged, "456");
+        UploadJournal.Job pending = journal.add("123", this.contentFile("pending"));
+        assertEquals(5, journal.getRecordCount());
+
+        journal.compact();
+        assertEquals(3, journal.getRecordCount());
+        journal.close();
+
+        journal = new UploadJournal(journalFile);
+        assertEquals(2, journal.getJobs().size());
+        assertEquals("ok", journal.getJob(merged.getId()).getResponse());
+        assertEquals("456", journal.getJob(merged.getId()).getTrackHandle());
+        assertEquals(UploadJournal.STATE_PENDING, journal.getJob(pending.getId()).getState());
+        journal.close();
+    }
+
+    private File tempFile() throws IOException {
+        File file = File.createTempFile("journal", ".log");
+        file.delete();
+        this.files.add(file);
+        return file;
+    }
+
+    private File contentFile(String name) throws IOException {
+        File file = File.createTempFile(name, ".bin");
+        this.files.add(file);
+        RandomAccessFile output = new RandomAccessFile(file, "rw");
+        output.write(name.getBytes("UTF-8"));
+        output.close();
+        return file;
+    }
+
+    private static ITunesUConnection connection(FakeTransport transport) {
+        ITunesUConnection connection =
+            new ITunesUConnection("https://itunesu.example/WebObjects/Core.woa/Browse/example.edu",
+                                  null, "secret", new String[] { "Administrator@urn:mace:example.edu" });
+        connection.setTransport(transport);
+        return connection;
+    }
+
+    /**
+     * Answers GetUploadURL with numbered URLs and uploads with "ok".
+     */
+    private static class FakeTransport implements ITunesUTransport {
+        int urls;
+        int uploads;
+        boolean failUploads;
+        CountDownLatch uploadStarted;
+        CountDownLatch releaseUpload;
+
+        public synchronized <T> T post(String url,
+                                       String contentType,
+                                       long contentLength,
+                                       RequestBody body,
+                                       ResponseHandler<T> handler)
+            throws IOException {
+
+            String response;
+            if (url.indexOf("/API/GetUploadURL/") >= 0) {
+                response = "https://upload.example/" + (++this.urls);
+            } else if (this.failUploads) {
+                throw new IOException("Upload failed");
+            } else {
+                if (this.uploadStarted != null) {
+                    this.uploadStarted.countDown();
+                    try {
+                        this.releaseUpload.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        throw new IOException(e.toString());
+                    }
+                }
+                this.uploads++;
+                response = "ok";
+            }
+            return handler.handleResponse(new ByteArrayInputStream(response.getBytes("UTF-8")));
+        }
+    }
+}
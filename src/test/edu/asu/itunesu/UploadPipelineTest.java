@@ -0,0 +1,159 @@
+package test.edu.asu.itunesu;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import edu.asu.itunesu.ITunesUConnection;
+import edu.asu.itunesu.ITunesUTransport;
+import edu.asu.itunesu.Track;
+import edu.asu.itunesu.UploadPipeline;
+
+public class UploadPipelineTest extends TestCase {
+    private static final String SITE_URL =
+        "https://itunesu.example/WebObjects/Core.woa/Browse/example.edu";
+
+    private static final String GROUP_HANDLE = "100";
+
+    // The upload of b.mp4 answers without a handle, so its track is found
+    // by name. The older track of the same name is listed first.
+    private static final String SHOW_TREE_XML =
+        "<ITunesUResponse><Version>1.1</Version><Site><Handle>1</Handle>"
+        + "<Section><Handle>2</Handle><Course><Handle>3</Handle>"
+        + "<Group><Handle>" + GROUP_HANDLE + "</Handle>"
+        + "<Track><Name>b</Name><Handle>600</Handle></Track>"
+        + "<Track><Name>a</Name><Handle>501</Handle></Track>"
+        + "<Track><Name>b</Name><Handle>602</Handle></Track>"
+        + "</Group></Course></Section></Site></ITunesUResponse>";
+
+    public void testMergesCombinedPerGroup() throws Exception {
+        List<File> files = new ArrayList<File>();
+        try {
+            FakeTransport transport = new FakeTransport();
+            transport.uploadResponses.put("first.mp4", "500");
+            transport.uploadResponses.put("a.mp4", "501");
+            transport.uploadResponses.put("b.mp4", "ok");
+            transport.uploadResponses.put("c.mp4", "503");
+            ITunesUConnection connection =
+                new ITunesUConnection(SITE_URL, null, "secret", new String[] { "Admin" });
+            connection.setTransport(transport);
+            connection.setRetryPolicy(null);
+
+            UploadPipeline pipeline = new UploadPipeline(connection, 3);
+            UploadPipeline.Entry first = pipeline.submit(GROUP_HANDLE, file(files, "first.mp4"), metadata("First"));
+
+            // Hold the first merge until the other uploads are waiting
+            // for the merge thread.
+            assertTrue(transport.firstMergeStarted.await(10, TimeUnit.SECONDS));
+            UploadPipeline.Entry a = pipeline.submit(GROUP_HANDLE, file(files, "a.mp4"), metadata("A"));
+            UploadPipeline.Entry b = pipeline.submit(GROUP_HANDLE, file(files, "b.mp4"), metadata("B"));
+            UploadPipeline.Entry c = pipeline.submit(GROUP_HANDLE, file(files, "c.mp4"), metadata("C"));
+            for (UploadPipeline.Entry entry : new UploadPipeline.Entry[] { a, b, c }) {
+                while (!UploadPipeline.STATUS_MERGING.equals(entry.getStatus())) {
+                    Thread.sleep(10);
+                }
+            }
+            Thread.sleep(100);
+            transport.releaseFirstMerge.countDown();
+
+            pipeline.close();
+            assertTrue(pipeline.awaitCompletion(10, TimeUnit.SECONDS));
+
+            assertEquals("500", first.getFuture().get());
+            assertEquals("501", a.getFuture().get());
+            assertEquals("602", b.getFuture().get());
+            assertEquals("503", c.getFuture().get());
+
+            assertEquals(2, transport.merges.size());
+            assertEquals(2, pipeline.getMergeRequestCount());
+            assertEquals(4, pipeline.getMergedCount());
+            String combined = transport.merges.get(1);
+            assertTrue(combined.contains("<MergeGroup>"));
+            assertTrue(combined.contains("<Handle>501</Handle>"));
+            assertTrue(combined.contains("<Handle>602</Handle>"));
+            assertTrue(combined.contains("<Handle>503</Handle>"));
+            assertFalse(combined.contains("<Handle>500</Handle>"));
+        } finally {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    private static File file(List<File> files, String name) throws IOException {
+        File dir = new File(System.getProperty("java.io.tmpdir"), "UploadPipelineTest");
+        dir.mkdirs();
+        File file = new File(dir, name);
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write(name.getBytes("UTF-8"));
+        } finally {
+            output.close();
+        }
+        files.add(file);
+        return file;
+    }
+
+    private static Track metadata(String comment) {
+        Track track = new Track();
+        track.setComment(comment);
+        return track;
+    }
+
+    private static class FakeTransport implements ITunesUTransport {
+        final Map<String, String> uploadResponses = new HashMap<String, String>();
+        final List<String> merges = new ArrayList<String>();
+        final CountDownLatch firstMergeStarted = new CountDownLatch(1);
+        final CountDownLatch releaseFirstMerge = new CountDownLatch(1);
+        private int urlCount;
+
+        public <T> T post(String url,
+                          String contentType,
+                          long contentLength,
+                          RequestBody body,
+                          ResponseHandler<T> handler) throws IOException {
+            String response;
+            if (url.contains("/API/GetUploadURL/")) {
+                synchronized (this) {
+                    response = "https://upload.example/" + (++this.urlCount);
+                }
+            } else if (url.contains("/API/ShowTree/")) {
+                response = SHOW_TREE_XML;
+            } else {
+                ByteArrayOutputStream output = new ByteArrayOutputStream();
+                body.writeTo(output);
+                String request = output.toString("UTF-8");
+                if (request.contains("<ITunesUDocument>")) {
+                    boolean first;
+                    synchronized (this) {
+                        this.merges.add(request);
+                        first = this.merges.size() == 1;
+                    }
+                    if (first) {
+                        this.firstMergeStarted.countDown();
+                        try {
+                            this.releaseFirstMerge.await(10, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            throw new IOException(e.toString());
+                        }
+                    }
+                    response = "<ITunesUResponse><Version>1.1</Version></ITunesUResponse>";
+                } else {
+                    int start = request.indexOf("filename=\"") + 10;
+                    response = this.uploadResponses.get(request.substring(start, request.indexOf('"', start)));
+                }
+            }
+            return handler.handleResponse(new ByteArrayInputStream(response.getBytes("UTF-8")));
+        }
+    }
+}
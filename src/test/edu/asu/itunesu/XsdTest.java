@@ -1,14 +1,27 @@
 package test.edu.asu.itunesu;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.StringReader;
+import java.io.StringWriter;
 
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Source;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 import javax.xml.validation.Schema;
 import javax.xml.validation.SchemaFactory;
 import javax.xml.validation.Validator;
 
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
 import junit.framework.TestCase;
@@ -220,6 +233,46 @@ public class XsdTest extends TestCase {
         this.responseValidator.validate(buildSource(resp.toXml()));
     }
 
+    public void testResponseStreamMatchesDom() throws Exception {
+        Site site = sampleSite();
+        site.getSections().get(0).getSectionItems().add(sampleDivision());
+        String xml = new ITunesUResponse("1.1", "error", "123456", site).toXml();
+        ITunesUResponse fromDom = ITunesUResponse.fromXml(xml);
+        ITunesUResponse fromStream =
+            ITunesUResponse.fromStream(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+        assertEquals(fromDom.toXml(), fromStream.toXml());
+        assertEquals(xml, fromStream.toXml());
+    }
+
+    public void testStreamingWriterMatchesDom() throws Exception {
+        Site site = sampleSite();
+        site.setThemeHandle("");
+        site.setName("a & <b> \"c\" \u00e9\r\n\td");
+        ITunesUDocument doc = ITunesUDocument.buildMergeSite("123456", site, true, false);
+        assertEquals(transform(doc.toXmlDocument()), doc.toXml(true));
+        assertEquals(site.toXml(), transform(site.toXmlElement(doc.toXmlDocument())));
+
+        String compact = doc.toXml(false);
+        assertEquals(-1, compact.indexOf(">\n"));
+        this.requestValidator.validate(buildSource(compact));
+        DocumentBuilder builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+        Document parsed = builder.parse(new InputSource(new StringReader(compact)));
+        assertEquals(doc.toXml(true), transform(parsed));
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        doc.writeXml(output, false);
+        assertEquals(compact, output.toString("UTF-8"));
+    }
+
+    private static String transform(Node node) throws Exception {
+        Transformer trans = TransformerFactory.newInstance().newTransformer();
+        trans.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+        trans.setOutputProperty(OutputKeys.INDENT, "yes");
+        StringWriter writer = new StringWriter();
+        trans.transform(new DOMSource(node), new StreamResult(writer));
+        return writer.toString();
+    }
+
     private static Course sampleCourse() {
         Course course = new Course();
         course.setName("course name");